@@ -1,16 +1,12 @@
 package dk.tbsalling.ais.tracker;
 
 import com.google.common.collect.ImmutableSortedMap;
-import com.google.common.collect.Maps;
 import dk.tbsalling.aismessages.ais.messages.*;
 import dk.tbsalling.aismessages.ais.messages.types.ShipType;
 import dk.tbsalling.aismessages.ais.messages.types.TransponderClass;
 
 import javax.annotation.concurrent.Immutable;
 import java.time.Instant;
-import java.util.Comparator;
-import java.util.function.Predicate;
-import java.util.stream.Collectors;
 
 import static java.util.Objects.requireNonNull;
 
@@ -22,63 +18,63 @@ import static java.util.Objects.requireNonNull;
 public final class AISTrack {
 
     AISTrack(StaticDataReport staticDataReport, Instant timeOfStaticUpdate) {
-        requireNonNull(staticDataReport);
-        requireNonNull(timeOfStaticUpdate);
-        validateArgs(staticDataReport, null, null, timeOfStaticUpdate, null, null);
-
-        this.staticDataReport = staticDataReport;
-        this.dynamicDataReport = null;
-        this.aidToNavigationReport = null;
-        this.timeOfStaticUpdate = timeOfStaticUpdate;
-        this.timeOfDynamicUpdate = null;
-        this.timeOfAtonUpdate = null;
-        this.dynamicDataHistory = null;
-
-        validateState();
+        this(null, requireNonNull(staticDataReport), null, null, requireNonNull(timeOfStaticUpdate), null, null, DynamicDataHistory.EMPTY, true);
     }
 
     AISTrack(DynamicDataReport dynamicDataReport, Instant timeOfDynamicUpdate) {
-        requireNonNull(dynamicDataReport);
-        requireNonNull(timeOfDynamicUpdate);
-        validateArgs(null, dynamicDataReport, null, null, timeOfDynamicUpdate, null);
-
-        this.staticDataReport = null;
-        this.dynamicDataReport = dynamicDataReport;
-        this.aidToNavigationReport = null;
-        this.timeOfStaticUpdate = null;
-        this.timeOfDynamicUpdate = timeOfDynamicUpdate;
-        this.timeOfAtonUpdate = null;
-        this.dynamicDataHistory = null;
-
-        validateState();
+        this(null, null, requireNonNull(dynamicDataReport), null, null, requireNonNull(timeOfDynamicUpdate), null, DynamicDataHistory.EMPTY, true);
     }
 
     AISTrack(AidToNavigationReport aidToNavigationReport, Instant timeOfAtonUpdate) {
-        requireNonNull(aidToNavigationReport);
-        requireNonNull(timeOfAtonUpdate);
-        validateArgs(null, null, aidToNavigationReport, null, null, timeOfAtonUpdate);
+        this(null, null, null, requireNonNull(aidToNavigationReport), null, null, requireNonNull(timeOfAtonUpdate), DynamicDataHistory.EMPTY, true);
+    }
 
-        this.staticDataReport = null;
-        this.dynamicDataReport = null;
-        this.aidToNavigationReport = aidToNavigationReport;
-        this.timeOfStaticUpdate = null;
-        this.timeOfDynamicUpdate = null;
-        this.timeOfAtonUpdate = timeOfAtonUpdate;
-        this.dynamicDataHistory = null;
+    AISTrack(StaticDataReport staticDataReport, DynamicDataReport dynamicDataReport, Instant timeOfStaticUpdate, Instant timeOfDynamicUpdate) {
+        this(null, staticDataReport, dynamicDataReport, null, timeOfStaticUpdate, timeOfDynamicUpdate, null, DynamicDataHistory.EMPTY, true);
+    }
 
-        validateState();
+    /**
+     * Create an AisTrack with all of its state given; e.g. when restoring a checkpoint.
+     */
+    AISTrack(StaticDataReport staticDataReport, DynamicDataReport dynamicDataReport, AidToNavigationReport aidToNavigationReport, Instant timeOfStaticUpdate, Instant timeOfDynamicUpdate, Instant timeOfAtonUpdate, TrackHistory dynamicDataHistory) {
+        this(null, staticDataReport, dynamicDataReport, aidToNavigationReport, timeOfStaticUpdate, timeOfDynamicUpdate, timeOfAtonUpdate, requireNonNull(dynamicDataHistory), true);
     }
 
-    AISTrack(StaticDataReport staticDataReport, DynamicDataReport dynamicDataReport, Instant timeOfStaticUpdate, Instant timeOfDynamicUpdate) {
-        validateArgs(staticDataReport, dynamicDataReport, null, timeOfStaticUpdate, timeOfDynamicUpdate, null);
+    /**
+     * Create a compact AisTrack, which retains no reports, with all of its state given as flattened values;
+     * e.g. when restoring a checkpoint. Absent values are given as -1 and NaN respectively.
+     */
+    AISTrack(long mmsi, TransponderClass transponderClass, String callsign, String shipName, ShipType shipType,
+             int toBow, int toStern, int toStarboard, int toPort,
+             float latitude, float longitude, float speedOverGround, float courseOverGround,
+             int trueHeading, int secondOfDynamicUpdate, int secondOfAtonUpdate,
+             Instant timeOfStaticUpdate, Instant timeOfDynamicUpdate, Instant timeOfAtonUpdate, TrackHistory dynamicDataHistory) {
+        requireNonNull(dynamicDataHistory);
 
-        this.staticDataReport = staticDataReport;
-        this.dynamicDataReport = dynamicDataReport;
+        this.staticDataReport = null;
+        this.dynamicDataReport = null;
         this.aidToNavigationReport = null;
         this.timeOfStaticUpdate = timeOfStaticUpdate;
         this.timeOfDynamicUpdate = timeOfDynamicUpdate;
-        this.timeOfAtonUpdate = null;
-        this.dynamicDataHistory = null;
+        this.timeOfAtonUpdate = timeOfAtonUpdate;
+        this.dynamicDataHistory = dynamicDataHistory;
+
+        this.mmsi = mmsi;
+        this.transponderClass = transponderClass;
+        this.callsign = STRINGS.intern(callsign);
+        this.shipName = STRINGS.intern(shipName);
+        this.shipType = shipType;
+        this.toBow = (short) toBow;
+        this.toStern = (short) toStern;
+        this.toStarboard = (short) toStarboard;
+        this.toPort = (short) toPort;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.speedOverGround = speedOverGround;
+        this.courseOverGround = courseOverGround;
+        this.trueHeading = (short) trueHeading;
+        this.secondOfDynamicUpdate = (byte) secondOfDynamicUpdate;
+        this.secondOfAtonUpdate = (byte) secondOfAtonUpdate;
 
         validateState();
     }
@@ -87,127 +83,171 @@ public final class AISTrack {
      * Create a new AisTrack using another track to build history.
      */
     AISTrack(AISTrack oldTrack, StaticDataReport staticDataReport, Instant timeOfStaticUpdate) {
-        requireNonNull(staticDataReport);
-        requireNonNull(timeOfStaticUpdate);
-        validateArgs(staticDataReport, null,null, timeOfStaticUpdate, null, null);
-
-        this.staticDataReport = staticDataReport;
-        this.dynamicDataReport = oldTrack.getDynamicDataReport();
-        this.aidToNavigationReport = oldTrack.getAidToNavigationReport();
-        this.timeOfStaticUpdate = timeOfStaticUpdate;
-        this.timeOfDynamicUpdate = oldTrack.getTimeOfDynamicUpdate();
-        this.timeOfAtonUpdate = oldTrack.getTimeOfAtonUpdate();
-        validateState();
+        this(oldTrack, staticDataReport, timeOfStaticUpdate, true);
+    }
 
-        dynamicDataHistory = oldTrack.dynamicDataHistory;
+    /**
+     * Create a new AisTrack using another track to build history; the new track retains its reports only if
+     * retainReports is set.
+     */
+    AISTrack(AISTrack oldTrack, StaticDataReport staticDataReport, Instant timeOfStaticUpdate, boolean retainReports) {
+        this(requireNonNull(oldTrack), requireNonNull(staticDataReport), null, null, requireNonNull(timeOfStaticUpdate), null, null, oldTrack.dynamicDataHistory, retainReports);
     }
 
     /**
      * Create a new AisTrack using another track to build history.
      */
     AISTrack(AISTrack oldTrack, DynamicDataReport dynamicDataReport, Instant timeOfDynamicUpdate) {
-        requireNonNull(dynamicDataReport);
-        requireNonNull(timeOfDynamicUpdate);
-        validateArgs(null, dynamicDataReport, null, null, timeOfDynamicUpdate, null);
-
-        this.staticDataReport = oldTrack.getStaticDataReport();
-        this.dynamicDataReport = dynamicDataReport;
-        this.aidToNavigationReport = oldTrack.getAidToNavigationReport();
-        this.timeOfStaticUpdate = oldTrack.getTimeOfStaticUpdate();
-        this.timeOfDynamicUpdate = timeOfDynamicUpdate;
-        this.timeOfAtonUpdate = oldTrack.getTimeOfAtonUpdate();
-        this.dynamicDataHistory = copyDynamicHistory(oldTrack);
+        this(oldTrack, dynamicDataReport, timeOfDynamicUpdate, true);
+    }
 
-        validateState();
+    /**
+     * Create a new AisTrack using another track to build history; the new track retains its reports only if
+     * retainReports is set.
+     */
+    AISTrack(AISTrack oldTrack, DynamicDataReport dynamicDataReport, Instant timeOfDynamicUpdate, boolean retainReports) {
+        this(oldTrack, null, requireNonNull(dynamicDataReport), null, null, timeOfDynamicUpdate, null, copyDynamicHistory(oldTrack, requireNonNull(timeOfDynamicUpdate)), retainReports);
     }
 
     /**
-     * Create a new AisTrack using another track to build history.
+     * Extend the history of the old track with its current dynamic data - unless it is superseded by a new
+     * report with the same timestamp. The old track's history is shared - not copied.
      */
-    AISTrack(AISTrack oldTrack, StaticDataReport staticDataReport, DynamicDataReport dynamicDataReport, Instant timeOfStaticUpdate, Instant timeOfDynamicUpdate) {
-        validateArgs(staticDataReport, dynamicDataReport, null, timeOfStaticUpdate, timeOfDynamicUpdate, null);
+    private static TrackHistory copyDynamicHistory(AISTrack oldTrack, Instant timeOfDynamicUpdate) {
+        if (oldTrack.timeOfDynamicUpdate == null || timeOfDynamicUpdate == null || !oldTrack.timeOfDynamicUpdate.isBefore(timeOfDynamicUpdate))
+            return oldTrack.dynamicDataHistory;
+        else if (oldTrack.dynamicDataReport != null)
+            return oldTrack.dynamicDataHistory.append(oldTrack.timeOfDynamicUpdate, oldTrack.dynamicDataReport);
+        else
+            return oldTrack.dynamicDataHistory.append(oldTrack.timeOfDynamicUpdate, oldTrack.latitude, oldTrack.longitude, oldTrack.speedOverGround, oldTrack.courseOverGround,
+                oldTrack.trueHeading != NOT_AVAILABLE ? oldTrack.trueHeading : HistoryCursor.HEADING_NOT_AVAILABLE);
+    }
 
-        this.staticDataReport = staticDataReport;
-        this.dynamicDataReport = dynamicDataReport;
-        this.aidToNavigationReport = oldTrack.getAidToNavigationReport();
-        this.timeOfStaticUpdate = timeOfStaticUpdate;
-        this.timeOfDynamicUpdate = timeOfDynamicUpdate;
-        this.timeOfAtonUpdate = oldTrack.getTimeOfAtonUpdate();
-        this.dynamicDataHistory = copyDynamicHistory(oldTrack);
+    /** Copy constructor with support for pruning of history older than the given instant */
+    AISTrack(AISTrack originalTrack, Instant oldestInstantToKeep) {
+        this(originalTrack, originalTrack.dynamicDataHistory.trimBefore(oldestInstantToKeep));
+    }
 
-        validateState();
+    /** Copy constructor replacing the dynamic history */
+    AISTrack(AISTrack originalTrack, TrackHistory dynamicDataHistory) {
+        this(originalTrack, dynamicDataHistory, originalTrack.retainsReports());
     }
 
-    private ImmutableSortedMap<Instant, DynamicDataReport> copyDynamicHistory(AISTrack oldTrack) {
-        ImmutableSortedMap<Instant, DynamicDataReport> dynamicHistory = null;
+    /** Copy constructor replacing the dynamic history; the copy retains the reports of the original only if retainReports is set */
+    AISTrack(AISTrack originalTrack, TrackHistory dynamicDataHistory, boolean retainReports) {
+        this(requireNonNull(originalTrack), null, null, null, null, null, null, requireNonNull(dynamicDataHistory), retainReports);
+    }
 
-        if (oldTrack.timeOfDynamicUpdate != null && oldTrack.dynamicDataReport != null) {
-            dynamicHistory = new ImmutableSortedMap.Builder<Instant, DynamicDataReport>(Comparator.<Instant>naturalOrder())
-                .putAll(oldTrack.dynamicDataHistory == null ? Maps.newTreeMap() : oldTrack.dynamicDataHistory)
-                .put(oldTrack.timeOfDynamicUpdate, oldTrack.dynamicDataReport)
-                .build();
+    /**
+     * Create a track from the given reports and - for the parts not given - from a base track. The values
+     * exposed by the getters are resolved here and copied into fields, so that the reports need only be
+     * retained if retainReports is set. The base track's flattened values are reused as they are, since a
+     * part given by the base is only ever superseded by a new report of the same part.
+     */
+    private AISTrack(AISTrack base, StaticDataReport staticDataReport, DynamicDataReport dynamicDataReport, AidToNavigationReport aidToNavigationReport,
+                     Instant timeOfStaticUpdate, Instant timeOfDynamicUpdate, Instant timeOfAtonUpdate, TrackHistory dynamicDataHistory, boolean retainReports) {
+        if ((staticDataReport == null) != (timeOfStaticUpdate == null))
+            throw new IllegalArgumentException("timeOfStaticUpdate must be provided if and only if staticDataReport is");
+        if ((dynamicDataReport == null) != (timeOfDynamicUpdate == null))
+            throw new IllegalArgumentException("timeOfDynamicUpdate must be provided if and only if dynamicDataReport is");
+        if ((aidToNavigationReport == null) != (timeOfAtonUpdate == null))
+            throw new IllegalArgumentException("timeOfAtonUpdate must be provided if and only if aidToNavigationReport is");
+
+        this.timeOfStaticUpdate = staticDataReport != null ? timeOfStaticUpdate : base != null ? base.timeOfStaticUpdate : null;
+        this.timeOfDynamicUpdate = dynamicDataReport != null ? timeOfDynamicUpdate : base != null ? base.timeOfDynamicUpdate : null;
+        this.timeOfAtonUpdate = aidToNavigationReport != null ? timeOfAtonUpdate : base != null ? base.timeOfAtonUpdate : null;
+        this.staticDataReport = !retainReports ? null : staticDataReport != null ? staticDataReport : base != null ? base.staticDataReport : null;
+        this.dynamicDataReport = !retainReports ? null : dynamicDataReport != null ? dynamicDataReport : base != null ? base.dynamicDataReport : null;
+        this.aidToNavigationReport = !retainReports ? null : aidToNavigationReport != null ? aidToNavigationReport : base != null ? base.aidToNavigationReport : null;
+        this.dynamicDataHistory = dynamicDataHistory;
+
+        long mmsi = base != null ? base.mmsi : -1;
+        mmsi = mmsiOf(mmsi, aidToNavigationReport);
+        mmsi = mmsiOf(mmsi, staticDataReport);
+        mmsi = mmsiOf(mmsi, dynamicDataReport);
+        this.mmsi = mmsi;
+
+        // Transponder class: dynamic, then static
+        final TransponderClass staticClass = staticDataReport != null ? staticDataReport.getTransponderClass() : base != null && base.timeOfStaticUpdate != null ? base.transponderClass : null;
+        final TransponderClass dynamicClass = dynamicDataReport != null ? dynamicDataReport.getTransponderClass() : base != null && base.timeOfDynamicUpdate != null ? base.transponderClass : null;
+        if (staticClass != null && dynamicClass != null && staticClass != dynamicClass)
+            throw new IllegalArgumentException("staticDataReport is from transponder class " + staticClass + ", dynamicDataReport is from transponder class " + dynamicClass + ". They must be the same.");
+        this.transponderClass = this.timeOfDynamicUpdate != null ? dynamicClass : staticClass;
+
+        // Names and ship type: static. The names are interned, since every static report decodes copies of its own
+        if (staticDataReport != null) {
+            this.callsign = STRINGS.intern(staticDataReport.getCallsign());
+            this.shipName = STRINGS.intern(staticDataReport.getShipName());
+            this.shipType = staticDataReport.getShipType();
+        } else if (base != null) {
+            this.callsign = base.callsign;
+            this.shipName = base.shipName;
+            this.shipType = base.shipType;
+        } else {
+            this.callsign = null;
+            this.shipName = null;
+            this.shipType = null;
         }
 
-        return dynamicHistory;
-    }
-
-    /** Copy constructor with support for pruning */
-    AISTrack(AISTrack originalTrack, Predicate<Instant> keepInstantPredicate) {
-        this.staticDataReport = originalTrack.staticDataReport;
-        this.dynamicDataReport = originalTrack.dynamicDataReport;
-        this.aidToNavigationReport = originalTrack.aidToNavigationReport;
-
-        dynamicDataHistory = new ImmutableSortedMap.Builder<Instant, DynamicDataReport>(Comparator.<Instant>naturalOrder())
-            .putAll(
-                originalTrack.dynamicDataHistory.entrySet().stream()
-                .filter(entry -> keepInstantPredicate.test(entry.getKey()))
-                .collect(Collectors.toMap(e -> e.getKey(), e -> e.getValue()))
-            )
-            .build();
-
-        this.timeOfStaticUpdate = originalTrack.timeOfStaticUpdate;
-        this.timeOfDynamicUpdate = dynamicDataHistory.lastKey();
-        this.timeOfAtonUpdate = originalTrack.timeOfAtonUpdate;
-    }
-
-    private void validateArgs(StaticDataReport staticDataReport, DynamicDataReport dynamicDataReport, AidToNavigationReport aidToNavigationReport, Instant timeOfStaticUpdate, Instant timeOfDynamicUpdate, Instant timeOfAtonUpdate) {
-        final long mmsiStatic = staticDataReport != null ? ((AISMessage) staticDataReport).getSourceMmsi().getMmsi() : -1;
-        final long mmsiDynamic = dynamicDataReport != null ? ((AISMessage) dynamicDataReport).getSourceMmsi().getMmsi() : -1;
-        final long mmsiAton = aidToNavigationReport != null ? ((AISMessage) aidToNavigationReport).getSourceMmsi().getMmsi() : -1;
-        if (mmsiStatic == -1 && mmsiDynamic == -1 && mmsiAton == -1)
-            throw new IllegalArgumentException();
-        if (mmsiStatic != -1 && mmsiDynamic != -1 && mmsiStatic != mmsiDynamic)
-            throw new IllegalArgumentException("Provided constructor arguments must have same MMSI, not " + mmsiStatic + " and " + mmsiDynamic);
-        if (staticDataReport != null && dynamicDataReport != null && !staticDataReport.getTransponderClass().equals(dynamicDataReport.getTransponderClass())) {
-            throw new IllegalArgumentException("staticDataReport is from transponder class " + staticDataReport.getTransponderClass() + ", dynamicDataReport is from transponder class " + dynamicDataReport.getTransponderClass() + ". They must be the same.");
+        // Dimensions: static, then aid to navigation
+        if (staticDataReport != null) {
+            this.toBow = (short) staticDataReport.getToBow();
+            this.toStern = (short) staticDataReport.getToStern();
+            this.toStarboard = (short) staticDataReport.getToStarboard();
+            this.toPort = (short) staticDataReport.getToPort();
+        } else if (aidToNavigationReport != null && this.timeOfStaticUpdate == null) {
+            this.toBow = (short) aidToNavigationReport.getToBow();
+            this.toStern = (short) aidToNavigationReport.getToStern();
+            this.toStarboard = (short) aidToNavigationReport.getToStarboard();
+            this.toPort = (short) aidToNavigationReport.getToPort();
+        } else {
+            this.toBow = base != null ? base.toBow : NOT_AVAILABLE;
+            this.toStern = base != null ? base.toStern : NOT_AVAILABLE;
+            this.toStarboard = base != null ? base.toStarboard : NOT_AVAILABLE;
+            this.toPort = base != null ? base.toPort : NOT_AVAILABLE;
         }
 
-        final Instant timeOfLastUpdate = getTimeOfLastUpdate();
-        if (timeOfLastUpdate != null) {
-            if (timeOfStaticUpdate != null && !timeOfStaticUpdate.isAfter(timeOfLastUpdate))
-                throw new IllegalArgumentException("Constructor arg timeOfStaticUpdate (" + timeOfStaticUpdate + ") must be after time of last update (" + timeOfLastUpdate + ")");
-            if (timeOfDynamicUpdate != null && !timeOfDynamicUpdate.isAfter(timeOfLastUpdate))
-                throw new IllegalArgumentException("Constructor arg timeOfDynamicUpdate (" + timeOfDynamicUpdate + ") must be after time of last update (" + timeOfLastUpdate + ")");
-            if (timeOfAtonUpdate != null && !timeOfAtonUpdate.isAfter(timeOfLastUpdate))
-                throw new IllegalArgumentException("Constructor arg timeOfAtonUpdate (" + timeOfAtonUpdate + ") must be after time of last update (" + timeOfLastUpdate + ")");
+        // Position: dynamic, then aid to navigation. Speed, course and heading: dynamic
+        if (dynamicDataReport != null) {
+            this.latitude = dynamicDataReport.getLatitude();
+            this.longitude = dynamicDataReport.getLongitude();
+            this.speedOverGround = dynamicDataReport.getSpeedOverGround();
+            this.courseOverGround = dynamicDataReport.getCourseOverGround();
+            final ExtendedDynamicDataReport extendedReport = dynamicDataReport instanceof ExtendedDynamicDataReport e ? e : null;
+            this.trueHeading = extendedReport != null ? (short) extendedReport.getTrueHeading() : NOT_AVAILABLE;
+            this.secondOfDynamicUpdate = extendedReport != null ? (byte) extendedReport.getSecond() : NOT_AVAILABLE;
+        } else if (aidToNavigationReport != null && this.timeOfDynamicUpdate == null) {
+            this.latitude = aidToNavigationReport.getLatitude();
+            this.longitude = aidToNavigationReport.getLongitude();
+            this.speedOverGround = Float.NaN;
+            this.courseOverGround = Float.NaN;
+            this.trueHeading = NOT_AVAILABLE;
+            this.secondOfDynamicUpdate = NOT_AVAILABLE;
+        } else {
+            this.latitude = base != null ? base.latitude : Float.NaN;
+            this.longitude = base != null ? base.longitude : Float.NaN;
+            this.speedOverGround = base != null ? base.speedOverGround : Float.NaN;
+            this.courseOverGround = base != null ? base.courseOverGround : Float.NaN;
+            this.trueHeading = base != null ? base.trueHeading : NOT_AVAILABLE;
+            this.secondOfDynamicUpdate = base != null ? base.secondOfDynamicUpdate : NOT_AVAILABLE;
         }
+        this.secondOfAtonUpdate = aidToNavigationReport != null ? (byte) aidToNavigationReport.getSecond() : base != null ? base.secondOfAtonUpdate : NOT_AVAILABLE;
+
+        validateState();
+    }
+
+    private static long mmsiOf(long mmsi, Object report) {
+        if (report == null)
+            return mmsi;
+        final long reportMmsi = ((AISMessage) report).getSourceMmsi().getMmsi();
+        if (mmsi != -1 && mmsi != reportMmsi)
+            throw new IllegalArgumentException("Provided constructor arguments must have same MMSI, not " + mmsi + " and " + reportMmsi);
+        return reportMmsi;
     }
 
     private void validateState() {
-        if (staticDataReport == null && dynamicDataReport == null && aidToNavigationReport == null)
+        if (timeOfStaticUpdate == null && timeOfDynamicUpdate == null && timeOfAtonUpdate == null)
             throw new IllegalArgumentException("A StaticDataReport or BasicDynamicDataReport or AidToNavigationReport must be provided");
-        if (staticDataReport != null && timeOfStaticUpdate == null)
-            throw new IllegalArgumentException("timeOfStaticUpdate cannot be null when staticDataReport is not");
-        if (dynamicDataReport != null && timeOfDynamicUpdate == null)
-            throw new IllegalArgumentException("timeOfDynamicUpdate cannot be null when dynamicDataReport is not");
-        if (aidToNavigationReport != null && timeOfAtonUpdate == null)
-            throw new IllegalArgumentException("timeOfAtonUpdate cannot be null when aidToNavigationReport is not");
-        if (timeOfStaticUpdate != null && staticDataReport == null)
-            throw new IllegalArgumentException("timeOfStaticUpdate cannot be provided when staticDataReport is not");
-        if (timeOfDynamicUpdate != null && dynamicDataReport == null)
-            throw new IllegalArgumentException("timeOfDynamicUpdate cannot be provided when dynamicDataReport is not");
-        if (timeOfAtonUpdate != null && aidToNavigationReport == null)
-            throw new IllegalArgumentException("timeOfAtonUpdate cannot be provided when aidToNavigationReport is not");
         if (getMmsi() <= 0) // TODO http://en.wikipedia.org/wiki/Maritime_Mobile_Service_Identity
             throw new IllegalArgumentException("MMSI " + getMmsi() + " is invalid.");
     }
@@ -244,13 +284,11 @@ public final class AISTrack {
     }
 
     public long getMmsi() {
-        return dynamicDataReport != null ? ((AISMessage) dynamicDataReport).getSourceMmsi().getMmsi() :
-                staticDataReport != null ? ((AISMessage) staticDataReport).getSourceMmsi().getMmsi() :
-                        ((AISMessage) aidToNavigationReport).getSourceMmsi().getMmsi();
+        return mmsi;
     }
 
     public TransponderClass getTransponderClass() {
-        return dynamicDataReport != null ? dynamicDataReport.getTransponderClass() : staticDataReport != null ? staticDataReport.getTransponderClass() : null;
+        return transponderClass;
     }
 
     public Instant getTimeOfLastUpdate() {
@@ -285,94 +323,137 @@ public final class AISTrack {
         return timeOfAtonUpdate;
     }
 
+    /**
+     * Return the latest static data report of this track; or null if none - or if the track does not retain its reports (see TrackMode).
+     * When a report is received with the same content as the current one, the tracker keeps the current one; so the time of reception
+     * of the returned report may be before getTimeOfStaticUpdate().
+     */
     public StaticDataReport getStaticDataReport() {
         return staticDataReport;
     }
 
+    /** Return the latest dynamic data report of this track; or null if none - or if the track does not retain its reports (see TrackMode). */
     public DynamicDataReport getDynamicDataReport() {
         return dynamicDataReport;
     }
 
+    /** Return the latest aid to navigation report of this track; or null if none - or if the track does not retain its reports (see TrackMode). */
     public AidToNavigationReport getAidToNavigationReport() {
         return aidToNavigationReport;
     }
 
     public String getCallsign() {
-        return staticDataReport != null ? staticDataReport.getCallsign() : null;
+        return callsign;
     }
 
     public String getShipName() {
-        return staticDataReport != null ? staticDataReport.getShipName() : null;
+        return shipName;
     }
 
     public ShipType getShipType()  {
-        return staticDataReport != null ? staticDataReport.getShipType() : null;
+        return shipType;
     }
 
     public Integer getToBow()  {
-        return staticDataReport != null ? staticDataReport.getToBow() : aidToNavigationReport != null ? aidToNavigationReport.getToBow() : null;
+        return toBow != NOT_AVAILABLE ? (int) toBow : null;
     }
 
     public Integer getToStern()  {
-        return staticDataReport != null ? staticDataReport.getToStern() : aidToNavigationReport != null ? aidToNavigationReport.getToStern() : null;
+        return toStern != NOT_AVAILABLE ? (int) toStern : null;
     }
 
     public Integer getToStarboard()  {
-        return staticDataReport != null ? staticDataReport.getToStarboard() : aidToNavigationReport != null ? aidToNavigationReport.getToStarboard() : null;
+        return toStarboard != NOT_AVAILABLE ? (int) toStarboard : null;
     }
 
     public Integer getToPort()  {
-        return staticDataReport != null ? staticDataReport.getToPort() : aidToNavigationReport != null ? aidToNavigationReport.getToPort() : null;
+        return toPort != NOT_AVAILABLE ? (int) toPort : null;
     }
 
     public Float getLatitude()  {
-        if (dynamicDataReport != null) {
-            return dynamicDataReport.getLatitude();
-        } else if (aidToNavigationReport != null) {
-            return aidToNavigationReport.getLatitude();
-        } else {
-            return null;
-        }
+        return Float.isNaN(latitude) ? null : latitude;
     }
 
     public Float getLongitude()  {
-        if (dynamicDataReport != null) {
-            return dynamicDataReport.getLongitude();
-        } else if (aidToNavigationReport != null) {
-            return aidToNavigationReport.getLongitude();
-        } else {
-            return null;
-        }
+        return Float.isNaN(longitude) ? null : longitude;
     }
 
     public Float getSpeedOverGround()  {
-        if (dynamicDataReport != null) {
-            return dynamicDataReport.getSpeedOverGround();
-        } else {
-            return null;
-        }
+        return Float.isNaN(speedOverGround) ? null : speedOverGround;
     }
 
     public Float getCourseOverGround()  {
-        if (dynamicDataReport != null) {
-            return dynamicDataReport.getCourseOverGround();
-        } else {
-            return null;
-        }
+        return Float.isNaN(courseOverGround) ? null : courseOverGround;
     }
 
     public Integer getTrueHeading()  {
-        return dynamicDataReport instanceof ExtendedDynamicDataReport ? ((ExtendedDynamicDataReport) dynamicDataReport).getTrueHeading() : null;
+        return trueHeading != NOT_AVAILABLE ? (int) trueHeading : null;
     }
 
     public Integer getSecond()  {
-        return dynamicDataReport instanceof ExtendedDynamicDataReport ? ((ExtendedDynamicDataReport) dynamicDataReport).getSecond() :
-                aidToNavigationReport != null ? aidToNavigationReport.getSecond() : null;
+        return secondOfDynamicUpdate != NOT_AVAILABLE ? Integer.valueOf(secondOfDynamicUpdate) :
+                secondOfAtonUpdate != NOT_AVAILABLE ? Integer.valueOf(secondOfAtonUpdate) : null;
+    }
+
+    /*
+     * Return true if this track has a static data report with the same content as the given one; i.e. a report of the same type with the same bits.
+     * Only the current report is compared, so the alternating parts A and B of Class B static data reports (type 24) are never duplicates.
+     */
+    boolean hasStaticDataOf(StaticDataReport staticDataReport) {
+        if (this.staticDataReport == null || this.staticDataReport.getClass() != staticDataReport.getClass())
+            return false;
+        final Metadata metadata = ((AISMessage) this.staticDataReport).getMetadata(), otherMetadata = ((AISMessage) staticDataReport).getMetadata();
+        return metadata != null && otherMetadata != null && metadata.bitString() != null && metadata.bitString().equals(otherMetadata.bitString());
+    }
+
+    /* Return true if this track retains the reports it was built from; false if it is compact (see TrackMode). */
+    boolean retainsReports() {
+        return staticDataReport != null || dynamicDataReport != null || aidToNavigationReport != null;
     }
 
-    /* Return an immutable and sorted map of this track's dynamic history. */
+    /* Return the second of the latest extended dynamic data report; or -1 if none. */
+    int secondOfDynamicUpdate() {
+        return secondOfDynamicUpdate;
+    }
+
+    /* Return the second of the latest aid to navigation report; or -1 if none. */
+    int secondOfAtonUpdate() {
+        return secondOfAtonUpdate;
+    }
+
+    /**
+     * Return an immutable and sorted map of this track's dynamic history. The map is built on first request.
+     * @throws UnsupportedOperationException if the tracker does not retain the reports of the history (see HistoryMode).
+     */
     public ImmutableSortedMap<Instant, DynamicDataReport> getDynamicDataHistory() {
-        return dynamicDataHistory == null ? ImmutableSortedMap.copyOf(Maps.newTreeMap()) : dynamicDataHistory;
+        ImmutableSortedMap<Instant, DynamicDataReport> dynamicDataHistoryMap = this.dynamicDataHistoryMap;
+        if (dynamicDataHistoryMap == null) {
+            dynamicDataHistoryMap = dynamicDataHistory.toSortedMap();
+            this.dynamicDataHistoryMap = dynamicDataHistoryMap;
+        }
+        return dynamicDataHistoryMap;
+    }
+
+    /* Return a cursor over this track's complete dynamic history. */
+    public HistoryCursor getDynamicDataHistoryCursor() {
+        return dynamicDataHistory.cursor(Instant.MIN, Instant.MAX);
+    }
+
+    /* Return a cursor over the entries of this track's dynamic history which are at or after 'from' and before 'to'. */
+    public HistoryCursor getDynamicDataHistoryCursor(Instant from, Instant to) {
+        requireNonNull(from);
+        requireNonNull(to);
+        return dynamicDataHistory.cursor(from, to);
+    }
+
+    /* Return the no. of entries in this track's dynamic history. */
+    public int getDynamicDataHistorySize() {
+        return dynamicDataHistory.size();
+    }
+
+    /* Return the persistent representation of this track's dynamic history. */
+    TrackHistory dynamicDataHistory() {
+        return dynamicDataHistory;
     }
 
     private final StaticDataReport staticDataReport;
@@ -382,6 +463,32 @@ public final class AISTrack {
     private final Instant timeOfDynamicUpdate;
     private final Instant timeOfAtonUpdate;
 
+    /* Values exposed by the getters, flattened from the reports when the track is built; -1 and NaN when absent */
+    private final long mmsi;
+    private final TransponderClass transponderClass;
+    private final String callsign;
+    private final String shipName;
+    private final ShipType shipType;
+    private final short toBow;
+    private final short toStern;
+    private final short toStarboard;
+    private final short toPort;
+    private final float latitude;
+    private final float longitude;
+    private final float speedOverGround;
+    private final float courseOverGround;
+    private final short trueHeading;
+    private final byte secondOfDynamicUpdate;
+    private final byte secondOfAtonUpdate;
+
+    private static final byte NOT_AVAILABLE = -1;
+
+    /* Pool of the names of tracks */
+    private static final StringPool STRINGS = new StringPool(1 << 14);
+
     /* Dynamic history of the track excluding the most recent, current value */
-    private final ImmutableSortedMap<Instant, DynamicDataReport> dynamicDataHistory;
+    private final TrackHistory dynamicDataHistory;
+
+    /* Lazily built map view of dynamicDataHistory; racy but safe to publish since the map is immutable */
+    private ImmutableSortedMap<Instant, DynamicDataReport> dynamicDataHistoryMap;
 }
@@ -17,27 +17,34 @@
 package dk.tbsalling.ais.tracker;
 
 import com.google.common.collect.ImmutableSet;
-import com.google.common.collect.Maps;
-import com.google.common.eventbus.AsyncEventBus;
-import com.google.common.eventbus.EventBus;
 import dk.tbsalling.ais.tracker.events.*;
 import dk.tbsalling.aismessages.AISInputStreamReader;
 import dk.tbsalling.aismessages.ais.messages.*;
 
-import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.NotThreadSafe;
 import javax.annotation.concurrent.ThreadSafe;
 import java.io.IOException;
 import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.time.Clock;
 import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
-import java.util.concurrent.locks.ReentrantLock;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.Predicate;
 import java.util.function.Supplier;
 
@@ -52,6 +59,9 @@ import static java.util.Objects.requireNonNull;
  * If a certain track has not received any updates for a while it enters status 'stale' and will receive
  * no further updates. Instead a new track is created if more AISMessages are received from the same vessel
  * later on.
+ *
+ * Tracks are partitioned into a number of shards by their MMSI no. Each shard is independently locked,
+ * so that a tracker with several shards can be updated concurrently from several threads.
  */
 @ThreadSafe
 public class AISTracker implements TrackEventEmitter {
@@ -62,16 +72,236 @@ public class AISTracker implements TrackEventEmitter {
      * Construct an AISTracker which processes all received AISMessages.
      */
     public AISTracker() {
-        messageFilter = msg -> true;
-        shutdown = false;
+        this(builder());
     }
 
     /*
      * Construct on AISTracker which processes only messages satisfying the messageFilter.
      */
     public AISTracker(Predicate<AISMessage> messageFilter) {
-        this.messageFilter = messageFilter;
-        shutdown = false;
+        this(builder().messageFilter(messageFilter));
+    }
+
+    /*
+     * Construct on AISTracker which processes only messages satisfying the messageFilter,
+     * and which partitions its tracks into the given no. of independently locked shards.
+     *
+     * A single shard gives a strict ordering of all updates across all vessels. More shards
+     * allow updates for different vessels to proceed in parallel; the wallclock, stale check
+     * and pruning are then maintained per shard.
+     */
+    public AISTracker(Predicate<AISMessage> messageFilter, int numberOfShards) {
+        this(builder().messageFilter(messageFilter).numberOfShards(numberOfShards));
+    }
+
+    /*
+     * Construct on AISTracker which processes only messages satisfying the messageFilter,
+     * which partitions its tracks into the given no. of independently locked shards, and
+     * which stores the dynamic history of its tracks as specified by historyMode.
+     */
+    public AISTracker(Predicate<AISMessage> messageFilter, int numberOfShards, HistoryMode historyMode) {
+        this(builder().messageFilter(messageFilter).numberOfShards(numberOfShards).historyMode(historyMode));
+    }
+
+    private AISTracker(Builder builder) {
+        this.messageFilter = builder.messageFilter;
+        this.historyMode = builder.historyMode;
+        this.trackMode = builder.trackMode;
+        this.retainReports = builder.trackMode == TrackMode.REPORTS;
+        this.emptyHistory = builder.historyMode.emptyHistory(builder.historyMaxPoints);
+        this.dynamicDataHistoryMaxAge = builder.historyMaxAge;
+        this.pruningMode = builder.pruningMode;
+        this.pruneCheckPeriod = builder.pruneCheckPeriod;
+        this.STALE_PERIOD = builder.stalePeriod;
+        this.STALE_CHECK_PERIOD = builder.staleCheckPeriod;
+        this.taskExecutor = builder.taskExecutor != null ? builder.taskExecutor : Executors.newSingleThreadExecutor();
+        this.wallclockEventIntervalMillis = builder.wallclockEventInterval == null ? 0 : builder.wallclockEventInterval.toMillis();
+        this.eventDispatcher = builder.eventDispatcher != null ? builder.eventDispatcher : new EventBusDispatcher(builder.eventExecutor != null ? builder.eventExecutor : Executors.newCachedThreadPool());
+        this.shards = new TrackShard[builder.numberOfShards];
+        for (int i = 0; i < builder.numberOfShards; i++)
+            this.shards[i] = new TrackShard(i);
+        this.aisTracks = new TrackSetView(this.shards);
+        this.reorderBuffer = builder.reorderWindow == null ? null : new ReorderBuffer(builder.reorderWindow);
+        this.journal = builder.journal;
+        this.shutdown = false;
+    }
+
+    /** Return a builder for an AISTracker; unless otherwise configured the builder gives the same tracker as new AISTracker(). */
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * Builder of AISTrackers. All settings are optional and default to the values used by the constructors.
+     *
+     * The tracker takes ownership of any executors and event dispatcher given to the builder, and shuts them down
+     * when the tracker is shut down. The task executor runs stale checks and - in sweep mode - pruning of history; the event
+     * executor delivers events to subscribers. Both may e.g. be obtained from Executors.newVirtualThreadPerTaskExecutor().
+     */
+    @NotThreadSafe
+    public static final class Builder {
+
+        private Builder() {
+        }
+
+        /** Process only messages satisfying the messageFilter. Default: all messages. */
+        public Builder messageFilter(Predicate<AISMessage> messageFilter) {
+            this.messageFilter = requireNonNull(messageFilter);
+            return this;
+        }
+
+        /** Partition the tracks into the given no. of independently locked shards. Default: 1. */
+        public Builder numberOfShards(int numberOfShards) {
+            if (numberOfShards < 1)
+                throw new IllegalArgumentException("numberOfShards must be positive, not " + numberOfShards);
+            this.numberOfShards = numberOfShards;
+            return this;
+        }
+
+        /** Store the dynamic history of tracks as specified by historyMode; HistoryMode.NONE turns history off. Default: REPORTS. */
+        public Builder historyMode(HistoryMode historyMode) {
+            this.historyMode = requireNonNull(historyMode);
+            return this;
+        }
+
+        /**
+         * Keep the reports of tracks as specified by trackMode; TrackMode.COMPACT keeps only the values exposed by
+         * the tracks' getters, and requires a history mode other than HistoryMode.REPORTS and PAYLOADS, which grow
+         * history from reports. Default: REPORTS.
+         */
+        public Builder trackMode(TrackMode trackMode) {
+            this.trackMode = requireNonNull(trackMode);
+            return this;
+        }
+
+        /** Keep dynamic history of each track for this duration on the wallclock. Default: 6 hours. */
+        public Builder historyMaxAge(Duration historyMaxAge) {
+            this.historyMaxAge = requirePositive(historyMaxAge, "historyMaxAge");
+            return this;
+        }
+
+        /** Keep at most this no. of entries in the dynamic history of each track. Default: no limit. */
+        public Builder historyMaxPoints(int historyMaxPoints) {
+            if (historyMaxPoints < 1)
+                throw new IllegalArgumentException("historyMaxPoints must be positive, not " + historyMaxPoints);
+            this.historyMaxPoints = historyMaxPoints;
+            return this;
+        }
+
+        /** Prune expired history in this way. Default: PruningMode.INCREMENTAL. */
+        public Builder pruningMode(PruningMode pruningMode) {
+            this.pruningMode = requireNonNull(pruningMode);
+            return this;
+        }
+
+        /** Time on the wallclock between pruning of expired history. Default: 5 minutes. */
+        public Builder pruneCheckPeriod(Duration pruneCheckPeriod) {
+            this.pruneCheckPeriod = requirePositive(pruneCheckPeriod, "pruneCheckPeriod");
+            return this;
+        }
+
+        /** Tracks not updated within this duration on the wallclock are considered stale and removed. Default: 30 minutes. */
+        public Builder stalePeriod(Duration stalePeriod) {
+            this.stalePeriod = requirePositive(stalePeriod, "stalePeriod");
+            return this;
+        }
+
+        /** Time on the wallclock between checks for stale tracks. Default: 1 minute. */
+        public Builder staleCheckPeriod(Duration staleCheckPeriod) {
+            this.staleCheckPeriod = requirePositive(staleCheckPeriod, "staleCheckPeriod");
+            return this;
+        }
+
+        /**
+         * Tolerate messages which arrive out of order by up to this duration. Messages are then held back in a
+         * reorder buffer for the duration, and given to the tracks in timestamp order. Messages which arrive
+         * later than this are dropped and counted, instead of causing an IllegalArgumentException.
+         * Default: no reorder buffer.
+         */
+        public Builder reorderWindow(Duration reorderWindow) {
+            requireNonNull(reorderWindow);
+            if (reorderWindow.isNegative())
+                throw new IllegalArgumentException("reorderWindow cannot be negative: " + reorderWindow);
+            this.reorderWindow = reorderWindow;
+            return this;
+        }
+
+        /**
+         * Append each accepted message to a journal, from which the updates made after the last checkpoint can
+         * be recovered by recover(Path). The journal is not closed by the tracker. Default: no journal.
+         */
+        public Builder journal(Journal journal) {
+            this.journal = requireNonNull(journal);
+            return this;
+        }
+
+        /**
+         * Post a WallclockChangedEvent at most once per this interval on the wallclock; i.e. when the wallclock enters
+         * a new interval counted from the epoch - e.g. each whole second for Duration.ofSeconds(1). The interval must
+         * be at least a millisecond. Default: an event for every update, or batch of updates.
+         */
+        public Builder wallclockEventInterval(Duration wallclockEventInterval) {
+            requirePositive(wallclockEventInterval, "wallclockEventInterval");
+            if (wallclockEventInterval.toMillis() < 1)
+                throw new IllegalArgumentException("wallclockEventInterval must be at least 1 ms, not " + wallclockEventInterval);
+            this.wallclockEventInterval = wallclockEventInterval;
+            return this;
+        }
+
+        /** Run stale checks and history sweeps on this executor. Default: a single thread executor. */
+        public Builder taskExecutor(ExecutorService taskExecutor) {
+            this.taskExecutor = requireNonNull(taskExecutor);
+            return this;
+        }
+
+        /** Deliver events to subscribers on this executor. Default: a cached thread pool. */
+        public Builder eventExecutor(ExecutorService eventExecutor) {
+            this.eventExecutor = requireNonNull(eventExecutor);
+            return this;
+        }
+
+        /**
+         * Deliver events to subscribers by this dispatcher; e.g. a RingBufferEventDispatcher, which bounds the no. of
+         * events waiting for delivery and allocates nothing per event, or a QueueingEventDispatcher, which gives each
+         * subscriber a bounded queue with an overflow policy. Cannot be combined with an event executor.
+         * Default: a Guava AsyncEventBus on the event executor.
+         */
+        public Builder eventDispatcher(EventDispatcher eventDispatcher) {
+            this.eventDispatcher = requireNonNull(eventDispatcher);
+            return this;
+        }
+
+        public AISTracker build() {
+            if (trackMode == TrackMode.COMPACT && (historyMode == HistoryMode.REPORTS || historyMode == HistoryMode.PAYLOADS))
+                throw new IllegalArgumentException("TrackMode.COMPACT cannot be combined with HistoryMode." + historyMode + ", which grows history from reports.");
+            if (eventDispatcher != null && eventExecutor != null)
+                throw new IllegalArgumentException("An event executor cannot be combined with an event dispatcher, which delivers events by its own threads.");
+            return new AISTracker(this);
+        }
+
+        private static Duration requirePositive(Duration duration, String name) {
+            requireNonNull(duration);
+            if (duration.isNegative() || duration.isZero())
+                throw new IllegalArgumentException(name + " must be positive, not " + duration);
+            return duration;
+        }
+
+        private Predicate<AISMessage> messageFilter = msg -> true;
+        private int numberOfShards = 1;
+        private HistoryMode historyMode = HistoryMode.REPORTS;
+        private TrackMode trackMode = TrackMode.REPORTS;
+        private Duration historyMaxAge = Duration.ofHours(6);
+        private int historyMaxPoints = Integer.MAX_VALUE;
+        private PruningMode pruningMode = PruningMode.INCREMENTAL;
+        private Duration pruneCheckPeriod = Duration.ofMinutes(5);
+        private Duration stalePeriod = Duration.ofMinutes(30);
+        private Duration staleCheckPeriod = Duration.ofMinutes(1);
+        private Duration reorderWindow;
+        private Duration wallclockEventInterval;
+        private Journal journal;
+        private ExecutorService taskExecutor;
+        private ExecutorService eventExecutor;
+        private EventDispatcher eventDispatcher;
     }
 
     /*
@@ -93,33 +323,115 @@ public class AISTracker implements TrackEventEmitter {
      * @param aisMessage the AIS message.
      */
     public void update(AISMessage aisMessage) {
-        if (threadSafeGet(() -> shutdown))
+        if (shutdown)
             throw new IllegalStateException("Tracker has been requested to shutdown.");
 
         requireNonNull(aisMessage);
 
-        Metadata metadata = aisMessage.getMetadata();
-        Instant messageTimestamp = metadata == null ? now(Clock.systemUTC()) : metadata.received();
-
         if (messageFilter.test(aisMessage))
-            updateAisTrack(aisMessage, messageTimestamp);
+            updateOrBuffer(aisMessage, timestampOf(aisMessage));
     }
 
     /**
      * Update the tracker with a new AIS message.
      *
+     * If the tracker has a reorder window, the message is held back until the window has passed it,
+     * and it is dropped if it is too late to be put in order. Otherwise the message is applied at once,
+     * and an IllegalArgumentException is thrown if it is older than the current data of the tracker.
+     *
      * @param aisMessage the AIS message.
      * @param messageTimestamp the time this AIS message was received.
      */
     public void update(AISMessage aisMessage, Instant messageTimestamp) {
-        if (threadSafeGet(() -> shutdown))
+        if (shutdown)
             throw new IllegalStateException("Tracker has been requested to shutdown.");
 
         requireNonNull(aisMessage);
         requireNonNull(messageTimestamp);
 
         if (messageFilter.test(aisMessage))
-            updateAisTrack(aisMessage, messageTimestamp);
+            updateOrBuffer(aisMessage, messageTimestamp);
+    }
+
+    /**
+     * Update the tracker with a batch of AIS messages.
+     *
+     * The messages are applied in the order given, and timestamped as by update(AISMessage). The lock of each
+     * shard is acquired once for the whole batch, the wallclock is advanced once, and events are posted after
+     * the batch has been applied. A message which cannot be applied - e.g. because its timestamp is too old -
+     * is skipped and counted by getNumberOfRejectedMessages(), rather than failing the rest of the batch. If the
+     * journal fails, the rest of the batch is not applied; the events of the messages applied before are posted.
+     *
+     * @param aisMessages the AIS messages.
+     */
+    public void update(Collection<AISMessage> aisMessages) {
+        requireNonNull(aisMessages);
+        update(aisMessages.iterator(), Math.max(1, aisMessages.size()));
+    }
+
+    /**
+     * Update the tracker with the AIS messages of an iterator, in batches as described for update(Collection).
+     *
+     * @param aisMessages the AIS messages.
+     * @param batchSize the max no. of messages in each batch.
+     */
+    public void update(Iterator<AISMessage> aisMessages, int batchSize) {
+        if (shutdown)
+            throw new IllegalStateException("Tracker has been requested to shutdown.");
+
+        requireNonNull(aisMessages);
+        if (batchSize < 1)
+            throw new IllegalArgumentException("batchSize must be positive, not " + batchSize);
+
+        final AISMessage[] batch = new AISMessage[batchSize];
+        final Instant[] messageTimestamps = new Instant[batchSize];
+        while (aisMessages.hasNext()) {
+            int size = 0;
+            while (size < batchSize && aisMessages.hasNext()) {
+                final AISMessage aisMessage = requireNonNull(aisMessages.next());
+                if (messageFilter.test(aisMessage)) {
+                    batch[size] = aisMessage;
+                    messageTimestamps[size] = timestampOf(aisMessage);
+                    size++;
+                }
+            }
+            updateOrBuffer(batch, messageTimestamps, size);
+            Arrays.fill(batch, 0, size, null);
+        }
+    }
+
+    /**
+     * Apply all messages held back in the reorder buffer to the tracks, without waiting for the reorder window
+     * to pass them. Use e.g. when the end of the input has been reached.
+     */
+    public void flush() {
+        if (reorderBuffer != null)
+            reorderBuffer.flush(this::updateAisTrackInOrder);
+    }
+
+    /* Return the no. of messages dropped because they arrived too late to be put in order; always 0 with no reorder window. */
+    public long getNumberOfLateMessages() {
+        return reorderBuffer == null ? 0 : reorderBuffer.getNumberOfLateMessages();
+    }
+
+    /* Return the no. of messages skipped in batches, or released from the reorder buffer, because the tracks rejected them. */
+    public long getNumberOfRejectedMessages() {
+        return numberOfRejectedMessages.sum();
+    }
+
+    /*
+     * Return the no. of static data reports which had the same content as the current one of their track, which was kept instead.
+     * Only tracks which retain their reports are deduplicated, and only against their current report - so Class B vessels, which
+     * alternate between parts A and B of their static data report (type 24), are not; keeping the other part to compare with
+     * would retain a second report per vessel.
+     */
+    public long getNumberOfDuplicateStaticReports() {
+        return numberOfDuplicateStaticReports.sum();
+    }
+
+    /* Return the no. of messages currently held back in the reorder buffer. */
+    public int getNumberOfBufferedMessages() {
+        return reorderBuffer == null ? 0 : reorderBuffer.size();
     }
 
     /**
@@ -128,7 +440,7 @@ public class AISTracker implements TrackEventEmitter {
      * @return true if the vessel is currently tracked, false if not.
      */
     public boolean isTracked(long mmsi) {
-        return threadSafeGet(() -> tracks.containsKey(mmsi));
+        return shardOf(mmsi).tracks.containsKey(mmsi);
     }
 
     /**
@@ -136,7 +448,10 @@ public class AISTracker implements TrackEventEmitter {
      * @return the no of tracks.
      */
     public int getNumberOfAisTracks() {
-        return threadSafeGet(() -> tracks.size());
+        int numberOfAisTracks = 0;
+        for (TrackShard shard : shards)
+            numberOfAisTracks += shard.tracks.size();
+        return numberOfAisTracks;
     }
 
     /**
@@ -145,168 +460,597 @@ public class AISTracker implements TrackEventEmitter {
      * @return The tracked AisTrack or null if no such track is currently tracked.
      */
     public AISTrack getAisTrack(long mmsi) {
-        return threadSafeGet(() -> tracks.get(mmsi));
+        return shardOf(mmsi).tracks.get(mmsi);
     }
 
     /**
-     * Extract an immutable copy of all tracks currently tracked.
-     * @return An immutable set of all tracks currently tracked.
+     * Obtain an unmodifiable view of all tracks currently tracked.
+     *
+     * The view is obtained in constant time and without blocking the tracker. It is weakly consistent: It
+     * always reflects the tracks currently tracked, and iteration never throws ConcurrentModificationException,
+     * but tracks created or deleted during an iteration may or may not be visited. Each visited track is itself
+     * immutable. Use ImmutableSet.copyOf(getAisTracks()) if a frozen copy is needed.
+     *
+     * @return An unmodifiable set of all tracks currently tracked.
      */
     public Set<AISTrack> getAisTracks() {
-        return threadSafeGet(() -> ImmutableSet.copyOf(tracks.values()));
+        return aisTracks;
+    }
+
+    /**
+     * Find the tracks whose latest position is inside a bounding box.
+     *
+     * Tracks are found through a spatial index of their positions, so the cost is proportional to the no. of
+     * tracks found rather than to the no. of tracks tracked. The search does not block the tracker, and like
+     * getAisTracks() it is weakly consistent with updates made during the search.
+     *
+     * @param boundingBox the area to search.
+     * @return An immutable set of the tracks inside the box; tracks without a valid position are never included.
+     */
+    public Set<AISTrack> getAisTracksWithin(BoundingBox boundingBox) {
+        requireNonNull(boundingBox);
+        return findAisTracks(boundingBox, track -> boundingBox.contains(track.getLatitude(), track.getLongitude()));
+    }
+
+    /**
+     * Find the tracks whose latest position is within a given great-circle distance of a center point.
+     *
+     * @param latitude the latitude of the center in degrees.
+     * @param longitude the longitude of the center in degrees.
+     * @param radiusMeters the max distance in meters.
+     * @return An immutable set of the tracks within the distance; tracks without a valid position are never included.
+     * @see #getAisTracksWithin(BoundingBox)
+     */
+    public Set<AISTrack> getAisTracksWithinRadius(double latitude, double longitude, double radiusMeters) {
+        final BoundingBox boundingBox = BoundingBox.around(latitude, longitude, radiusMeters);
+        return findAisTracks(boundingBox, track -> GreatCircle.distance(latitude, longitude, track.getLatitude(), track.getLongitude()) <= radiusMeters);
+    }
+
+    /**
+     * Find the tracks nearest to a given position.
+     *
+     * @param latitude the latitude of the position in degrees.
+     * @param longitude the longitude of the position in degrees.
+     * @param k the max no. of tracks to find.
+     * @return The k tracks nearest to the position by great-circle distance, nearest first; fewer if fewer tracks have a valid position.
+     * @see #getNearestAisTracks(double, double, int, Predicate)
+     */
+    public List<AISTrack> getNearestAisTracks(double latitude, double longitude, int k) {
+        return getNearestAisTracks(latitude, longitude, k, track -> true);
+    }
+
+    /**
+     * Find the tracks nearest to a given position, which satisfy a predicate - e.g. tracks of a given transponder class
+     * or ship type.
+     *
+     * Tracks are found by a best-first search through the spatial index of their positions, nearest first, and the
+     * predicate is applied during the search; so the cost is proportional to the no. of tracks nearer than the k'th
+     * nearest track satisfying the predicate. The search does not block the tracker, and like getAisTracks() it is
+     * weakly consistent with updates made during the search.
+     *
+     * @param latitude the latitude of the position in degrees.
+     * @param longitude the longitude of the position in degrees.
+     * @param k the max no. of tracks to find.
+     * @param predicate the predicate which the tracks must satisfy.
+     * @return The k tracks nearest to the position by great-circle distance which satisfy the predicate, nearest first;
+     * fewer if fewer such tracks have a valid position.
+     */
+    public List<AISTrack> getNearestAisTracks(double latitude, double longitude, int k, Predicate<? super AISTrack> predicate) {
+        requireNonNull(predicate);
+        return new NearestTrackSearch(shards, latitude, longitude, k, predicate).search();
+    }
+
+    private Set<AISTrack> findAisTracks(BoundingBox boundingBox, Predicate<AISTrack> predicate) {
+        // Keyed by MMSI no. as a track being moved may be seen in both its old and new cell
+        final Map<Long, AISTrack> found = new HashMap<>();
+        for (TrackShard shard : shards) {
+            shard.spatialIndex.forEachCandidate(boundingBox, mmsi -> {
+                AISTrack track = shard.tracks.get(mmsi);
+                if (track != null && SpatialIndex.isValidPosition(track.getLatitude(), track.getLongitude()) && predicate.test(track))
+                    found.put(mmsi, track);
+            });
+        }
+        return ImmutableSet.copyOf(found.values());
     }
 
     /* Return the value of the current wallclock. */
     public Instant getWallclock() {
-        return threadSafeGet(() -> wallclock);
+        return wallclock.get();
     }
 
-    /* Return the instant when track history pruning was last performed. */
+    /* Return the instant when track history pruning was last performed on all shards. */
     public Instant getTimeOfLastPruning() {
-        return threadSafeGet(() -> timeOfLastPruning);
+        Instant timeOfLastPruning = null;
+        for (TrackShard shard : shards) {
+            Instant shardTimeOfLastPruning = threadSafeGet(shard, () -> shard.timeOfLastPruning);
+            if (timeOfLastPruning == null || shardTimeOfLastPruning.isBefore(timeOfLastPruning))
+                timeOfLastPruning = shardTimeOfLastPruning;
+        }
+        return timeOfLastPruning;
     }
 
-    public boolean isShutdown() {
-        return threadSafeGet(() -> shutdown);
+    /* Return how this tracker stores the dynamic history of its tracks. */
+    public HistoryMode getHistoryMode() {
+        return historyMode;
     }
 
-    /** Shut down the tracker */
-    public void shutdown() {
-        lock.lock();
+    /* Return what this tracker keeps of the reports which update its tracks. */
+    public TrackMode getTrackMode() {
+        return trackMode;
+    }
+
+    /* Return the no. of shards, that this tracker partitions its tracks into. */
+    public int getNumberOfShards() {
+        return shards.length;
+    }
+
+    /**
+     * Write a checkpoint of all tracks to a file, from which they can later be restored by restore(Path).
+     *
+     * The tracks are copied one shard at a time while holding that shard's lock, and written while not holding
+     * any locks; so the tracker is blocked only momentarily, and can be updated while the checkpoint is written.
+     * Each shard is captured consistently together with its wallclock, but different shards may be captured at
+     * slightly different times.
+     * Messages held back by the reorder window are not included. The file is written to a temporary file next
+     * to it, which replaces it when complete.
+     *
+     * @param path the file to write.
+     * @throws IOException if the checkpoint cannot be written.
+     */
+    public void checkpoint(Path path) throws IOException {
+        requireNonNull(path);
+        // Messages journaled before this position have been applied to the tracks before they are copied
+        final long journalPosition = journal != null ? journal.getPosition() : 0;
+        final Instant[] shardWallclocks = new Instant[shards.length];
+        try (TrackCheckpoint.Writer writer = new TrackCheckpoint.Writer(path)) {
+            for (TrackShard shard : shards) {
+                final AISTrack[] tracks;
+                shard.lock.lock();
+                try {
+                    tracks = shard.tracks.toArray();
+                    shardWallclocks[shard.index] = shard.wallclock;
+                } finally {
+                    shard.lock.unlock();
+                }
+                for (AISTrack track : tracks)
+                    writer.write(track);
+            }
+            writer.finish(shardWallclocks);
+        }
+        if (journal != null)
+            journal.markCheckpoint(journalPosition);
+    }
+
+    /**
+     * Recover the state of the tracker after a restart: Restore the checkpoint written by checkpoint(Path), if it
+     * exists, and replay the messages of the journal which were accepted after the checkpoint was taken.
+     *
+     * The journal is replayed in batches without going through an AISInputStreamReader, and the replayed messages
+     * are not journaled again. Messages are journaled before they are applied, so messages which were rejected by
+     * their tracks are rejected again; and messages which were both in the checkpoint and journaled after it are
+     * rejected as too old, or re-applied with no effect. This must be called before the tracker is otherwise updated.
+     *
+     * @param checkpoint the checkpoint file; need not exist.
+     * @return the no. of messages replayed from the journal.
+     * @throws IOException if the checkpoint or journal cannot be read.
+     * @throws IllegalStateException if this tracker already has tracks.
+     */
+    public long recover(Path checkpoint) throws IOException {
+        requireNonNull(checkpoint);
+        if (Files.exists(checkpoint))
+            restore(checkpoint);
+        if (journal == null)
+            return 0;
+
+        recovering = true;
         try {
-            shutdown = true;
+            final AISMessage[] batch = new AISMessage[RECOVERY_BATCH_SIZE];
+            final Instant[] timestamps = new Instant[RECOVERY_BATCH_SIZE];
+            final int[] size = { 0 };
+            final long numberOfMessages = journal.replay(aisMessage -> {
+                batch[size[0]] = aisMessage;
+                timestamps[size[0]] = aisMessage.getMetadata().received();
+                if (++size[0] == RECOVERY_BATCH_SIZE) {
+                    updateOrBuffer(batch, timestamps, size[0]);
+                    size[0] = 0;
+                }
+            });
+            updateOrBuffer(batch, timestamps, size[0]);
+            flush();
+            return numberOfMessages;
+        } finally {
+            recovering = false;
+        }
+    }
+
+    /**
+     * Restore the tracks of a checkpoint written by checkpoint(Path) into this tracker, which must not have any tracks.
+     *
+     * The file is read with streaming I/O and each report is decoded again from its NMEA sentences. History is
+     * kept as specified by this tracker's history mode and limits - except that a checkpoint of columnar history
+     * cannot be restored into a tracker which keeps reports. Likewise, compact tracks cannot be restored into a tracker
+     * which keeps reports, whereas tracks with reports are made compact when restored into a compact tracker. Each
+     * shard's wallclock is set to the one it had when it was copied, or to the oldest of those if the checkpoint was
+     * written with a different no. of shards; and the wallclock to the newest of them. No events are posted for
+     * the restored tracks.
+     *
+     * @param path the file to read.
+     * @throws IOException if the file cannot be read or is not a valid checkpoint.
+     * @throws IllegalStateException if this tracker already has tracks.
+     */
+    public void restore(Path path) throws IOException {
+        requireNonNull(path);
+        for (TrackShard shard : shards)
+            shard.lock.lock();
+        try {
+            if (getNumberOfAisTracks() > 0)
+                throw new IllegalStateException("Cannot restore into a tracker which has tracks.");
+            final Instant[] shardWallclocks = TrackCheckpoint.read(path, emptyHistory, retainReports, track -> putTrack(shardOf(track.getMmsi()), null, track));
+            // If the no. of shards differs, every shard gets the oldest wallclock, so no journaled message is
+            // rejected as too old; messages already in the checkpoint are then rejected by their tracks
+            final Instant oldestWallclock = Arrays.stream(shardWallclocks).min(Instant::compareTo).orElseThrow();
+            final Instant newestWallclock = Arrays.stream(shardWallclocks).max(Instant::compareTo).orElseThrow();
+            for (TrackShard shard : shards) {
+                final Instant shardWallclock = shardWallclocks.length == shards.length ? shardWallclocks[shard.index] : oldestWallclock;
+                if (shardWallclock.isAfter(shard.wallclock))
+                    shard.wallclock = shardWallclock;
+            }
+            advanceWallclock(newestWallclock);
+        } catch (IOException e) {
+            for (TrackShard shard : shards)
+                clear(shard);
+            throw e;
         } finally {
-            lock.unlock();
+            for (TrackShard shard : shards)
+                shard.lock.unlock();
         }
+    }
+
+    public boolean isShutdown() {
+        return shutdown;
+    }
+
+    /** Shut down the tracker */
+    public void shutdown() {
+        flush();
+        if (journal != null)
+            journal.sync();
+        shutdown = true;
         try {
             taskExecutor.shutdown();
             boolean cleanShutdown = taskExecutor.awaitTermination(1, TimeUnit.MINUTES);
         } catch (InterruptedException e) {
         }
+        eventDispatcher.shutdown();
+        conflatingEventHandlers.forEach(ConflatingEventHandler::shutdown);
+    }
+
+    private TrackShard shardOf(long mmsi) {
+        return shards[TrackShard.indexOf(mmsi, shards.length)];
+    }
+
+    private static <T> T threadSafeGet(TrackShard shard, Supplier<T> getter) {
+        shard.lock.lock();
         try {
-            eventBusExecutor.shutdown();
-            boolean cleanShutdown = eventBusExecutor.awaitTermination(1, TimeUnit.MINUTES);
-        } catch (InterruptedException e) {
+            return getter.get();
+        } finally {
+            shard.lock.unlock();
         }
     }
 
-    private <T> T threadSafeGet(Supplier<T> getter) {
-        lock.lock();
+    /** Return the reception timestamp of a message; or current system time if it has none */
+    private static Instant timestampOf(final AISMessage aisMessage) {
+        Metadata metadata = aisMessage.getMetadata();
+        return metadata == null ? now(Clock.systemUTC()) : metadata.received();
+    }
+
+    private void updateOrBuffer(final AISMessage aisMessage, final Instant messageTimestamp) {
+        if (reorderBuffer == null)
+            updateAisTrack(aisMessage, messageTimestamp);
+        else
+            reorderBuffer.offer(aisMessage, messageTimestamp, this::updateAisTrackInOrder);
+    }
+
+    private void updateOrBuffer(final AISMessage[] aisMessages, final Instant[] messageTimestamps, final int size) {
+        if (size == 0)
+            return;
+        if (reorderBuffer != null) {
+            for (int i = 0; i < size; i++)
+                reorderBuffer.offer(aisMessages[i], messageTimestamps[i], this::updateAisTrackInOrder);
+            return;
+        }
+
+        // Order the messages of the batch by shard, keeping their relative order within each shard
+        final int[] shardStart = new int[shards.length + 1];
+        final int[] shardIndexes = new int[size];
+        for (int i = 0; i < size; i++) {
+            shardIndexes[i] = TrackShard.indexOf(aisMessages[i].getSourceMmsi().getMmsi(), shards.length);
+            shardStart[shardIndexes[i] + 1]++;
+        }
+        for (int s = 0; s < shards.length; s++)
+            shardStart[s + 1] += shardStart[s];
+        final int[] order = new int[size];
+        final int[] next = Arrays.copyOf(shardStart, shards.length);
+        for (int i = 0; i < size; i++)
+            order[next[shardIndexes[i]]++] = i;
+
+        // If a shard fails the batch, the events of the messages applied before the failure are posted all the same
+        final List<Object> events = new ArrayList<>();
+        final Instant oldWallclock = wallclock.get();
         try {
-            return getter.get();
+            for (TrackShard shard : shards)
+                if (shardStart[shard.index] < shardStart[shard.index + 1])
+                    updateAisTracks(shard, aisMessages, messageTimestamps, order, shardStart[shard.index], shardStart[shard.index + 1], events);
         } finally {
-            lock.unlock();
+            final Instant newWallclock = wallclock.get();
+            if (newWallclock.isAfter(oldWallclock))
+                fireWallclockChanged(newWallclock);
+            events.forEach(eventDispatcher::post);
         }
     }
 
+    /**
+     * Apply a message released from the reorder buffer; or decline it if it is older than its track, as the direct
+     * path rejects it. A message with the same timestamp as its track is applied.
+     *
+     * Messages are released while offering some other message, so a message which is invalid is counted
+     * instead of failing the update with the other message.
+     */
+    private boolean updateAisTrackInOrder(final AISMessage aisMessage, final Instant messageTimestamp) {
+        final AISTrack track = getAisTrack(aisMessage.getSourceMmsi().getMmsi());
+        if (track != null && messageTimestamp.isBefore(track.getTimeOfLastUpdate()))
+            return false;
+        try {
+            updateAisTrack(aisMessage, messageTimestamp);
+        } catch (IllegalArgumentException e) {
+            numberOfRejectedMessages.increment();
+        }
+        return true;
+    }
+
     private void updateAisTrack(final AISMessage aisMessage, final Instant messageTimestamp) {
         final long mmsi = aisMessage.getSourceMmsi().getMmsi();
+        final TrackShard shard = shardOf(mmsi);
 
-        lock.lock();
+        shard.lock.lock();
         try {
-            if (messageTimestamp.isBefore(wallclock))
-                throw new IllegalArgumentException("Current time is " + wallclock + "; message timestamp is too old: " + messageTimestamp);
+            if (messageTimestamp.isBefore(shard.wallclock))
+                throw new IllegalArgumentException("Current time is " + shard.wallclock + "; message timestamp is too old: " + messageTimestamp);
 
-            setWallclock(messageTimestamp);
+            journal(aisMessage, messageTimestamp);
+            fireWallclockChanged(setWallclock(shard, messageTimestamp));
+            applyAisMessage(shard, mmsi, aisMessage, messageTimestamp);
+            performHousekeeping(shard);
+        } finally {
+            shard.lock.unlock();
+        }
+    }
 
-            if (aisMessage instanceof StaticDataReport) {
-                if (isTracked(mmsi)) {
-                    updateAisTrack(mmsi, (StaticDataReport) aisMessage, messageTimestamp);
-                } else {
-                    insertAisTrack(mmsi, (StaticDataReport) aisMessage, messageTimestamp);
+    /**
+     * Apply the messages of a batch which belong to a shard, while holding the lock of the shard once. The messages
+     * are those at the indexes order[from] to order[to - 1]. Events are collected rather than posted, so that they
+     * can be posted after the lock is released. The wallclock of the tracker is advanced to that of the shard,
+     * also if a message fails the batch.
+     */
+    private void updateAisTracks(final TrackShard shard, final AISMessage[] aisMessages, final Instant[] messageTimestamps, final int[] order, final int from, final int to, final List<Object> events) {
+        shard.lock.lock();
+        shard.deferredEvents = events;
+        try {
+            for (int i = from; i < to; i++) {
+                final AISMessage aisMessage = aisMessages[order[i]];
+                final Instant messageTimestamp = messageTimestamps[order[i]];
+                if (messageTimestamp.isBefore(shard.wallclock)) {
+                    numberOfRejectedMessages.increment();
+                    continue;
                 }
-            } else if (aisMessage instanceof DynamicDataReport) {
-                if (isTracked(mmsi)) {
-                    updateAisTrack(mmsi, (DynamicDataReport) aisMessage, messageTimestamp);
-                } else {
-                    insertAisTrack(mmsi, (DynamicDataReport) aisMessage, messageTimestamp);
+                try {
+                    journal(aisMessage, messageTimestamp);
+                } catch (IllegalArgumentException e) {
+                    numberOfRejectedMessages.increment();
+                    continue;
                 }
-            } else if (aisMessage instanceof AidToNavigationReport) {
-                if (isTracked(mmsi)) {
-                    updateAisTrack(mmsi, (AidToNavigationReport) aisMessage, messageTimestamp);
-                } else {
-                    insertAisTrack(mmsi, (AidToNavigationReport) aisMessage, messageTimestamp);
+                shard.wallclock = messageTimestamp;
+                try {
+                    applyAisMessage(shard, aisMessage.getSourceMmsi().getMmsi(), aisMessage, messageTimestamp);
+                } catch (IllegalArgumentException e) {
+                    numberOfRejectedMessages.increment();
                 }
+                performHousekeeping(shard);
             }
-            if (isHistoryPruneNeeded()) {
-                taskExecutor.execute(() -> processTrackHistory());
+        } finally {
+            advanceWallclock(shard.wallclock);
+            shard.deferredEvents = null;
+            shard.lock.unlock();
+        }
+    }
+
+    /**
+     * Append a message which can update a track to the journal, if any; before the message changes the wallclock or
+     * its track and events are posted, so that no update is lost, and a message failing to be journaled changes nothing.
+     */
+    private void journal(final AISMessage aisMessage, final Instant messageTimestamp) {
+        /* Assumes shard lock is locked */
+        if (journal != null && !recovering && isTrackable(aisMessage))
+            journal.append(aisMessage, messageTimestamp);
+    }
+
+    private static boolean isTrackable(final AISMessage aisMessage) {
+        return aisMessage instanceof StaticDataReport || aisMessage instanceof DynamicDataReport || aisMessage instanceof AidToNavigationReport;
+    }
+
+    private void applyAisMessage(final TrackShard shard, final long mmsi, final AISMessage aisMessage, final Instant messageTimestamp) {
+        /* Assumes shard lock is locked */
+        if (!isTrackable(aisMessage))
+            return;
+        final boolean tracked = shard.tracks.containsKey(mmsi);
+        if (aisMessage instanceof StaticDataReport) {
+            if (tracked) {
+                updateAisTrack(shard, mmsi, (StaticDataReport) aisMessage, messageTimestamp);
+            } else {
+                insertAisTrack(shard, mmsi, (StaticDataReport) aisMessage, messageTimestamp);
             }
-            if (isStaleCheckNeeded()) {
-                taskExecutor.execute(() -> processStaleTracks());
+        } else if (aisMessage instanceof DynamicDataReport) {
+            if (tracked) {
+                updateAisTrack(shard, mmsi, (DynamicDataReport) aisMessage, messageTimestamp);
+            } else {
+                insertAisTrack(shard, mmsi, (DynamicDataReport) aisMessage, messageTimestamp);
+            }
+        } else if (aisMessage instanceof AidToNavigationReport) {
+            if (tracked) {
+                updateAisTrack(shard, mmsi, (AidToNavigationReport) aisMessage, messageTimestamp);
+            } else {
+                insertAisTrack(shard, mmsi, (AidToNavigationReport) aisMessage, messageTimestamp);
             }
-        } finally {
-            lock.unlock();
         }
     }
 
-    private void insertAisTrack(final long mmsi, final StaticDataReport shipStaticDataReport, final Instant msgTimestamp) {
-        /* Assumes lock is locked */
-        final AISTrack aisTrack = new AISTrack(shipStaticDataReport, msgTimestamp);
-        tracks.put(mmsi, aisTrack);
-        fireTrackCreated(aisTrack);
+    /** Prune history and check for stale tracks when due */
+    private void performHousekeeping(final TrackShard shard) {
+        /* Assumes shard lock is locked */
+        if (historyMode != HistoryMode.NONE && isHistoryPruneNeeded(shard)) {
+            if (pruningMode == PruningMode.SWEEP)
+                taskExecutor.execute(() -> processTrackHistory(shard));
+            else
+                startPruningPass(shard);
+        }
+        if (shard.pruningCursor != null) {
+            continuePruningPass(shard);
+        }
+        if (isStaleCheckNeeded(shard)) {
+            taskExecutor.execute(() -> processStaleTracks(shard));
+        }
+    }
+
+    private void insertAisTrack(final TrackShard shard, final long mmsi, final StaticDataReport shipStaticDataReport, final Instant msgTimestamp) {
+        /* Assumes shard lock is locked */
+        final AISTrack aisTrack = withEmptyHistory(new AISTrack(shipStaticDataReport, msgTimestamp));
+        putTrack(shard, null, aisTrack);
+        fireTrackCreated(shard, aisTrack);
     }
 
-    private void insertAisTrack(final long mmsi, final DynamicDataReport basicShipDynamicDataReport, final Instant msgTimestamp) {
-        /* Assumes lock is locked */
-        final AISTrack aisTrack = new AISTrack(basicShipDynamicDataReport, msgTimestamp);
-        tracks.put(mmsi, aisTrack);
-        fireTrackCreated(aisTrack);
+    private void insertAisTrack(final TrackShard shard, final long mmsi, final DynamicDataReport basicShipDynamicDataReport, final Instant msgTimestamp) {
+        /* Assumes shard lock is locked */
+        final AISTrack aisTrack = withEmptyHistory(new AISTrack(basicShipDynamicDataReport, msgTimestamp));
+        putTrack(shard, null, aisTrack);
+        fireTrackCreated(shard, aisTrack);
     }
 
-    private void insertAisTrack(final long mmsi, final AidToNavigationReport aidToNavigationReport, final Instant msgTimestamp) {
-        /* Assumes lock is locked */
-        final AISTrack aisTrack = new AISTrack(aidToNavigationReport, msgTimestamp);
-        tracks.put(mmsi, aisTrack);
-        fireTrackCreated(aisTrack);
+    private void insertAisTrack(final TrackShard shard, final long mmsi, final AidToNavigationReport aidToNavigationReport, final Instant msgTimestamp) {
+        /* Assumes shard lock is locked */
+        final AISTrack aisTrack = withEmptyHistory(new AISTrack(aidToNavigationReport, msgTimestamp));
+        putTrack(shard, null, aisTrack);
+        fireTrackCreated(shard, aisTrack);
     }
 
-    private void updateAisTrack(final long mmsi, final StaticDataReport shipStaticDataReport, final Instant msgTimestamp) {
-        /* Assumes lock is locked */
-        AISTrack oldTrack = tracks.get(mmsi);
+    private void updateAisTrack(final TrackShard shard, final long mmsi, final StaticDataReport shipStaticDataReport, final Instant msgTimestamp) {
+        /* Assumes shard lock is locked */
+        AISTrack oldTrack = shard.tracks.get(mmsi);
         if (msgTimestamp.isBefore(oldTrack.getTimeOfLastUpdate()))
             throw new IllegalArgumentException("Cannot update track with an older message: " + msgTimestamp + " is before previous update " + oldTrack.getTimeOfStaticUpdate());
 
-        AISTrack newTrack = new AISTrack(shipStaticDataReport, oldTrack.getDynamicDataReport(), msgTimestamp, oldTrack.getTimeOfDynamicUpdate());
-        tracks.put(mmsi, newTrack);
-        fireTrackUpdated(newTrack);
+        // Keep the current report if the new one has the same content - as vessels resend it every few minutes - so that the new one can be collected.
+        // Type 24 parts A and B alternate, so they are never compared with the same part
+        StaticDataReport staticDataReport = shipStaticDataReport;
+        if (oldTrack.hasStaticDataOf(shipStaticDataReport)) {
+            staticDataReport = oldTrack.getStaticDataReport();
+            numberOfDuplicateStaticReports.increment();
+        }
+
+        AISTrack newTrack = withLazilyPrunedHistory(shard, new AISTrack(oldTrack, staticDataReport, msgTimestamp, retainReports));
+        putTrack(shard, oldTrack, newTrack);
+        fireTrackUpdated(shard, newTrack);
     }
 
-    private void updateAisTrack(final long mmsi, final DynamicDataReport basicShipDynamicDataReport, final Instant msgTimestamp) {
-        /* Assumes lock is locked */
-        AISTrack oldTrack = tracks.get(mmsi);
+    private void updateAisTrack(final TrackShard shard, final long mmsi, final DynamicDataReport basicShipDynamicDataReport, final Instant msgTimestamp) {
+        /* Assumes shard lock is locked */
+        AISTrack oldTrack = shard.tracks.get(mmsi);
         if (msgTimestamp.isBefore(oldTrack.getTimeOfLastUpdate()))
             throw new IllegalArgumentException("Cannot update track with an older message: " + msgTimestamp + " is before previous update " + oldTrack.getTimeOfDynamicUpdate());
 
-        AISTrack newTrack = new AISTrack(oldTrack.getStaticDataReport(), basicShipDynamicDataReport, oldTrack.getTimeOfStaticUpdate(), msgTimestamp);
-        tracks.put(mmsi, newTrack);
-        fireTrackUpdated(newTrack);
-        fireTrackDynamicsUpdated(newTrack);
+        AISTrack newTrack = withLazilyPrunedHistory(shard, new AISTrack(oldTrack, basicShipDynamicDataReport, msgTimestamp, retainReports));
+        putTrack(shard, oldTrack, newTrack);
+        fireTrackUpdated(shard, newTrack);
+        fireTrackDynamicsUpdated(shard, newTrack);
     }
 
-    private void updateAisTrack(final long mmsi, final AidToNavigationReport aidToNavigationReport, final Instant msgTimestamp) {
-        /* Assumes lock is locked */
-        AISTrack oldTrack = tracks.get(mmsi);
+    private void updateAisTrack(final TrackShard shard, final long mmsi, final AidToNavigationReport aidToNavigationReport, final Instant msgTimestamp) {
+        /* Assumes shard lock is locked */
+        AISTrack oldTrack = shard.tracks.get(mmsi);
         if (msgTimestamp.isBefore(oldTrack.getTimeOfLastUpdate()))
             throw new IllegalArgumentException("Cannot update track with an older message: " + msgTimestamp + " is before previous update " + oldTrack.getTimeOfDynamicUpdate());
 
-        AISTrack newTrack = new AISTrack(aidToNavigationReport, msgTimestamp);
-        tracks.put(mmsi, newTrack);
-        fireTrackUpdated(newTrack);
-        fireTrackDynamicsUpdated(newTrack);
+        AISTrack newTrack = withEmptyHistory(new AISTrack(aidToNavigationReport, msgTimestamp));
+        putTrack(shard, oldTrack, newTrack);
+        fireTrackUpdated(shard, newTrack);
+        fireTrackDynamicsUpdated(shard, newTrack);
+    }
+
+    /** Insert or replace a track in a shard, keeping the shard's indexes up to date */
+    private static void putTrack(final TrackShard shard, final AISTrack oldTrack, final AISTrack newTrack) {
+        /* Assumes shard lock is locked */
+        final long mmsi = newTrack.getMmsi();
+        shard.tracks.put(mmsi, newTrack);
+        if (oldTrack == null)
+            shard.staleTrackIndex.add(mmsi, newTrack.getTimeOfLastUpdate());
+        else
+            shard.staleTrackIndex.move(mmsi, oldTrack.getTimeOfLastUpdate(), newTrack.getTimeOfLastUpdate());
+        shard.spatialIndex.move(mmsi, shard.spatialIndex.cellOf(oldTrack), shard.spatialIndex.cellOf(newTrack));
+    }
+
+    /** Remove all tracks of a shard */
+    private static void clear(final TrackShard shard) {
+        /* Assumes shard lock is locked */
+        shard.tracks.forEach(track -> {
+            shard.staleTrackIndex.remove(track.getMmsi(), track.getTimeOfLastUpdate());
+            shard.spatialIndex.move(track.getMmsi(), shard.spatialIndex.cellOf(track), SpatialIndex.NO_CELL);
+        });
+        shard.tracks.clear();
+    }
+
+    /** Give a new track an empty history of the kind specified by the tracker's history mode - and make it compact if so specified by the track mode */
+    private AISTrack withEmptyHistory(AISTrack aisTrack) {
+        return aisTrack.dynamicDataHistory() == emptyHistory && retainReports ? aisTrack : new AISTrack(aisTrack, emptyHistory, retainReports);
     }
 
     //
     // Core data fields of the tracker
     //
 
-    private ReentrantLock lock = new ReentrantLock();
+    /** The shards holding the tracks; each guarded by its own lock */
+    private final TrackShard[] shards;
 
-    /** */
-    @GuardedBy("lock")
-    private boolean shutdown = false;
+    /** Read-only view of the tracks in all shards */
+    private final Set<AISTrack> aisTracks;
+
+    /** How the dynamic history of tracks is stored */
+    private final HistoryMode historyMode;
+
+    /** What is kept of the reports which update tracks */
+    private final TrackMode trackMode;
+
+    /** True if tracks retain their reports; false if they are compact */
+    private final boolean retainReports;
+
+    /** The empty history from which the history of every new track grows */
+    private final TrackHistory emptyHistory;
+
+    /** Buffer which puts messages in order before they are applied; or null if the tracker has no reorder window */
+    private final ReorderBuffer reorderBuffer;
 
-    @GuardedBy("lock")
-    private Map<Long, AISTrack> tracks = new HashMap<>();
+    private final LongAdder numberOfRejectedMessages = new LongAdder();
+
+    private final LongAdder numberOfDuplicateStaticReports = new LongAdder();
+
+    /** The journal of accepted messages; or null if messages are not journaled */
+    private final Journal journal;
+
+    /** True while the journal is being replayed */
+    private volatile boolean recovering;
+
+    private final static int RECOVERY_BATCH_SIZE = 1024;
+
+    /** */
+    private volatile boolean shutdown;
 
     /** To inject special executors for unit testing */
     void setTaskExecutor(ExecutorService taskExecutor) {
@@ -314,156 +1058,247 @@ public class AISTracker implements TrackEventEmitter {
     }
 
     /** Asynchroneous executor service to take care of pruning */
-    private ExecutorService taskExecutor = Executors.newSingleThreadExecutor();
+    private ExecutorService taskExecutor;
 
     //
     // Fields and methods related to the wallclock
     //
 
-    /** Time of last update - perceived by the tracker as current time; or time as seen on the wallclock. */
-    @GuardedBy("lock")
-    private Instant wallclock = EPOCH;
+    /** Time of last update across all shards - perceived by the tracker as current time; or time as seen on the wallclock. */
+    private final AtomicReference<Instant> wallclock = new AtomicReference<>(EPOCH);
 
-    private void setWallclock(Instant wallclock) {
-        lock.lock();
-        try {
-            this.wallclock = wallclock;
-            fireWallclockChanged(this.wallclock);
-        } finally {
-            lock.unlock();
-        }
+    /** Set the wallclock of a shard, and return the resulting wallclock of the tracker */
+    private Instant setWallclock(TrackShard shard, Instant wallclock) {
+        /* Assumes shard lock is locked */
+        shard.wallclock = wallclock;
+        return advanceWallclock(wallclock);
+    }
+
+    private Instant advanceWallclock(Instant wallclock) {
+        return this.wallclock.accumulateAndGet(wallclock, (w1, w2) -> w1.isBefore(w2) ? w2 : w1);
     }
 
     //
     // Fields and methods related to pruning
     //
 
-    /** Run through all tracks and prune historic items which have expired */
-    private void processTrackHistory() {
-        lock.lock();
+    /** Run through all tracks of a shard and prune historic items which have expired */
+    private void processTrackHistory(TrackShard shard) {
+        shard.lock.lock();
         try {
-            Map<Long, AISTrack> prunedTracks = Maps.newTreeMap();
-            tracks.forEach((mmsi, track) -> {
-                if (TRACK_NEEDS_PRUNING.test(track)) {
-                    prunedTracks.put(track.getMmsi(), new AISTrack(track, INSTANT_IMPLIES_PRUNING));
-                }
+            final Instant oldestInstantToKeep = shard.wallclock.minus(dynamicDataHistoryMaxAge);
+            // Replacing a track while iterating the map is safe, and needs no copy of the tracks
+            shard.tracks.forEach(track -> {
+                if (trackNeedsPruning(track, oldestInstantToKeep))
+                    shard.tracks.put(track.getMmsi(), new AISTrack(track, oldestInstantToKeep));
             });
-            prunedTracks.forEach((mmsi, track) -> tracks.put(mmsi, prunedTracks.get(mmsi)));
-            timeOfLastPruning = wallclock;
+            shard.timeOfLastPruning = shard.wallclock;
         } finally {
-            lock.unlock();
+            shard.lock.unlock();
         }
     }
 
-    private boolean isHistoryPruneNeeded() {
-        /* Assumes lock is locked */
-        return timeOfLastPruning.isBefore(wallclock.minus(PRUNE_CHECK_PERIOD));
+    /** Begin an incremental pass through all tracks of a shard */
+    private void startPruningPass(TrackShard shard) {
+        /* Assumes shard lock is locked */
+        shard.pruningCursor = shard.tracks.iterator();
+        shard.timeOfLastPruning = shard.wallclock;
     }
 
-    /** Time on the wall clock between track history pruning jobs */
-    private final static Duration PRUNE_CHECK_PERIOD = Duration.ofMinutes(5);
+    /** Prune the next batch of tracks of an incremental pass */
+    private void continuePruningPass(TrackShard shard) {
+        /* Assumes shard lock is locked */
+        final Instant oldestInstantToKeep = shard.wallclock.minus(dynamicDataHistoryMaxAge);
+        final Iterator<AISTrack> pruningCursor = shard.pruningCursor;
+        for (int n = 0; n < PRUNE_BATCH_SIZE && pruningCursor.hasNext(); n++) {
+            final long mmsi = pruningCursor.next().getMmsi();
+            // The cursor may have seen an older version of the track
+            final AISTrack track = shard.tracks.get(mmsi);
+            if (track != null && trackNeedsPruning(track, oldestInstantToKeep))
+                shard.tracks.put(mmsi, new AISTrack(track, oldestInstantToKeep));
+        }
+        if (!pruningCursor.hasNext())
+            shard.pruningCursor = null;
+    }
+
+    /**
+     * In incremental mode, prune the history of a track as it is updated. To avoid pruning on every update, the
+     * history is pruned only once its oldest entry has been expired for a prune check period - which is the same
+     * lag as tolerated by a sweep.
+     */
+    private AISTrack withLazilyPrunedHistory(TrackShard shard, AISTrack track) {
+        /* Assumes shard lock is locked */
+        if (pruningMode != PruningMode.INCREMENTAL)
+            return track;
+        final Instant oldestInstantToKeep = shard.wallclock.minus(dynamicDataHistoryMaxAge);
+        return trackNeedsPruning(track, oldestInstantToKeep.minus(pruneCheckPeriod)) ? new AISTrack(track, oldestInstantToKeep) : track;
+    }
+
+    private boolean isHistoryPruneNeeded(TrackShard shard) {
+        /* Assumes shard lock is locked */
+        return shard.timeOfLastPruning.isBefore(shard.wallclock.minus(pruneCheckPeriod));
+    }
+
+    void setPruningMode(PruningMode pruningMode) {
+        this.pruningMode = requireNonNull(pruningMode);
+    }
+
+    void setPruneCheckPeriod(Duration pruneCheckPeriod) {
+        this.pruneCheckPeriod = requireNonNull(pruneCheckPeriod);
+    }
+
+    void setDynamicDataHistoryMaxAge(Duration dynamicDataHistoryMaxAge) {
+        this.dynamicDataHistoryMaxAge = requireNonNull(dynamicDataHistoryMaxAge);
+    }
 
-    /** The instant in time when the last pruning job ran */
-    @GuardedBy("lock")
-    private Instant timeOfLastPruning = EPOCH;
+    /** How expired history is pruned */
+    private volatile PruningMode pruningMode;
+
+    /** Time on the wall clock between track history pruning jobs */
+    private volatile Duration pruneCheckPeriod;
 
     /** Max duration to keep dynamic history of each track */
-    private final static Duration DYNAMIC_DATA_HISTORY_MAX_AGE = Duration.ofHours(6);
+    private volatile Duration dynamicDataHistoryMaxAge;
 
-    /** Predicate for instants which imply that pruning is required */
-    private final Predicate<Instant> INSTANT_IMPLIES_PRUNING  = instant -> instant.isBefore(wallclock.minus(DYNAMIC_DATA_HISTORY_MAX_AGE));
+    /** Max no. of tracks inspected per update during an incremental pruning pass */
+    private final static int PRUNE_BATCH_SIZE = 32;
 
     /** Predicate for tracks which need pruning of their dynamic history */
-    private final Predicate<AISTrack> TRACK_NEEDS_PRUNING = aisTrack -> !aisTrack.getDynamicDataHistory().isEmpty() && INSTANT_IMPLIES_PRUNING.test(aisTrack.getDynamicDataHistory().firstKey());
+    private static boolean trackNeedsPruning(AISTrack aisTrack, Instant oldestInstantToKeep) {
+        final Instant oldestInstant = aisTrack.dynamicDataHistory().getOldestInstant();
+        return oldestInstant != null && oldestInstant.isBefore(oldestInstantToKeep);
+    }
 
     //
     // Fields and methods related to track stale check
     //
 
-    /** Run through all tracks and note which ones are stale */
-    private void processStaleTracks() {
-        lock.lock();
+    /** Remove the tracks of a shard which have become stale; the cost is proportional to the no. of stale tracks */
+    private void processStaleTracks(TrackShard shard) {
+        shard.lock.lock();
         try {
-            Map<Long, AISTrack> staleTracks = Maps.newTreeMap();
-            tracks.forEach((mmsi, track) -> {
-                if (track.getTimeOfLastUpdate().isBefore(wallclock.minus(STALE_PERIOD))) {
-                    staleTracks.put(mmsi, track);
-                }
+            final Instant staleBefore = shard.wallclock.minus(STALE_PERIOD);
+            shard.staleTrackIndex.removeStale(staleBefore, mmsi -> shard.tracks.get(mmsi).getTimeOfLastUpdate(), mmsi -> {
+                AISTrack track = shard.tracks.remove(mmsi);
+                shard.spatialIndex.move(mmsi, shard.spatialIndex.cellOf(track), SpatialIndex.NO_CELL);
+                fireTrackDeleted(shard, track);
             });
-            staleTracks.forEach((mmsi, track) -> { tracks.remove(mmsi); fireTrackDeleted(track); });
-            timeOfLastStaleCheck = wallclock;
+            shard.timeOfLastStaleCheck = shard.wallclock;
         } finally {
-            lock.unlock();
+            shard.lock.unlock();
         }
     }
 
-    private boolean isStaleCheckNeeded() {
-        lock.lock();
-        try {
-            return timeOfLastStaleCheck.isBefore(wallclock.minus(STALE_CHECK_PERIOD));
-        } finally {
-            lock.unlock();
-        }
+    private boolean isStaleCheckNeeded(TrackShard shard) {
+        /* Assumes shard lock is locked */
+        return shard.timeOfLastStaleCheck.isBefore(shard.wallclock.minus(STALE_CHECK_PERIOD));
     }
 
     void setStaleCheckPeriod(Duration staleCheckPeriod) {
-        lock.lock();
-        try {
-            STALE_CHECK_PERIOD = staleCheckPeriod;
-        } finally {
-            lock.unlock();
-        }
+        STALE_CHECK_PERIOD = staleCheckPeriod;
     }
 
     void setStalePeriod(Duration stalePeriod) {
-        lock.lock();
-        try {
-            STALE_PERIOD = stalePeriod;
-        } finally {
-            lock.unlock();
-        }
+        STALE_PERIOD = stalePeriod;
     }
 
     /** Every this duration on the wallclock tracks are checked to be stale */
-    private Duration STALE_CHECK_PERIOD = Duration.ofMinutes(1);
+    private volatile Duration STALE_CHECK_PERIOD;
 
     /** Tracks not updated within this duration are considered stale. */
-    private Duration STALE_PERIOD = Duration.ofMinutes(30);
-
-    /** The instant in time when the last pruning job ran */
-    @GuardedBy("lock")
-    private Instant timeOfLastStaleCheck = EPOCH;
+    private volatile Duration STALE_PERIOD;
 
     //
     // Fields and methods related to event firing
-    // The event bus is Guava Eventbus - see more: http://docs.guava-libraries.googlecode.com/git/javadoc/com/google/common/eventbus/EventBus.html
+    // Events are delivered by an EventDispatcher; by default Guava Eventbus - see more: http://docs.guava-libraries.googlecode.com/git/javadoc/com/google/common/eventbus/EventBus.html
     //
 
-    private final ExecutorService eventBusExecutor = Executors.newCachedThreadPool();
-    private final EventBus eventBus = new AsyncEventBus(eventBusExecutor);
+    private final EventDispatcher eventDispatcher;
 
+    /** The handlers of subscribers registered by registerConflatingSubscriber() */
+    private final List<ConflatingEventHandler> conflatingEventHandlers = new CopyOnWriteArrayList<>();
+
+    /** Min. time on the wallclock between WallclockChangedEvents in ms; or 0 to post one per update */
+    private final long wallclockEventIntervalMillis;
+
+    /** The interval of the wallclock in which the last WallclockChangedEvent was posted */
+    private final AtomicLong lastWallclockEventInterval = new AtomicLong(Long.MIN_VALUE);
+
+    /**
+     * {@inheritDoc}
+     * The subscriber is either an object with methods annotated with Guava's @Subscribe, or a TrackEventHandler.
+     */
     @Override
     public void registerSubscriber(Object subscriber) {
-        eventBus.register(subscriber);
+        eventDispatcher.register(subscriber);
     }
 
-    private void fireTrackCreated(AISTrack track) {
-        eventBus.post(new AisTrackCreatedEvent(track));
+    /**
+     * {@inheritDoc}
+     * Requires an event dispatcher with queues per subscriber; e.g. a QueueingEventDispatcher.
+     *
+     * @throws UnsupportedOperationException if the event dispatcher of this tracker has no queues per subscriber.
+     */
+    @Override
+    public void registerSubscriber(Object subscriber, int queueCapacity, OverflowPolicy overflowPolicy) {
+        eventDispatcher.register(subscriber, queueCapacity, overflowPolicy);
     }
 
-    private void fireTrackUpdated(AISTrack track) {
-        eventBus.post(new AisTrackUpdatedEvent(track));
+    /**
+     * {@inheritDoc}
+     * The subscriber is called on a drain thread of its own, which is stopped - after a final drain - when the
+     * tracker is shut down. Only events of the types accepted by the subscriber - and the created, updated and deleted
+     * events of tracks, if it accepts any events about tracks - are posted for it.
+     */
+    @Override
+    public void registerConflatingSubscriber(Object subscriber, Duration drainInterval) {
+        final ConflatingEventHandler handler = new ConflatingEventHandler(subscriber, drainInterval);
+        try {
+            eventDispatcher.register(handler);
+        } catch (RuntimeException e) {
+            handler.shutdown();
+            throw e;
+        }
+        conflatingEventHandlers.add(handler);
+    }
+
+    private void fireTrackCreated(TrackShard shard, AISTrack track) {
+        if (eventDispatcher.hasSubscriberFor(AisTrackCreatedEvent.class))
+            post(shard, new AisTrackCreatedEvent(track));
+    }
+
+    private void fireTrackUpdated(TrackShard shard, AISTrack track) {
+        if (eventDispatcher.hasSubscriberFor(AisTrackUpdatedEvent.class))
+            post(shard, new AisTrackUpdatedEvent(track));
+    }
+
+    private void fireTrackDynamicsUpdated(TrackShard shard, AISTrack track) {
+        if (eventDispatcher.hasSubscriberFor(AisTrackDynamicsUpdatedEvent.class))
+            post(shard, new AisTrackDynamicsUpdatedEvent(track));
     }
 
-    private void fireTrackDynamicsUpdated(AISTrack track) {
-        eventBus.post(new AisTrackDynamicsUpdatedEvent(track));
+    private void fireTrackDeleted(TrackShard shard, AISTrack track) {
+        if (eventDispatcher.hasSubscriberFor(AisTrackDeletedEvent.class))
+            post(shard, new AisTrackDeletedEvent(track));
     }
 
-    private void fireTrackDeleted(AISTrack track) {
-        eventBus.post(new AisTrackDeletedEvent(track));
+    /** Post an event now; or later if a batch is being applied to the shard */
+    private void post(TrackShard shard, Object event) {
+        /* Assumes shard lock is locked */
+        if (shard.deferredEvents != null)
+            shard.deferredEvents.add(event);
+        else
+            eventDispatcher.post(event);
     }
 
+    /** Post a WallclockChangedEvent; unless the wallclock is still in the interval of the last event posted */
     private void fireWallclockChanged(Instant wallclock) {
-        eventBus.post(new WallclockChangedEvent(getWallclock()));
+        if (wallclockEventIntervalMillis > 0) {
+            final long interval = Math.floorDiv(wallclock.toEpochMilli(), wallclockEventIntervalMillis);
+            if (lastWallclockEventInterval.getAndAccumulate(interval, Math::max) >= interval)
+                return;
+        }
+        if (eventDispatcher.hasSubscriberFor(WallclockChangedEvent.class))
+            eventDispatcher.post(new WallclockChangedEvent(wallclock));
     }
 }
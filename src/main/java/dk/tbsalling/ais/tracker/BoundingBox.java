@@ -0,0 +1,93 @@
+/*
+ * AISUtils
+ * - a java-based library for processing of AIS messages received from digital
+ * VHF radio traffic related to maritime navigation and safety in compliance with ITU 1371.
+ *
+ * (C) Copyright 2011- by S-Consult ApS, DK31327490, http://s-consult.dk, Denmark.
+ *
+ * Released under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * For details of this license see the nearby LICENCE-full file, visit http://creativecommons.org/licenses/by-nc-sa/3.0/
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ *
+ * NOT FOR COMMERCIAL USE!
+ * Contact sales@s-consult.dk to obtain a commercially licensed version of this software.
+ *
+ */
+
+
+package dk.tbsalling.ais.tracker;
+
+import javax.annotation.concurrent.Immutable;
+
+/**
+ * A BoundingBox is a rectangle on the globe bounded by two parallels and two meridians, given in degrees.
+ *
+ * The box spans from the western to the eastern meridian going east. A box whose western bound is east of its
+ * eastern bound crosses the antimeridian; e.g. the box (50, 170, 60, -170) is 20 degrees wide.
+ *
+ * @param south the southern bound in degrees latitude, -90..90.
+ * @param west the western bound in degrees longitude, -180..180.
+ * @param north the northern bound in degrees latitude, not south of south.
+ * @param east the eastern bound in degrees longitude, -180..180.
+ */
+@Immutable
+public record BoundingBox(double south, double west, double north, double east) {
+
+    public BoundingBox {
+        if (!(south >= -90 && south <= 90))
+            throw new IllegalArgumentException("south must be within -90..90, not " + south);
+        if (!(north >= south && north <= 90))
+            throw new IllegalArgumentException("north must be within " + south + "..90, not " + north);
+        if (!(west >= -180 && west <= 180))
+            throw new IllegalArgumentException("west must be within -180..180, not " + west);
+        if (!(east >= -180 && east <= 180))
+            throw new IllegalArgumentException("east must be within -180..180, not " + east);
+    }
+
+    /**
+     * Return the smallest box which contains all points within a given great-circle distance of a center point.
+     * If the circle covers a pole, the box spans all longitudes.
+     *
+     * @param latitude the latitude of the center in degrees.
+     * @param longitude the longitude of the center in degrees.
+     * @param radiusMeters the radius in meters.
+     * @return the bounding box of the circle.
+     */
+    public static BoundingBox around(double latitude, double longitude, double radiusMeters) {
+        if (!(latitude >= -90 && latitude <= 90))
+            throw new IllegalArgumentException("latitude must be within -90..90, not " + latitude);
+        if (!(longitude >= -180 && longitude <= 180))
+            throw new IllegalArgumentException("longitude must be within -180..180, not " + longitude);
+        if (!(radiusMeters >= 0))
+            throw new IllegalArgumentException("radiusMeters must not be negative, not " + radiusMeters);
+
+        final double angularRadius = radiusMeters / GreatCircle.EARTH_RADIUS_METERS;
+        final double south = latitude - Math.toDegrees(angularRadius);
+        final double north = latitude + Math.toDegrees(angularRadius);
+        if (south <= -90 || north >= 90 || angularRadius >= Math.PI / 2)
+            return new BoundingBox(Math.max(south, -90), -180, Math.min(north, 90), 180);
+
+        // The meridians tangent to the circle; see http://janmatuschek.de/LatitudeLongitudeBoundingCoordinates
+        final double deltaLongitude = Math.toDegrees(Math.asin(Math.sin(angularRadius) / Math.cos(Math.toRadians(latitude))));
+        double west = longitude - deltaLongitude;
+        double east = longitude + deltaLongitude;
+        if (west < -180)
+            west += 360;
+        if (east > 180)
+            east -= 360;
+        return new BoundingBox(south, west, north, east);
+    }
+
+    /** Return true if the box crosses the antimeridian, i.e. its western bound is east of its eastern bound. */
+    public boolean crossesAntimeridian() {
+        return west > east;
+    }
+
+    /** Return true if the given position is inside the box or on its boundary. */
+    public boolean contains(double latitude, double longitude) {
+        if (latitude < south || latitude > north)
+            return false;
+        return crossesAntimeridian() ? longitude >= west || longitude <= east : longitude >= west && longitude <= east;
+    }
+
+}
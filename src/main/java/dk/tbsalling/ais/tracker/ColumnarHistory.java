@@ -0,0 +1,256 @@
+/*
+ * AISUtils
+ * - a java-based library for processing of AIS messages received from digital
+ * VHF radio traffic related to maritime navigation and safety in compliance with ITU 1371.
+ *
+ * (C) Copyright 2011- by S-Consult ApS, DK31327490, http://s-consult.dk, Denmark.
+ *
+ * Released under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * For details of this license see the nearby LICENCE-full file, visit http://creativecommons.org/licenses/by-nc-sa/3.0/
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ *
+ * NOT FOR COMMERCIAL USE!
+ * Contact sales@s-consult.dk to obtain a commercially licensed version of this software.
+ *
+ */
+
+package dk.tbsalling.ais.tracker;
+
+import com.google.common.collect.ImmutableSortedMap;
+import dk.tbsalling.aismessages.ais.messages.DynamicDataReport;
+import dk.tbsalling.aismessages.ais.messages.ExtendedDynamicDataReport;
+
+import javax.annotation.concurrent.Immutable;
+import java.time.Instant;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * ColumnarHistory is a persistent (immutable) time-ordered store of dynamic data, which keeps only the time,
+ * position, speed, course and heading of each entry - packed in primitive columns. The reports themselves are
+ * not retained. Time is kept with millisecond precision.
+ *
+ * Like DynamicDataHistory, all versions of a track's history share one set of columns; appending to the newest
+ * version is amortized O(1), and trimming the oldest entries as well as finding the start of a time range is
+ * a binary search on the time column. A history may be limited to a max no. of entries, in which case
+ * appending beyond the limit drops the oldest entry.
+ */
+@Immutable
+final class ColumnarHistory implements TrackHistory {
+
+    static final ColumnarHistory EMPTY = new ColumnarHistory(new Columns(0), 0, 0, Integer.MAX_VALUE);
+
+    /** Return an empty history, which will keep at most maxSize of the newest entries. */
+    static ColumnarHistory empty(int maxSize) {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("maxSize must be positive, not " + maxSize);
+        return maxSize == Integer.MAX_VALUE ? EMPTY : new ColumnarHistory(new Columns(0), 0, 0, maxSize);
+    }
+
+    private ColumnarHistory(Columns columns, int from, int to, int maxSize) {
+        this.columns = columns;
+        this.from = from;
+        this.to = to;
+        this.maxSize = maxSize;
+    }
+
+    @Override
+    public ColumnarHistory append(Instant instant, DynamicDataReport dynamicDataReport) {
+        requireNonNull(instant);
+        requireNonNull(dynamicDataReport);
+        final int trueHeading = dynamicDataReport instanceof ExtendedDynamicDataReport extendedReport ? extendedReport.getTrueHeading() : HistoryCursor.HEADING_NOT_AVAILABLE;
+        return append(instant.toEpochMilli(), dynamicDataReport.getLatitude(), dynamicDataReport.getLongitude(), dynamicDataReport.getSpeedOverGround(), dynamicDataReport.getCourseOverGround(), trueHeading);
+    }
+
+    @Override
+    public ColumnarHistory append(Instant instant, float latitude, float longitude, float speedOverGround, float courseOverGround, int trueHeading) {
+        requireNonNull(instant);
+        return append(instant.toEpochMilli(), latitude, longitude, speedOverGround, courseOverGround, trueHeading);
+    }
+
+    /** Return a new version of this history with an entry appended as the newest entry; e.g. when restoring a checkpoint. */
+    ColumnarHistory append(long epochMilli, float latitude, float longitude, float speedOverGround, float courseOverGround, int trueHeading) {
+        if (!isEmpty() && epochMilli < columns.epochMillis[to - 1])
+            throw new IllegalArgumentException("Cannot append history at " + Instant.ofEpochMilli(epochMilli) + " which is before " + getNewestInstant());
+
+        Columns target = columns;
+        int index = to;
+        int newFrom = Math.max(from, to + 1 - maxSize);
+        // Claim the slot after our last entry - this fails if another version has already claimed it
+        if (!(to < columns.epochMillis.length && columns.claimed.compareAndSet(to, to + 1))) {
+            final int keep = Math.min(size(), maxSize - 1);
+            target = new Columns(Math.max(INITIAL_CAPACITY, 2 * (keep + 1)));
+            columns.copyTo(to - keep, target, keep);
+            target.claimed.set(keep + 1);
+            index = keep;
+            newFrom = 0;
+        }
+
+        target.epochMillis[index] = epochMilli;
+        target.latitudes[index] = latitude;
+        target.longitudes[index] = longitude;
+        target.speedsOverGround[index] = speedOverGround;
+        target.coursesOverGround[index] = courseOverGround;
+        target.trueHeadings[index] = (short) trueHeading;
+        return new ColumnarHistory(target, newFrom, index + 1, maxSize);
+    }
+
+    @Override
+    public ColumnarHistory trimBefore(Instant oldestInstantToKeep) {
+        final int newFrom = indexOf(oldestInstantToKeep.toEpochMilli());
+        if (newFrom == from)
+            return this;
+        if (newFrom == to)
+            return empty(maxSize);
+        return new ColumnarHistory(columns, newFrom, to, maxSize);
+    }
+
+    @Override
+    public int size() {
+        return to - from;
+    }
+
+    @Override
+    public Instant getOldestInstant() {
+        return isEmpty() ? null : Instant.ofEpochMilli(columns.epochMillis[from]);
+    }
+
+    @Override
+    public Instant getNewestInstant() {
+        return isEmpty() ? null : Instant.ofEpochMilli(columns.epochMillis[to - 1]);
+    }
+
+    @Override
+    public HistoryCursor cursor(Instant from, Instant to) {
+        return new Cursor(columns, indexOf(from), indexOf(to));
+    }
+
+    @Override
+    public ImmutableSortedMap<Instant, DynamicDataReport> toSortedMap() {
+        throw new UnsupportedOperationException("Columnar history does not retain reports; use a cursor instead.");
+    }
+
+    /** Return the index of the first entry at or after the given instant; or 'to' if no such entry. */
+    private int indexOf(Instant instant) {
+        if (instant.isBefore(MIN_EPOCH_MILLI_INSTANT))
+            return from;
+        if (instant.isAfter(MAX_EPOCH_MILLI_INSTANT))
+            return to;
+        // Round up, so that an entry is included only if its (truncated) time is not before the instant
+        long epochMilli = instant.toEpochMilli();
+        if (instant.getNano() % 1_000_000 != 0)
+            epochMilli++;
+        return indexOf(epochMilli);
+    }
+
+    /** Return the index of the first entry at or after the given time; or 'to' if no such entry. */
+    private int indexOf(long epochMilli) {
+        int low = from, high = to;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (columns.epochMillis[mid] < epochMilli)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    private final static int INITIAL_CAPACITY = 8;
+
+    private final static Instant MIN_EPOCH_MILLI_INSTANT = Instant.ofEpochMilli(Long.MIN_VALUE);
+    private final static Instant MAX_EPOCH_MILLI_INSTANT = Instant.ofEpochMilli(Long.MAX_VALUE);
+
+    /** The columns shared by all versions of the history */
+    private final Columns columns;
+
+    /** Index of the oldest entry of this version */
+    private final int from;
+
+    /** Index after the newest entry of this version */
+    private final int to;
+
+    /** Max no. of entries to keep; the oldest entries are dropped when appending beyond this */
+    private final int maxSize;
+
+    private static final class Cursor implements HistoryCursor {
+        Cursor(Columns columns, int from, int to) {
+            this.columns = columns;
+            this.index = from - 1;
+            this.to = to;
+        }
+
+        @Override
+        public boolean next() {
+            if (index + 1 >= to)
+                return false;
+            index++;
+            return true;
+        }
+
+        @Override
+        public long getEpochMilli() {
+            return columns.epochMillis[index];
+        }
+
+        @Override
+        public float getLatitude() {
+            return columns.latitudes[index];
+        }
+
+        @Override
+        public float getLongitude() {
+            return columns.longitudes[index];
+        }
+
+        @Override
+        public float getSpeedOverGround() {
+            return columns.speedsOverGround[index];
+        }
+
+        @Override
+        public float getCourseOverGround() {
+            return columns.coursesOverGround[index];
+        }
+
+        @Override
+        public int getTrueHeading() {
+            return columns.trueHeadings[index];
+        }
+
+        private final Columns columns;
+        private final int to;
+        private int index;
+    }
+
+    private static final class Columns {
+        Columns(int capacity) {
+            epochMillis = new long[capacity];
+            latitudes = new float[capacity];
+            longitudes = new float[capacity];
+            speedsOverGround = new float[capacity];
+            coursesOverGround = new float[capacity];
+            trueHeadings = new short[capacity];
+        }
+
+        void copyTo(int from, Columns target, int length) {
+            System.arraycopy(epochMillis, from, target.epochMillis, 0, length);
+            System.arraycopy(latitudes, from, target.latitudes, 0, length);
+            System.arraycopy(longitudes, from, target.longitudes, 0, length);
+            System.arraycopy(speedsOverGround, from, target.speedsOverGround, 0, length);
+            System.arraycopy(coursesOverGround, from, target.coursesOverGround, 0, length);
+            System.arraycopy(trueHeadings, from, target.trueHeadings, 0, length);
+        }
+
+        final long[] epochMillis;
+        final float[] latitudes;
+        final float[] longitudes;
+        final float[] speedsOverGround;
+        final float[] coursesOverGround;
+        final short[] trueHeadings;
+
+        /** No. of slots from the start of the columns which have been claimed by some version */
+        final AtomicInteger claimed = new AtomicInteger();
+    }
+}
@@ -0,0 +1,293 @@
+/*
+ * AISUtils
+ * - a java-based library for processing of AIS messages received from digital
+ * VHF radio traffic related to maritime navigation and safety in compliance with ITU 1371.
+ *
+ * (C) Copyright 2011- by S-Consult ApS, DK31327490, http://s-consult.dk, Denmark.
+ *
+ * Released under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * For details of this license see the nearby LICENCE-full file, visit http://creativecommons.org/licenses/by-nc-sa/3.0/
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ *
+ * NOT FOR COMMERCIAL USE!
+ * Contact sales@s-consult.dk to obtain a commercially licensed version of this software.
+ *
+ */
+
+package dk.tbsalling.ais.tracker;
+
+import dk.tbsalling.ais.tracker.events.AisTrackCreatedEvent;
+import dk.tbsalling.ais.tracker.events.AisTrackDeletedEvent;
+import dk.tbsalling.ais.tracker.events.AisTrackEvent;
+import dk.tbsalling.ais.tracker.events.AisTrackUpdatedEvent;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A ConflatingEventHandler conflates the events for each vessel, and hands them to a subscriber at most once per
+ * vessel per drain interval - so that the work of the subscriber is bounded by the no. of vessels, regardless of
+ * the rate of messages.
+ *
+ * Events are not queued. Instead each vessel has a slot with its latest track, which is marked dirty by the
+ * events for the vessel; a drain thread hands one event per dirty slot to the subscriber every drain interval, in
+ * the order the slots were marked dirty, followed by the latest of each other type of event - e.g. the latest
+ * WallclockChangedEvent. The event handed over for a vessel is
+ *
+ *   - an AisTrackCreatedEvent, if its track was created since the last drain - also if it replaced a deleted track;
+ *   - an AisTrackDeletedEvent, if its track was deleted since the last drain - unless the subscriber has not been
+ *     handed a track of the vessel, e.g. because the track was created since the last drain as well, in which case
+ *     the vessel is skipped;
+ *   - an AisTrackUpdatedEvent otherwise. Dynamic updates are included, so no AisTrackDynamicsUpdatedEvents are
+ *     handed over.
+ *
+ * All events carry the latest track of the vessel. The subscriber is called on the drain thread only.
+ *
+ * The event dispatcher may deliver events out of order - e.g. the default EventBusDispatcher, whose executor runs
+ * the deliveries concurrently. Hence the latest track of a vessel is the one with the latest time of last update,
+ * not the one of the event delivered last: an event with an older track - or with a track no newer than that of a
+ * deletion - is stale, and is ignored, except that a stale AisTrackCreatedEvent still makes a pending update a
+ * creation. A vessel whose deletion has been handed over is remembered for a while - at least a minute, and at
+ * least one drain interval - so that events delivered after its deletion do not bring back its track.
+ */
+@ThreadSafe
+final class ConflatingEventHandler implements TrackEventHandler {
+
+    ConflatingEventHandler(Object subscriber, Duration drainInterval) {
+        requireNonNull(subscriber);
+        requireNonNull(drainInterval);
+        if (drainInterval.isNegative() || drainInterval.isZero())
+            throw new IllegalArgumentException("drainInterval must be positive, not " + drainInterval);
+        this.subscriber = subscriber instanceof TrackEventHandler handler ? handler : new SubscriberAdapter(subscriber);
+        this.eventTypes = eventTypesOf(subscriber);
+        this.drainIntervalNanos = drainInterval.toNanos();
+        this.tombstoneNanos = Math.max(drainIntervalNanos, MIN_TOMBSTONE_NANOS);
+        this.drainer = Thread.ofPlatform().name("ais-event-drainer").daemon().start(this::drainLoop);
+    }
+
+    @Override
+    public void onEvent(Object event, boolean endOfBatch) {
+        synchronized (lock) {
+            if (event instanceof AisTrackEvent trackEvent) {
+                Slot slot = slots.get(trackEvent.getMmsi());
+                if (slot == null) {
+                    slot = new Slot();
+                    slots.put(trackEvent.getMmsi(), slot);
+                }
+                if (isStale(slot, trackEvent)) {
+                    if (trackEvent instanceof AisTrackCreatedEvent && slot.dirty && slot.kind == Kind.UPDATED)
+                        slot.kind = Kind.CREATED;
+                    numberOfStaleEvents++;
+                    return;
+                }
+                if (slot.dirty) {
+                    numberOfConflatedEvents++;
+                } else {
+                    slot.dirty = true;
+                    slot.kind = null;
+                    slot.deleted = false;
+                    dirtySlots.add(slot);
+                }
+                slot.track = trackEvent.getAisTrack();
+                if (trackEvent instanceof AisTrackCreatedEvent)
+                    slot.kind = Kind.CREATED;
+                else if (trackEvent instanceof AisTrackDeletedEvent)
+                    slot.kind = slot.known ? Kind.DELETED : Kind.NONE;
+                else if (slot.kind != Kind.CREATED)
+                    slot.kind = Kind.UPDATED;
+            } else if (otherEvents.put(event.getClass(), event) != null) {
+                numberOfConflatedEvents++;
+            }
+        }
+    }
+
+    /**
+     * Return the types of events which this handler receives: those of the subscriber which are not about tracks, and
+     * the created, updated and deleted events of tracks if the subscriber receives any event about tracks - since
+     * all of these are needed to tell which event to hand over for a vessel.
+     */
+    Class<?>[] eventTypes() {
+        return eventTypes.clone();
+    }
+
+    private static Class<?>[] eventTypesOf(Object subscriber) {
+        final Set<Class<?>> eventTypes = new LinkedHashSet<>();
+        for (Class<?> eventType : SubscriberAdapter.eventTypesOf(subscriber)) {
+            if (AisTrackEvent.class.isAssignableFrom(eventType))
+                eventTypes.addAll(List.of(AisTrackCreatedEvent.class, AisTrackUpdatedEvent.class, AisTrackDeletedEvent.class));
+            else
+                eventTypes.add(eventType);
+        }
+        return eventTypes.toArray(Class<?>[]::new);
+    }
+
+    /** Return true if the track of an event is older than the latest track of its vessel; or no newer than a deleted track */
+    private static boolean isStale(Slot slot, AisTrackEvent event) {
+        if (slot.track == null)
+            return false;
+        final Instant timeOfUpdate = event.getAisTrack().getTimeOfLastUpdate(), latestTimeOfUpdate = slot.track.getTimeOfLastUpdate();
+        if (timeOfUpdate.isBefore(latestTimeOfUpdate))
+            return true;
+        final boolean deleted = slot.dirty ? slot.kind == Kind.DELETED || slot.kind == Kind.NONE : slot.deleted;
+        return deleted && !timeOfUpdate.isAfter(latestTimeOfUpdate);
+    }
+
+    /** Hand the remaining events to the subscriber, and stop the drain thread; waits for at most a minute. */
+    void shutdown() {
+        stopped = true;
+        LockSupport.unpark(drainer);
+        try {
+            drainer.join(TimeUnit.MINUTES.toMillis(1));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Return the no. of events which were merged into an event already pending */
+    long getNumberOfConflatedEvents() {
+        synchronized (lock) {
+            return numberOfConflatedEvents;
+        }
+    }
+
+    /** Return the no. of events which were ignored because they were delivered after an event with a newer track */
+    long getNumberOfStaleEvents() {
+        synchronized (lock) {
+            return numberOfStaleEvents;
+        }
+    }
+
+    private void drainLoop() {
+        long nextDrain = System.nanoTime() + drainIntervalNanos;
+        while (!stopped) {
+            long wait;
+            while (!stopped && (wait = nextDrain - System.nanoTime()) > 0)
+                LockSupport.parkNanos(this, wait);
+            drain();
+            // Skip the drains missed, if the subscriber took longer than the interval
+            nextDrain = Math.max(nextDrain + drainIntervalNanos, System.nanoTime());
+        }
+        drain();
+    }
+
+    /** Hand one event per dirty slot, and the latest other events, to the subscriber */
+    void drain() {
+        final List<Object> events = new ArrayList<>();
+        final long now = System.nanoTime();
+        synchronized (lock) {
+            // Forget the vessels deleted long enough ago, unless they have had events since
+            Tombstone tombstone;
+            while ((tombstone = tombstones.peek()) != null && now - tombstone.timeOfDeletionNanos() >= tombstoneNanos) {
+                tombstones.remove();
+                final Slot slot = tombstone.slot();
+                if (slot.deleted && slot.timeOfDeletionNanos == tombstone.timeOfDeletionNanos())
+                    slots.remove(slot.track.getMmsi());
+            }
+
+            for (Slot slot : dirtySlots) {
+                switch (slot.kind) {
+                    case CREATED -> events.add(new AisTrackCreatedEvent(slot.track));
+                    case UPDATED -> events.add(new AisTrackUpdatedEvent(slot.track));
+                    case DELETED -> events.add(new AisTrackDeletedEvent(slot.track));
+                    case NONE -> {
+                    }
+                }
+                slot.dirty = false;
+                slot.known = slot.kind == Kind.CREATED || slot.kind == Kind.UPDATED;
+                if (!slot.known) {
+                    slot.deleted = true;
+                    slot.timeOfDeletionNanos = now;
+                    tombstones.add(new Tombstone(slot, now));
+                }
+            }
+            dirtySlots.clear();
+            events.addAll(otherEvents.values());
+            otherEvents.clear();
+        }
+        for (int i = 0; i < events.size(); i++) {
+            try {
+                subscriber.onEvent(events.get(i), i == events.size() - 1);
+            } catch (Throwable e) {
+                SubscriberAdapter.reportFailure(e);
+            }
+        }
+    }
+
+    private enum Kind {
+        CREATED, UPDATED, DELETED, NONE
+    }
+
+    /** The state of a vessel */
+    private static final class Slot {
+        /** The latest track of the vessel */
+        AISTrack track;
+
+        /** The event to hand over for the vessel at the next drain; if dirty */
+        Kind kind;
+
+        boolean dirty;
+
+        /** True if the subscriber has been handed the current track of the vessel */
+        boolean known;
+
+        /** True if the track of the vessel has been deleted, and no events have been received for it since */
+        boolean deleted;
+
+        /** The time of the drain which handed over the deletion; if deleted */
+        long timeOfDeletionNanos;
+    }
+
+    /** A slot to forget at some time after its deletion was handed over, unless it has had events since */
+    private record Tombstone(Slot slot, long timeOfDeletionNanos) {
+    }
+
+    /** Min. time to remember a vessel after its deletion was handed over */
+    private static final long MIN_TOMBSTONE_NANOS = TimeUnit.MINUTES.toNanos(1);
+
+    private final TrackEventHandler subscriber;
+    private final Class<?>[] eventTypes;
+    private final long drainIntervalNanos;
+    private final long tombstoneNanos;
+    private final Thread drainer;
+
+    private volatile boolean stopped;
+
+    private final Object lock = new Object();
+
+    /** The slots of the vessels with a track known by the subscriber, with events pending, or deleted recently - by MMSI */
+    @GuardedBy("lock")
+    private final Map<Long, Slot> slots = new HashMap<>();
+
+    /** The slots with events pending, in the order they were marked dirty */
+    @GuardedBy("lock")
+    private final List<Slot> dirtySlots = new ArrayList<>();
+
+    /** The slots of deleted vessels, in the order they were deleted */
+    @GuardedBy("lock")
+    private final Deque<Tombstone> tombstones = new ArrayDeque<>();
+
+    /** The latest pending event of each type which is not about a track */
+    @GuardedBy("lock")
+    private final Map<Class<?>, Object> otherEvents = new LinkedHashMap<>();
+
+    @GuardedBy("lock")
+    private long numberOfConflatedEvents;
+
+    @GuardedBy("lock")
+    private long numberOfStaleEvents;
+}
@@ -0,0 +1,233 @@
+/*
+ * AISUtils
+ * - a java-based library for processing of AIS messages received from digital
+ * VHF radio traffic related to maritime navigation and safety in compliance with ITU 1371.
+ *
+ * (C) Copyright 2011- by S-Consult ApS, DK31327490, http://s-consult.dk, Denmark.
+ *
+ * Released under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * For details of this license see the nearby LICENCE-full file, visit http://creativecommons.org/licenses/by-nc-sa/3.0/
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ *
+ * NOT FOR COMMERCIAL USE!
+ * Contact sales@s-consult.dk to obtain a commercially licensed version of this software.
+ *
+ */
+
+package dk.tbsalling.ais.tracker;
+
+import com.google.common.collect.ImmutableSortedMap;
+import dk.tbsalling.aismessages.ais.messages.DynamicDataReport;
+import dk.tbsalling.aismessages.ais.messages.ExtendedDynamicDataReport;
+
+import javax.annotation.concurrent.Immutable;
+import java.time.Instant;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * DynamicDataHistory is a persistent (immutable) time-ordered list of complete dynamic data reports.
+ *
+ * All versions of a track's history share one backing buffer. Appending to the newest version writes
+ * into the free tail of the buffer and returns a new version which sees one more entry, while older
+ * versions continue to see only their own range. Hence appending is amortized O(1) and trimming the
+ * oldest entries is O(log n); in neither case are surviving entries copied - except when the buffer is
+ * full, in which case the live entries are moved to a new buffer of twice their number.
+ *
+ * A history may be limited to a max no. of entries, in which case appending beyond the limit drops the
+ * oldest entry.
+ */
+@Immutable
+final class DynamicDataHistory implements TrackHistory {
+
+    static final DynamicDataHistory EMPTY = new DynamicDataHistory(new Buffer(0), 0, 0, Integer.MAX_VALUE);
+
+    /** Return an empty history, which will keep at most maxSize of the newest entries. */
+    static DynamicDataHistory empty(int maxSize) {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("maxSize must be positive, not " + maxSize);
+        return maxSize == Integer.MAX_VALUE ? EMPTY : new DynamicDataHistory(new Buffer(0), 0, 0, maxSize);
+    }
+
+    private DynamicDataHistory(Buffer buffer, int from, int to, int maxSize) {
+        this.buffer = buffer;
+        this.from = from;
+        this.to = to;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     * The time of the report must be strictly after the time of the newest entry.
+     */
+    @Override
+    public DynamicDataHistory append(Instant instant, DynamicDataReport dynamicDataReport) {
+        requireNonNull(instant);
+        requireNonNull(dynamicDataReport);
+        if (!isEmpty() && !instant.isAfter(buffer.instants[to - 1]))
+            throw new IllegalArgumentException("Cannot append history at " + instant + " which is not after " + buffer.instants[to - 1]);
+
+        // Claim the slot after our last entry - this fails if another version has already claimed it
+        if (to < buffer.instants.length && buffer.claimed.compareAndSet(to, to + 1)) {
+            buffer.instants[to] = instant;
+            buffer.reports[to] = dynamicDataReport;
+            return new DynamicDataHistory(buffer, Math.max(from, to + 1 - maxSize), to + 1, maxSize);
+        }
+
+        final int keep = Math.min(size(), maxSize - 1);
+        Buffer newBuffer = new Buffer(Math.max(INITIAL_CAPACITY, 2 * (keep + 1)));
+        System.arraycopy(buffer.instants, to - keep, newBuffer.instants, 0, keep);
+        System.arraycopy(buffer.reports, to - keep, newBuffer.reports, 0, keep);
+        newBuffer.instants[keep] = instant;
+        newBuffer.reports[keep] = dynamicDataReport;
+        newBuffer.claimed.set(keep + 1);
+        return new DynamicDataHistory(newBuffer, 0, keep + 1, maxSize);
+    }
+
+    @Override
+    public DynamicDataHistory append(Instant instant, float latitude, float longitude, float speedOverGround, float courseOverGround, int trueHeading) {
+        throw new UnsupportedOperationException("Cannot append to a history of reports without a report.");
+    }
+
+    @Override
+    public DynamicDataHistory trimBefore(Instant oldestInstantToKeep) {
+        final int newFrom = indexOf(oldestInstantToKeep);
+        if (newFrom == from)
+            return this;
+        if (newFrom == to)
+            return empty(maxSize);
+        return new DynamicDataHistory(buffer, newFrom, to, maxSize);
+    }
+
+    @Override
+    public int size() {
+        return to - from;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return to == from;
+    }
+
+    @Override
+    public Instant getOldestInstant() {
+        return isEmpty() ? null : buffer.instants[from];
+    }
+
+    @Override
+    public Instant getNewestInstant() {
+        return isEmpty() ? null : buffer.instants[to - 1];
+    }
+
+    @Override
+    public HistoryCursor cursor(Instant from, Instant to) {
+        return new Cursor(buffer, indexOf(from), indexOf(to));
+    }
+
+    @Override
+    public ImmutableSortedMap<Instant, DynamicDataReport> toSortedMap() {
+        ImmutableSortedMap.Builder<Instant, DynamicDataReport> builder = new ImmutableSortedMap.Builder<>(Comparator.<Instant>naturalOrder());
+        for (int i = from; i < to; i++)
+            builder.put(buffer.instants[i], buffer.reports[i]);
+        return builder.build();
+    }
+
+    /** Pass the entries of this history to the consumer, oldest first. */
+    void forEach(BiConsumer<Instant, DynamicDataReport> consumer) {
+        for (int i = from; i < to; i++)
+            consumer.accept(buffer.instants[i], buffer.reports[i]);
+    }
+
+    /** Return the index of the first entry at or after the given instant; or 'to' if no such entry. */
+    private int indexOf(Instant instant) {
+        int i = Arrays.binarySearch(buffer.instants, from, to, instant);
+        return i >= 0 ? i : -(i + 1);
+    }
+
+    private final static int INITIAL_CAPACITY = 8;
+
+    /** The buffer shared by all versions of the history */
+    private final Buffer buffer;
+
+    /** Index of the oldest entry of this version */
+    private final int from;
+
+    /** Index after the newest entry of this version */
+    private final int to;
+
+    /** Max no. of entries to keep; the oldest entries are dropped when appending beyond this */
+    private final int maxSize;
+
+    private static final class Cursor implements HistoryCursor {
+        Cursor(Buffer buffer, int from, int to) {
+            this.buffer = buffer;
+            this.index = from - 1;
+            this.to = to;
+        }
+
+        @Override
+        public boolean next() {
+            if (index + 1 >= to)
+                return false;
+            report = buffer.reports[++index];
+            return true;
+        }
+
+        @Override
+        public long getEpochMilli() {
+            return buffer.instants[index].toEpochMilli();
+        }
+
+        @Override
+        public Instant getInstant() {
+            return buffer.instants[index];
+        }
+
+        @Override
+        public float getLatitude() {
+            return report.getLatitude();
+        }
+
+        @Override
+        public float getLongitude() {
+            return report.getLongitude();
+        }
+
+        @Override
+        public float getSpeedOverGround() {
+            return report.getSpeedOverGround();
+        }
+
+        @Override
+        public float getCourseOverGround() {
+            return report.getCourseOverGround();
+        }
+
+        @Override
+        public int getTrueHeading() {
+            return report instanceof ExtendedDynamicDataReport extendedReport ? extendedReport.getTrueHeading() : HEADING_NOT_AVAILABLE;
+        }
+
+        private final Buffer buffer;
+        private final int to;
+        private int index;
+        private DynamicDataReport report;
+    }
+
+    private static final class Buffer {
+        Buffer(int capacity) {
+            instants = new Instant[capacity];
+            reports = new DynamicDataReport[capacity];
+        }
+
+        final Instant[] instants;
+        final DynamicDataReport[] reports;
+
+        /** No. of slots from the start of the buffer which have been claimed by some version */
+        final AtomicInteger claimed = new AtomicInteger();
+    }
+}
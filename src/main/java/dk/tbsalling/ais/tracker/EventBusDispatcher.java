@@ -0,0 +1,98 @@
+/*
+ * AISUtils
+ * - a java-based library for processing of AIS messages received from digital
+ * VHF radio traffic related to maritime navigation and safety in compliance with ITU 1371.
+ *
+ * (C) Copyright 2011- by S-Consult ApS, DK31327490, http://s-consult.dk, Denmark.
+ *
+ * Released under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * For details of this license see the nearby LICENCE-full file, visit http://creativecommons.org/licenses/by-nc-sa/3.0/
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ *
+ * NOT FOR COMMERCIAL USE!
+ * Contact sales@s-consult.dk to obtain a commercially licensed version of this software.
+ *
+ */
+
+package dk.tbsalling.ais.tracker;
+
+import com.google.common.eventbus.AsyncEventBus;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Arrays;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * An EventBusDispatcher delivers events by a Guava AsyncEventBus, which hands each event to each subscriber
+ * as a task on an executor. The executor is shut down with the dispatcher.
+ *
+ * The AsyncEventBus has no bound on the no. of events waiting to be delivered; every event is delivered in
+ * a batch of its own to TrackEventHandlers.
+ */
+@ThreadSafe
+final class EventBusDispatcher implements EventDispatcher {
+
+    EventBusDispatcher(ExecutorService executor) {
+        this.executor = requireNonNull(executor);
+        this.eventBus = new AsyncEventBus(executor);
+    }
+
+    @Override
+    public void register(Object subscriber) {
+        requireNonNull(subscriber);
+        final Class<?>[] subscriberEventTypes = SubscriberAdapter.eventTypesOf(subscriber);
+        eventBus.register(subscriber instanceof TrackEventHandler handler ? new HandlerSubscriber(handler) : subscriber);
+        synchronized (this) {
+            eventTypes = concat(eventTypes, subscriberEventTypes);
+        }
+    }
+
+    @Override
+    public void post(Object event) {
+        eventBus.post(event);
+    }
+
+    @Override
+    public boolean hasSubscriberFor(Class<?> eventType) {
+        return SubscriberAdapter.accepts(eventTypes, eventType);
+    }
+
+    @Override
+    public void shutdown() {
+        try {
+            executor.shutdown();
+            boolean cleanShutdown = executor.awaitTermination(1, TimeUnit.MINUTES);
+        } catch (InterruptedException e) {
+        }
+    }
+
+    private final ExecutorService executor;
+    private final EventBus eventBus;
+
+    /** The types of events received by the registered subscribers */
+    private volatile Class<?>[] eventTypes = new Class<?>[0];
+
+    private static Class<?>[] concat(Class<?>[] types, Class<?>[] moreTypes) {
+        final Class<?>[] allTypes = Arrays.copyOf(types, types.length + moreTypes.length);
+        System.arraycopy(moreTypes, 0, allTypes, types.length, moreTypes.length);
+        return allTypes;
+    }
+
+    private static final class HandlerSubscriber {
+        HandlerSubscriber(TrackEventHandler handler) {
+            this.handler = handler;
+        }
+
+        @Subscribe
+        public void onEvent(Object event) throws Exception {
+            handler.onEvent(event, true);
+        }
+
+        private final TrackEventHandler handler;
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * AISUtils
+ * - a java-based library for processing of AIS messages received from digital
+ * VHF radio traffic related to maritime navigation and safety in compliance with ITU 1371.
+ *
+ * (C) Copyright 2011- by S-Consult ApS, DK31327490, http://s-consult.dk, Denmark.
+ *
+ * Released under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * For details of this license see the nearby LICENCE-full file, visit http://creativecommons.org/licenses/by-nc-sa/3.0/
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ *
+ * NOT FOR COMMERCIAL USE!
+ * Contact sales@s-consult.dk to obtain a commercially licensed version of this software.
+ *
+ */
+
+package dk.tbsalling.ais.tracker;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * An EventDispatcher delivers the events posted by an AISTracker to the subscribers registered with it.
+ *
+ * A subscriber is either an object with methods annotated with Guava's @Subscribe, each taking one parameter, which
+ * receive the events of that type; or a TrackEventHandler, which receives all events.
+ *
+ * The tracker posts events while holding the lock of the shard being updated, so post() should not wait for the
+ * subscribers to handle the event - except to bound the no. of events waiting to be handled.
+ */
+@ThreadSafe
+public interface EventDispatcher {
+
+    /** Register a subscriber to receive the events posted after this call. */
+    void register(Object subscriber);
+
+    /**
+     * Register a subscriber to receive the events posted after this call, through a queue of its own which holds at
+     * most queueCapacity events; the overflowPolicy decides what happens when an event is posted to a full queue.
+     *
+     * @throws UnsupportedOperationException if this dispatcher has no queues per subscriber.
+     */
+    default void register(Object subscriber, int queueCapacity, OverflowPolicy overflowPolicy) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " has no queues per subscriber; use e.g. a QueueingEventDispatcher.");
+    }
+
+    /** Post an event to the registered subscribers. */
+    void post(Object event);
+
+    /**
+     * Return true if a registered subscriber receives events of the given type; so that events which no subscriber
+     * receives need not be created. Unless overridden, true.
+     */
+    default boolean hasSubscriberFor(Class<?> eventType) {
+        return true;
+    }
+
+    /** Deliver the events already posted, and release the threads of this dispatcher. No events can be posted afterwards. */
+    void shutdown();
+}
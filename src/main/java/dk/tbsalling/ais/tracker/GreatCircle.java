@@ -0,0 +1,64 @@
+/*
+ * AISUtils
+ * - a java-based library for processing of AIS messages received from digital
+ * VHF radio traffic related to maritime navigation and safety in compliance with ITU 1371.
+ *
+ * (C) Copyright 2011- by S-Consult ApS, DK31327490, http://s-consult.dk, Denmark.
+ *
+ * Released under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * For details of this license see the nearby LICENCE-full file, visit http://creativecommons.org/licenses/by-nc-sa/3.0/
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ *
+ * NOT FOR COMMERCIAL USE!
+ * Contact sales@s-consult.dk to obtain a commercially licensed version of this software.
+ *
+ */
+
+
+package dk.tbsalling.ais.tracker;
+
+/**
+ * Distances along great circles on a spherical earth.
+ */
+final class GreatCircle {
+
+    private GreatCircle() {
+    }
+
+    /** The mean radius of the earth in meters */
+    static final double EARTH_RADIUS_METERS = 6_371_008.8;
+
+    /** Return the great-circle distance in meters between two positions given in degrees; by the haversine formula. */
+    static double distance(double latitude1, double longitude1, double latitude2, double longitude2) {
+        final double phi1 = Math.toRadians(latitude1);
+        final double phi2 = Math.toRadians(latitude2);
+        final double sinHalfDeltaPhi = Math.sin((phi2 - phi1) / 2);
+        final double sinHalfDeltaLambda = Math.sin(Math.toRadians(longitude2 - longitude1) / 2);
+        final double h = sinHalfDeltaPhi * sinHalfDeltaPhi + Math.cos(phi1) * Math.cos(phi2) * sinHalfDeltaLambda * sinHalfDeltaLambda;
+        return 2 * EARTH_RADIUS_METERS * Math.asin(Math.min(1, Math.sqrt(h)));
+    }
+
+    /**
+     * Return a cheap lower bound of the great-circle distance in meters between two positions given in degrees.
+     *
+     * For positions less than 10 degrees apart in both latitude and longitude, this is the equirectangular distance
+     * using the cosine of the latitude farthest from the equator - which underestimates the great-circle distance
+     * by less than 0.2 % in that range. For positions farther apart it is the distance along the meridian. Either
+     * is shrunk by 1 % to allow for rounding.
+     */
+    static double lowerBound(double latitude1, double longitude1, double latitude2, double longitude2) {
+        final double deltaLatitude = Math.abs(latitude2 - latitude1);
+        double deltaLongitude = Math.abs(longitude2 - longitude1);
+        if (deltaLongitude > 180)
+            deltaLongitude = 360 - deltaLongitude;
+        if (deltaLatitude > EQUIRECTANGULAR_LIMIT_DEGREES || deltaLongitude > EQUIRECTANGULAR_LIMIT_DEGREES)
+            return SAFETY_FACTOR * EARTH_RADIUS_METERS * Math.toRadians(deltaLatitude);
+        final double deltaPhi = Math.toRadians(deltaLatitude);
+        final double x = Math.cos(Math.toRadians(Math.max(Math.abs(latitude1), Math.abs(latitude2)))) * Math.toRadians(deltaLongitude);
+        return SAFETY_FACTOR * EARTH_RADIUS_METERS * Math.sqrt(deltaPhi * deltaPhi + x * x);
+    }
+
+    private final static double EQUIRECTANGULAR_LIMIT_DEGREES = 10;
+    private final static double SAFETY_FACTOR = 0.99;
+
+}
@@ -0,0 +1,58 @@
+/*
+ * AISUtils
+ * - a java-based library for processing of AIS messages received from digital
+ * VHF radio traffic related to maritime navigation and safety in compliance with ITU 1371.
+ *
+ * (C) Copyright 2011- by S-Consult ApS, DK31327490, http://s-consult.dk, Denmark.
+ *
+ * Released under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * For details of this license see the nearby LICENCE-full file, visit http://creativecommons.org/licenses/by-nc-sa/3.0/
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ *
+ * NOT FOR COMMERCIAL USE!
+ * Contact sales@s-consult.dk to obtain a commercially licensed version of this software.
+ *
+ */
+
+package dk.tbsalling.ais.tracker;
+
+import java.time.Instant;
+
+/**
+ * A HistoryCursor iterates the dynamic history of an AISTrack in chronological order
+ * without materializing a report object per entry.
+ *
+ * A newly obtained cursor is positioned before the first entry; call next() to advance
+ * to an entry before reading its values. A cursor is not thread safe, but the history it
+ * iterates is immutable - so it is unaffected by later updates to the track.
+ */
+public interface HistoryCursor {
+
+    /** Value returned by getTrueHeading() when the heading is not available. */
+    int HEADING_NOT_AVAILABLE = 511;
+
+    /**
+     * Advance to the next entry.
+     * @return true if the cursor is positioned on an entry; false if there are no more entries.
+     */
+    boolean next();
+
+    /** Return the time of the current entry in milliseconds since the epoch. */
+    long getEpochMilli();
+
+    /** Return the time of the current entry. */
+    default Instant getInstant() {
+        return Instant.ofEpochMilli(getEpochMilli());
+    }
+
+    float getLatitude();
+
+    float getLongitude();
+
+    float getSpeedOverGround();
+
+    float getCourseOverGround();
+
+    /** Return the true heading of the current entry; or HEADING_NOT_AVAILABLE. */
+    int getTrueHeading();
+}
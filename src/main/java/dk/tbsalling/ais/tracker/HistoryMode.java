@@ -0,0 +1,74 @@
+/*
+ * AISUtils
+ * - a java-based library for processing of AIS messages received from digital
+ * VHF radio traffic related to maritime navigation and safety in compliance with ITU 1371.
+ *
+ * (C) Copyright 2011- by S-Consult ApS, DK31327490, http://s-consult.dk, Denmark.
+ *
+ * Released under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * For details of this license see the nearby LICENCE-full file, visit http://creativecommons.org/licenses/by-nc-sa/3.0/
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ *
+ * NOT FOR COMMERCIAL USE!
+ * Contact sales@s-consult.dk to obtain a commercially licensed version of this software.
+ *
+ */
+
+package dk.tbsalling.ais.tracker;
+
+/**
+ * The HistoryMode determines how an AISTracker stores the dynamic history of its tracks.
+ */
+public enum HistoryMode {
+
+    /**
+     * No history is kept. Tracks hold only their current data.
+     */
+    NONE {
+        @Override
+        TrackHistory emptyHistory(int maxSize) {
+            return NoHistory.INSTANCE;
+        }
+    },
+
+    /**
+     * The complete DynamicDataReport of each history entry is kept. The history is available both as
+     * a map through AISTrack.getDynamicDataHistory() and through AISTrack.getDynamicDataHistoryCursor().
+     */
+    REPORTS {
+        @Override
+        TrackHistory emptyHistory(int maxSize) {
+            return DynamicDataHistory.empty(maxSize);
+        }
+    },
+
+    /**
+     * Only time, position, speed, course and heading of each history entry is kept - packed in
+     * primitive columns. The history is available through AISTrack.getDynamicDataHistoryCursor() only.
+     */
+    COLUMNAR {
+        @Override
+        TrackHistory emptyHistory(int maxSize) {
+            return ColumnarHistory.empty(maxSize);
+        }
+    },
+
+    /**
+     * Only the time and the raw 6-bit armored payload of each history entry is kept - packed in a byte arena per
+     * track. The reports are decoded again when the history is iterated; either as a map through
+     * AISTrack.getDynamicDataHistory() or through AISTrack.getDynamicDataHistoryCursor(). Suits histories which
+     * are kept in full, but rarely iterated.
+     */
+    PAYLOADS {
+        @Override
+        TrackHistory emptyHistory(int maxSize) {
+            return PayloadHistory.empty(maxSize);
+        }
+    };
+
+    /**
+     * Return an empty history of this mode; the root from which track histories grow.
+     * @param maxSize the max no. of entries to keep in the history.
+     */
+    abstract TrackHistory emptyHistory(int maxSize);
+}
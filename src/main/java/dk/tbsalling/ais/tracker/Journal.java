@@ -0,0 +1,424 @@
+/*
+ * AISUtils
+ * - a java-based library for processing of AIS messages received from digital
+ * VHF radio traffic related to maritime navigation and safety in compliance with ITU 1371.
+ *
+ * (C) Copyright 2011- by S-Consult ApS, DK31327490, http://s-consult.dk, Denmark.
+ *
+ * Released under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * For details of this license see the nearby LICENCE-full file, visit http://creativecommons.org/licenses/by-nc-sa/3.0/
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ *
+ * NOT FOR COMMERCIAL USE!
+ * Contact sales@s-consult.dk to obtain a commercially licensed version of this software.
+ *
+ */
+
+
+package dk.tbsalling.ais.tracker;
+
+import dk.tbsalling.aismessages.ais.messages.AISMessage;
+import dk.tbsalling.aismessages.ais.messages.AISMessageFactory;
+import dk.tbsalling.aismessages.ais.messages.Metadata;
+import dk.tbsalling.aismessages.nmea.messages.NMEAMessage;
+import dk.tbsalling.aismessages.nmea.tagblock.NMEATagBlock;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.zip.CRC32C;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A Journal is an append-only write-ahead log of the messages accepted by an AISTracker, which allows the
+ * tracker to recover the updates made after its last checkpoint.
+ *
+ * Each message is appended as a record holding its timestamp, its source and its raw NMEA sentences, to
+ * segment files of a fixed size which are memory-mapped; so appending is a copy into memory. When a segment
+ * is full, the journal continues in a new segment. Mapped data survives a crash of the process as soon as it
+ * is written, and it is forced to the storage device - in a group commit of all records appended since the
+ * last - every flush interval, when a segment is full, and on sync() and close().
+ *
+ * When the tracker writes a checkpoint, it marks the position of the journal at which the checkpoint was taken,
+ * and the segments entirely before that position are deleted. Recovery replays the records after the marked
+ * position. A journal always appends to a new segment when it is opened; so the segments of a previous run are
+ * never modified, and a record torn by a crash is detected by its checksum and ends the replay of its segment.
+ *
+ * A record is laid out as an int length of the payload (0 marks the end of a segment), an int CRC-32C of the
+ * payload and the payload itself: a long epoch second, an int nano and the UTF-8 text of the source and the NMEA
+ * sentences (the first one prefixed by its tag block, if any) separated by newlines.
+ */
+@ThreadSafe
+public final class Journal implements Closeable {
+
+    /**
+     * Open a journal with segments of 64 MB and a flush interval of 100 ms.
+     * @param directory the directory of the segment files; created if it does not exist.
+     * @throws IOException if the journal cannot be opened.
+     */
+    public Journal(Path directory) throws IOException {
+        this(directory, DEFAULT_SEGMENT_SIZE, DEFAULT_FLUSH_INTERVAL);
+    }
+
+    /**
+     * Open a journal.
+     * @param directory the directory of the segment files; created if it does not exist.
+     * @param segmentSize the size of each segment file in bytes.
+     * @param flushInterval the interval between forcing appended records to the storage device.
+     * @throws IOException if the journal cannot be opened.
+     */
+    public Journal(Path directory, int segmentSize, Duration flushInterval) throws IOException {
+        requireNonNull(directory);
+        requireNonNull(flushInterval);
+        if (segmentSize < MIN_SEGMENT_SIZE)
+            throw new IllegalArgumentException("segmentSize must be at least " + MIN_SEGMENT_SIZE + ", not " + segmentSize);
+        if (flushInterval.isNegative() || flushInterval.isZero())
+            throw new IllegalArgumentException("flushInterval must be positive, not " + flushInterval);
+
+        this.directory = Files.createDirectories(directory);
+        this.segmentSize = segmentSize;
+        final List<Long> segmentNumbers = listSegmentNumbers();
+        this.checkpointPosition = readCheckpointPosition(segmentNumbers);
+        this.firstSegmentNumber = segmentNumbers.isEmpty() ? 0 : segmentNumbers.get(segmentNumbers.size() - 1) + 1;
+        this.segment = openSegment(firstSegmentNumber);
+
+        this.flusher = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "journal-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        final long flushIntervalNanos = flushInterval.toNanos();
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalNanos, flushIntervalNanos, TimeUnit.NANOSECONDS);
+    }
+
+    /**
+     * Append a message to the journal.
+     * @param aisMessage the message; it must have metadata with its NMEA sentences.
+     * @param messageTimestamp the timestamp with which the message was applied to the tracker.
+     * @throws UncheckedIOException if a new segment cannot be created.
+     */
+    void append(AISMessage aisMessage, Instant messageTimestamp) {
+        final byte[] text = textOf(aisMessage);
+        final int length = PAYLOAD_HEADER_SIZE + text.length;
+        if (RECORD_HEADER_SIZE + length + END_MARKER_SIZE > segmentSize)
+            throw new IllegalArgumentException("Message does not fit in a journal segment: " + aisMessage);
+
+        final CRC32C crc = new CRC32C();
+        final ByteBuffer header = ByteBuffer.allocate(PAYLOAD_HEADER_SIZE);
+        header.putLong(messageTimestamp.getEpochSecond()).putInt(messageTimestamp.getNano());
+        crc.update(header.array());
+        crc.update(text);
+
+        lock.lock();
+        try {
+            if (closed)
+                throw new IllegalStateException("Journal is closed.");
+            if (segment.writePosition + RECORD_HEADER_SIZE + length + END_MARKER_SIZE > segmentSize)
+                rotate();
+            final MappedByteBuffer buffer = segment.buffer;
+            final int position = segment.writePosition;
+            // The length is written last, so that a reader never sees a record before its contents
+            buffer.putInt(position + 4, (int) crc.getValue());
+            buffer.put(position + RECORD_HEADER_SIZE, header.array());
+            buffer.put(position + RECORD_HEADER_SIZE + PAYLOAD_HEADER_SIZE, text);
+            buffer.putInt(position, length);
+            segment.writePosition = position + RECORD_HEADER_SIZE + length;
+            numberOfRecords++;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Return the position after the last record appended; as segment number in the high and offset in the low 32 bits. */
+    long getPosition() {
+        lock.lock();
+        try {
+            return position(segment.number, segment.writePosition);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Mark the position at which a checkpoint was taken, and delete the segments entirely before it.
+     * @param position a position obtained by getPosition() before the checkpoint was taken.
+     * @throws IOException if the mark cannot be written.
+     */
+    void markCheckpoint(long position) throws IOException {
+        final Path temporaryFile = directory.resolve(CHECKPOINT_POSITION_FILE + ".tmp");
+        Files.writeString(temporaryFile, segmentNumberOf(position) + " " + offsetOf(position));
+        Files.move(temporaryFile, directory.resolve(CHECKPOINT_POSITION_FILE), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        lock.lock();
+        try {
+            checkpointPosition = position;
+        } finally {
+            lock.unlock();
+        }
+        for (long segmentNumber : listSegmentNumbers())
+            if (segmentNumber < segmentNumberOf(position))
+                Files.deleteIfExists(segmentPath(segmentNumber));
+    }
+
+    /**
+     * Replay the records after the checkpoint position from the segments written before this journal was opened.
+     * @param consumer receives the messages in the order they were appended; with the timestamp with which
+     *                 they were applied as their time of reception.
+     * @return the no. of messages replayed.
+     * @throws IOException if a segment cannot be read.
+     */
+    long replay(Consumer<AISMessage> consumer) throws IOException {
+        final long from;
+        lock.lock();
+        try {
+            from = checkpointPosition;
+        } finally {
+            lock.unlock();
+        }
+        long numberOfMessages = 0;
+        for (long segmentNumber : listSegmentNumbers()) {
+            if (segmentNumber < segmentNumberOf(from) || segmentNumber >= firstSegmentNumber)
+                continue;
+            final int offset = segmentNumber == segmentNumberOf(from) ? offsetOf(from) : 0;
+            try (FileChannel channel = FileChannel.open(segmentPath(segmentNumber), StandardOpenOption.READ)) {
+                numberOfMessages += replay(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()), offset, consumer);
+            }
+        }
+        return numberOfMessages;
+    }
+
+    private static long replay(MappedByteBuffer buffer, int position, Consumer<AISMessage> consumer) {
+        long numberOfMessages = 0;
+        final CRC32C crc = new CRC32C();
+        while (position + RECORD_HEADER_SIZE <= buffer.limit()) {
+            final int length = buffer.getInt(position);
+            if (length < PAYLOAD_HEADER_SIZE || position + RECORD_HEADER_SIZE + length > buffer.limit())
+                break;
+            final int checksum = buffer.getInt(position + 4);
+            final ByteBuffer payload = buffer.slice(position + RECORD_HEADER_SIZE, length);
+            crc.reset();
+            crc.update(payload.duplicate());
+            if ((int) crc.getValue() != checksum)
+                break; // Torn by a crash while being written
+            final Instant messageTimestamp = Instant.ofEpochSecond(payload.getLong(0), payload.getInt(8));
+            final byte[] text = new byte[length - PAYLOAD_HEADER_SIZE];
+            payload.get(PAYLOAD_HEADER_SIZE, text);
+            consumer.accept(messageOf(messageTimestamp, new String(text, StandardCharsets.UTF_8)));
+            numberOfMessages++;
+            position += RECORD_HEADER_SIZE + length;
+        }
+        return numberOfMessages;
+    }
+
+    private static byte[] textOf(AISMessage aisMessage) {
+        final Metadata metadata = aisMessage.getMetadata();
+        if (metadata == null || metadata.nmeaMessages() == null || metadata.nmeaMessages().length == 0)
+            throw new IllegalArgumentException("Cannot journal message without NMEA sentences: " + aisMessage);
+        final StringBuilder text = new StringBuilder(128);
+        text.append(metadata.source() != null ? metadata.source() : "");
+        final NMEAMessage[] nmeaMessages = metadata.nmeaMessages();
+        for (int i = 0; i < nmeaMessages.length; i++) {
+            text.append('\n');
+            if (i == 0 && metadata.nmeaTagBlock() != null)
+                text.append(metadata.nmeaTagBlock().getRawMessage());
+            text.append(nmeaMessages[i].getRawMessage());
+        }
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static AISMessage messageOf(Instant messageTimestamp, String text) {
+        final String[] lines = text.split("\n");
+        final NMEAMessage[] nmeaMessages = new NMEAMessage[lines.length - 1];
+        for (int i = 0; i < nmeaMessages.length; i++)
+            nmeaMessages[i] = new NMEAMessage(lines[i + 1]);
+        final NMEATagBlock tagBlock = nmeaMessages[0].getTagBlock();
+        return AISMessageFactory.create(messageTimestamp, lines[0].isEmpty() ? null : lines[0], tagBlock, nmeaMessages);
+    }
+
+    /** Force the records appended since the last flush to the storage device; i.e. commit them as a group. */
+    public void sync() {
+        final Segment segmentToFlush;
+        final int from, to;
+        lock.lock();
+        try {
+            segmentToFlush = segment;
+            from = segment.flushPosition;
+            to = segment.writePosition;
+            segment.flushPosition = to;
+        } finally {
+            lock.unlock();
+        }
+        if (to > from)
+            segmentToFlush.buffer.force(from, to - from);
+    }
+
+    private void flushQuietly() {
+        try {
+            sync();
+        } catch (RuntimeException e) {
+            // Retried at the next flush
+        }
+    }
+
+    /** Return the no. of records appended since the journal was opened. */
+    public long getNumberOfRecords() {
+        lock.lock();
+        try {
+            return numberOfRecords;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Return the directory of the segment files. */
+    public Path getDirectory() {
+        return directory;
+    }
+
+    /** Flush and close the journal. */
+    @Override
+    public void close() throws IOException {
+        flusher.shutdown();
+        lock.lock();
+        try {
+            if (closed)
+                return;
+            closed = true;
+            segment.buffer.force();
+            segment.channel.close();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @GuardedBy("lock")
+    private void rotate() {
+        try {
+            segment.buffer.force();
+            segment.channel.close();
+            segment = openSegment(segment.number + 1);
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot create journal segment in " + directory, e);
+        }
+    }
+
+    private Segment openSegment(long number) throws IOException {
+        final FileChannel channel = FileChannel.open(segmentPath(number), StandardOpenOption.CREATE_NEW, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        return new Segment(number, channel, channel.map(FileChannel.MapMode.READ_WRITE, 0, segmentSize));
+    }
+
+    private List<Long> listSegmentNumbers() throws IOException {
+        final List<Long> segmentNumbers = new ArrayList<>();
+        try (Stream<Path> files = Files.list(directory)) {
+            files.map(file -> file.getFileName().toString())
+                .filter(name -> name.endsWith(SEGMENT_SUFFIX))
+                .forEach(name -> {
+                    try {
+                        segmentNumbers.add(Long.parseLong(name.substring(0, name.length() - SEGMENT_SUFFIX.length())));
+                    } catch (NumberFormatException e) {
+                        // Not a segment
+                    }
+                });
+        }
+        segmentNumbers.sort(null);
+        return segmentNumbers;
+    }
+
+    private long readCheckpointPosition(List<Long> segmentNumbers) throws IOException {
+        final Path file = directory.resolve(CHECKPOINT_POSITION_FILE);
+        if (!Files.exists(file))
+            return position(segmentNumbers.isEmpty() ? 0 : segmentNumbers.get(0), 0);
+        final String[] fields = Files.readString(file).trim().split(" ");
+        try {
+            return position(Long.parseLong(fields[0]), Integer.parseInt(fields[1]));
+        } catch (RuntimeException e) {
+            throw new IOException("Invalid journal checkpoint position in " + file, e);
+        }
+    }
+
+    private Path segmentPath(long number) {
+        return directory.resolve(String.format("%016d%s", number, SEGMENT_SUFFIX));
+    }
+
+    private static long position(long segmentNumber, int offset) {
+        return segmentNumber << 32 | offset;
+    }
+
+    private static long segmentNumberOf(long position) {
+        return position >>> 32;
+    }
+
+    private static int offsetOf(long position) {
+        return (int) position;
+    }
+
+    private static final class Segment {
+        Segment(long number, FileChannel channel, MappedByteBuffer buffer) {
+            this.number = number;
+            this.channel = channel;
+            this.buffer = buffer;
+        }
+
+        final long number;
+        final FileChannel channel;
+        final MappedByteBuffer buffer;
+
+        /** Offset after the last record written */
+        int writePosition;
+
+        /** Offset up to which records have been forced to the storage device */
+        int flushPosition;
+    }
+
+    private final static int DEFAULT_SEGMENT_SIZE = 64 << 20;
+    private final static Duration DEFAULT_FLUSH_INTERVAL = Duration.ofMillis(100);
+    private final static int MIN_SEGMENT_SIZE = 4096;
+
+    private final static int RECORD_HEADER_SIZE = 8;
+    private final static int PAYLOAD_HEADER_SIZE = 12;
+    private final static int END_MARKER_SIZE = 4;
+
+    private final static String SEGMENT_SUFFIX = ".journal";
+    private final static String CHECKPOINT_POSITION_FILE = "checkpoint.position";
+
+    private final Path directory;
+    private final int segmentSize;
+
+    /** The no. of the first segment written since this journal was opened */
+    private final long firstSegmentNumber;
+    private final ScheduledExecutorService flusher;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    @GuardedBy("lock")
+    private Segment segment;
+
+    @GuardedBy("lock")
+    private long checkpointPosition;
+
+    @GuardedBy("lock")
+    private long numberOfRecords;
+
+    @GuardedBy("lock")
+    private boolean closed;
+
+}
@@ -0,0 +1,132 @@
+/*
+ * AISUtils
+ * - a java-based library for processing of AIS messages received from digital
+ * VHF radio traffic related to maritime navigation and safety in compliance with ITU 1371.
+ *
+ * (C) Copyright 2011- by S-Consult ApS, DK31327490, http://s-consult.dk, Denmark.
+ *
+ * Released under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * For details of this license see the nearby LICENCE-full file, visit http://creativecommons.org/licenses/by-nc-sa/3.0/
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ *
+ * NOT FOR COMMERCIAL USE!
+ * Contact sales@s-consult.dk to obtain a commercially licensed version of this software.
+ *
+ */
+
+
+package dk.tbsalling.ais.tracker;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.Predicate;
+
+/**
+ * A NearestTrackSearch finds the k tracks nearest to a position by a best-first search through the spatial
+ * indexes of the shards of a tracker.
+ *
+ * The search visits square rings of grid cells around the cell of the position, nearest rings first, and stops
+ * as soon as k tracks have been found which are all nearer than any position outside the rings visited. Each
+ * candidate is first checked against a cheap lower bound of its distance, then against the predicate, and only
+ * then is its exact great-circle distance computed. If the rings visited come to outnumber the non-empty cells -
+ * as when few tracks match the predicate - the remaining non-empty cells are scanned instead.
+ *
+ * Like the other queries of the tracker, the search does not lock the shards.
+ */
+@NotThreadSafe
+final class NearestTrackSearch {
+
+    NearestTrackSearch(TrackShard[] shards, double latitude, double longitude, int k, Predicate<? super AISTrack> predicate) {
+        if (!(latitude >= -90 && latitude <= 90))
+            throw new IllegalArgumentException("latitude must be within -90..90, not " + latitude);
+        if (!(longitude >= -180 && longitude <= 180))
+            throw new IllegalArgumentException("longitude must be within -180..180, not " + longitude);
+        if (k < 1)
+            throw new IllegalArgumentException("k must be positive, not " + k);
+        this.shards = shards;
+        this.latitude = latitude;
+        this.longitude = longitude;
+        this.k = k;
+        this.predicate = predicate;
+    }
+
+    /** Return the nearest tracks which satisfy the predicate, nearest first. */
+    List<AISTrack> search() {
+        final SpatialIndex grid = shards[0].spatialIndex;
+        final int row = grid.rowOf(latitude);
+        final int column = grid.columnOf(longitude);
+
+        long numberOfCells = 0;
+        for (TrackShard shard : shards)
+            numberOfCells += shard.spatialIndex.getNumberOfCells();
+
+        long numberOfCellsVisited = 0;
+        for (int ring = 0; ; ring++) {
+            if (nearest.size() == k && grid.distanceBeyondRing(row, ring - 1) > nearest.peek().distance())
+                break;
+            if (numberOfCellsVisited > numberOfCells) {
+                for (TrackShard shard : shards)
+                    shard.spatialIndex.forEachCandidate(EVERYWHERE, mmsi -> consider(shard, mmsi));
+                break;
+            }
+            final int r = ring;
+            for (TrackShard shard : shards)
+                numberOfCellsVisited += shard.spatialIndex.forEachCandidateInRing(row, column, r, mmsi -> consider(shard, mmsi));
+            if (grid.ringCoversGrid(row, ring))
+                break;
+        }
+
+        final List<Neighbour> neighbours = new ArrayList<>(nearest);
+        neighbours.sort(Comparator.comparingDouble(Neighbour::distance));
+        final List<AISTrack> tracks = new ArrayList<>(neighbours.size());
+        neighbours.forEach(neighbour -> tracks.add(neighbour.track()));
+        return tracks;
+    }
+
+    private void consider(TrackShard shard, long mmsi) {
+        // A track being moved may be seen in two cells; and rings may overlap near the poles
+        if (!considered.add(mmsi))
+            return;
+        final AISTrack track = shard.tracks.get(mmsi);
+        if (track == null)
+            return;
+        final Float trackLatitude = track.getLatitude();
+        final Float trackLongitude = track.getLongitude();
+        if (!SpatialIndex.isValidPosition(trackLatitude, trackLongitude))
+            return;
+        if (nearest.size() == k && GreatCircle.lowerBound(latitude, longitude, trackLatitude, trackLongitude) >= nearest.peek().distance())
+            return;
+        if (!predicate.test(track))
+            return;
+        final double distance = GreatCircle.distance(latitude, longitude, trackLatitude, trackLongitude);
+        if (nearest.size() < k) {
+            nearest.add(new Neighbour(track, distance));
+        } else if (distance < nearest.peek().distance()) {
+            nearest.poll();
+            nearest.add(new Neighbour(track, distance));
+        }
+    }
+
+    private record Neighbour(AISTrack track, double distance) {
+    }
+
+    private final static BoundingBox EVERYWHERE = new BoundingBox(-90, -180, 90, 180);
+
+    private final TrackShard[] shards;
+    private final double latitude;
+    private final double longitude;
+    private final int k;
+    private final Predicate<? super AISTrack> predicate;
+
+    /** The nearest tracks found so far; farthest first */
+    private final PriorityQueue<Neighbour> nearest = new PriorityQueue<>(Comparator.comparingDouble(Neighbour::distance).reversed());
+
+    /** The MMSI no's of the tracks considered so far */
+    private final Set<Long> considered = new HashSet<>();
+
+}
@@ -0,0 +1,112 @@
+/*
+ * AISUtils
+ * - a java-based library for processing of AIS messages received from digital
+ * VHF radio traffic related to maritime navigation and safety in compliance with ITU 1371.
+ *
+ * (C) Copyright 2011- by S-Consult ApS, DK31327490, http://s-consult.dk, Denmark.
+ *
+ * Released under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * For details of this license see the nearby LICENCE-full file, visit http://creativecommons.org/licenses/by-nc-sa/3.0/
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ *
+ * NOT FOR COMMERCIAL USE!
+ * Contact sales@s-consult.dk to obtain a commercially licensed version of this software.
+ *
+ */
+
+package dk.tbsalling.ais.tracker;
+
+import com.google.common.collect.ImmutableSortedMap;
+import dk.tbsalling.aismessages.ais.messages.DynamicDataReport;
+
+import javax.annotation.concurrent.Immutable;
+import java.time.Instant;
+
+/**
+ * NoHistory is the history of tracks in trackers which do not keep history. It is always empty.
+ */
+@Immutable
+final class NoHistory implements TrackHistory {
+
+    static final NoHistory INSTANCE = new NoHistory();
+
+    private NoHistory() {
+    }
+
+    @Override
+    public TrackHistory append(Instant instant, DynamicDataReport dynamicDataReport) {
+        return this;
+    }
+
+    @Override
+    public TrackHistory append(Instant instant, float latitude, float longitude, float speedOverGround, float courseOverGround, int trueHeading) {
+        return this;
+    }
+
+    @Override
+    public TrackHistory trimBefore(Instant oldestInstantToKeep) {
+        return this;
+    }
+
+    @Override
+    public int size() {
+        return 0;
+    }
+
+    @Override
+    public Instant getOldestInstant() {
+        return null;
+    }
+
+    @Override
+    public Instant getNewestInstant() {
+        return null;
+    }
+
+    @Override
+    public HistoryCursor cursor(Instant from, Instant to) {
+        return EMPTY_CURSOR;
+    }
+
+    @Override
+    public ImmutableSortedMap<Instant, DynamicDataReport> toSortedMap() {
+        return ImmutableSortedMap.of();
+    }
+
+    private static final HistoryCursor EMPTY_CURSOR = new HistoryCursor() {
+        @Override
+        public boolean next() {
+            return false;
+        }
+
+        @Override
+        public long getEpochMilli() {
+            throw new IllegalStateException();
+        }
+
+        @Override
+        public float getLatitude() {
+            throw new IllegalStateException();
+        }
+
+        @Override
+        public float getLongitude() {
+            throw new IllegalStateException();
+        }
+
+        @Override
+        public float getSpeedOverGround() {
+            throw new IllegalStateException();
+        }
+
+        @Override
+        public float getCourseOverGround() {
+            throw new IllegalStateException();
+        }
+
+        @Override
+        public int getTrueHeading() {
+            throw new IllegalStateException();
+        }
+    };
+}
@@ -0,0 +1,43 @@
+/*
+ * AISUtils
+ * - a java-based library for processing of AIS messages received from digital
+ * VHF radio traffic related to maritime navigation and safety in compliance with ITU 1371.
+ *
+ * (C) Copyright 2011- by S-Consult ApS, DK31327490, http://s-consult.dk, Denmark.
+ *
+ * Released under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * For details of this license see the nearby LICENCE-full file, visit http://creativecommons.org/licenses/by-nc-sa/3.0/
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ *
+ * NOT FOR COMMERCIAL USE!
+ * Contact sales@s-consult.dk to obtain a commercially licensed version of this software.
+ *
+ */
+
+package dk.tbsalling.ais.tracker;
+
+/**
+ * The OverflowPolicy determines what happens when an event is posted to a subscriber whose bounded queue of
+ * events is full.
+ */
+public enum OverflowPolicy {
+
+    /** Posting waits until the subscriber has taken events from its queue; i.e. the tracker is held up. */
+    BLOCK,
+
+    /** The oldest event in the queue is dropped to make room for the new event. */
+    DROP_OLDEST,
+
+    /** The new event is dropped. */
+    DROP_NEWEST,
+
+    /**
+     * An event replaces the event of the same type for the same MMSI - or, for events not about a track, of the same
+     * type - if such an event is in the queue; the replacing event takes the place of the event it replaces, so that
+     * e.g. the creation of a track is still delivered before its updates. A deleted event discards the queued events
+     * of its vessel - and is itself discarded if the created event of the track was among them. The queue then holds
+     * at most one event per type and vessel. If the queue is full of events of other types or vessels, the oldest
+     * event is dropped.
+     */
+    CONFLATE
+}
@@ -0,0 +1,310 @@
+/*
+ * AISUtils
+ * - a java-based library for processing of AIS messages received from digital
+ * VHF radio traffic related to maritime navigation and safety in compliance with ITU 1371.
+ *
+ * (C) Copyright 2011- by S-Consult ApS, DK31327490, http://s-consult.dk, Denmark.
+ *
+ * Released under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * For details of this license see the nearby LICENCE-full file, visit http://creativecommons.org/licenses/by-nc-sa/3.0/
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ *
+ * NOT FOR COMMERCIAL USE!
+ * Contact sales@s-consult.dk to obtain a commercially licensed version of this software.
+ *
+ */
+
+package dk.tbsalling.ais.tracker;
+
+import com.google.common.collect.ImmutableSortedMap;
+import dk.tbsalling.aismessages.ais.messages.AISMessage;
+import dk.tbsalling.aismessages.ais.messages.AISMessageFactory;
+import dk.tbsalling.aismessages.ais.messages.DynamicDataReport;
+import dk.tbsalling.aismessages.ais.messages.ExtendedDynamicDataReport;
+import dk.tbsalling.aismessages.ais.messages.Metadata;
+import dk.tbsalling.aismessages.nmea.messages.NMEAMessage;
+
+import javax.annotation.concurrent.Immutable;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BiConsumer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * PayloadHistory is a persistent (immutable) time-ordered list of dynamic data reports, which keeps only the raw
+ * 6-bit armored payload of each report - typically 28 bytes - packed in a byte arena together with its time.
+ * The reports are decoded again from their payloads only when the history is iterated; either as a map or with
+ * a cursor. A decoded report has the time of its entry as its time of reception, but neither source nor tag block.
+ *
+ * Like DynamicDataHistory, all versions of a track's history share one arena; appending to the newest version
+ * is amortized O(1), and trimming the oldest entries is O(log n). A history may be limited to a max no. of
+ * entries, in which case appending beyond the limit drops the oldest entry.
+ */
+@Immutable
+final class PayloadHistory implements TrackHistory {
+
+    static final PayloadHistory EMPTY = new PayloadHistory(new Arena(0, 0), 0, 0, Integer.MAX_VALUE);
+
+    /** Return an empty history, which will keep at most maxSize of the newest entries. */
+    static PayloadHistory empty(int maxSize) {
+        if (maxSize < 1)
+            throw new IllegalArgumentException("maxSize must be positive, not " + maxSize);
+        return maxSize == Integer.MAX_VALUE ? EMPTY : new PayloadHistory(new Arena(0, 0), 0, 0, maxSize);
+    }
+
+    private PayloadHistory(Arena arena, int from, int to, int maxSize) {
+        this.arena = arena;
+        this.from = from;
+        this.to = to;
+        this.maxSize = maxSize;
+    }
+
+    /**
+     * {@inheritDoc}
+     * The time of the report must be strictly after the time of the newest entry, and the report must have
+     * the NMEA sentences it was decoded from.
+     */
+    @Override
+    public PayloadHistory append(Instant instant, DynamicDataReport dynamicDataReport) {
+        requireNonNull(instant);
+        requireNonNull(dynamicDataReport);
+        if (!isEmpty() && compareTo(to - 1, instant) >= 0)
+            throw new IllegalArgumentException("Cannot append history at " + instant + " which is not after " + getNewestInstant());
+        final Metadata metadata = ((AISMessage) dynamicDataReport).getMetadata();
+        final NMEAMessage[] nmeaMessages = metadata != null ? metadata.nmeaMessages() : null;
+        if (nmeaMessages == null || nmeaMessages.length == 0)
+            throw new IllegalArgumentException("Cannot keep the payload of a report without NMEA sentences: " + dynamicDataReport);
+        int length = 0;
+        for (NMEAMessage nmeaMessage : nmeaMessages)
+            length += nmeaMessage.getEncodedPayload().length();
+
+        Arena target = arena;
+        int index = to;
+        int newFrom = Math.max(from, to + 1 - maxSize);
+        // Claim the slot after our last entry - and with it the free bytes after our last payload - this fails if
+        // another version has already claimed it
+        if (!(to < arena.ends.length && arena.endOf(to - 1) + length <= arena.payloads.length && arena.claimed.compareAndSet(to, to + 1))) {
+            final int keep = Math.min(size(), maxSize - 1);
+            final int keepFrom = arena.endOf(to - keep - 1), keepBytes = arena.endOf(to - 1) - keepFrom;
+            target = new Arena(Math.max(INITIAL_CAPACITY, 2 * (keep + 1)), Math.max(INITIAL_CAPACITY * 32, 2 * (keepBytes + length)));
+            arena.copyTo(to - keep, target, keep, keepFrom, keepBytes);
+            target.claimed.set(keep + 1);
+            index = keep;
+            newFrom = 0;
+        }
+
+        int end = target.endOf(index - 1);
+        for (NMEAMessage nmeaMessage : nmeaMessages) {
+            final String payload = nmeaMessage.getEncodedPayload();
+            for (int i = 0; i < payload.length(); i++)
+                target.payloads[end++] = (byte) payload.charAt(i);
+        }
+        target.epochSeconds[index] = instant.getEpochSecond();
+        target.nanos[index] = instant.getNano();
+        target.fillBits[index] = (byte) nmeaMessages[nmeaMessages.length - 1].getFillBits();
+        target.ends[index] = end;
+        return new PayloadHistory(target, newFrom, index + 1, maxSize);
+    }
+
+    @Override
+    public PayloadHistory append(Instant instant, float latitude, float longitude, float speedOverGround, float courseOverGround, int trueHeading) {
+        throw new UnsupportedOperationException("Cannot append to a history of payloads without a report.");
+    }
+
+    @Override
+    public PayloadHistory trimBefore(Instant oldestInstantToKeep) {
+        final int newFrom = indexOf(oldestInstantToKeep);
+        if (newFrom == from)
+            return this;
+        if (newFrom == to)
+            return empty(maxSize);
+        return new PayloadHistory(arena, newFrom, to, maxSize);
+    }
+
+    @Override
+    public int size() {
+        return to - from;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return to == from;
+    }
+
+    @Override
+    public Instant getOldestInstant() {
+        return isEmpty() ? null : arena.instantOf(from);
+    }
+
+    @Override
+    public Instant getNewestInstant() {
+        return isEmpty() ? null : arena.instantOf(to - 1);
+    }
+
+    @Override
+    public HistoryCursor cursor(Instant from, Instant to) {
+        return new Cursor(arena, indexOf(from), indexOf(to));
+    }
+
+    @Override
+    public ImmutableSortedMap<Instant, DynamicDataReport> toSortedMap() {
+        ImmutableSortedMap.Builder<Instant, DynamicDataReport> builder = new ImmutableSortedMap.Builder<>(Comparator.<Instant>naturalOrder());
+        forEach(builder::put);
+        return builder.build();
+    }
+
+    /** Decode the entries of this history and pass them to the consumer, oldest first. */
+    void forEach(BiConsumer<Instant, DynamicDataReport> consumer) {
+        for (int i = from; i < to; i++) {
+            final Instant instant = arena.instantOf(i);
+            consumer.accept(instant, arena.decode(i, instant));
+        }
+    }
+
+    /** Return the index of the first entry at or after the given instant; or 'to' if no such entry. */
+    private int indexOf(Instant instant) {
+        int low = from, high = to;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (compareTo(mid, instant) < 0)
+                low = mid + 1;
+            else
+                high = mid;
+        }
+        return low;
+    }
+
+    /** Compare the time of the entry at the given index with an instant. */
+    private int compareTo(int index, Instant instant) {
+        final int c = Long.compare(arena.epochSeconds[index], instant.getEpochSecond());
+        return c != 0 ? c : Integer.compare(arena.nanos[index], instant.getNano());
+    }
+
+    private final static int INITIAL_CAPACITY = 8;
+
+    /** The arena shared by all versions of the history */
+    private final Arena arena;
+
+    /** Index of the oldest entry of this version */
+    private final int from;
+
+    /** Index after the newest entry of this version */
+    private final int to;
+
+    /** Max no. of entries to keep; the oldest entries are dropped when appending beyond this */
+    private final int maxSize;
+
+    private static final class Cursor implements HistoryCursor {
+        Cursor(Arena arena, int from, int to) {
+            this.arena = arena;
+            this.index = from - 1;
+            this.to = to;
+        }
+
+        @Override
+        public boolean next() {
+            if (index + 1 >= to)
+                return false;
+            index++;
+            report = arena.decode(index, arena.instantOf(index));
+            return true;
+        }
+
+        @Override
+        public long getEpochMilli() {
+            return getInstant().toEpochMilli();
+        }
+
+        @Override
+        public Instant getInstant() {
+            return arena.instantOf(index);
+        }
+
+        @Override
+        public float getLatitude() {
+            return report.getLatitude();
+        }
+
+        @Override
+        public float getLongitude() {
+            return report.getLongitude();
+        }
+
+        @Override
+        public float getSpeedOverGround() {
+            return report.getSpeedOverGround();
+        }
+
+        @Override
+        public float getCourseOverGround() {
+            return report.getCourseOverGround();
+        }
+
+        @Override
+        public int getTrueHeading() {
+            return report instanceof ExtendedDynamicDataReport extendedReport ? extendedReport.getTrueHeading() : HEADING_NOT_AVAILABLE;
+        }
+
+        private final Arena arena;
+        private final int to;
+        private int index;
+        private DynamicDataReport report;
+    }
+
+    private static final class Arena {
+        Arena(int capacity, int payloadCapacity) {
+            epochSeconds = new long[capacity];
+            nanos = new int[capacity];
+            fillBits = new byte[capacity];
+            ends = new int[capacity];
+            payloads = new byte[payloadCapacity];
+        }
+
+        /** Return the offset after the payload of the entry at the given index; 0 before the first entry. */
+        int endOf(int index) {
+            return index < 0 ? 0 : ends[index];
+        }
+
+        Instant instantOf(int index) {
+            return Instant.ofEpochSecond(epochSeconds[index], nanos[index]);
+        }
+
+        /** Decode the report of the entry at the given index from a single NMEA sentence with its payload. */
+        DynamicDataReport decode(int index, Instant instant) {
+            final StringBuilder sentence = new StringBuilder(48).append("AIVDM,1,1,,,");
+            for (int i = endOf(index - 1); i < ends[index]; i++)
+                sentence.append((char) payloads[i]);
+            sentence.append(',').append(fillBits[index]);
+            int checksum = 0;
+            for (int i = 0; i < sentence.length(); i++)
+                checksum ^= sentence.charAt(i);
+            final String rawMessage = "!" + sentence + "*" + Character.toUpperCase(Character.forDigit(checksum >> 4, 16)) + Character.toUpperCase(Character.forDigit(checksum & 0xf, 16));
+            return (DynamicDataReport) AISMessageFactory.create(instant, null, null, new NMEAMessage(rawMessage));
+        }
+
+        /** Copy the given no. of entries, and their payload bytes, to the start of the target arena. */
+        void copyTo(int from, Arena target, int length, int payloadFrom, int payloadLength) {
+            System.arraycopy(epochSeconds, from, target.epochSeconds, 0, length);
+            System.arraycopy(nanos, from, target.nanos, 0, length);
+            System.arraycopy(fillBits, from, target.fillBits, 0, length);
+            System.arraycopy(payloads, payloadFrom, target.payloads, 0, payloadLength);
+            for (int i = 0; i < length; i++)
+                target.ends[i] = ends[from + i] - payloadFrom;
+        }
+
+        final long[] epochSeconds;
+        final int[] nanos;
+        final byte[] fillBits;
+
+        /** Offset after the payload of each entry in payloads; the payload of an entry starts at the end of the previous entry */
+        final int[] ends;
+
+        /** The payloads of the entries as 6-bit armored ASCII characters, one per byte */
+        final byte[] payloads;
+
+        /** No. of slots from the start of the arena which have been claimed by some version */
+        final AtomicInteger claimed = new AtomicInteger();
+    }
+}
@@ -0,0 +1,35 @@
+/*
+ * AISUtils
+ * - a java-based library for processing of AIS messages received from digital
+ * VHF radio traffic related to maritime navigation and safety in compliance with ITU 1371.
+ *
+ * (C) Copyright 2011- by S-Consult ApS, DK31327490, http://s-consult.dk, Denmark.
+ *
+ * Released under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * For details of this license see the nearby LICENCE-full file, visit http://creativecommons.org/licenses/by-nc-sa/3.0/
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ *
+ * NOT FOR COMMERCIAL USE!
+ * Contact sales@s-consult.dk to obtain a commercially licensed version of this software.
+ *
+ */
+
+package dk.tbsalling.ais.tracker;
+
+/**
+ * The PruningMode determines how an AISTracker removes expired entries from the dynamic history of its tracks.
+ */
+public enum PruningMode {
+
+    /**
+     * At every prune check period all tracks of a shard are inspected and pruned in one pass, which runs on
+     * the tracker's task executor while holding the lock of the shard.
+     */
+    SWEEP,
+
+    /**
+     * Tracks are pruned when they are updated, and the remaining tracks of a shard are inspected in small
+     * batches along with subsequent updates. No pass ever holds the lock of a shard for more than a batch.
+     */
+    INCREMENTAL
+}
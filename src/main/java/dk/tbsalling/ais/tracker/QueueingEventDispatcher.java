@@ -0,0 +1,384 @@
+/*
+ * AISUtils
+ * - a java-based library for processing of AIS messages received from digital
+ * VHF radio traffic related to maritime navigation and safety in compliance with ITU 1371.
+ *
+ * (C) Copyright 2011- by S-Consult ApS, DK31327490, http://s-consult.dk, Denmark.
+ *
+ * Released under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * For details of this license see the nearby LICENCE-full file, visit http://creativecommons.org/licenses/by-nc-sa/3.0/
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ *
+ * NOT FOR COMMERCIAL USE!
+ * Contact sales@s-consult.dk to obtain a commercially licensed version of this software.
+ *
+ */
+
+package dk.tbsalling.ais.tracker;
+
+import dk.tbsalling.ais.tracker.events.AisTrackCreatedEvent;
+import dk.tbsalling.ais.tracker.events.AisTrackDeletedEvent;
+import dk.tbsalling.ais.tracker.events.AisTrackDynamicsUpdatedEvent;
+import dk.tbsalling.ais.tracker.events.AisTrackEvent;
+import dk.tbsalling.ais.tracker.events.AisTrackUpdatedEvent;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A QueueingEventDispatcher gives each subscriber a bounded queue of its own, and a thread which hands the events of
+ * the queue to the subscriber - in the order posted, and in batches of all the events queued at once. When an event
+ * is posted to a full queue, the overflow policy of the subscriber decides whether posting waits, or an event is
+ * dropped or conflated. Hence a slow subscriber cannot grow the heap, nor - unless its policy is BLOCK - hold up
+ * the tracker or the other subscribers.
+ *
+ * A subscriber which is not a TrackEventHandler is adapted to one by its @Subscribe methods; these are found once,
+ * at registration, and only events of the types they accept are queued for the subscriber. The lag, queue depth and no. of dropped events of each subscriber are available from
+ * getSubscriberStatistics().
+ *
+ * Use e.g. as: AISTracker.builder().eventDispatcher(new QueueingEventDispatcher(10_000, OverflowPolicy.DROP_OLDEST)).build()
+ */
+@ThreadSafe
+public final class QueueingEventDispatcher implements EventDispatcher {
+
+    /**
+     * @param queueCapacity the max no. of events queued for a subscriber, unless given at registration.
+     * @param overflowPolicy what to do when posting to a full queue, unless given at registration.
+     */
+    public QueueingEventDispatcher(int queueCapacity, OverflowPolicy overflowPolicy) {
+        this.queueCapacity = requirePositive(queueCapacity);
+        this.overflowPolicy = requireNonNull(overflowPolicy);
+    }
+
+    @Override
+    public void register(Object subscriber) {
+        register(subscriber, queueCapacity, overflowPolicy);
+    }
+
+    @Override
+    public void register(Object subscriber, int queueCapacity, OverflowPolicy overflowPolicy) {
+        requireNonNull(subscriber);
+        requirePositive(queueCapacity);
+        requireNonNull(overflowPolicy);
+        final TrackEventHandler handler = subscriber instanceof TrackEventHandler eventHandler ? eventHandler : new SubscriberAdapter(subscriber);
+        synchronized (this) {
+            if (shutdown)
+                throw new IllegalStateException("Dispatcher has been shut down.");
+            final Subscriber newSubscriber = new Subscriber(subscriber.toString(), handler, SubscriberAdapter.eventTypesOf(subscriber), queueCapacity, overflowPolicy);
+            newSubscriber.thread = Thread.ofPlatform().name("ais-event-subscriber-" + subscribers.size()).daemon().unstarted(newSubscriber::run);
+            final List<Subscriber> newSubscribers = new ArrayList<>(subscribers);
+            newSubscribers.add(newSubscriber);
+            subscribers = List.copyOf(newSubscribers);
+            newSubscriber.thread.start();
+        }
+    }
+
+    @Override
+    public void post(Object event) {
+        requireNonNull(event);
+        if (shutdown)
+            throw new IllegalStateException("Dispatcher has been shut down.");
+        final long nanos = System.nanoTime();
+        final Class<?> eventType = event.getClass();
+        for (Subscriber subscriber : subscribers)
+            if (SubscriberAdapter.accepts(subscriber.eventTypes, eventType))
+                subscriber.offer(event, nanos);
+    }
+
+    @Override
+    public boolean hasSubscriberFor(Class<?> eventType) {
+        for (Subscriber subscriber : subscribers)
+            if (SubscriberAdapter.accepts(subscriber.eventTypes, eventType))
+                return true;
+        return false;
+    }
+
+    /** Deliver the events already queued, and stop the threads of the subscribers; waits for at most a minute. */
+    @Override
+    public void shutdown() {
+        final List<Subscriber> subscribers;
+        synchronized (this) {
+            if (shutdown)
+                return;
+            shutdown = true;
+            subscribers = this.subscribers;
+        }
+        subscribers.forEach(Subscriber::stop);
+        final long deadline = System.nanoTime() + SHUTDOWN_TIMEOUT_NANOS;
+        for (Subscriber subscriber : subscribers) {
+            try {
+                long remaining = deadline - System.nanoTime();
+                if (remaining > 0)
+                    subscriber.thread.join(remaining / 1_000_000 + 1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    /**
+     * Statistics of one subscriber. The lag is the time since the oldest event, which is queued or being handled by
+     * the subscriber, was posted; zero if there is no such event. Conflated events are those replaced by a newer
+     * event, and are not counted as dropped.
+     */
+    public record SubscriberStatistics(String subscriber, OverflowPolicy overflowPolicy, int queueCapacity, int queueDepth, Duration lag,
+                                       long numberOfDeliveredEvents, long numberOfDroppedEvents, long numberOfConflatedEvents) {
+    }
+
+    /** Return statistics of all subscribers, in the order registered. */
+    public List<SubscriberStatistics> getSubscriberStatistics() {
+        final long now = System.nanoTime();
+        final List<SubscriberStatistics> statistics = new ArrayList<>();
+        for (Subscriber subscriber : subscribers)
+            statistics.add(subscriber.statistics(now));
+        return statistics;
+    }
+
+    private static int requirePositive(int queueCapacity) {
+        if (queueCapacity < 1)
+            throw new IllegalArgumentException("queueCapacity must be positive, not " + queueCapacity);
+        return queueCapacity;
+    }
+
+    private final static long SHUTDOWN_TIMEOUT_NANOS = 60_000_000_000L;
+
+    private final int queueCapacity;
+    private final OverflowPolicy overflowPolicy;
+
+    private volatile List<Subscriber> subscribers = List.of();
+
+    private volatile boolean shutdown;
+
+    /** The key under which an event is conflated with older events */
+    private record ConflationKey(Class<?> eventType, long mmsi) {
+        static ConflationKey of(Object event) {
+            return new ConflationKey(event.getClass(), event instanceof AisTrackEvent trackEvent ? trackEvent.getMmsi() : -1);
+        }
+    }
+
+    private record Pending(Object event, long postedNanos) {
+    }
+
+    private static final Class<?>[] TRACK_EVENT_TYPES = {
+        AisTrackCreatedEvent.class, AisTrackUpdatedEvent.class, AisTrackDynamicsUpdatedEvent.class, AisTrackDeletedEvent.class
+    };
+
+    private static final class Subscriber {
+        Subscriber(String name, TrackEventHandler handler, Class<?>[] eventTypes, int capacity, OverflowPolicy overflowPolicy) {
+            this.name = name;
+            this.handler = handler;
+            this.eventTypes = eventTypes;
+            this.capacity = capacity;
+            this.overflowPolicy = overflowPolicy;
+            if (overflowPolicy == OverflowPolicy.CONFLATE) {
+                this.conflated = new LinkedHashMap<>();
+                this.events = null;
+                this.postedNanos = null;
+            } else {
+                this.conflated = null;
+                this.events = new Object[capacity];
+                this.postedNanos = new long[capacity];
+            }
+        }
+
+        void offer(Object event, long nanos) {
+            lock.lock();
+            try {
+                if (stopped) {
+                    numberOfDroppedEvents++;
+                    return;
+                }
+                if (conflated != null) {
+                    final ConflationKey key = ConflationKey.of(event);
+                    final Pending pending = conflated.get(key);
+                    if (event instanceof AisTrackDeletedEvent deletedEvent && discardEventsOf(deletedEvent.getMmsi())) {
+                        // The subscriber has not been told of the track; so neither of its deletion
+                        numberOfConflatedEvents++;
+                        return;
+                    } else if (pending != null) {
+                        // Keep the place of the replaced event, so that e.g. a track is not updated before it is created
+                        conflated.put(key, new Pending(event, pending.postedNanos));
+                        numberOfConflatedEvents++;
+                    } else {
+                        if (conflated.size() == capacity) {
+                            final Iterator<Pending> oldest = conflated.values().iterator();
+                            oldest.next();
+                            oldest.remove();
+                            numberOfDroppedEvents++;
+                        }
+                        conflated.put(key, new Pending(event, nanos));
+                    }
+                } else {
+                    if (size == capacity) {
+                        switch (overflowPolicy) {
+                            case BLOCK -> {
+                                while (size == capacity && !stopped)
+                                    notFull.awaitUninterruptibly();
+                                if (stopped) {
+                                    numberOfDroppedEvents++;
+                                    return;
+                                }
+                            }
+                            case DROP_NEWEST -> {
+                                numberOfDroppedEvents++;
+                                return;
+                            }
+                            default -> {
+                                events[head] = null;
+                                head = (head + 1) % capacity;
+                                size--;
+                                numberOfDroppedEvents++;
+                            }
+                        }
+                    }
+                    final int tail = (head + size) % capacity;
+                    events[tail] = event;
+                    postedNanos[tail] = nanos;
+                    size++;
+                }
+                notEmpty.signal();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        /**
+         * Discard the queued events of a vessel about to be deleted, so that the events of a track created anew are
+         * queued after the deletion; return true if the creation of the track was among them.
+         */
+        @GuardedBy("lock")
+        private boolean discardEventsOf(long mmsi) {
+            boolean created = false;
+            for (Class<?> eventType : TRACK_EVENT_TYPES) {
+                if (conflated.remove(new ConflationKey(eventType, mmsi)) != null) {
+                    numberOfConflatedEvents++;
+                    created |= eventType == AisTrackCreatedEvent.class;
+                }
+            }
+            return created;
+        }
+
+        void run() {
+            final Object[] batch = new Object[capacity];
+            while (true) {
+                int batchSize = 0;
+                lock.lock();
+                try {
+                    while (depth() == 0 && !stopped)
+                        notEmpty.awaitUninterruptibly();
+                    if (depth() == 0)
+                        return;
+                    if (conflated != null) {
+                        for (Pending pending : conflated.values()) {
+                            if (batchSize == 0)
+                                oldestInFlightNanos = pending.postedNanos;
+                            batch[batchSize++] = pending.event;
+                        }
+                        conflated.clear();
+                    } else {
+                        oldestInFlightNanos = postedNanos[head];
+                        for (; size > 0; size--) {
+                            batch[batchSize++] = events[head];
+                            events[head] = null;
+                            head = (head + 1) % capacity;
+                        }
+                        head = 0;
+                    }
+                    inFlight = true;
+                    notFull.signalAll();
+                } finally {
+                    lock.unlock();
+                }
+
+                for (int i = 0; i < batchSize; i++) {
+                    try {
+                        handler.onEvent(batch[i], i == batchSize - 1);
+                    } catch (Throwable e) {
+                        SubscriberAdapter.reportFailure(e);
+                    }
+                    batch[i] = null;
+                }
+
+                lock.lock();
+                try {
+                    inFlight = false;
+                    numberOfDeliveredEvents += batchSize;
+                } finally {
+                    lock.unlock();
+                }
+            }
+        }
+
+        void stop() {
+            lock.lock();
+            try {
+                stopped = true;
+                notEmpty.signal();
+                notFull.signalAll();
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        SubscriberStatistics statistics(long now) {
+            lock.lock();
+            try {
+                final long oldestNanos = inFlight ? oldestInFlightNanos
+                    : depth() == 0 ? now
+                    : conflated != null ? conflated.values().iterator().next().postedNanos : postedNanos[head];
+                return new SubscriberStatistics(name, overflowPolicy, capacity, depth(), Duration.ofNanos(Math.max(0, now - oldestNanos)),
+                    numberOfDeliveredEvents, numberOfDroppedEvents, numberOfConflatedEvents);
+            } finally {
+                lock.unlock();
+            }
+        }
+
+        @GuardedBy("lock")
+        private int depth() {
+            return conflated != null ? conflated.size() : size;
+        }
+
+        final String name;
+        final TrackEventHandler handler;
+        final Class<?>[] eventTypes;
+        final int capacity;
+        final OverflowPolicy overflowPolicy;
+
+        Thread thread;
+
+        private final ReentrantLock lock = new ReentrantLock();
+        private final Condition notEmpty = lock.newCondition();
+        private final Condition notFull = lock.newCondition();
+
+        /** The queue by policy CONFLATE, in the order posted; null otherwise */
+        @GuardedBy("lock")
+        private final Map<ConflationKey, Pending> conflated;
+
+        /** The queue by other policies; a circular buffer of size events from head */
+        @GuardedBy("lock")
+        private final Object[] events;
+        @GuardedBy("lock")
+        private final long[] postedNanos;
+        @GuardedBy("lock")
+        private int head, size;
+
+        @GuardedBy("lock")
+        private boolean inFlight, stopped;
+        @GuardedBy("lock")
+        private long oldestInFlightNanos;
+
+        @GuardedBy("lock")
+        private long numberOfDeliveredEvents, numberOfDroppedEvents, numberOfConflatedEvents;
+    }
+}
@@ -0,0 +1,145 @@
+/*
+ * AISUtils
+ * - a java-based library for processing of AIS messages received from digital
+ * VHF radio traffic related to maritime navigation and safety in compliance with ITU 1371.
+ *
+ * (C) Copyright 2011- by S-Consult ApS, DK31327490, http://s-consult.dk, Denmark.
+ *
+ * Released under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * For details of this license see the nearby LICENCE-full file, visit http://creativecommons.org/licenses/by-nc-sa/3.0/
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ *
+ * NOT FOR COMMERCIAL USE!
+ * Contact sales@s-consult.dk to obtain a commercially licensed version of this software.
+ *
+ */
+
+
+package dk.tbsalling.ais.tracker;
+
+import dk.tbsalling.aismessages.ais.messages.AISMessage;
+
+import javax.annotation.concurrent.GuardedBy;
+import javax.annotation.concurrent.ThreadSafe;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.BiPredicate;
+
+import static java.time.Instant.EPOCH;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A ReorderBuffer holds back messages for a reorder window, so that messages which arrive slightly out of
+ * order - e.g. because they are merged from several receivers - are released in timestamp order.
+ *
+ * The buffer maintains a watermark, which trails the newest timestamp offered by the length of the window.
+ * Messages are kept in a min-heap by timestamp and are released to the sink when the watermark passes them.
+ * A message offered with a timestamp before the last released message is too late to be put in order; it is
+ * dropped and counted rather than released. So is a message which the sink declines.
+ *
+ * Messages are released on the thread which offers the message that advances the watermark, while holding
+ * the lock of the buffer. Hence the sink sees all messages in timestamp order; messages with equal timestamps
+ * are released in the order they were offered. The sink is given with each offer rather than to the constructor,
+ * so that an owner can create the buffer in its own constructor without letting 'this' escape.
+ */
+@ThreadSafe
+final class ReorderBuffer {
+
+    ReorderBuffer(Duration window) {
+        requireNonNull(window);
+        if (window.isNegative())
+            throw new IllegalArgumentException("window cannot be negative: " + window);
+        this.window = window;
+    }
+
+    /** Offer a message to the buffer; and release all messages which have been passed by the watermark to the sink. */
+    void offer(AISMessage message, Instant timestamp, BiPredicate<AISMessage, Instant> sink) {
+        requireNonNull(sink);
+        lock.lock();
+        try {
+            if (timestamp.isBefore(timeOfLastRelease)) {
+                numberOfLateMessages++;
+                return;
+            }
+            heap.add(new Entry(timestamp, sequence++, message));
+            if (timestamp.isAfter(newestTimestamp))
+                newestTimestamp = timestamp;
+            releaseUntil(newestTimestamp.minus(window), sink);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Release all buffered messages to the sink regardless of the watermark. */
+    void flush(BiPredicate<AISMessage, Instant> sink) {
+        requireNonNull(sink);
+        lock.lock();
+        try {
+            releaseUntil(Instant.MAX, sink);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Return the no. of messages dropped because they arrived later than the reorder window, or were declined by the sink. */
+    long getNumberOfLateMessages() {
+        lock.lock();
+        try {
+            return numberOfLateMessages;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /** Return the no. of messages currently held back in the buffer. */
+    int size() {
+        lock.lock();
+        try {
+            return heap.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    Duration getWindow() {
+        return window;
+    }
+
+    private void releaseUntil(Instant watermark, BiPredicate<AISMessage, Instant> sink) {
+        /* Assumes lock is locked */
+        Entry entry;
+        while ((entry = heap.peek()) != null && !entry.timestamp.isAfter(watermark)) {
+            heap.poll();
+            timeOfLastRelease = entry.timestamp;
+            if (!sink.test(entry.message, entry.timestamp))
+                numberOfLateMessages++;
+        }
+    }
+
+    private final Duration window;
+    private final ReentrantLock lock = new ReentrantLock();
+
+    @GuardedBy("lock")
+    private final PriorityQueue<Entry> heap = new PriorityQueue<>(Comparator.comparing((Entry e) -> e.timestamp).thenComparingLong(e -> e.sequence));
+
+    /** The newest timestamp offered so far; the watermark trails this by the window */
+    @GuardedBy("lock")
+    private Instant newestTimestamp = EPOCH;
+
+    /** The timestamp of the newest message released to the sink */
+    @GuardedBy("lock")
+    private Instant timeOfLastRelease = EPOCH;
+
+    /** Tie breaker which keeps messages with equal timestamps in the order they were offered */
+    @GuardedBy("lock")
+    private long sequence;
+
+    @GuardedBy("lock")
+    private long numberOfLateMessages;
+
+    private record Entry(Instant timestamp, long sequence, AISMessage message) {
+    }
+}
@@ -0,0 +1,246 @@
+/*
+ * AISUtils
+ * - a java-based library for processing of AIS messages received from digital
+ * VHF radio traffic related to maritime navigation and safety in compliance with ITU 1371.
+ *
+ * (C) Copyright 2011- by S-Consult ApS, DK31327490, http://s-consult.dk, Denmark.
+ *
+ * Released under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * For details of this license see the nearby LICENCE-full file, visit http://creativecommons.org/licenses/by-nc-sa/3.0/
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ *
+ * NOT FOR COMMERCIAL USE!
+ * Contact sales@s-consult.dk to obtain a commercially licensed version of this software.
+ *
+ */
+
+package dk.tbsalling.ais.tracker;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A RingBufferEventDispatcher delivers events through a ring buffer of a fixed size, which is allocated once.
+ *
+ * Posting an event claims the next sequence no. of the buffer, stores the event in its slot and publishes it;
+ * no objects are allocated per event, and no locks are taken. Each subscriber has a thread of its own, which
+ * follows the published sequence and hands every event to the subscriber - in the order the events were
+ * claimed, and in batches of all the events available at once. A subscriber which is not a TrackEventHandler is
+ * adapted to one by its @Subscribe methods; these are found once, at registration.
+ *
+ * When a subscriber falls behind by the full size of the buffer, posting waits for it to catch up. Hence the
+ * no. of events waiting for delivery is bounded, and a slow subscriber slows down the tracker rather than growing
+ * the heap. The slots keep a reference to the latest events posted, until these are overwritten.
+ *
+ * Use e.g. as: AISTracker.builder().eventDispatcher(new RingBufferEventDispatcher(1 << 14)).build()
+ */
+@ThreadSafe
+public final class RingBufferEventDispatcher implements EventDispatcher {
+
+    /**
+     * @param bufferSize the no. of slots in the buffer; a power of two.
+     */
+    public RingBufferEventDispatcher(int bufferSize) {
+        if (bufferSize < 1 || Integer.bitCount(bufferSize) != 1)
+            throw new IllegalArgumentException("bufferSize must be a positive power of two, not " + bufferSize);
+        this.entries = new Object[bufferSize];
+        this.published = new AtomicLongArray(bufferSize);
+        for (int i = 0; i < bufferSize; i++)
+            this.published.set(i, -1);
+        this.mask = bufferSize - 1;
+    }
+
+    @Override
+    public void register(Object subscriber) {
+        requireNonNull(subscriber);
+        final TrackEventHandler handler = subscriber instanceof TrackEventHandler eventHandler ? eventHandler : new SubscriberAdapter(subscriber);
+        synchronized (this) {
+            if (shutdown)
+                throw new IllegalStateException("Dispatcher has been shut down.");
+            // Events claimed before now are not delivered to the new subscriber, nor does it hold them up
+            final Subscriber newSubscriber = new Subscriber(handler, SubscriberAdapter.eventTypesOf(subscriber), claimed.get());
+            newSubscriber.thread = Thread.ofPlatform().name("ais-event-subscriber-" + subscribers.length).daemon().unstarted(newSubscriber::run);
+            subscribers = Arrays.copyOf(subscribers, subscribers.length + 1);
+            subscribers[subscribers.length - 1] = newSubscriber;
+            newSubscriber.thread.start();
+        }
+    }
+
+    @Override
+    public void post(Object event) {
+        requireNonNull(event);
+        if (shutdown)
+            throw new IllegalStateException("Dispatcher has been shut down.");
+        final Subscriber[] subscribers = this.subscribers;
+        if (subscribers.length == 0)
+            return;
+
+        final long sequence = claimed.incrementAndGet();
+        final long wrapPoint = sequence - entries.length;
+        if (wrapPoint > gatingSequence)
+            awaitSubscribers(wrapPoint, subscribers);
+        entries[(int) sequence & mask] = event;
+        published.set((int) sequence & mask, sequence);
+        for (Subscriber subscriber : subscribers)
+            if (subscriber.waiting)
+                LockSupport.unpark(subscriber.thread);
+    }
+
+    @Override
+    public boolean hasSubscriberFor(Class<?> eventType) {
+        for (Subscriber subscriber : subscribers)
+            if (SubscriberAdapter.accepts(subscriber.eventTypes, eventType))
+                return true;
+        return false;
+    }
+
+    /** Deliver the events already posted, and stop the threads of the subscribers; waits for at most a minute. */
+    @Override
+    public void shutdown() {
+        final Subscriber[] subscribers;
+        synchronized (this) {
+            if (shutdown)
+                return;
+            shutdown = true;
+            subscribers = this.subscribers;
+        }
+        stopSequence = claimed.get();
+        final long deadline = System.nanoTime() + SHUTDOWN_TIMEOUT_NANOS;
+        for (Subscriber subscriber : subscribers) {
+            LockSupport.unpark(subscriber.thread);
+            try {
+                long remaining = deadline - System.nanoTime();
+                if (remaining > 0)
+                    subscriber.thread.join(remaining / 1_000_000 + 1);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+        }
+    }
+
+    public int getBufferSize() {
+        return entries.length;
+    }
+
+    /** Return the no. of times posting an event had to wait for a subscriber to catch up */
+    public long getNumberOfProducerWaits() {
+        return numberOfProducerWaits.sum();
+    }
+
+    /** Wait until all subscribers have handled the event at the wrap point, so that its slot can be reused */
+    private void awaitSubscribers(long wrapPoint, Subscriber[] subscribers) {
+        numberOfProducerWaits.increment();
+        for (int spins = 0; ; spins++) {
+            long minimum = Long.MAX_VALUE;
+            for (Subscriber subscriber : subscribers)
+                minimum = Math.min(minimum, subscriber.sequence);
+            if (minimum >= wrapPoint) {
+                gatingSequence = minimum;
+                return;
+            }
+            if (stopSequence != Long.MAX_VALUE && !isAlive(subscribers))
+                throw new IllegalStateException("Dispatcher has been shut down.");
+            if (spins < SPINS)
+                Thread.onSpinWait();
+            else
+                LockSupport.parkNanos(WAIT_NANOS);
+        }
+    }
+
+    private static boolean isAlive(Subscriber[] subscribers) {
+        for (Subscriber subscriber : subscribers)
+            if (subscriber.thread.isAlive())
+                return true;
+        return false;
+    }
+
+    private final static int SPINS = 100;
+    private final static long WAIT_NANOS = 50_000;
+    private final static long SHUTDOWN_TIMEOUT_NANOS = 60_000_000_000L;
+
+    /** The events by slot; the event with sequence no. s is in slot s & mask */
+    private final Object[] entries;
+
+    /** The sequence no. of the event published in each slot; or -1 */
+    private final AtomicLongArray published;
+
+    private final int mask;
+
+    /** The newest sequence no. claimed by a producer */
+    private final AtomicLong claimed = new AtomicLong(-1);
+
+    /** A sequence no. which all subscribers have handled; the minimum of their sequences when last inspected */
+    private volatile long gatingSequence = -1;
+
+    /** The last sequence no. to deliver before the subscribers stop; Long.MAX_VALUE until shut down */
+    private volatile long stopSequence = Long.MAX_VALUE;
+
+    private volatile Subscriber[] subscribers = new Subscriber[0];
+
+    private volatile boolean shutdown;
+
+    private final LongAdder numberOfProducerWaits = new LongAdder();
+
+    private final class Subscriber {
+        Subscriber(TrackEventHandler handler, Class<?>[] eventTypes, long sequence) {
+            this.handler = handler;
+            this.eventTypes = eventTypes;
+            this.sequence = sequence;
+        }
+
+        void run() {
+            long next = sequence + 1;
+            while (next <= stopSequence) {
+                long available = next - 1;
+                while (published.get((int) (available + 1) & mask) == available + 1)
+                    available++;
+                if (available < next) {
+                    awaitPublished(next);
+                    continue;
+                }
+                for (long s = next; s <= available; s++) {
+                    try {
+                        handler.onEvent(entries[(int) s & mask], s == available);
+                    } catch (Throwable e) {
+                        SubscriberAdapter.reportFailure(e);
+                    }
+                }
+                sequence = available;
+                next = available + 1;
+            }
+        }
+
+        /** Wait until the event with the given sequence no. is published, or the dispatcher is shut down */
+        private void awaitPublished(long next) {
+            for (int spins = 0; spins < SPINS; spins++) {
+                if (published.get((int) next & mask) == next || next > stopSequence)
+                    return;
+                Thread.onSpinWait();
+            }
+            // The producer reads 'waiting' after publishing; so either it sees us waiting, or we see the event
+            waiting = true;
+            if (published.get((int) next & mask) != next && next <= stopSequence)
+                LockSupport.park(this);
+            waiting = false;
+        }
+
+        final TrackEventHandler handler;
+
+        /** The types of events received by the subscriber */
+        final Class<?>[] eventTypes;
+
+        /** The sequence no. of the newest event handled */
+        volatile long sequence;
+
+        volatile boolean waiting;
+
+        Thread thread;
+    }
+}
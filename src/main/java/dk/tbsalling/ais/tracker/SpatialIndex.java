@@ -0,0 +1,208 @@
+/*
+ * AISUtils
+ * - a java-based library for processing of AIS messages received from digital
+ * VHF radio traffic related to maritime navigation and safety in compliance with ITU 1371.
+ *
+ * (C) Copyright 2011- by S-Consult ApS, DK31327490, http://s-consult.dk, Denmark.
+ *
+ * Released under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * For details of this license see the nearby LICENCE-full file, visit http://creativecommons.org/licenses/by-nc-sa/3.0/
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ *
+ * NOT FOR COMMERCIAL USE!
+ * Contact sales@s-consult.dk to obtain a commercially licensed version of this software.
+ *
+ */
+
+
+package dk.tbsalling.ais.tracker;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.LongConsumer;
+
+/**
+ * A SpatialIndex keeps the MMSI no's of tracks in the cells of a uniform latitude/longitude grid by their
+ * latest position, so that the tracks in an area can be found without scanning all tracks.
+ *
+ * Only the non-empty cells are kept. Finding the tracks in a bounding box visits either the cells covered by
+ * the box or - if there are fewer - all non-empty cells, and yields the tracks of the cells which overlap the box.
+ * The candidates must be filtered by their exact position by the caller, but for boxes which are large compared
+ * to a cell, the cost is proportional to the no. of tracks found.
+ *
+ * The index is owned by a TrackShard and modified only while holding the lock of that shard; but like the map of
+ * tracks it can be read by any thread without locking. A track being moved is added to its new cell before it is
+ * removed from its old cell, so a reader may see it twice but never miss it.
+ */
+@NotThreadSafe
+final class SpatialIndex {
+
+    /** The cell of tracks without a valid position, which are not indexed */
+    static final long NO_CELL = -1;
+
+    SpatialIndex() {
+        this(DEFAULT_CELL_SIZE_DEGREES);
+    }
+
+    SpatialIndex(double cellSizeDegrees) {
+        if (!(cellSizeDegrees > 0 && cellSizeDegrees <= 90))
+            throw new IllegalArgumentException("cellSizeDegrees must be within 0..90, not " + cellSizeDegrees);
+        this.cellSizeDegrees = cellSizeDegrees;
+        this.numberOfRows = (int) Math.ceil(180 / cellSizeDegrees);
+        this.numberOfColumns = (int) Math.ceil(360 / cellSizeDegrees);
+    }
+
+    /** Return the cell of the track's current position; or NO_CELL if it has no valid position. */
+    long cellOf(AISTrack track) {
+        return track == null ? NO_CELL : cellOf(track.getLatitude(), track.getLongitude());
+    }
+
+    /** Return the cell of the given position; or NO_CELL if it is not a valid position (e.g. 91, 181 for 'not available'). */
+    long cellOf(Float latitude, Float longitude) {
+        if (!isValidPosition(latitude, longitude))
+            return NO_CELL;
+        return (long) rowOf(latitude) * numberOfColumns + columnOf(longitude);
+    }
+
+    /** Move a track from one cell to another; either may be NO_CELL to add or remove the track. */
+    void move(long mmsi, long fromCell, long toCell) {
+        if (fromCell == toCell)
+            return;
+        if (toCell != NO_CELL)
+            cells.computeIfAbsent(toCell, c -> ConcurrentHashMap.newKeySet()).add(mmsi);
+        if (fromCell != NO_CELL) {
+            Set<Long> cell = cells.get(fromCell);
+            if (cell != null && cell.remove(mmsi) && cell.isEmpty())
+                cells.remove(fromCell);
+        }
+    }
+
+    /** Pass the MMSI no's of all tracks in cells overlapping the bounding box to the consumer. */
+    void forEachCandidate(BoundingBox boundingBox, LongConsumer consumer) {
+        final int fromRow = rowOf(boundingBox.south());
+        final int toRow = rowOf(boundingBox.north());
+        final int fromColumn = columnOf(boundingBox.west());
+        final int toColumn = columnOf(boundingBox.east());
+        final boolean wraps = boundingBox.crossesAntimeridian();
+        final long numberOfColumnsCovered = wraps ? numberOfColumns - fromColumn + toColumn + 1L : toColumn - fromColumn + 1L;
+        final long numberOfCellsCovered = (toRow - fromRow + 1L) * numberOfColumnsCovered;
+
+        if (numberOfCellsCovered > cells.size()) {
+            for (Map.Entry<Long, Set<Long>> cell : cells.entrySet()) {
+                final long row = cell.getKey() / numberOfColumns;
+                final long column = cell.getKey() % numberOfColumns;
+                final boolean columnCovered = wraps ? column >= fromColumn || column <= toColumn : column >= fromColumn && column <= toColumn;
+                if (row >= fromRow && row <= toRow && columnCovered)
+                    cell.getValue().forEach(consumer::accept);
+            }
+        } else {
+            for (int row = fromRow; row <= toRow; row++) {
+                if (wraps) {
+                    forEachCandidate(row, fromColumn, numberOfColumns - 1, consumer);
+                    forEachCandidate(row, 0, toColumn, consumer);
+                } else {
+                    forEachCandidate(row, fromColumn, toColumn, consumer);
+                }
+            }
+        }
+    }
+
+    private void forEachCandidate(int row, int fromColumn, int toColumn, LongConsumer consumer) {
+        for (int column = fromColumn; column <= toColumn; column++)
+            forEachCandidateInCell(row, column, consumer);
+    }
+
+    /**
+     * Pass the MMSI no's of all tracks in the cells of a square ring around a center cell to the consumer. Ring 0 is
+     * the center cell itself; ring r are the cells r rows or columns away from it. Rows beyond the poles are skipped,
+     * and columns wrap around the antimeridian.
+     *
+     * @return the no. of cells looked up.
+     */
+    int forEachCandidateInRing(int row, int column, int ring, LongConsumer consumer) {
+        if (ring == 0)
+            return forEachCandidateInCell(row, column, consumer);
+        int numberOfCellsVisited = 0;
+        for (int c = column - ring; c <= column + ring; c++) {
+            numberOfCellsVisited += forEachCandidateInCell(row - ring, c, consumer);
+            numberOfCellsVisited += forEachCandidateInCell(row + ring, c, consumer);
+        }
+        for (int r = row - ring + 1; r < row + ring; r++) {
+            numberOfCellsVisited += forEachCandidateInCell(r, column - ring, consumer);
+            numberOfCellsVisited += forEachCandidateInCell(r, column + ring, consumer);
+        }
+        return numberOfCellsVisited;
+    }
+
+    private int forEachCandidateInCell(int row, int column, LongConsumer consumer) {
+        if (row < 0 || row >= numberOfRows)
+            return 0;
+        Set<Long> cell = cells.get((long) row * numberOfColumns + Math.floorMod(column, numberOfColumns));
+        if (cell != null)
+            cell.forEach(consumer::accept);
+        return 1;
+    }
+
+    /** Return true if the rings up to and including the given ring around a cell in the given row cover the entire grid. */
+    boolean ringCoversGrid(int row, int ring) {
+        return ring >= row && ring >= numberOfRows - 1 - row && 2L * ring + 1 >= numberOfColumns;
+    }
+
+    /**
+     * Return a lower bound of the great-circle distance in meters from a position in the cell at the given row to any
+     * position outside the rings up to and including the given ring around that cell.
+     *
+     * A position outside the rings is either more than ring cells away in latitude; or it is within the rows of the
+     * rings and more than ring cells away in longitude, in which case both positions are at most as far from the
+     * equator as the outermost of those rows.
+     */
+    double distanceBeyondRing(int row, int ring) {
+        if (ring < 0)
+            return 0;
+        final double gap = Math.toRadians(ring * cellSizeDegrees);
+        final double latitudeBound = GreatCircle.EARTH_RADIUS_METERS * gap;
+        if (2L * ring + 1 >= numberOfColumns)
+            return latitudeBound;
+        final double southernmost = Math.max(-90, (row - ring) * cellSizeDegrees - 90);
+        final double northernmost = Math.min(90, (row + ring + 1) * cellSizeDegrees - 90);
+        final double cosFarthest = Math.cos(Math.toRadians(Math.max(Math.abs(southernmost), Math.abs(northernmost))));
+        final double longitudeBound = 2 * GreatCircle.EARTH_RADIUS_METERS * Math.asin(Math.min(1, cosFarthest * Math.sin(Math.min(gap, Math.PI) / 2)));
+        return Math.min(latitudeBound, longitudeBound);
+    }
+
+    /** Return the no. of non-empty cells */
+    int getNumberOfCells() {
+        return cells.size();
+    }
+
+    double getCellSizeDegrees() {
+        return cellSizeDegrees;
+    }
+
+    static boolean isValidPosition(Float latitude, Float longitude) {
+        return latitude != null && longitude != null
+            && latitude >= -90 && latitude <= 90
+            && longitude >= -180 && longitude <= 180;
+    }
+
+    int rowOf(double latitude) {
+        return Math.min(numberOfRows - 1, (int) Math.floor((latitude + 90) / cellSizeDegrees));
+    }
+
+    int columnOf(double longitude) {
+        return Math.min(numberOfColumns - 1, (int) Math.floor((longitude + 180) / cellSizeDegrees));
+    }
+
+    /** 0.1 degree is about 11 km; small enough for typical radius queries, large enough to keep cells populated */
+    private final static double DEFAULT_CELL_SIZE_DEGREES = 0.1;
+
+    private final double cellSizeDegrees;
+    private final int numberOfRows;
+    private final int numberOfColumns;
+
+    /** The non-empty cells by their index (row * numberOfColumns + column) */
+    private final Map<Long, Set<Long>> cells = new ConcurrentHashMap<>();
+
+}
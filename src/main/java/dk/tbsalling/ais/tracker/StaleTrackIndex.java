@@ -0,0 +1,143 @@
+/*
+ * AISUtils
+ * - a java-based library for processing of AIS messages received from digital
+ * VHF radio traffic related to maritime navigation and safety in compliance with ITU 1371.
+ *
+ * (C) Copyright 2011- by S-Consult ApS, DK31327490, http://s-consult.dk, Denmark.
+ *
+ * Released under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * For details of this license see the nearby LICENCE-full file, visit http://creativecommons.org/licenses/by-nc-sa/3.0/
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ *
+ * NOT FOR COMMERCIAL USE!
+ * Contact sales@s-consult.dk to obtain a commercially licensed version of this software.
+ *
+ */
+
+package dk.tbsalling.ais.tracker;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.function.LongConsumer;
+
+/**
+ * A StaleTrackIndex keeps the MMSI no's of tracks in buckets by the time of their last update, so that
+ * the tracks which have become stale can be found without scanning all tracks.
+ *
+ * Each bucket covers a fixed slice of time. Finding the stale tracks removes all buckets which are entirely
+ * older than the stale limit, and inspects only the single bucket which straddles the limit. The cost of an
+ * expiry is thus proportional to the no. of expired tracks, and the cost of an update is logarithmic in the no.
+ * of non-empty buckets - which is bounded by the stale period divided by the bucket width.
+ *
+ * The index is owned by a TrackShard and guarded by the lock of that shard.
+ */
+@NotThreadSafe
+final class StaleTrackIndex {
+
+    StaleTrackIndex() {
+        this(DEFAULT_BUCKET_WIDTH_MILLIS);
+    }
+
+    StaleTrackIndex(long bucketWidthMillis) {
+        if (bucketWidthMillis <= 0)
+            throw new IllegalArgumentException("bucketWidthMillis must be positive, not " + bucketWidthMillis);
+        this.bucketWidthMillis = bucketWidthMillis;
+    }
+
+    /** Add a track which was last updated at the given time. */
+    void add(long mmsi, Instant timeOfLastUpdate) {
+        final long bucket = bucketOf(timeOfLastUpdate);
+        buckets.computeIfAbsent(bucket, b -> new HashSet<>()).add(mmsi);
+        size++;
+    }
+
+    /** Move a track from its previous time of last update to a new one. */
+    void move(long mmsi, Instant previousTimeOfLastUpdate, Instant timeOfLastUpdate) {
+        final long previousBucket = bucketOf(previousTimeOfLastUpdate);
+        final long bucket = bucketOf(timeOfLastUpdate);
+        if (previousBucket != bucket) {
+            remove(mmsi, previousBucket);
+            buckets.computeIfAbsent(bucket, b -> new HashSet<>()).add(mmsi);
+            size++;
+        }
+    }
+
+    /** Remove a track which was last updated at the given time. */
+    void remove(long mmsi, Instant timeOfLastUpdate) {
+        remove(mmsi, bucketOf(timeOfLastUpdate));
+    }
+
+    /**
+     * Remove all tracks which were last updated before the given instant, and pass their MMSI no's to the consumer.
+     *
+     * @param staleBefore tracks last updated before this instant are stale.
+     * @param timeOfLastUpdate used to look up the exact time of last update of tracks in the bucket straddling staleBefore.
+     * @param staleTrackConsumer receives the MMSI no. of each stale track.
+     */
+    void removeStale(Instant staleBefore, TimeOfLastUpdateLookup timeOfLastUpdate, LongConsumer staleTrackConsumer) {
+        final long boundaryBucket = bucketOf(staleBefore);
+
+        // All tracks in buckets before the boundary bucket are stale
+        NavigableMap<Long, Set<Long>> staleBuckets = buckets.headMap(boundaryBucket, false);
+        for (Iterator<Map.Entry<Long, Set<Long>>> i = staleBuckets.entrySet().iterator(); i.hasNext(); ) {
+            Set<Long> mmsis = i.next().getValue();
+            i.remove();
+            size -= mmsis.size();
+            mmsis.forEach(staleTrackConsumer::accept);
+        }
+
+        // Tracks in the boundary bucket must be checked individually
+        Set<Long> mmsis = buckets.get(boundaryBucket);
+        if (mmsis != null) {
+            for (Iterator<Long> i = mmsis.iterator(); i.hasNext(); ) {
+                long mmsi = i.next();
+                if (timeOfLastUpdate.timeOfLastUpdate(mmsi).isBefore(staleBefore)) {
+                    i.remove();
+                    size--;
+                    staleTrackConsumer.accept(mmsi);
+                }
+            }
+            if (mmsis.isEmpty())
+                buckets.remove(boundaryBucket);
+        }
+    }
+
+    /** Return the no. of tracks in the index. */
+    int size() {
+        return size;
+    }
+
+    private void remove(long mmsi, long bucket) {
+        Set<Long> mmsis = buckets.get(bucket);
+        if (mmsis != null && mmsis.remove(mmsi)) {
+            size--;
+            if (mmsis.isEmpty())
+                buckets.remove(bucket);
+        }
+    }
+
+    private long bucketOf(Instant instant) {
+        return Math.floorDiv(instant.toEpochMilli(), bucketWidthMillis);
+    }
+
+    @FunctionalInterface
+    interface TimeOfLastUpdateLookup {
+        Instant timeOfLastUpdate(long mmsi);
+    }
+
+    /** Default time slice covered by each bucket */
+    private final static long DEFAULT_BUCKET_WIDTH_MILLIS = 1000;
+
+    private final long bucketWidthMillis;
+
+    /** MMSI no's by bucket no.; ordered so that the oldest bucket is first */
+    private final TreeMap<Long, Set<Long>> buckets = new TreeMap<>();
+
+    private int size;
+}
@@ -0,0 +1,55 @@
+/*
+ * AISUtils
+ * - a java-based library for processing of AIS messages received from digital
+ * VHF radio traffic related to maritime navigation and safety in compliance with ITU 1371.
+ *
+ * (C) Copyright 2011- by S-Consult ApS, DK31327490, http://s-consult.dk, Denmark.
+ *
+ * Released under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * For details of this license see the nearby LICENCE-full file, visit http://creativecommons.org/licenses/by-nc-sa/3.0/
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ *
+ * NOT FOR COMMERCIAL USE!
+ * Contact sales@s-consult.dk to obtain a commercially licensed version of this software.
+ *
+ */
+
+package dk.tbsalling.ais.tracker;
+
+import javax.annotation.concurrent.ThreadSafe;
+
+/**
+ * A StringPool is a bounded intern pool, which maps equal strings to one canonical instance - e.g. the ship names
+ * and callsigns of tracks.
+ *
+ * The pool is a direct-mapped table indexed by the hash code of the strings, so interning is a single lookup and
+ * takes no locks; a string which collides with another simply replaces it. Hence the pool never holds more than
+ * its capacity of strings, and a string may be interned as different instances over time - which costs memory,
+ * but is never incorrect. Races between threads are benign, since strings are immutable.
+ */
+@ThreadSafe
+final class StringPool {
+
+    /** Create a pool which holds at most the given no. of strings, rounded up to a power of two. */
+    StringPool(int capacity) {
+        if (capacity < 1 || capacity > 1 << 30)
+            throw new IllegalArgumentException("capacity must be in 1..2^30, not " + capacity);
+        this.strings = new String[capacity == 1 ? 1 : Integer.highestOneBit(capacity - 1) << 1];
+    }
+
+    /** Return the pooled instance of a string equal to the given one; or the given string, which is then pooled. */
+    String intern(String string) {
+        if (string == null)
+            return null;
+        final int hash = string.hashCode();
+        final int slot = (hash ^ hash >>> 16) & (strings.length - 1);
+        final String pooled = strings[slot];
+        if (string.equals(pooled))
+            return pooled;
+        strings[slot] = string;
+        return string;
+    }
+
+    /** Slots of the pool; a power of two in length */
+    private final String[] strings;
+}
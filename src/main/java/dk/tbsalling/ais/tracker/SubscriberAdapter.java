@@ -0,0 +1,144 @@
+/*
+ * AISUtils
+ * - a java-based library for processing of AIS messages received from digital
+ * VHF radio traffic related to maritime navigation and safety in compliance with ITU 1371.
+ *
+ * (C) Copyright 2011- by S-Consult ApS, DK31327490, http://s-consult.dk, Denmark.
+ *
+ * Released under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * For details of this license see the nearby LICENCE-full file, visit http://creativecommons.org/licenses/by-nc-sa/3.0/
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ *
+ * NOT FOR COMMERCIAL USE!
+ * Contact sales@s-consult.dk to obtain a commercially licensed version of this software.
+ *
+ */
+
+package dk.tbsalling.ais.tracker;
+
+import com.google.common.eventbus.Subscribe;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.lang.invoke.MethodHandle;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.lang.reflect.Method;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A SubscriberAdapter makes a TrackEventHandler of an object with methods annotated with Guava's @Subscribe.
+ *
+ * As with Guava's EventBus, each annotated method must take one parameter, and receives the events which are
+ * instances of its parameter type; methods declared by superclasses and interfaces are included, and a method
+ * overridden by the class of the subscriber is called once. Unlike the EventBus, the methods are found once, when
+ * the adapter is constructed; the methods to call for each class of event are found the first time an event of
+ * that class is handled, and are called through method handles rather than by reflection.
+ *
+ * An exception thrown by one method does not prevent the other methods from receiving the event; the exception is
+ * passed to the uncaught exception handler of the current thread.
+ */
+@NotThreadSafe
+final class SubscriberAdapter implements TrackEventHandler {
+
+    SubscriberAdapter(Object subscriber) {
+        requireNonNull(subscriber);
+        for (Method method : subscriberMethodsOf(subscriber.getClass()))
+            methods.add(new SubscriberMethod(method.getParameterTypes()[0], handleOf(subscriber, method)));
+    }
+
+    @Override
+    public void onEvent(Object event, boolean endOfBatch) {
+        for (MethodHandle handle : handlesByEventClass.computeIfAbsent(event.getClass(), this::handlesOf)) {
+            try {
+                handle.invokeExact(event);
+            } catch (Throwable e) {
+                reportFailure(e);
+            }
+        }
+    }
+
+    /** Return the types of events which a subscriber receives, including their subtypes; whether it is a TrackEventHandler or has @Subscribe methods */
+    static Class<?>[] eventTypesOf(Object subscriber) {
+        if (subscriber instanceof ConflatingEventHandler handler)
+            return handler.eventTypes();
+        if (subscriber instanceof TrackEventHandler)
+            return new Class<?>[] { Object.class };
+        return subscriberMethodsOf(subscriber.getClass()).stream().map(method -> method.getParameterTypes()[0]).distinct().toArray(Class<?>[]::new);
+    }
+
+    /** Return true if an event of the given type is an instance of one of the event types */
+    static boolean accepts(Class<?>[] eventTypes, Class<?> eventType) {
+        for (Class<?> type : eventTypes)
+            if (type.isAssignableFrom(eventType))
+                return true;
+        return false;
+    }
+
+    /** Return the @Subscribe methods of a class and its supertypes; with only the most specific declaration of each method */
+    private static List<Method> subscriberMethodsOf(Class<?> subscriberClass) {
+        final List<Method> methods = new ArrayList<>();
+        final Set<String> signatures = new HashSet<>();
+        final Deque<Class<?>> types = new ArrayDeque<>();
+        final Set<Class<?>> visited = new HashSet<>();
+        types.add(subscriberClass);
+        // Visit the class before its supertypes, so that only the most specific declaration of a method is kept
+        while (!types.isEmpty()) {
+            final Class<?> type = types.poll();
+            if (!visited.add(type))
+                continue;
+            for (Method method : type.getDeclaredMethods()) {
+                if (!method.isAnnotationPresent(Subscribe.class) || method.isSynthetic())
+                    continue;
+                final Class<?>[] parameterTypes = method.getParameterTypes();
+                if (parameterTypes.length != 1)
+                    throw new IllegalArgumentException("Method " + method + " has @Subscribe annotation but has " + parameterTypes.length + " parameters; subscriber methods must have exactly 1 parameter.");
+                if (signatures.add(method.getName() + Arrays.toString(parameterTypes)))
+                    methods.add(method);
+            }
+            if (type.getSuperclass() != null)
+                types.add(type.getSuperclass());
+            types.addAll(Arrays.asList(type.getInterfaces()));
+        }
+        return methods;
+    }
+
+    /** Pass an exception thrown by a subscriber to the uncaught exception handler of the current thread */
+    static void reportFailure(Throwable e) {
+        final Thread thread = Thread.currentThread();
+        thread.getUncaughtExceptionHandler().uncaughtException(thread, e);
+    }
+
+    private MethodHandle[] handlesOf(Class<?> eventClass) {
+        final List<MethodHandle> handles = new ArrayList<>();
+        for (SubscriberMethod method : methods)
+            if (method.eventType.isAssignableFrom(eventClass))
+                handles.add(method.handle);
+        return handles.toArray(new MethodHandle[0]);
+    }
+
+    private static MethodHandle handleOf(Object subscriber, Method method) {
+        try {
+            method.setAccessible(true);
+            return MethodHandles.lookup().unreflect(method).bindTo(subscriber).asType(MethodType.methodType(void.class, Object.class));
+        } catch (IllegalAccessException | RuntimeException e) {
+            throw new IllegalArgumentException("Cannot call subscriber method " + method, e);
+        }
+    }
+
+    private record SubscriberMethod(Class<?> eventType, MethodHandle handle) {
+    }
+
+    private final List<SubscriberMethod> methods = new ArrayList<>();
+
+    private final Map<Class<?>, MethodHandle[]> handlesByEventClass = new HashMap<>();
+}
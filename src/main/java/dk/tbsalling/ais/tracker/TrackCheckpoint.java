@@ -0,0 +1,430 @@
+/*
+ * AISUtils
+ * - a java-based library for processing of AIS messages received from digital
+ * VHF radio traffic related to maritime navigation and safety in compliance with ITU 1371.
+ *
+ * (C) Copyright 2011- by S-Consult ApS, DK31327490, http://s-consult.dk, Denmark.
+ *
+ * Released under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * For details of this license see the nearby LICENCE-full file, visit http://creativecommons.org/licenses/by-nc-sa/3.0/
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ *
+ * NOT FOR COMMERCIAL USE!
+ * Contact sales@s-consult.dk to obtain a commercially licensed version of this software.
+ *
+ */
+
+
+package dk.tbsalling.ais.tracker;
+
+import dk.tbsalling.aismessages.ais.messages.AISMessage;
+import dk.tbsalling.aismessages.ais.messages.AISMessageFactory;
+import dk.tbsalling.aismessages.ais.messages.AidToNavigationReport;
+import dk.tbsalling.aismessages.ais.messages.DynamicDataReport;
+import dk.tbsalling.aismessages.ais.messages.Metadata;
+import dk.tbsalling.aismessages.ais.messages.StaticDataReport;
+import dk.tbsalling.aismessages.ais.messages.types.ShipType;
+import dk.tbsalling.aismessages.ais.messages.types.TransponderClass;
+import dk.tbsalling.aismessages.nmea.messages.NMEAMessage;
+import dk.tbsalling.aismessages.nmea.tagblock.NMEATagBlock;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.BiConsumer;
+import java.util.function.Consumer;
+
+/**
+ * A TrackCheckpoint is a binary snapshot of the tracks of an AISTracker, which can be written and read back
+ * with streaming I/O.
+ *
+ * Each report is stored as its receive time, source and raw NMEA sentences, and is decoded again when the
+ * checkpoint is read. Sources are stored once and referred to by number. Compact tracks, which retain no reports,
+ * are stored as their flattened values instead. Histories are stored as reports if the tracker keeps reports or
+ * payloads, and as primitive columns if it keeps columns.
+ *
+ * The layout is:
+ * <pre>
+ *   int magic, int version
+ *   for each track: byte TRACK, byte flags (1 static, 2 dynamic, 4 aton, 8 compact),
+ *                   (instant, message) per flag set - or if compact: instant per flag set, flattened values,
+ *                   byte history kind, int history size, history entries
+ *   byte END, int no. of shards, instant wallclock per shard
+ * </pre>
+ * where an instant is a long epoch second and an int nano, and a message is its time received - as a flag which
+ * is set if it is the instant before the message, or else the instant - a source reference, an optional tag block
+ * and its NMEA sentences.
+ */
+final class TrackCheckpoint {
+
+    private TrackCheckpoint() {
+    }
+
+    /** A Writer writes tracks to a temporary file, which replaces the checkpoint file when the writer is finished. */
+    @NotThreadSafe
+    static final class Writer implements Closeable {
+
+        Writer(Path path) throws IOException {
+            this.path = path;
+            this.temporaryPath = path.resolveSibling(path.getFileName() + ".tmp");
+            this.output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(temporaryPath), BUFFER_SIZE));
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+        }
+
+        void write(AISTrack track) throws IOException {
+            output.writeByte(TRACK);
+            if (!track.retainsReports()) {
+                writeCompact(track);
+                writeHistory(track.dynamicDataHistory());
+                return;
+            }
+            final int flags = (track.getStaticDataReport() != null ? STATIC : 0)
+                | (track.getDynamicDataReport() != null ? DYNAMIC : 0)
+                | (track.getAidToNavigationReport() != null ? ATON : 0);
+            output.writeByte(flags);
+            if (track.getStaticDataReport() != null) {
+                writeInstant(track.getTimeOfStaticUpdate());
+                writeMessage((AISMessage) track.getStaticDataReport(), track.getTimeOfStaticUpdate());
+            }
+            if (track.getDynamicDataReport() != null) {
+                writeInstant(track.getTimeOfDynamicUpdate());
+                writeMessage((AISMessage) track.getDynamicDataReport(), track.getTimeOfDynamicUpdate());
+            }
+            if (track.getAidToNavigationReport() != null) {
+                writeInstant(track.getTimeOfAtonUpdate());
+                writeMessage((AISMessage) track.getAidToNavigationReport(), track.getTimeOfAtonUpdate());
+            }
+            writeHistory(track.dynamicDataHistory());
+        }
+
+        private void writeCompact(AISTrack track) throws IOException {
+            output.writeByte(COMPACT
+                | (track.getTimeOfStaticUpdate() != null ? STATIC : 0)
+                | (track.getTimeOfDynamicUpdate() != null ? DYNAMIC : 0)
+                | (track.getTimeOfAtonUpdate() != null ? ATON : 0));
+            if (track.getTimeOfStaticUpdate() != null)
+                writeInstant(track.getTimeOfStaticUpdate());
+            if (track.getTimeOfDynamicUpdate() != null)
+                writeInstant(track.getTimeOfDynamicUpdate());
+            if (track.getTimeOfAtonUpdate() != null)
+                writeInstant(track.getTimeOfAtonUpdate());
+            output.writeLong(track.getMmsi());
+            writeString(track.getTransponderClass() != null ? track.getTransponderClass().name() : null);
+            writeString(track.getCallsign());
+            writeString(track.getShipName());
+            writeString(track.getShipType() != null ? track.getShipType().name() : null);
+            output.writeShort(track.getToBow() != null ? track.getToBow() : -1);
+            output.writeShort(track.getToStern() != null ? track.getToStern() : -1);
+            output.writeShort(track.getToStarboard() != null ? track.getToStarboard() : -1);
+            output.writeShort(track.getToPort() != null ? track.getToPort() : -1);
+            output.writeFloat(track.getLatitude() != null ? track.getLatitude() : Float.NaN);
+            output.writeFloat(track.getLongitude() != null ? track.getLongitude() : Float.NaN);
+            output.writeFloat(track.getSpeedOverGround() != null ? track.getSpeedOverGround() : Float.NaN);
+            output.writeFloat(track.getCourseOverGround() != null ? track.getCourseOverGround() : Float.NaN);
+            output.writeShort(track.getTrueHeading() != null ? track.getTrueHeading() : -1);
+            output.writeByte(track.secondOfDynamicUpdate());
+            output.writeByte(track.secondOfAtonUpdate());
+        }
+
+        private void writeString(String string) throws IOException {
+            output.writeBoolean(string != null);
+            if (string != null)
+                output.writeUTF(string);
+        }
+
+        /** Write the end of the checkpoint with the wallclock of each shard, and replace the checkpoint file with it. */
+        void finish(Instant[] shardWallclocks) throws IOException {
+            if (shardWallclocks.length == 0)
+                throw new IllegalArgumentException("A checkpoint must have the wallclock of at least one shard.");
+            output.writeByte(END);
+            output.writeInt(shardWallclocks.length);
+            for (Instant shardWallclock : shardWallclocks)
+                writeInstant(shardWallclock);
+            output.close();
+            Files.move(temporaryPath, path, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            finished = true;
+        }
+
+        /** Close the writer; the temporary file is deleted unless the writer was finished. */
+        @Override
+        public void close() throws IOException {
+            if (!finished) {
+                output.close();
+                Files.deleteIfExists(temporaryPath);
+            }
+        }
+
+        private void writeHistory(TrackHistory history) throws IOException {
+            if (history instanceof DynamicDataHistory reports) {
+                writeReports(reports.size(), reports::forEach);
+            } else if (history instanceof PayloadHistory payloads) {
+                writeReports(payloads.size(), payloads::forEach);
+            } else if (history instanceof ColumnarHistory) {
+                output.writeByte(HISTORY_COLUMNS);
+                output.writeInt(history.size());
+                final HistoryCursor cursor = history.cursor(Instant.MIN, Instant.MAX);
+                while (cursor.next()) {
+                    output.writeLong(cursor.getEpochMilli());
+                    output.writeFloat(cursor.getLatitude());
+                    output.writeFloat(cursor.getLongitude());
+                    output.writeFloat(cursor.getSpeedOverGround());
+                    output.writeFloat(cursor.getCourseOverGround());
+                    output.writeShort(cursor.getTrueHeading());
+                }
+            } else {
+                output.writeByte(HISTORY_NONE);
+                output.writeInt(0);
+            }
+        }
+
+        /** Write a history of the given size as reports, which are passed to a consumer by forEach. */
+        private void writeReports(int size, Consumer<BiConsumer<Instant, DynamicDataReport>> forEach) throws IOException {
+            output.writeByte(HISTORY_REPORTS);
+            output.writeInt(size);
+            final IOException[] failure = new IOException[1];
+            forEach.accept((instant, report) -> {
+                try {
+                    if (failure[0] == null) {
+                        writeInstant(instant);
+                        writeMessage((AISMessage) report, instant);
+                    }
+                } catch (IOException e) {
+                    failure[0] = e;
+                }
+            });
+            if (failure[0] != null)
+                throw failure[0];
+        }
+
+        /** Write a message following the instant of the entry, which is its time received unless written otherwise. */
+        private void writeMessage(AISMessage message, Instant timeOfUpdate) throws IOException {
+            final Metadata metadata = message.getMetadata();
+            final Instant received = metadata != null && metadata.received() != null ? metadata.received() : timeOfUpdate;
+            output.writeBoolean(received.equals(timeOfUpdate));
+            if (!received.equals(timeOfUpdate))
+                writeInstant(received);
+            writeSource(metadata != null ? metadata.source() : null);
+            final NMEATagBlock tagBlock = metadata != null ? metadata.nmeaTagBlock() : null;
+            output.writeBoolean(tagBlock != null);
+            if (tagBlock != null)
+                output.writeUTF(tagBlock.getRawMessage());
+            final NMEAMessage[] nmeaMessages = metadata != null ? metadata.nmeaMessages() : null;
+            if (nmeaMessages == null || nmeaMessages.length == 0)
+                throw new IOException("Cannot checkpoint message without NMEA sentences: " + message);
+            output.writeByte(nmeaMessages.length);
+            for (NMEAMessage nmeaMessage : nmeaMessages)
+                output.writeUTF(nmeaMessage.getRawMessage());
+        }
+
+        private void writeSource(String source) throws IOException {
+            if (source == null) {
+                output.writeInt(-1);
+                return;
+            }
+            final Integer reference = sources.get(source);
+            if (reference != null) {
+                output.writeInt(reference);
+            } else {
+                output.writeInt(sources.size());
+                output.writeUTF(source);
+                sources.put(source, sources.size());
+            }
+        }
+
+        private void writeInstant(Instant instant) throws IOException {
+            output.writeLong(instant.getEpochSecond());
+            output.writeInt(instant.getNano());
+        }
+
+        private final Path path;
+        private final Path temporaryPath;
+        private final DataOutputStream output;
+        private final Map<String, Integer> sources = new HashMap<>();
+        private boolean finished;
+    }
+
+    /**
+     * Read the tracks of a checkpoint.
+     *
+     * @param path the checkpoint file.
+     * @param emptyHistory the empty history to which the history of each track is appended.
+     * @param retainReports true if the tracks must retain their reports; false to make them compact.
+     * @param consumer receives the tracks in the order they were written.
+     * @return the wallclock of each shard of the tracker when the shard was copied to the checkpoint.
+     * @throws IOException if the file cannot be read or is not a valid checkpoint; or if it has compact tracks
+     *                     and retainReports is set.
+     */
+    static Instant[] read(Path path, TrackHistory emptyHistory, boolean retainReports, Consumer<AISTrack> consumer) throws IOException {
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(path), BUFFER_SIZE))) {
+            if (input.readInt() != MAGIC)
+                throw new IOException("Not a tracker checkpoint: " + path);
+            final int version = input.readInt();
+            if (version != VERSION)
+                throw new IOException("Unsupported tracker checkpoint version " + version + ": " + path);
+
+            final Reader reader = new Reader(input, emptyHistory, retainReports);
+            int marker;
+            while ((marker = input.readByte()) == TRACK)
+                consumer.accept(reader.readTrack());
+            if (marker != END)
+                throw new IOException("Corrupt tracker checkpoint: " + path);
+            final int numberOfShards = input.readInt();
+            if (numberOfShards <= 0)
+                throw new IOException("Corrupt tracker checkpoint: " + path);
+            final Instant[] shardWallclocks = new Instant[numberOfShards];
+            for (int i = 0; i < numberOfShards; i++)
+                shardWallclocks[i] = reader.readInstant();
+            return shardWallclocks;
+        } catch (RuntimeException e) {
+            // Decoding failures and inconsistent tracks
+            throw new IOException("Corrupt tracker checkpoint: " + path, e);
+        }
+    }
+
+    private static final class Reader {
+        Reader(DataInputStream input, TrackHistory emptyHistory, boolean retainReports) {
+            this.input = input;
+            this.emptyHistory = emptyHistory;
+            this.retainReports = retainReports;
+        }
+
+        AISTrack readTrack() throws IOException {
+            final int flags = input.readByte();
+            if ((flags & COMPACT) != 0) {
+                if (retainReports)
+                    throw new IOException("Cannot restore compact tracks into a tracker which keeps reports");
+                return readCompactTrack(flags);
+            }
+            StaticDataReport staticDataReport = null;
+            DynamicDataReport dynamicDataReport = null;
+            AidToNavigationReport aidToNavigationReport = null;
+            Instant timeOfStaticUpdate = null, timeOfDynamicUpdate = null, timeOfAtonUpdate = null;
+            if ((flags & STATIC) != 0) {
+                timeOfStaticUpdate = readInstant();
+                staticDataReport = (StaticDataReport) readMessage(timeOfStaticUpdate);
+            }
+            if ((flags & DYNAMIC) != 0) {
+                timeOfDynamicUpdate = readInstant();
+                dynamicDataReport = (DynamicDataReport) readMessage(timeOfDynamicUpdate);
+            }
+            if ((flags & ATON) != 0) {
+                timeOfAtonUpdate = readInstant();
+                aidToNavigationReport = (AidToNavigationReport) readMessage(timeOfAtonUpdate);
+            }
+            final TrackHistory history = readHistory();
+            final AISTrack track = new AISTrack(staticDataReport, dynamicDataReport, aidToNavigationReport, timeOfStaticUpdate, timeOfDynamicUpdate, timeOfAtonUpdate, history);
+            return retainReports ? track : new AISTrack(track, history, false);
+        }
+
+        private AISTrack readCompactTrack(int flags) throws IOException {
+            final Instant timeOfStaticUpdate = (flags & STATIC) != 0 ? readInstant() : null;
+            final Instant timeOfDynamicUpdate = (flags & DYNAMIC) != 0 ? readInstant() : null;
+            final Instant timeOfAtonUpdate = (flags & ATON) != 0 ? readInstant() : null;
+            final long mmsi = input.readLong();
+            final String transponderClass = readString();
+            final String callsign = readString();
+            final String shipName = readString();
+            final String shipType = readString();
+            final int toBow = input.readShort(), toStern = input.readShort(), toStarboard = input.readShort(), toPort = input.readShort();
+            final float latitude = input.readFloat(), longitude = input.readFloat();
+            final float speedOverGround = input.readFloat(), courseOverGround = input.readFloat();
+            final int trueHeading = input.readShort();
+            final int secondOfDynamicUpdate = input.readByte(), secondOfAtonUpdate = input.readByte();
+            final TrackHistory history = readHistory();
+            return new AISTrack(mmsi, transponderClass != null ? TransponderClass.valueOf(transponderClass) : null, callsign, shipName,
+                shipType != null ? ShipType.valueOf(shipType) : null, toBow, toStern, toStarboard, toPort,
+                latitude, longitude, speedOverGround, courseOverGround, trueHeading, secondOfDynamicUpdate, secondOfAtonUpdate,
+                timeOfStaticUpdate, timeOfDynamicUpdate, timeOfAtonUpdate, history);
+        }
+
+        private String readString() throws IOException {
+            return input.readBoolean() ? input.readUTF() : null;
+        }
+
+        private TrackHistory readHistory() throws IOException {
+            final int kind = input.readByte();
+            final int size = input.readInt();
+            TrackHistory history = emptyHistory;
+            if (kind == HISTORY_REPORTS) {
+                for (int i = 0; i < size; i++) {
+                    final Instant instant = readInstant();
+                    history = history.append(instant, (DynamicDataReport) readMessage(instant));
+                }
+            } else if (kind == HISTORY_COLUMNS) {
+                if (size > 0 && !(emptyHistory instanceof ColumnarHistory || emptyHistory instanceof NoHistory))
+                    throw new IOException("Cannot restore columnar history into a tracker which keeps reports");
+                for (int i = 0; i < size; i++) {
+                    final long epochMilli = input.readLong();
+                    final float latitude = input.readFloat(), longitude = input.readFloat();
+                    final float speedOverGround = input.readFloat(), courseOverGround = input.readFloat();
+                    final int trueHeading = input.readShort();
+                    if (history instanceof ColumnarHistory columns)
+                        history = columns.append(epochMilli, latitude, longitude, speedOverGround, courseOverGround, trueHeading);
+                }
+            } else if (kind != HISTORY_NONE) {
+                throw new IOException("Unknown history kind " + kind);
+            }
+            return history;
+        }
+
+        private AISMessage readMessage(Instant timeOfUpdate) throws IOException {
+            final Instant received = input.readBoolean() ? timeOfUpdate : readInstant();
+            final String source = readSource();
+            final NMEATagBlock tagBlock = input.readBoolean() ? NMEATagBlock.fromString(input.readUTF()) : null;
+            final NMEAMessage[] nmeaMessages = new NMEAMessage[input.readByte()];
+            for (int i = 0; i < nmeaMessages.length; i++)
+                nmeaMessages[i] = new NMEAMessage(input.readUTF());
+            return AISMessageFactory.create(received, source, tagBlock, nmeaMessages);
+        }
+
+        private String readSource() throws IOException {
+            final int reference = input.readInt();
+            if (reference < 0)
+                return null;
+            if (reference == sources.size())
+                sources.add(input.readUTF());
+            return sources.get(reference);
+        }
+
+        Instant readInstant() throws IOException {
+            final long epochSecond = input.readLong();
+            return Instant.ofEpochSecond(epochSecond, input.readInt());
+        }
+
+        private final DataInputStream input;
+        private final TrackHistory emptyHistory;
+        private final boolean retainReports;
+        private final List<String> sources = new ArrayList<>();
+    }
+
+    private final static int MAGIC = 0x41495354; // "AIST"
+    private final static int VERSION = 1;
+
+    private final static int BUFFER_SIZE = 1 << 16;
+
+    private final static byte END = 0;
+    private final static byte TRACK = 1;
+
+    private final static int STATIC = 1;
+    private final static int DYNAMIC = 2;
+    private final static int ATON = 4;
+    private final static int COMPACT = 8;
+
+    private final static byte HISTORY_NONE = 0;
+    private final static byte HISTORY_REPORTS = 1;
+    private final static byte HISTORY_COLUMNS = 2;
+
+}
@@ -1,8 +1,33 @@
 package dk.tbsalling.ais.tracker;
 
+import java.time.Duration;
+
 /**
  * Created by tbsalling on 02/02/15.
  */
 public interface TrackEventEmitter {
     void registerSubscriber(Object subscriber);
+
+    /**
+     * Register a subscriber which receives its events through a bounded queue of its own. When an event is posted
+     * to a full queue, the overflowPolicy decides whether posting waits, or an event is dropped or conflated.
+     *
+     * @throws UnsupportedOperationException if the emitter has no queues per subscriber; as by default.
+     */
+    default void registerSubscriber(Object subscriber, int queueCapacity, OverflowPolicy overflowPolicy) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " has no queues per subscriber.");
+    }
+
+    /**
+     * Register a subscriber which receives at most one event per vessel per drainInterval: the events for each vessel
+     * are conflated into one event with its latest track, and handed to the subscriber every drainInterval - together
+     * with the latest event of each other type, e.g. WallclockChangedEvent. Updates of a track, including dynamic
+     * updates, are handed over as one AisTrackUpdatedEvent. The latest track is the one with the latest time of last
+     * update, so events which the event dispatcher delivers out of order do not replace a newer track.
+     *
+     * @throws UnsupportedOperationException if the emitter cannot conflate events; as by default.
+     */
+    default void registerConflatingSubscriber(Object subscriber, Duration drainInterval) {
+        throw new UnsupportedOperationException(getClass().getSimpleName() + " cannot conflate events.");
+    }
 }
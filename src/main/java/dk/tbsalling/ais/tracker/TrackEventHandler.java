@@ -0,0 +1,36 @@
+/*
+ * AISUtils
+ * - a java-based library for processing of AIS messages received from digital
+ * VHF radio traffic related to maritime navigation and safety in compliance with ITU 1371.
+ *
+ * (C) Copyright 2011- by S-Consult ApS, DK31327490, http://s-consult.dk, Denmark.
+ *
+ * Released under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * For details of this license see the nearby LICENCE-full file, visit http://creativecommons.org/licenses/by-nc-sa/3.0/
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ *
+ * NOT FOR COMMERCIAL USE!
+ * Contact sales@s-consult.dk to obtain a commercially licensed version of this software.
+ *
+ */
+
+package dk.tbsalling.ais.tracker;
+
+/**
+ * A TrackEventHandler receives all events posted by a tracker; e.g. as a subscriber registered with
+ * TrackEventEmitter.registerSubscriber().
+ *
+ * Events are handed over in batches of those available at once, so that a handler may accumulate work over a
+ * batch - e.g. database writes or screen updates - and complete it at the end of the batch.
+ */
+@FunctionalInterface
+public interface TrackEventHandler {
+
+    /**
+     * Handle an event.
+     *
+     * @param event the event; e.g. an AisTrackUpdatedEvent.
+     * @param endOfBatch true if this is the last event of the batch; i.e. no further events are available yet.
+     */
+    void onEvent(Object event, boolean endOfBatch) throws Exception;
+}
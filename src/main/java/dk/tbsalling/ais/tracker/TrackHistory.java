@@ -0,0 +1,81 @@
+/*
+ * AISUtils
+ * - a java-based library for processing of AIS messages received from digital
+ * VHF radio traffic related to maritime navigation and safety in compliance with ITU 1371.
+ *
+ * (C) Copyright 2011- by S-Consult ApS, DK31327490, http://s-consult.dk, Denmark.
+ *
+ * Released under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * For details of this license see the nearby LICENCE-full file, visit http://creativecommons.org/licenses/by-nc-sa/3.0/
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ *
+ * NOT FOR COMMERCIAL USE!
+ * Contact sales@s-consult.dk to obtain a commercially licensed version of this software.
+ *
+ */
+
+package dk.tbsalling.ais.tracker;
+
+import com.google.common.collect.ImmutableSortedMap;
+import dk.tbsalling.aismessages.ais.messages.DynamicDataReport;
+
+import java.time.Instant;
+
+/**
+ * A TrackHistory is a persistent (immutable) time-ordered store of a track's past dynamic data.
+ *
+ * Implementations differ in what they retain of each entry, but all of them support cheap appends
+ * of the newest entry and trimming of the oldest entries, sharing storage between versions.
+ */
+interface TrackHistory {
+
+    /**
+     * Return a new version of this history with a report appended as the newest entry.
+     * @param instant the time of the report; must not be before the time of the newest entry.
+     * @param dynamicDataReport the report.
+     * @return the new history.
+     */
+    TrackHistory append(Instant instant, DynamicDataReport dynamicDataReport);
+
+    /**
+     * Return a new version of this history with an entry of flattened dynamic data appended as the newest entry;
+     * e.g. from a track which does not retain its reports.
+     * @param instant the time of the entry; must not be before the time of the newest entry.
+     * @return the new history.
+     * @throws UnsupportedOperationException if this kind of history retains reports.
+     */
+    TrackHistory append(Instant instant, float latitude, float longitude, float speedOverGround, float courseOverGround, int trueHeading);
+
+    /**
+     * Return a new version of this history without the entries older than the given instant.
+     * @param oldestInstantToKeep entries at or after this instant are kept.
+     * @return the trimmed history; or this if nothing was trimmed.
+     */
+    TrackHistory trimBefore(Instant oldestInstantToKeep);
+
+    int size();
+
+    default boolean isEmpty() {
+        return size() == 0;
+    }
+
+    /** Return the instant of the oldest entry; or null if the history is empty. */
+    Instant getOldestInstant();
+
+    /** Return the instant of the newest entry; or null if the history is empty. */
+    Instant getNewestInstant();
+
+    /**
+     * Obtain a cursor over the entries in a given time range.
+     * @param from entries at or after this instant are included.
+     * @param to entries before this instant are included.
+     * @return a cursor positioned before the first entry in the range.
+     */
+    HistoryCursor cursor(Instant from, Instant to);
+
+    /**
+     * Build a sorted map with the entries of this history.
+     * @throws UnsupportedOperationException if this kind of history does not retain the reports.
+     */
+    ImmutableSortedMap<Instant, DynamicDataReport> toSortedMap();
+}
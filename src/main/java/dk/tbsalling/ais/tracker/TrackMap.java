@@ -0,0 +1,249 @@
+/*
+ * AISUtils
+ * - a java-based library for processing of AIS messages received from digital
+ * VHF radio traffic related to maritime navigation and safety in compliance with ITU 1371.
+ *
+ * (C) Copyright 2011- by S-Consult ApS, DK31327490, http://s-consult.dk, Denmark.
+ *
+ * Released under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * For details of this license see the nearby LICENCE-full file, visit http://creativecommons.org/licenses/by-nc-sa/3.0/
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ *
+ * NOT FOR COMMERCIAL USE!
+ * Contact sales@s-consult.dk to obtain a commercially licensed version of this software.
+ *
+ */
+
+package dk.tbsalling.ais.tracker;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.Consumer;
+
+/**
+ * A TrackMap is a hash map from MMSI no. to track, which keeps the MMSI no's as primitive longs - so that neither
+ * lookups nor updates box them. It is specialized for the access pattern of a TrackShard: one writer at a time,
+ * holding the lock of the shard, and any no. of readers without locking.
+ *
+ * The map uses open addressing with linear probing over a table of keys and a table of tracks. Keys and tracks
+ * are written with release and read with acquire semantics, and a track is written before its key when inserted;
+ * so a reader which finds a key also sees its track. A removed track leaves its key behind as a tombstone, since
+ * moving entries to fill the gap could make a concurrent reader miss them. The key of a tombstone is only reused
+ * by the same key. When live entries and tombstones fill half the table, the live entries are copied into a new
+ * table, which is then published for readers; readers still probing the old table see it as it was.
+ *
+ * Iteration is weakly consistent like that of ConcurrentHashMap: it never fails, and sees each track which was
+ * in the map throughout the iteration, but may or may not see changes made during the iteration.
+ */
+@ThreadSafe
+final class TrackMap implements Iterable<AISTrack> {
+
+    TrackMap() {
+        table = new Table(MIN_CAPACITY);
+    }
+
+    /** Return the track of the given MMSI no.; or null if there is none. */
+    AISTrack get(long mmsi) {
+        final Table table = this.table;
+        final int slot = table.find(mmsi);
+        return slot < 0 ? null : table.getTrack(slot);
+    }
+
+    /** Return true if there is a track of the given MMSI no. */
+    boolean containsKey(long mmsi) {
+        return get(mmsi) != null;
+    }
+
+    /** Insert or replace the track of the given MMSI no., and return the previous track; must hold the lock of the shard. */
+    AISTrack put(long mmsi, AISTrack track) {
+        if (mmsi == EMPTY)
+            throw new IllegalArgumentException("Invalid MMSI no.: " + mmsi);
+        if (track == null)
+            throw new NullPointerException();
+        final int slot = table.find(mmsi);
+        if (slot >= 0) {
+            final AISTrack previousTrack = table.getTrack(slot);
+            table.setTrack(slot, track);
+            if (previousTrack == null)
+                size++;
+            return previousTrack;
+        }
+        if (2 * (usedSlots + 1) > table.capacity())
+            rehash();
+        table.insert(mmsi, track);
+        usedSlots++;
+        size++;
+        return null;
+    }
+
+    /** Remove the track of the given MMSI no., and return it; or null if there is none. Must hold the lock of the shard. */
+    AISTrack remove(long mmsi) {
+        final int slot = table.find(mmsi);
+        if (slot < 0)
+            return null;
+        final AISTrack previousTrack = table.getTrack(slot);
+        if (previousTrack != null) {
+            table.setTrack(slot, null);
+            size--;
+        }
+        return previousTrack;
+    }
+
+    /** Remove all tracks; must hold the lock of the shard. */
+    void clear() {
+        table = new Table(MIN_CAPACITY);
+        usedSlots = 0;
+        size = 0;
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    /** Pass each track to the consumer. The consumer may replace tracks, if the caller holds the lock of the shard. */
+    @Override
+    public void forEach(Consumer<? super AISTrack> consumer) {
+        final Table table = this.table;
+        for (int slot = 0; slot < table.capacity(); slot++) {
+            final AISTrack track = table.getTrack(slot);
+            if (track != null)
+                consumer.accept(track);
+        }
+    }
+
+    /** Return a copy of the tracks in the map. */
+    AISTrack[] toArray() {
+        final AISTrack[] tracks = new AISTrack[size];
+        final int[] n = { 0 };
+        forEach(track -> {
+            if (n[0] < tracks.length)
+                tracks[n[0]++] = track;
+        });
+        return n[0] == tracks.length ? tracks : Arrays.copyOf(tracks, n[0]);
+    }
+
+    @Override
+    public Iterator<AISTrack> iterator() {
+        final Table table = this.table;
+        return new Iterator<>() {
+            @Override
+            public boolean hasNext() {
+                while (next == null && slot < table.capacity())
+                    next = table.getTrack(slot++);
+                return next != null;
+            }
+
+            @Override
+            public AISTrack next() {
+                if (!hasNext())
+                    throw new NoSuchElementException();
+                final AISTrack track = next;
+                next = null;
+                return track;
+            }
+
+            private int slot;
+            private AISTrack next;
+        };
+    }
+
+    /** Copy the live entries into a new table, large enough that it is at most a quarter full; and publish it. */
+    private void rehash() {
+        final Table oldTable = table;
+        final Table newTable = new Table(Math.max(MIN_CAPACITY, Integer.highestOneBit(Math.max(1, size + 1) * 4 - 1) << 1));
+        for (int slot = 0; slot < oldTable.capacity(); slot++) {
+            final AISTrack track = oldTable.getTrack(slot);
+            if (track != null)
+                newTable.insert(oldTable.getKey(slot), track);
+        }
+        table = newTable;
+        usedSlots = size;
+    }
+
+    /** The keys and tracks of the map; a track is null where there is no entry or the entry has been removed. */
+    private static final class Table {
+        Table(int capacity) {
+            keys = new long[capacity];
+            Arrays.fill(keys, EMPTY);
+            tracks = new AISTrack[capacity];
+            mask = capacity - 1;
+        }
+
+        int capacity() {
+            return keys.length;
+        }
+
+        /** Return the slot of the given key, live or removed; or -1 if the key is not in the table. */
+        int find(long key) {
+            for (int slot = slotOf(key); ; slot = (slot + 1) & mask) {
+                final long k = (long) KEYS.getAcquire(keys, slot);
+                if (k == key)
+                    return slot;
+                if (k == EMPTY)
+                    return -1;
+            }
+        }
+
+        /** Insert a key which is not in the table into the first empty slot of its probe sequence. */
+        void insert(long key, AISTrack track) {
+            int slot = slotOf(key);
+            while ((long) KEYS.getAcquire(keys, slot) != EMPTY)
+                slot = (slot + 1) & mask;
+            // The track before the key; a reader which finds the key must find the track
+            TRACKS.setRelease(tracks, slot, track);
+            KEYS.setRelease(keys, slot, key);
+        }
+
+        long getKey(int slot) {
+            return (long) KEYS.getAcquire(keys, slot);
+        }
+
+        AISTrack getTrack(int slot) {
+            return (AISTrack) TRACKS.getAcquire(tracks, slot);
+        }
+
+        void setTrack(int slot, AISTrack track) {
+            TRACKS.setRelease(tracks, slot, track);
+        }
+
+        private int slotOf(long key) {
+            // MMSI no's are clustered, and those of a shard share bits; so mix all bits (the finalizer of MurmurHash3)
+            long h = key;
+            h ^= h >>> 33;
+            h *= 0xFF51AFD7ED558CCDL;
+            h ^= h >>> 33;
+            h *= 0xC4CEB9FE1A85EC53L;
+            h ^= h >>> 33;
+            return (int) h & mask;
+        }
+
+        private final long[] keys;
+        private final AISTrack[] tracks;
+        private final int mask;
+    }
+
+    /** Marks a slot which has never held a key */
+    private static final long EMPTY = Long.MIN_VALUE;
+
+    private static final int MIN_CAPACITY = 16;
+
+    private static final VarHandle KEYS = MethodHandles.arrayElementVarHandle(long[].class);
+    private static final VarHandle TRACKS = MethodHandles.arrayElementVarHandle(AISTrack[].class);
+
+    /** The current table; replaced when it is rehashed */
+    private volatile Table table;
+
+    /** No. of live entries */
+    private volatile int size;
+
+    /** No. of slots holding a key, live or removed; accessed by the writer only */
+    private int usedSlots;
+}
@@ -0,0 +1,38 @@
+/*
+ * AISUtils
+ * - a java-based library for processing of AIS messages received from digital
+ * VHF radio traffic related to maritime navigation and safety in compliance with ITU 1371.
+ *
+ * (C) Copyright 2011- by S-Consult ApS, DK31327490, http://s-consult.dk, Denmark.
+ *
+ * Released under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * For details of this license see the nearby LICENCE-full file, visit http://creativecommons.org/licenses/by-nc-sa/3.0/
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ *
+ * NOT FOR COMMERCIAL USE!
+ * Contact sales@s-consult.dk to obtain a commercially licensed version of this software.
+ *
+ */
+
+package dk.tbsalling.ais.tracker;
+
+/**
+ * The TrackMode determines what an AISTracker keeps of the messages which update its tracks.
+ */
+public enum TrackMode {
+
+    /**
+     * Tracks keep the latest StaticDataReport, DynamicDataReport and AidToNavigationReport they were
+     * updated with, which are available through AISTrack.getStaticDataReport() etc.
+     */
+    REPORTS,
+
+    /**
+     * Tracks keep only the values exposed by their getters - MMSI, names, ship type, dimensions, position,
+     * speed, course, heading, second and times of update - copied into primitive fields. The reports, with
+     * their NMEA sentences and decoded fields, are released as soon as the track is updated, and
+     * AISTrack.getStaticDataReport() etc. return null. Requires a HistoryMode which does not grow history from
+     * reports; i.e. NONE or COLUMNAR.
+     */
+    COMPACT
+}
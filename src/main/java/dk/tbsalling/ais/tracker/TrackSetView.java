@@ -0,0 +1,72 @@
+/*
+ * AISUtils
+ * - a java-based library for processing of AIS messages received from digital
+ * VHF radio traffic related to maritime navigation and safety in compliance with ITU 1371.
+ *
+ * (C) Copyright 2011- by S-Consult ApS, DK31327490, http://s-consult.dk, Denmark.
+ *
+ * Released under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * For details of this license see the nearby LICENCE-full file, visit http://creativecommons.org/licenses/by-nc-sa/3.0/
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ *
+ * NOT FOR COMMERCIAL USE!
+ * Contact sales@s-consult.dk to obtain a commercially licensed version of this software.
+ *
+ */
+
+package dk.tbsalling.ais.tracker;
+
+import com.google.common.collect.Iterators;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.util.AbstractSet;
+import java.util.Arrays;
+import java.util.Iterator;
+
+/**
+ * An unmodifiable, weakly consistent set view of the tracks held in a number of shards.
+ *
+ * The view holds no tracks itself, so it is created once per tracker and handed out without copying.
+ * Lookups are made by MMSI no. directly in the owning shard, and iteration walks the shards one at a
+ * time without locking.
+ */
+@ThreadSafe
+final class TrackSetView extends AbstractSet<AISTrack> {
+
+    TrackSetView(TrackShard[] shards) {
+        this.shards = shards;
+    }
+
+    @Override
+    public Iterator<AISTrack> iterator() {
+        return Iterators.unmodifiableIterator(
+            Iterators.concat(Arrays.stream(shards).map(shard -> shard.tracks.iterator()).iterator())
+        );
+    }
+
+    @Override
+    public int size() {
+        int size = 0;
+        for (TrackShard shard : shards)
+            size += shard.tracks.size();
+        return size;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        for (TrackShard shard : shards)
+            if (!shard.tracks.isEmpty())
+                return false;
+        return true;
+    }
+
+    @Override
+    public boolean contains(Object o) {
+        if (!(o instanceof AISTrack aisTrack))
+            return false;
+        final long mmsi = aisTrack.getMmsi();
+        return shards[TrackShard.indexOf(mmsi, shards.length)].tracks.get(mmsi) == aisTrack;
+    }
+
+    private final TrackShard[] shards;
+}
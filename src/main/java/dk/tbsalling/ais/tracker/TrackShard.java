@@ -0,0 +1,88 @@
+/*
+ * AISUtils
+ * - a java-based library for processing of AIS messages received from digital
+ * VHF radio traffic related to maritime navigation and safety in compliance with ITU 1371.
+ *
+ * (C) Copyright 2011- by S-Consult ApS, DK31327490, http://s-consult.dk, Denmark.
+ *
+ * Released under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * For details of this license see the nearby LICENCE-full file, visit http://creativecommons.org/licenses/by-nc-sa/3.0/
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ *
+ * NOT FOR COMMERCIAL USE!
+ * Contact sales@s-consult.dk to obtain a commercially licensed version of this software.
+ *
+ */
+
+package dk.tbsalling.ais.tracker;
+
+import javax.annotation.concurrent.GuardedBy;
+import java.time.Instant;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static java.time.Instant.EPOCH;
+
+/**
+ * A TrackShard is one partition of the tracks maintained by an AISTracker. Each vessel is
+ * assigned to exactly one shard based on its MMSI no., and all state of the shard is guarded
+ * by the shard's own lock - so that updates to vessels in different shards never contend.
+ *
+ * The wallclock and the bookkeeping of pruning and stale checks are kept per shard.
+ *
+ * The map of tracks is only modified while holding the lock, but since it supports concurrent readers
+ * and the tracks themselves are immutable, it can be read by any thread without locking. The same
+ * holds for the spatial index of the tracks.
+ */
+final class TrackShard {
+
+    TrackShard(int index) {
+        this.index = index;
+    }
+
+    /** The index of this shard in the tracker */
+    final int index;
+
+    final ReentrantLock lock = new ReentrantLock();
+
+    /** Modified only while holding the lock; may be read without it. */
+    final TrackMap tracks = new TrackMap();
+
+    /** The tracks of this shard by their latest position; modified only while holding the lock, may be read without it. */
+    final SpatialIndex spatialIndex = new SpatialIndex();
+
+    /** The tracks of this shard by their time of last update */
+    @GuardedBy("lock")
+    final StaleTrackIndex staleTrackIndex = new StaleTrackIndex();
+
+    /** Time of last update to a track in this shard. */
+    @GuardedBy("lock")
+    Instant wallclock = EPOCH;
+
+    /** The instant in time when the last pruning job ran on this shard */
+    @GuardedBy("lock")
+    Instant timeOfLastPruning = EPOCH;
+
+    /** Position of an incremental pruning pass through the tracks of this shard; or null if no pass is in progress */
+    @GuardedBy("lock")
+    Iterator<AISTrack> pruningCursor;
+
+    /** The instant in time when the last stale check ran on this shard */
+    @GuardedBy("lock")
+    Instant timeOfLastStaleCheck = EPOCH;
+
+    /** Events collected while a batch of messages is applied to this shard; or null if events are posted at once */
+    @GuardedBy("lock")
+    List<Object> deferredEvents;
+
+    /** Compute the index of the shard to which the vessel with the given MMSI no. belongs. */
+    static int indexOf(long mmsi, int numberOfShards) {
+        if (numberOfShards == 1)
+            return 0;
+        // Spread the bits; consecutive MMSI no's are common within fleets and national ranges
+        long h = mmsi * 0x9E3779B97F4A7C15L;
+        return (int) ((h >>> 32) % numberOfShards);
+    }
+
+}
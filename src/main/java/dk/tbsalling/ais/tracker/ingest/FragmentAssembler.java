@@ -0,0 +1,119 @@
+/*
+ * AISUtils
+ * - a java-based library for processing of AIS messages received from digital
+ * VHF radio traffic related to maritime navigation and safety in compliance with ITU 1371.
+ *
+ * (C) Copyright 2011- by S-Consult ApS, DK31327490, http://s-consult.dk, Denmark.
+ *
+ * Released under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * For details of this license see the nearby LICENCE-full file, visit http://creativecommons.org/licenses/by-nc-sa/3.0/
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ *
+ * NOT FOR COMMERCIAL USE!
+ * Contact sales@s-consult.dk to obtain a commercially licensed version of this software.
+ *
+ */
+
+
+package dk.tbsalling.ais.tracker.ingest;
+
+import dk.tbsalling.aismessages.nmea.messages.NMEAMessage;
+import dk.tbsalling.aismessages.nmea.tagblock.NMEATagBlock;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A FragmentAssembler groups the lines of multi-sentence NMEA messages - in the same way as NMEAMessageHandler
+ * of AISMessages - so that each message can be parsed and decoded independently of the others.
+ *
+ * To keep the thread reading the lines light, only the fragment count and number of each sentence are scanned;
+ * the sentences are parsed in full by parse(), which may run on another thread.
+ */
+@NotThreadSafe
+final class FragmentAssembler {
+
+    /** Returned for a line which is not an NMEA sentence */
+    static final String[] INVALID = new String[0];
+
+    /** Accept the next line; return the lines of a complete message, INVALID, or null if no message is complete. */
+    String[] accept(String line) {
+        // The fragment count and number are the 2nd and 3rd field of the sentence, as in !AIVDM,2,1,...
+        final int start = line.indexOf('!');
+        final int c1 = start < 0 ? -1 : line.indexOf(',', start);
+        final int c2 = c1 < 0 ? -1 : line.indexOf(',', c1 + 1);
+        final int c3 = c2 < 0 ? -1 : line.indexOf(',', c2 + 1);
+        final int numberOfFragments = c3 < 0 ? -1 : parseInt(line, c1 + 1, c2);
+        final int fragmentNumber = c3 < 0 ? -1 : parseInt(line, c2 + 1, c3);
+        if (numberOfFragments < 0 || fragmentNumber < 0) {
+            return INVALID;
+        }
+        if (numberOfFragments == 0) {
+            fragments.clear();
+            return null;
+        }
+        if (numberOfFragments == 1) {
+            fragments.clear();
+            return new String[] { line };
+        }
+        if (fragmentNumber > numberOfFragments || fragmentNumber != fragments.size() + 1) {
+            fragments.clear();
+            return null;
+        }
+        fragments.add(line);
+        if (fragments.size() < numberOfFragments)
+            return null;
+        final String[] lines = fragments.toArray(new String[0]);
+        fragments.clear();
+        return lines;
+    }
+
+    /** Return true if some, but not all, sentences of a multi-sentence message have been accepted. */
+    boolean isIncomplete() {
+        return !fragments.isEmpty();
+    }
+
+    /** Return true if the line is a sentence of a multi-sentence message, other than the first sentence. */
+    static boolean isContinuation(String line) {
+        final int start = line.indexOf('!');
+        final int c1 = start < 0 ? -1 : line.indexOf(',', start);
+        final int c2 = c1 < 0 ? -1 : line.indexOf(',', c1 + 1);
+        final int c3 = c2 < 0 ? -1 : line.indexOf(',', c2 + 1);
+        return c3 >= 0 && parseInt(line, c2 + 1, c3) > 1;
+    }
+
+    /** Parse the lines of a message into NMEA sentences. */
+    static NMEAMessage[] parse(String[] lines) {
+        final NMEAMessage[] nmeaMessages = new NMEAMessage[lines.length];
+        for (int i = 0; i < lines.length; i++)
+            nmeaMessages[i] = new NMEAMessage(lines[i]);
+        return nmeaMessages;
+    }
+
+    /** Return the time of a tag block; or null if there is no tag block time. */
+    static Instant timeOf(NMEATagBlock tagBlock) {
+        final Long timestamp = tagBlock == null ? null : tagBlock.getTimestamp();
+        if (timestamp == null)
+            return null;
+        // The tag block time is in seconds, but some receivers give it in milliseconds
+        return timestamp > 100_000_000_000L ? Instant.ofEpochMilli(timestamp) : Instant.ofEpochSecond(timestamp);
+    }
+
+    /** Parse a non-negative decimal number; or return -1 if there is none. */
+    private static int parseInt(String s, int from, int to) {
+        if (from >= to || to - from > 6)
+            return -1;
+        int n = 0;
+        for (int i = from; i < to; i++) {
+            final char c = s.charAt(i);
+            if (c < '0' || c > '9')
+                return -1;
+            n = 10 * n + (c - '0');
+        }
+        return n;
+    }
+
+    private final List<String> fragments = new ArrayList<>();
+}
@@ -0,0 +1,433 @@
+/*
+ * AISUtils
+ * - a java-based library for processing of AIS messages received from digital
+ * VHF radio traffic related to maritime navigation and safety in compliance with ITU 1371.
+ *
+ * (C) Copyright 2011- by S-Consult ApS, DK31327490, http://s-consult.dk, Denmark.
+ *
+ * Released under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * For details of this license see the nearby LICENCE-full file, visit http://creativecommons.org/licenses/by-nc-sa/3.0/
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ *
+ * NOT FOR COMMERCIAL USE!
+ * Contact sales@s-consult.dk to obtain a commercially licensed version of this software.
+ *
+ */
+
+
+package dk.tbsalling.ais.tracker.ingest;
+
+import dk.tbsalling.aismessages.ais.messages.AISMessage;
+import dk.tbsalling.aismessages.ais.messages.AISMessageFactory;
+import dk.tbsalling.aismessages.nmea.messages.NMEAMessage;
+import dk.tbsalling.aismessages.nmea.tagblock.NMEATagBlock;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Objects;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A MappedAISFileReader replays files of NMEA armoured AIS messages - e.g. archives of several days - at the speed
+ * of the decoders, rather than the speed of a single thread reading a stream:
+ *
+ * - A splitter stage memory-maps the files in chunks of a fixed no. of bytes. Only the chunks waiting to be
+ *   decoded or consumed are mapped at a time.
+ * - One or more decoder stages split the chunks into lines and decode them into AISMessages - one chunk per decoder
+ *   at a time, independently of the other chunks.
+ * - A consumer stage - the thread calling run() - hands the decoded messages to the consumer in batches.
+ *
+ * A chunk owns the messages whose first sentence starts in it: a decoder skips the partial line at the start of
+ * its chunk and the remaining sentences of a message begun in the previous chunk, and reads past the end of its
+ * chunk to complete a message of its own. Hence chunks can be decoded in any order, and the messages reach the
+ * consumer in the order of the files, exactly as if read line by line.
+ *
+ * The messages are delivered in file order, not sorted by timestamp: the files are expected in timestamp order,
+ * and messages older than the message before them are counted (see getNumberOfOutOfOrderMessages()), but consumed
+ * as read. Give the tracker a reorder window if the files are not strictly ordered; otherwise it rejects them.
+ *
+ * A message is given the time of its NMEA tag block as its reception time, so that a tracker fed with the replay
+ * uses the time of the archive. A message without a tag block time is given the time of the last tag block before
+ * it in the files; or, if there is none, the time it is consumed - as the stream readers give a message the time
+ * it is received. Messages of the latter kind are decoded by the consumer stage, not in parallel. Use e.g. as:
+ *
+ *   new MappedAISFileReader(List.of(day1, day2), 4, tracker::update).run();
+ */
+@ThreadSafe
+public class MappedAISFileReader {
+
+    /**
+     * @param files the files to read, in the order given.
+     * @param numberOfDecoders the no. of threads decoding chunks.
+     * @param consumer receives the decoded messages in batches, in the order they appear in the files; not sorted by
+     *                 timestamp.
+     */
+    public MappedAISFileReader(List<Path> files, int numberOfDecoders, Consumer<? super List<AISMessage>> consumer) {
+        this(files, numberOfDecoders, DEFAULT_CHUNK_SIZE, consumer);
+    }
+
+    /**
+     * @param files the files to read, in the order given.
+     * @param numberOfDecoders the no. of threads decoding chunks.
+     * @param chunkSize the no. of bytes of the files given to a decoder at a time.
+     * @param consumer receives the decoded messages in batches, in the order they appear in the files; not sorted by
+     *                 timestamp.
+     */
+    public MappedAISFileReader(List<Path> files, int numberOfDecoders, int chunkSize, Consumer<? super List<AISMessage>> consumer) {
+        requireNonNull(files);
+        if (files.isEmpty())
+            throw new IllegalArgumentException("At least one file is required.");
+        if (numberOfDecoders < 1)
+            throw new IllegalArgumentException("numberOfDecoders must be positive, not " + numberOfDecoders);
+        if (chunkSize < 1 || chunkSize > MAX_CHUNK_SIZE)
+            throw new IllegalArgumentException("chunkSize must be between 1 and " + MAX_CHUNK_SIZE + ", not " + chunkSize);
+        this.files = List.copyOf(files);
+        this.numberOfDecoders = numberOfDecoders;
+        this.chunkSize = chunkSize;
+        this.queue = new ArrayBlockingQueue<>(2 * numberOfDecoders);
+        this.consumer = requireNonNull(consumer);
+    }
+
+    /**
+     * Read, decode and consume the messages of all files, or until stop is requested. The consumer is called on
+     * the calling thread.
+     *
+     * @throws IOException if opening or mapping one of the files fails; the messages of the files before it are
+     * consumed first.
+     */
+    public void run() throws IOException {
+        final ExecutorService decoders = Executors.newFixedThreadPool(numberOfDecoders);
+        final Thread splitter = Thread.ofPlatform().name("nmea-splitter").start(() -> split(decoders));
+        try {
+            consume();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            requestStop();
+            try {
+                splitter.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            decoders.shutdownNow();
+        }
+        if (readFailure != null)
+            throw readFailure;
+    }
+
+    public final void requestStop() {
+        stopRequested = true;
+    }
+
+    public final boolean isStopRequested() {
+        return stopRequested;
+    }
+
+    /* Return the no. of messages handed to the consumer. */
+    public long getNumberOfMessages() {
+        return numberOfMessages.sum();
+    }
+
+    /* Return the no. of lines or messages which could not be parsed or decoded. */
+    public long getNumberOfInvalidMessages() {
+        return numberOfInvalidMessages.sum();
+    }
+
+    /* Return the no. of messages handed to the consumer with a timestamp before that of the message before them. */
+    public long getNumberOfOutOfOrderMessages() {
+        return numberOfOutOfOrderMessages.sum();
+    }
+
+    /* Return the no. of chunks consumed. */
+    public long getNumberOfChunks() {
+        return numberOfChunks.sum();
+    }
+
+    /* Return the no. of bytes of the files consumed. */
+    public long getNumberOfBytes() {
+        return numberOfBytes.sum();
+    }
+
+    /* Return the no. of times the consumer has waited for the next chunk to be mapped or decoded; at most once per chunk, and once for the end of the files. */
+    public long getNumberOfConsumerStalls() {
+        return numberOfConsumerStalls.sum();
+    }
+
+    /* Return the total time the consumer has waited for chunks to be mapped or decoded. */
+    public Duration getConsumerStallTime() {
+        return Duration.ofNanos(consumerStallNanos.sum());
+    }
+
+    /** The splitter stage */
+    private void split(ExecutorService decoders) {
+        try {
+            for (Path file : files) {
+                final String source = String.valueOf(file.getFileName());
+                try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+                    final long size = channel.size();
+                    for (long start = 0; start < size; start += chunkSize) {
+                        final long end = Math.min(size, start + chunkSize);
+                        // Map the last byte before the chunk, and enough after it to complete the last message
+                        final long mapStart = Math.max(0, start - 1);
+                        final long mapEnd = Math.min(size, end + SLACK);
+                        final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, mapStart, mapEnd - mapStart);
+                        final Chunk chunk = new Chunk(source, buffer, (int) (start - mapStart), (int) (end - mapStart), mapEnd == size);
+                        final FutureTask<Chunk> decoding = new FutureTask<>(() -> decode(chunk));
+                        if (!enqueue(decoding))
+                            return;
+                        decoders.execute(decoding);
+                    }
+                }
+            }
+        } catch (IOException e) {
+            readFailure = e;
+        } catch (InterruptedException e) {
+            return;
+        } finally {
+            try {
+                enqueue(END);
+            } catch (InterruptedException e) {
+            }
+        }
+    }
+
+    /** Put a chunk in the queue, waiting if the queue is full; return false if stop was requested while waiting. */
+    private boolean enqueue(FutureTask<Chunk> decoding) throws InterruptedException {
+        while (!queue.offer(decoding, 10, TimeUnit.MILLISECONDS))
+            if (stopRequested)
+                return false;
+        return true;
+    }
+
+    /** The decoder stage; decodes the messages owned by a chunk */
+    private Chunk decode(Chunk chunk) {
+        final MappedByteBuffer buffer = chunk.buffer;
+        final FragmentAssembler assembler = new FragmentAssembler();
+        byte[] bytes = new byte[256];
+        int position = chunk.from;
+        // Skip the partial line at the start of the chunk; it belongs to the previous chunk
+        if (position > 0 && buffer.get(position - 1) != '\n')
+            position = endOfLine(buffer, position) + 1;
+        boolean atStart = chunk.from > 0;
+        while (position < buffer.limit() && (position < chunk.to || assembler.isIncomplete())) {
+            final int endOfLine = endOfLine(buffer, position);
+            if (endOfLine == buffer.limit() && !chunk.mappedToEndOfFile)
+                break; // A message longer than the slack; cannot happen in valid NMEA
+            final int lineStart = position;
+            position = endOfLine + 1;
+
+            int length = endOfLine - lineStart;
+            if (length > 0 && buffer.get(lineStart + length - 1) == '\r')
+                length--;
+            if (length == 0)
+                continue;
+            if (length > bytes.length)
+                bytes = new byte[Math.max(length, 2 * bytes.length)];
+            buffer.get(lineStart, bytes, 0, length);
+            final String line = new String(bytes, 0, length, StandardCharsets.ISO_8859_1);
+
+            if (lineStart >= chunk.to) {
+                // Past the end of the chunk, only the remaining sentences of our last message are ours
+                if (!FragmentAssembler.isContinuation(line))
+                    break;
+            } else if (atStart) {
+                // The remaining sentences of the last message of the previous chunk are not ours
+                if (FragmentAssembler.isContinuation(line))
+                    continue;
+                atStart = false;
+            }
+
+            final String[] lines = assembler.accept(line);
+            if (lines == FragmentAssembler.INVALID) {
+                chunk.numberOfInvalidMessages++;
+            } else if (lines != null) {
+                try {
+                    final NMEAMessage[] nmeaMessages = FragmentAssembler.parse(lines);
+                    final NMEATagBlock tagBlock = nmeaMessages[nmeaMessages.length - 1].getTagBlock();
+                    final Instant time = FragmentAssembler.timeOf(tagBlock);
+                    if (time != null)
+                        chunk.timeOfLastTagBlock = time;
+                    if (chunk.timeOfLastTagBlock != null) {
+                        chunk.messages.add(AISMessageFactory.create(chunk.timeOfLastTagBlock, chunk.source, tagBlock, nmeaMessages));
+                    } else {
+                        // The time of the message depends on the chunks before it; leave it to the consumer
+                        chunk.untimed.add(new Untimed(chunk.messages.size(), tagBlock, nmeaMessages));
+                        chunk.messages.add(null);
+                    }
+                } catch (RuntimeException e) {
+                    chunk.numberOfInvalidMessages++;
+                }
+            }
+        }
+        return chunk;
+    }
+
+    /** Return the index of the next line feed at or after the given index; or the limit of the buffer if there is none. */
+    private static int endOfLine(MappedByteBuffer buffer, int index) {
+        final int limit = buffer.limit();
+        while (index < limit && buffer.get(index) != '\n')
+            index++;
+        return index;
+    }
+
+    /** The consumer stage */
+    private void consume() throws InterruptedException {
+        Instant timeOfLastMessage = Instant.MIN;
+        Instant timeOfLastTagBlock = null;
+        while (true) {
+            FutureTask<Chunk> decoding = queue.poll();
+            final boolean stalled = decoding == null;
+            if (stalled) {
+                numberOfConsumerStalls.increment();
+                final long start = System.nanoTime();
+                while ((decoding = queue.poll(10, TimeUnit.MILLISECONDS)) == null)
+                    if (stopRequested)
+                        return;
+                consumerStallNanos.add(System.nanoTime() - start);
+            }
+            if (decoding == END)
+                return;
+
+            final Chunk chunk = awaitDecoding(decoding, stalled);
+            if (chunk == null)
+                continue;
+            if (!chunk.untimed.isEmpty())
+                timeUntimedMessages(chunk, timeOfLastTagBlock);
+            if (chunk.timeOfLastTagBlock != null)
+                timeOfLastTagBlock = chunk.timeOfLastTagBlock;
+            for (AISMessage aisMessage : chunk.messages) {
+                final Instant received = aisMessage.getMetadata().received();
+                if (received.isBefore(timeOfLastMessage))
+                    numberOfOutOfOrderMessages.increment();
+                timeOfLastMessage = received;
+            }
+            final List<AISMessage> messages = Collections.unmodifiableList(chunk.messages);
+            for (int from = 0; from < messages.size() && !stopRequested; from += MAX_BATCH_SIZE) {
+                final List<AISMessage> batch = messages.subList(from, Math.min(messages.size(), from + MAX_BATCH_SIZE));
+                consumer.accept(batch);
+                numberOfMessages.add(batch.size());
+            }
+            numberOfInvalidMessages.add(chunk.numberOfInvalidMessages);
+            numberOfBytes.add(chunk.to - chunk.from);
+            numberOfChunks.increment();
+        }
+    }
+
+    /** Decode the messages of a chunk before its first tag block time; given the last tag block time before the chunk, or the current time */
+    private void timeUntimedMessages(Chunk chunk, Instant timeOfLastTagBlock) {
+        for (Untimed untimed : chunk.untimed) {
+            final Instant received = timeOfLastTagBlock != null ? timeOfLastTagBlock : Instant.now();
+            try {
+                chunk.messages.set(untimed.index(), AISMessageFactory.create(received, chunk.source, untimed.tagBlock(), untimed.nmeaMessages()));
+            } catch (RuntimeException e) {
+                chunk.numberOfInvalidMessages++;
+            }
+        }
+        chunk.messages.removeIf(Objects::isNull);
+    }
+
+    /** Wait for a chunk to be decoded; the wait is counted as a stall, unless the consumer already stalled waiting for the chunk to be mapped */
+    private Chunk awaitDecoding(FutureTask<Chunk> decoding, boolean stalled) throws InterruptedException {
+        try {
+            if (!decoding.isDone()) {
+                if (!stalled)
+                    numberOfConsumerStalls.increment();
+                final long start = System.nanoTime();
+                try {
+                    return decoding.get();
+                } finally {
+                    consumerStallNanos.add(System.nanoTime() - start);
+                }
+            }
+            return decoding.get();
+        } catch (ExecutionException e) {
+            numberOfInvalidMessages.increment();
+            return null;
+        }
+    }
+
+    /** A mapped part of a file, and the messages decoded from it */
+    private static final class Chunk {
+        Chunk(String source, MappedByteBuffer buffer, int from, int to, boolean mappedToEndOfFile) {
+            this.source = source;
+            this.buffer = buffer;
+            this.from = from;
+            this.to = to;
+            this.mappedToEndOfFile = mappedToEndOfFile;
+        }
+
+        final String source;
+        final MappedByteBuffer buffer;
+
+        /** Index in the buffer of the first byte of the chunk */
+        final int from;
+
+        /** Index in the buffer after the last byte of the chunk; the buffer extends beyond it to complete the last message */
+        final int to;
+
+        /** True if the buffer extends to the end of the file */
+        final boolean mappedToEndOfFile;
+
+        final List<AISMessage> messages = new ArrayList<>();
+
+        /** The messages before the first tag block time of the chunk; null in the list of messages until decoded */
+        final List<Untimed> untimed = new ArrayList<>();
+
+        Instant timeOfLastTagBlock;
+        int numberOfInvalidMessages;
+    }
+
+    /** A message of a chunk waiting to be given a time, and decoded */
+    private record Untimed(int index, NMEATagBlock tagBlock, NMEAMessage[] nmeaMessages) {
+    }
+
+    /** Marks the end of the input in the queue */
+    private static final FutureTask<Chunk> END = new FutureTask<>(() -> null);
+
+    private static final int DEFAULT_CHUNK_SIZE = 1024 * 1024;
+
+    private static final int MAX_CHUNK_SIZE = 1024 * 1024 * 1024;
+
+    /** No. of bytes mapped after a chunk, to complete a message begun in it; far more than the 9 sentences of the longest message */
+    private static final int SLACK = 64 * 1024;
+
+    /** Max no. of messages handed to the consumer at a time */
+    private static final int MAX_BATCH_SIZE = 1024;
+
+    private final List<Path> files;
+    private final int numberOfDecoders;
+    private final int chunkSize;
+    private final BlockingQueue<FutureTask<Chunk>> queue;
+    private final Consumer<? super List<AISMessage>> consumer;
+
+    private volatile boolean stopRequested;
+    private volatile IOException readFailure;
+
+    private final LongAdder numberOfMessages = new LongAdder();
+    private final LongAdder numberOfInvalidMessages = new LongAdder();
+    private final LongAdder numberOfOutOfOrderMessages = new LongAdder();
+    private final LongAdder numberOfChunks = new LongAdder();
+    private final LongAdder numberOfBytes = new LongAdder();
+    private final LongAdder numberOfConsumerStalls = new LongAdder();
+    private final LongAdder consumerStallNanos = new LongAdder();
+}
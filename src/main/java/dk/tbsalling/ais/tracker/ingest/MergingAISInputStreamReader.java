@@ -0,0 +1,342 @@
+/*
+ * AISUtils
+ * - a java-based library for processing of AIS messages received from digital
+ * VHF radio traffic related to maritime navigation and safety in compliance with ITU 1371.
+ *
+ * (C) Copyright 2011- by S-Consult ApS, DK31327490, http://s-consult.dk, Denmark.
+ *
+ * Released under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * For details of this license see the nearby LICENCE-full file, visit http://creativecommons.org/licenses/by-nc-sa/3.0/
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ *
+ * NOT FOR COMMERCIAL USE!
+ * Contact sales@s-consult.dk to obtain a commercially licensed version of this software.
+ *
+ */
+
+
+package dk.tbsalling.ais.tracker.ingest;
+
+import dk.tbsalling.aismessages.ais.messages.AISMessage;
+import dk.tbsalling.aismessages.ais.messages.AISMessageFactory;
+import dk.tbsalling.aismessages.nmea.messages.NMEAMessage;
+import dk.tbsalling.aismessages.nmea.tagblock.NMEATagBlock;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import static java.time.Instant.EPOCH;
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A MergingAISInputStreamReader reads NMEA armoured AIS messages from several sources - e.g. the feeds of a
+ * number of shore stations - and merges them into one stream ordered by event time.
+ *
+ * Each source is read and decoded on its own virtual thread. The event time of a message is the time in its
+ * NMEA tag block, if it has one; otherwise the time it was read. Decoded messages carry their event time as
+ * their reception time, so that an AISTracker fed with the merged stream uses the event time as well.
+ *
+ * The messages of each source are expected in event time order. The time of the newest message read from a
+ * source is the watermark of that source: no later message from the source can be older. A message is merged
+ * into the output when it is the oldest of all sources, and all other sources have a watermark at or after it -
+ * or have been idle for longer than the idle timeout, so that a silent source does not hold up the others. A
+ * message which is older than messages already merged, e.g. from a source which was idle, is dropped and counted.
+ *
+ * The merged stream is handed to the consumer in batches on the thread calling run(). While waiting for the
+ * watermarks to advance, the merging thread is parked until a source delivers a message or ends, or until a source
+ * becomes idle. The input streams are closed when run() returns. Use e.g. with an AISTracker as:
+ *
+ *   new MergingAISInputStreamReader(Map.of("station1", in1, "station2", in2), Duration.ofSeconds(5), tracker::update).run();
+ */
+@ThreadSafe
+public class MergingAISInputStreamReader {
+
+    /**
+     * @param sources the input streams to read from by name of source.
+     * @param idleTimeout the time after which a source without messages no longer holds up the merge.
+     * @param consumer receives the merged messages in batches, in event time order.
+     */
+    public MergingAISInputStreamReader(Map<String, InputStream> sources, Duration idleTimeout, Consumer<? super List<AISMessage>> consumer) {
+        requireNonNull(sources);
+        requireNonNull(idleTimeout);
+        if (sources.isEmpty())
+            throw new IllegalArgumentException("At least one source is required.");
+        if (idleTimeout.isNegative())
+            throw new IllegalArgumentException("idleTimeout cannot be negative: " + idleTimeout);
+        this.sources = new ArrayList<>(sources.size());
+        sources.forEach((name, inputStream) -> this.sources.add(new Source(requireNonNull(name), requireNonNull(inputStream))));
+        this.idleTimeoutNanos = idleTimeout.toNanos();
+        this.consumer = requireNonNull(consumer);
+    }
+
+    /**
+     * Read and merge messages until the end of all sources, or until stop is requested. The consumer is called on
+     * the calling thread. Returns when all sources have stopped reading - see requestStop().
+     *
+     * @throws IOException if reading one of the sources fails; the other sources are read to the end first.
+     */
+    public void run() throws IOException {
+        merger = Thread.currentThread();
+        startNanos = System.nanoTime();
+        for (Source source : sources)
+            source.timeOfLastMessageNanos = startNanos;
+        for (Source source : sources) {
+            source.reader = Thread.ofVirtual().name("nmea-source-" + source.name).unstarted(source::read);
+            source.reader.start();
+        }
+        try {
+            merge();
+        } finally {
+            requestStop();
+            for (Source source : sources) {
+                try {
+                    source.reader.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        }
+        for (Source source : sources)
+            if (source.readFailure != null)
+                throw source.readFailure;
+    }
+
+    /**
+     * Stop reading and merging. The input streams are closed and the threads reading them are interrupted, so that
+     * reads blocked on e.g. sockets or pipes fail; an input stream whose blocked read neither fails on close() nor
+     * on interruption holds up run() until the read returns.
+     */
+    public final void requestStop() {
+        stopRequested = true;
+        LockSupport.unpark(merger);
+        for (Source source : sources)
+            source.stop();
+    }
+
+    public final boolean isStopRequested() {
+        return stopRequested;
+    }
+
+    /** Statistics of one source; the lag is how far the watermark of the source trails the newest watermark of all sources. */
+    public record SourceStatistics(String source, long numberOfMessages, double messagesPerSecond, Duration lag, long numberOfLateMessages, boolean ended) {
+    }
+
+    /* Return statistics of all sources, in the order given. */
+    public List<SourceStatistics> getSourceStatistics() {
+        Instant newestWatermark = EPOCH;
+        for (Source source : sources)
+            if (source.watermark.isAfter(newestWatermark))
+                newestWatermark = source.watermark;
+        final double seconds = Math.max(1, System.nanoTime() - startNanos) / 1e9;
+        final List<SourceStatistics> statistics = new ArrayList<>(sources.size());
+        for (Source source : sources) {
+            final long numberOfMessages = source.numberOfMessages.sum();
+            statistics.add(new SourceStatistics(source.name, numberOfMessages, numberOfMessages / seconds,
+                Duration.between(source.watermark, newestWatermark), source.numberOfLateMessages.sum(), source.ended));
+        }
+        return statistics;
+    }
+
+    /* Return the no. of messages handed to the consumer. */
+    public long getNumberOfMessages() {
+        return numberOfMergedMessages.sum();
+    }
+
+    /** The merge stage; a k-way merge of the sources by event time */
+    private void merge() {
+        final List<AISMessage> batch = new ArrayList<>(MAX_BATCH_SIZE);
+        Instant timeOfLastMerge = EPOCH;
+        while (!stopRequested) {
+            Source oldest = null;
+            boolean allEnded = true;
+            for (Source source : sources) {
+                final boolean ended = source.ended;
+                if (source.head == null)
+                    source.head = source.queue.poll();
+                if (source.head != null && (oldest == null || source.head.getMetadata().received().isBefore(oldest.head.getMetadata().received())))
+                    oldest = source;
+                allEnded &= ended && source.head == null;
+            }
+            if (allEnded)
+                break;
+
+            if (oldest != null && isMergeable(oldest.head.getMetadata().received())) {
+                final AISMessage aisMessage = oldest.head;
+                oldest.head = null;
+                final Instant eventTime = aisMessage.getMetadata().received();
+                if (eventTime.isBefore(timeOfLastMerge)) {
+                    oldest.numberOfLateMessages.increment();
+                    continue;
+                }
+                timeOfLastMerge = eventTime;
+                batch.add(aisMessage);
+                if (batch.size() >= MAX_BATCH_SIZE)
+                    deliver(batch);
+            } else {
+                // Hand over what we have, before waiting for more. The sources unpark the merger when they have a message or end
+                if (!batch.isEmpty()) {
+                    deliver(batch);
+                } else {
+                    final long nanosUntilIdle = nanosUntilIdle();
+                    if (nanosUntilIdle == Long.MAX_VALUE)
+                        LockSupport.park(this);
+                    else
+                        LockSupport.parkNanos(this, nanosUntilIdle);
+                }
+            }
+        }
+        if (!batch.isEmpty())
+            deliver(batch);
+    }
+
+    /** Return true if no source can deliver a message older than the given event time - except sources which are idle */
+    private boolean isMergeable(Instant eventTime) {
+        final long now = System.nanoTime();
+        for (Source source : sources) {
+            if (source.head != null)
+                continue;
+            // Read the state of the source before looking in its queue; a message put in the queue later cannot be older
+            final Instant watermark = source.watermark;
+            final boolean ended = source.ended;
+            if ((source.head = source.queue.poll()) != null) {
+                if (source.head.getMetadata().received().isBefore(eventTime))
+                    return false;
+                continue;
+            }
+            if (ended)
+                continue;
+            if (watermark.isBefore(eventTime) && now - source.timeOfLastMessageNanos < idleTimeoutNanos)
+                return false;
+        }
+        return true;
+    }
+
+    /** Return the time until the next source without messages becomes idle; or Long.MAX_VALUE if none will */
+    private long nanosUntilIdle() {
+        final long now = System.nanoTime();
+        long nanosUntilIdle = Long.MAX_VALUE;
+        for (Source source : sources) {
+            final long nanos = source.timeOfLastMessageNanos + idleTimeoutNanos - now;
+            if (source.head == null && !source.ended && nanos > 0)
+                nanosUntilIdle = Math.min(nanosUntilIdle, nanos);
+        }
+        return nanosUntilIdle;
+    }
+
+    private void deliver(List<AISMessage> batch) {
+        consumer.accept(List.copyOf(batch));
+        numberOfMergedMessages.add(batch.size());
+        batch.clear();
+    }
+
+    private final class Source {
+        Source(String name, InputStream inputStream) {
+            this.name = name;
+            this.inputStream = inputStream;
+            this.input = new BufferedReader(new InputStreamReader(inputStream, Charset.defaultCharset()));
+        }
+
+        /** Close the input stream - not the reader, whose lock is held by a blocked read - and interrupt the reader stage */
+        void stop() {
+            try {
+                inputStream.close();
+            } catch (IOException e) {
+            }
+            final Thread reader = this.reader;
+            if (reader != null)
+                reader.interrupt();
+        }
+
+        /** The reader stage of this source */
+        void read() {
+            final FragmentAssembler assembler = new FragmentAssembler();
+            try {
+                String line;
+                while (!stopRequested && (line = input.readLine()) != null) {
+                    final String[] lines = assembler.accept(line);
+                    if (lines == null || lines == FragmentAssembler.INVALID)
+                        continue;
+                    final AISMessage aisMessage;
+                    try {
+                        final NMEAMessage[] nmeaMessages = FragmentAssembler.parse(lines);
+                        final NMEATagBlock tagBlock = nmeaMessages[nmeaMessages.length - 1].getTagBlock();
+                        aisMessage = AISMessageFactory.create(eventTimeOf(tagBlock), name, tagBlock, nmeaMessages);
+                    } catch (RuntimeException e) {
+                        continue;
+                    }
+                    while (!queue.offer(aisMessage, 10, TimeUnit.MILLISECONDS))
+                        if (stopRequested)
+                            return;
+                    watermark = aisMessage.getMetadata().received();
+                    timeOfLastMessageNanos = System.nanoTime();
+                    numberOfMessages.increment();
+                    LockSupport.unpark(merger);
+                }
+            } catch (IOException e) {
+                // Reads fail when the input stream is closed on stop
+                if (!stopRequested)
+                    readFailure = e;
+            } catch (InterruptedException e) {
+            } finally {
+                ended = true;
+                LockSupport.unpark(merger);
+            }
+        }
+
+        final String name;
+        final InputStream inputStream;
+        final BufferedReader input;
+        final BlockingQueue<AISMessage> queue = new ArrayBlockingQueue<>(QUEUE_CAPACITY);
+
+        /** The oldest message of this source not yet merged, taken from the queue; accessed by the merger only */
+        AISMessage head;
+
+        /** Event time of the newest message read from this source */
+        volatile Instant watermark = EPOCH;
+        volatile long timeOfLastMessageNanos;
+        volatile boolean ended;
+        volatile IOException readFailure;
+
+        /** The thread of the reader stage; null until run() starts it */
+        volatile Thread reader;
+
+        final LongAdder numberOfMessages = new LongAdder();
+        final LongAdder numberOfLateMessages = new LongAdder();
+    }
+
+    /** Return the time of a tag block; or the current time if there is no tag block time. */
+    private static Instant eventTimeOf(NMEATagBlock tagBlock) {
+        final Instant time = FragmentAssembler.timeOf(tagBlock);
+        return time == null ? Instant.now() : time;
+    }
+
+    /** Max no. of messages handed to the consumer at a time */
+    private static final int MAX_BATCH_SIZE = 256;
+
+    /** Max no. of messages read from a source, but not yet merged */
+    private static final int QUEUE_CAPACITY = 1024;
+
+    private final List<Source> sources;
+    private final long idleTimeoutNanos;
+    private final Consumer<? super List<AISMessage>> consumer;
+    private final LongAdder numberOfMergedMessages = new LongAdder();
+
+    private volatile Thread merger;
+    private volatile long startNanos;
+    private volatile boolean stopRequested;
+}
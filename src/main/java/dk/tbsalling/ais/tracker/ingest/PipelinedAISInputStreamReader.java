@@ -0,0 +1,320 @@
+/*
+ * AISUtils
+ * - a java-based library for processing of AIS messages received from digital
+ * VHF radio traffic related to maritime navigation and safety in compliance with ITU 1371.
+ *
+ * (C) Copyright 2011- by S-Consult ApS, DK31327490, http://s-consult.dk, Denmark.
+ *
+ * Released under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * For details of this license see the nearby LICENCE-full file, visit http://creativecommons.org/licenses/by-nc-sa/3.0/
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ *
+ * NOT FOR COMMERCIAL USE!
+ * Contact sales@s-consult.dk to obtain a commercially licensed version of this software.
+ *
+ */
+
+
+package dk.tbsalling.ais.tracker.ingest;
+
+import dk.tbsalling.aismessages.ais.messages.AISMessage;
+import dk.tbsalling.aismessages.ais.messages.AISMessageFactory;
+import dk.tbsalling.aismessages.nmea.messages.NMEAMessage;
+
+import javax.annotation.concurrent.ThreadSafe;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.Charset;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A PipelinedAISInputStreamReader reads NMEA armoured AIS messages from an input stream like AISInputStreamReader,
+ * but splits the work into stages which run on separate threads:
+ *
+ * - A reader stage reads lines and groups the sentences of multi-sentence messages.
+ * - One or more decoder stages parse the sentences and decode them into AISMessages.
+ * - A consumer stage - the thread calling run() - hands the decoded messages to the consumer in batches.
+ *
+ * The reader hands work to the consumer through a bounded queue in input order, so messages reach the consumer
+ * in the order they were read, regardless of the no. of decoders. Use e.g. with an AISTracker as:
+ *
+ *   new PipelinedAISInputStreamReader(inputStream, 2, 1024, tracker::update).run();
+ *
+ * The depth of the queue and the stalls of the stages are measured, to show which stage limits throughput: The
+ * reader stalls when the queue is full, i.e. when the consumer cannot keep up; the consumer stalls when the next
+ * message has not yet been read or decoded.
+ *
+ * The input stream is closed when run() returns.
+ */
+@ThreadSafe
+public class PipelinedAISInputStreamReader {
+
+    /**
+     * @param inputStream the stream to read NMEA armoured AIS messages from.
+     * @param numberOfDecoders the no. of threads decoding messages.
+     * @param queueCapacity the max no. of messages read but not yet consumed.
+     * @param consumer receives the decoded messages in batches, in the order they were read.
+     */
+    public PipelinedAISInputStreamReader(InputStream inputStream, int numberOfDecoders, int queueCapacity, Consumer<? super List<AISMessage>> consumer) {
+        requireNonNull(inputStream);
+        if (numberOfDecoders < 1)
+            throw new IllegalArgumentException("numberOfDecoders must be positive, not " + numberOfDecoders);
+        if (queueCapacity < 1)
+            throw new IllegalArgumentException("queueCapacity must be positive, not " + queueCapacity);
+        this.inputStream = inputStream;
+        this.input = new BufferedReader(new InputStreamReader(inputStream, Charset.defaultCharset()));
+        this.numberOfDecoders = numberOfDecoders;
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+        this.maxBatchSize = Math.max(1, Math.min(MAX_BATCH_SIZE, queueCapacity / 2));
+        this.consumer = requireNonNull(consumer);
+    }
+
+    /**
+     * Read, decode and consume messages until the end of the input stream, or until stop is requested.
+     * The consumer is called on the calling thread. Returns when the reader stage has stopped - see requestStop().
+     *
+     * @throws IOException if reading the input stream fails.
+     */
+    public void run() throws IOException {
+        final ExecutorService decoders = Executors.newFixedThreadPool(numberOfDecoders);
+        final Thread reader = Thread.ofPlatform().name("nmea-reader").unstarted(() -> read(decoders));
+        this.reader = reader;
+        reader.start();
+        try {
+            consume();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            requestStop();
+            try {
+                reader.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+            decoders.shutdownNow();
+        }
+        if (readFailure != null)
+            throw readFailure;
+    }
+
+    /**
+     * Stop reading and consuming. The input stream is closed and the reader stage is interrupted, so that a read
+     * blocked on e.g. a socket or pipe fails; an input stream whose blocked read neither fails on close() nor on
+     * interruption holds up run() until the read returns.
+     */
+    public final void requestStop() {
+        stopRequested = true;
+        // Close the input stream - not the reader, whose lock is held by a blocked read
+        try {
+            inputStream.close();
+        } catch (IOException e) {
+        }
+        final Thread reader = this.reader;
+        if (reader != null)
+            reader.interrupt();
+    }
+
+    public final boolean isStopRequested() {
+        return stopRequested;
+    }
+
+    /* Return the no. of messages currently read, but not yet consumed. */
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    /* Return the highest no. of messages which have been read, but not yet consumed. */
+    public int getMaxQueueDepth() {
+        return maxQueueDepth.get();
+    }
+
+    /* Return the no. of messages handed to the consumer. */
+    public long getNumberOfMessages() {
+        return numberOfMessages.sum();
+    }
+
+    /* Return the no. of lines or messages which could not be parsed or decoded. */
+    public long getNumberOfInvalidMessages() {
+        return numberOfInvalidMessages.sum();
+    }
+
+    /* Return the no. of times the reader has waited for the consumer because the queue was full. */
+    public long getNumberOfReaderStalls() {
+        return numberOfReaderStalls.sum();
+    }
+
+    /* Return the total time the reader has waited for the consumer. */
+    public Duration getReaderStallTime() {
+        return Duration.ofNanos(readerStallNanos.sum());
+    }
+
+    /* Return the no. of times the consumer has waited for the next message to be read or decoded; at most once per message, and once for the end of the input. */
+    public long getNumberOfConsumerStalls() {
+        return numberOfConsumerStalls.sum();
+    }
+
+    /* Return the total time the consumer has waited for messages to be read or decoded. */
+    public Duration getConsumerStallTime() {
+        return Duration.ofNanos(consumerStallNanos.sum());
+    }
+
+    /** The reader stage */
+    private void read(ExecutorService decoders) {
+        final FragmentAssembler assembler = new FragmentAssembler();
+        try {
+            String line;
+            while (!stopRequested && (line = input.readLine()) != null) {
+                final String[] lines = assembler.accept(line);
+                if (lines == FragmentAssembler.INVALID) {
+                    numberOfInvalidMessages.increment();
+                } else if (lines != null) {
+                    final Instant received = Instant.now();
+                    final FutureTask<AISMessage> decoding = new FutureTask<>(() -> decode(received, lines));
+                    if (!enqueue(decoding))
+                        return;
+                    decoders.execute(decoding);
+                }
+            }
+        } catch (IOException e) {
+            // Reads fail when the input stream is closed on stop
+            if (!stopRequested)
+                readFailure = e;
+        } catch (InterruptedException e) {
+            return;
+        } finally {
+            try {
+                enqueue(END);
+            } catch (InterruptedException e) {
+            }
+        }
+    }
+
+    /** The decoder stage; parses the sentences of a message and decodes it */
+    private static AISMessage decode(Instant received, String[] lines) {
+        final NMEAMessage[] nmeaMessages = FragmentAssembler.parse(lines);
+        return AISMessageFactory.create(received, SOURCE, nmeaMessages[lines.length - 1].getTagBlock(), nmeaMessages);
+    }
+
+    /** Put a message in the queue, waiting if the queue is full; return false if stop was requested while waiting. */
+    private boolean enqueue(FutureTask<AISMessage> decoding) throws InterruptedException {
+        if (!queue.offer(decoding)) {
+            numberOfReaderStalls.increment();
+            final long start = System.nanoTime();
+            try {
+                while (!queue.offer(decoding, 10, TimeUnit.MILLISECONDS))
+                    if (stopRequested)
+                        return false;
+            } finally {
+                readerStallNanos.add(System.nanoTime() - start);
+            }
+        }
+        maxQueueDepth.accumulateAndGet(queue.size(), Math::max);
+        return true;
+    }
+
+    /** The consumer stage */
+    private void consume() throws InterruptedException {
+        final List<AISMessage> batch = new ArrayList<>(maxBatchSize);
+        while (true) {
+            FutureTask<AISMessage> decoding = queue.poll();
+            boolean stalled = false;
+            if (decoding == null) {
+                // Hand over what we have, before waiting for more
+                if (!batch.isEmpty()) {
+                    deliver(batch);
+                    continue;
+                }
+                numberOfConsumerStalls.increment();
+                final long start = System.nanoTime();
+                while ((decoding = queue.poll(10, TimeUnit.MILLISECONDS)) == null)
+                    if (stopRequested)
+                        return;
+                consumerStallNanos.add(System.nanoTime() - start);
+                stalled = true;
+            }
+            if (decoding == END)
+                break;
+
+            final AISMessage aisMessage = awaitDecoding(decoding, stalled);
+            if (aisMessage != null) {
+                batch.add(aisMessage);
+                if (batch.size() >= maxBatchSize)
+                    deliver(batch);
+            }
+        }
+        if (!batch.isEmpty())
+            deliver(batch);
+    }
+
+    /** Wait for a message to be decoded; the wait is counted as a stall, unless the consumer already stalled waiting for the message to be read */
+    private AISMessage awaitDecoding(FutureTask<AISMessage> decoding, boolean stalled) throws InterruptedException {
+        try {
+            if (!decoding.isDone()) {
+                if (!stalled)
+                    numberOfConsumerStalls.increment();
+                final long start = System.nanoTime();
+                try {
+                    return decoding.get();
+                } finally {
+                    consumerStallNanos.add(System.nanoTime() - start);
+                }
+            }
+            return decoding.get();
+        } catch (ExecutionException e) {
+            numberOfInvalidMessages.increment();
+            return null;
+        }
+    }
+
+    private void deliver(List<AISMessage> batch) {
+        consumer.accept(List.copyOf(batch));
+        numberOfMessages.add(batch.size());
+        batch.clear();
+    }
+
+    /** Marks the end of the input in the queue */
+    private static final FutureTask<AISMessage> END = new FutureTask<>(() -> null);
+
+    private static final String SOURCE = "SRC";
+
+    /** Max no. of messages handed to the consumer at a time */
+    private static final int MAX_BATCH_SIZE = 256;
+
+    private final InputStream inputStream;
+    private final BufferedReader input;
+    private final int numberOfDecoders;
+    private final BlockingQueue<FutureTask<AISMessage>> queue;
+    private final int maxBatchSize;
+    private final Consumer<? super List<AISMessage>> consumer;
+
+    private volatile boolean stopRequested;
+    private volatile IOException readFailure;
+
+    /** The thread of the reader stage; null until run() starts it */
+    private volatile Thread reader;
+
+    private final AtomicInteger maxQueueDepth = new AtomicInteger();
+    private final LongAdder numberOfMessages = new LongAdder();
+    private final LongAdder numberOfInvalidMessages = new LongAdder();
+    private final LongAdder numberOfReaderStalls = new LongAdder();
+    private final LongAdder readerStallNanos = new LongAdder();
+    private final LongAdder numberOfConsumerStalls = new LongAdder();
+    private final LongAdder consumerStallNanos = new LongAdder();
+}
@@ -0,0 +1,166 @@
+/*
+ * AISUtils
+ * - a java-based library for processing of AIS messages received from digital
+ * VHF radio traffic related to maritime navigation and safety in compliance with ITU 1371.
+ *
+ * (C) Copyright 2011- by S-Consult ApS, DK31327490, http://s-consult.dk, Denmark.
+ *
+ * Released under the Creative Commons Attribution-NonCommercial-ShareAlike 3.0 Unported License.
+ * For details of this license see the nearby LICENCE-full file, visit http://creativecommons.org/licenses/by-nc-sa/3.0/
+ * or send a letter to Creative Commons, 171 Second Street, Suite 300, San Francisco, California, 94105, USA.
+ *
+ * NOT FOR COMMERCIAL USE!
+ * Contact sales@s-consult.dk to obtain a commercially licensed version of this software.
+ *
+ */
+
+
+package dk.tbsalling.ais.tracker.ingest;
+
+import dk.tbsalling.aismessages.ais.messages.AISMessage;
+
+import javax.annotation.concurrent.NotThreadSafe;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Consumer;
+
+import static java.util.Objects.requireNonNull;
+
+/**
+ * A TimeScaledReplay passes recorded messages on at the pace they were received, sped up by a factor - so that
+ * a recording of a day can be replayed at e.g. 1x, 10x or 100x real time, and look like live operation to the
+ * consumer. It is itself a consumer of batches of messages, to be placed between a reader and e.g. an AISTracker:
+ *
+ *   new MappedAISFileReader(files, 2, new TimeScaledReplay(10, Duration.ofMillis(10), tracker::update)).run();
+ *
+ * A message is scheduled at the time elapsed since the first message, according to the reception times in
+ * their metadata, divided by the speed factor. Rather than waiting for each message, real time is divided into
+ * ticks, and the messages scheduled within a tick are handed to the consumer together when the tick ends. The
+ * tracker takes its time from the messages, so its wallclock, events and stale checks follow the recording.
+ *
+ * The replay waits on the thread offering the messages; so readers are held back when the replay is ahead of
+ * the input. When the consumer cannot keep up, the replay falls behind schedule: the lag is how much later than
+ * scheduled a tick was handed over. A speed factor can be kept up with if the lag stays below a tick.
+ *
+ * Each batch offered is handed over before accept() returns. A tick which spans two batches is therefore handed
+ * over in two parts, the second as soon as it is offered. Messages must be offered by one thread at a time, but
+ * the statistics of the replay may be read by any thread.
+ */
+@NotThreadSafe
+public class TimeScaledReplay implements Consumer<List<AISMessage>> {
+
+    /**
+     * @param speed the factor by which the replay is faster than the recording; e.g. 10 for 10x real time.
+     * @param tick the real time in which messages are collected, before they are handed over together.
+     * @param consumer receives the messages in batches, at the scheduled time of their tick.
+     */
+    public TimeScaledReplay(double speed, Duration tick, Consumer<? super List<AISMessage>> consumer) {
+        requireNonNull(tick);
+        if (!(speed > 0) || Double.isInfinite(speed))
+            throw new IllegalArgumentException("speed must be positive, not " + speed);
+        if (tick.isNegative() || tick.isZero())
+            throw new IllegalArgumentException("tick must be positive, not " + tick);
+        this.speed = speed;
+        this.tickNanos = tick.toNanos();
+        this.consumer = requireNonNull(consumer);
+    }
+
+    /** Schedule the messages; and hand them over to the consumer tick by tick, waiting for each tick to end. */
+    @Override
+    public void accept(List<AISMessage> aisMessages) {
+        for (AISMessage aisMessage : aisMessages) {
+            final long tickOfMessage = tickOf(aisMessage.getMetadata().received());
+            if (!pending.isEmpty() && tickOfMessage > tickOfPending)
+                handOver();
+            if (pending.isEmpty())
+                tickOfPending = tickOfMessage;
+            pending.add(aisMessage);
+        }
+        if (!pending.isEmpty())
+            handOver();
+    }
+
+    /* Return the factor by which the replay is faster than the recording. */
+    public double getSpeed() {
+        return speed;
+    }
+
+    /* Return how much later than scheduled the last tick was handed over; zero if it was on time. */
+    public Duration getLag() {
+        return Duration.ofNanos(lagNanos);
+    }
+
+    /* Return the largest lag of all ticks so far. */
+    public Duration getMaxLag() {
+        return Duration.ofNanos(maxLagNanos);
+    }
+
+    /* Return the time in the recording up to which messages have been handed over; or null if none have. */
+    public Instant getReplayTime() {
+        return replayTime;
+    }
+
+    /* Return the no. of messages handed to the consumer. */
+    public long getNumberOfMessages() {
+        return numberOfMessages.sum();
+    }
+
+    /* Return the no. of batches handed to the consumer. */
+    public long getNumberOfTicks() {
+        return numberOfTicks.sum();
+    }
+
+    /** Return the no. of the tick in which a message received at the given time is scheduled. */
+    private long tickOf(Instant received) {
+        if (timeOfFirstMessage == null) {
+            timeOfFirstMessage = received;
+            startNanos = System.nanoTime();
+        }
+        final long scheduledNanos = (long) (Duration.between(timeOfFirstMessage, received).toNanos() / speed);
+        // Messages received before the first message are scheduled at once
+        return Math.max(0, scheduledNanos / tickNanos);
+    }
+
+    /** Wait for the end of the pending tick; and hand its messages over. */
+    private void handOver() {
+        final long deadline = startNanos + (tickOfPending + 1) * tickNanos;
+        long remaining;
+        while ((remaining = deadline - System.nanoTime()) > 0 && !Thread.currentThread().isInterrupted())
+            LockSupport.parkNanos(remaining);
+
+        final long lag = Math.max(0, -remaining);
+        lagNanos = lag;
+        if (lag > maxLagNanos)
+            maxLagNanos = lag;
+
+        consumer.accept(List.copyOf(pending));
+        numberOfMessages.add(pending.size());
+        numberOfTicks.increment();
+        replayTime = timeOfFirstMessage.plusNanos((long) ((tickOfPending + 1) * tickNanos * speed));
+        pending.clear();
+    }
+
+    private final double speed;
+    private final long tickNanos;
+    private final Consumer<? super List<AISMessage>> consumer;
+
+    /** Messages of the tick not yet handed over */
+    private final List<AISMessage> pending = new ArrayList<>();
+    private long tickOfPending;
+
+    /** Reception time of the first message; the origin of the schedule */
+    private Instant timeOfFirstMessage;
+
+    /** Real time of the first message */
+    private long startNanos;
+
+    private volatile long lagNanos;
+    private volatile long maxLagNanos;
+    private volatile Instant replayTime;
+    private final LongAdder numberOfMessages = new LongAdder();
+    private final LongAdder numberOfTicks = new LongAdder();
+}
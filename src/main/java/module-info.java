@@ -6,6 +6,7 @@ module dk.tbsalling.ais.utils {
 
     exports dk.tbsalling.ais.filter;
     exports dk.tbsalling.ais.tracker.events;
+    exports dk.tbsalling.ais.tracker.ingest;
     exports dk.tbsalling.ais.tracker;
 
     opens dk.tbsalling.ais.tracker to com.google.common;
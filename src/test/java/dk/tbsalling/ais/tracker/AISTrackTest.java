@@ -259,4 +259,74 @@ public class AISTrackTest {
         assertNmeaMessagesEqual(expected, (AISMessage)track.getDynamicDataReport());
     }
 
-}
\ No newline at end of file
+
+    @Test
+    public void testDynamicHistoryIsPrunedAndSupersededReportsAreNotKept() {
+        now = Instant.parse("2015-01-30T17:00:00.000Z");
+        AISTrack track = new AISTrack((PositionReport) parseNMEA(new NMEAMessage("!AIVDM,1,1,,B,33AkSB5000PhAltPoTK;@1GL0000,0*1B")), now);
+        track = new AISTrack(track, (PositionReport) parseNMEA(new NMEAMessage("!AIVDM,1,1,,A,13AkSB0000PhAmHPoTNeoQF@0H6>,0*4B")), now.plusSeconds(10));
+        track = new AISTrack(track, (PositionReport) parseNMEA(new NMEAMessage("!AIVDM,1,1,,A,13AkSB0000PhAmHPoTNcp1Fp0D17,0*00")), now.plusSeconds(20));
+
+        // A report with the same timestamp as the current one supersedes it
+        track = new AISTrack(track, (PositionReport) parseNMEA(new NMEAMessage("!AIVDM,1,1,,B,13AkSB0000PhAmJPoTMoiQFT0D1:,0*5E")), now.plusSeconds(20));
+        assertEquals(2, track.getDynamicDataHistory().size());
+        assertEquals(now.plusSeconds(20), track.getTimeOfDynamicUpdate());
+
+        AISTrack prunedTrack = new AISTrack(track, now.plusSeconds(5));
+        assertEquals(1, prunedTrack.getDynamicDataHistory().size());
+        assertEquals(now.plusSeconds(10), prunedTrack.getDynamicDataHistory().firstKey());
+        assertSame(track.getDynamicDataReport(), prunedTrack.getDynamicDataReport());
+        assertEquals(track.getTimeOfDynamicUpdate(), prunedTrack.getTimeOfDynamicUpdate());
+        assertEquals(2, track.getDynamicDataHistory().size());
+    }
+
+    @Test
+    public void testCompactTrackHasSameValuesWithoutReports() {
+        now = Instant.parse("2015-01-30T17:00:00.000Z");
+        ShipAndVoyageData shipAndVoyageData = (ShipAndVoyageData) parseNMEA(new NMEAMessage("!AIVDM,2,1,7,A,53AkSB02=:9TuaaR2210uDj0htELDptE8r22221J40=5562kN81TQA1DRBlj,0*1D"), new NMEAMessage("!AIVDM,2,2,7,A,0ES`8888880,2*65"));
+        PositionReport positionReport1 = (PositionReport) parseNMEA(new NMEAMessage("!AIVDM,1,1,,B,33AkSB5000PhAltPoTK;@1GL0000,0*1B"));
+        PositionReport positionReport2 = (PositionReport) parseNMEA(new NMEAMessage("!AIVDM,1,1,,A,13AkSB0000PhAmHPoTNeoQF@0H6>,0*4B"));
+
+        AISTrack track = new AISTrack(shipAndVoyageData, now);
+        AISTrack compactTrack = new AISTrack(track, ColumnarHistory.EMPTY, false);
+        assertNull(compactTrack.getStaticDataReport());
+        assertEquals(track.getShipName(), compactTrack.getShipName());
+        assertEquals(track.getToBow(), compactTrack.getToBow());
+        assertNull(compactTrack.getLatitude());
+        assertNull(compactTrack.getSecond());
+
+        track = new AISTrack(track, positionReport1, now.plusSeconds(10));
+        compactTrack = new AISTrack(compactTrack, positionReport1, now.plusSeconds(10), false);
+        track = new AISTrack(track, positionReport2, now.plusSeconds(20));
+        compactTrack = new AISTrack(compactTrack, positionReport2, now.plusSeconds(20), false);
+
+        assertNull(compactTrack.getStaticDataReport());
+        assertNull(compactTrack.getDynamicDataReport());
+        assertEquals(track.getMmsi(), compactTrack.getMmsi());
+        assertEquals(track.getTransponderClass(), compactTrack.getTransponderClass());
+        assertEquals(track.getCallsign(), compactTrack.getCallsign());
+        assertEquals(track.getShipName(), compactTrack.getShipName());
+        assertEquals(track.getShipType(), compactTrack.getShipType());
+        assertEquals(track.getToStern(), compactTrack.getToStern());
+        assertEquals(track.getLatitude(), compactTrack.getLatitude());
+        assertEquals(track.getLongitude(), compactTrack.getLongitude());
+        assertEquals(track.getSpeedOverGround(), compactTrack.getSpeedOverGround());
+        assertEquals(track.getCourseOverGround(), compactTrack.getCourseOverGround());
+        assertEquals(track.getTrueHeading(), compactTrack.getTrueHeading());
+        assertEquals(track.getSecond(), compactTrack.getSecond());
+        assertEquals(track.getTimeOfLastUpdate(), compactTrack.getTimeOfLastUpdate());
+
+        // The superseded dynamic data of a compact track goes into its history from the flattened values
+        assertEquals(1, compactTrack.getDynamicDataHistorySize());
+        HistoryCursor cursor = compactTrack.getDynamicDataHistoryCursor();
+        assertTrue(cursor.next());
+        assertEquals(now.plusSeconds(10).toEpochMilli(), cursor.getEpochMilli());
+        assertEquals(positionReport1.getLatitude(), cursor.getLatitude());
+        assertEquals(positionReport1.getTrueHeading(), cursor.getTrueHeading());
+
+        // A history of reports cannot be grown from a compact track
+        AISTrack compactTrackWithReportsHistory = new AISTrack(compactTrack, DynamicDataHistory.EMPTY, false);
+        assertThrows(UnsupportedOperationException.class, () -> new AISTrack(compactTrackWithReportsHistory, positionReport2, now.plusSeconds(30), false));
+    }
+
+}
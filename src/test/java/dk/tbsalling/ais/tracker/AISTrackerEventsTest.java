@@ -4,6 +4,7 @@ import com.google.common.eventbus.Subscribe;
 import com.google.common.util.concurrent.MoreExecutors;
 import dk.tbsalling.ais.tracker.events.*;
 import dk.tbsalling.aismessages.ais.messages.AISMessage;
+import dk.tbsalling.aismessages.ais.messages.AISMessageFactory;
 import dk.tbsalling.aismessages.nmea.NMEAMessageHandler;
 import dk.tbsalling.aismessages.nmea.exceptions.InvalidMessage;
 import dk.tbsalling.aismessages.nmea.messages.NMEAMessage;
@@ -15,6 +16,10 @@ import java.io.InputStreamReader;
 import java.time.Duration;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
@@ -24,13 +29,177 @@ public class AISTrackerEventsTest {
 
     @Test
     public void testEvents() throws Exception {
+        assertEvents(new AISTracker());
+    }
+
+    @Test
+    public void testEventsByRingBufferDispatcher() throws Exception {
+        assertEvents(AISTracker.builder().eventDispatcher(new RingBufferEventDispatcher(64)).build());
+    }
+
+    @Test
+    public void testEventsBySubscriberQueues() throws Exception {
+        assertEvents(AISTracker.builder().eventDispatcher(new QueueingEventDispatcher(64, OverflowPolicy.BLOCK)).build());
+    }
+
+    @Test
+    public void testConflatingSubscriberQueue() throws Exception {
+        QueueingEventDispatcher dispatcher = new QueueingEventDispatcher(64, OverflowPolicy.BLOCK);
+        AISTracker aisTracker = AISTracker.builder().eventDispatcher(dispatcher).build();
+        final AtomicInteger numEvents = new AtomicInteger();
+        aisTracker.registerSubscriber((TrackEventHandler) (event, endOfBatch) -> numEvents.incrementAndGet(), 1 << 16, OverflowPolicy.CONFLATE);
+        processAISInputStream(getClass().getClassLoader().getResource("ais-sample-1.nmea").openStream(), msg -> {
+            try {
+                aisTracker.update(msg);
+            } catch (IllegalArgumentException e) {
+            }
+        });
+        aisTracker.shutdown();
+
+        QueueingEventDispatcher.SubscriberStatistics statistics = dispatcher.getSubscriberStatistics().get(0);
+        assertEquals(OverflowPolicy.CONFLATE, statistics.overflowPolicy());
+        assertEquals(numEvents.get(), statistics.numberOfDeliveredEvents());
+        assertEquals(0, statistics.numberOfDroppedEvents());
+        assertEquals(0, statistics.queueDepth());
+        assertThrows(UnsupportedOperationException.class, () -> new AISTracker().registerSubscriber(new Object(), 1, OverflowPolicy.CONFLATE));
+    }
+
+    @Test
+    public void testWallclockEventsAreCoalescedPerInterval() throws Exception {
+        AISTracker aisTracker = AISTracker.builder().wallclockEventInterval(Duration.ofMinutes(1)).eventExecutor(new CurrentThreadExecutor()).build();
+        final List<Instant> wallclocks = new ArrayList<>();
+        aisTracker.registerSubscriber(new Object() {
+            @Subscribe
+            public void wallclockChanged(WallclockChangedEvent event) {
+                wallclocks.add(event.getWallclock());
+            }
+        });
+
+        final Set<Long> minutesUpdated = new HashSet<>();
+        final Instant[] wallclock = {Instant.parse("2015-02-02T00:00:00.000Z")};
+        processAISInputStream(getClass().getClassLoader().getResource("ais-sample-1.nmea").openStream(), msg -> {
+            try {
+                aisTracker.update(msg, wallclock[0]);
+                minutesUpdated.add(wallclock[0].getEpochSecond() / 60);
+            } catch (IllegalArgumentException e) {
+            }
+            wallclock[0] = wallclock[0].plusSeconds(5);
+        });
+        aisTracker.shutdown();
+
+        assertEquals(minutesUpdated.size(), wallclocks.size());
+        for (int i = 1; i < wallclocks.size(); i++)
+            assertTrue(wallclocks.get(i).getEpochSecond() / 60 > wallclocks.get(i - 1).getEpochSecond() / 60);
+        assertThrows(IllegalArgumentException.class, () -> AISTracker.builder().wallclockEventInterval(Duration.ofNanos(999_999)));
+    }
+
+    @Test
+    public void testBatchPostsWallclockEventOnlyIfWallclockAdvanced() {
+        AISTracker aisTracker = AISTracker.builder().eventExecutor(new CurrentThreadExecutor()).build();
+        final List<Instant> wallclocks = new ArrayList<>();
+        aisTracker.registerSubscriber(new Object() {
+            @Subscribe
+            public void wallclockChanged(WallclockChangedEvent event) {
+                wallclocks.add(event.getWallclock());
+            }
+        });
+        final Instant t0 = Instant.parse("2015-02-02T00:00:00.000Z");
+        final NMEAMessage positionReport = new NMEAMessage("!AIVDM,1,1,,A,18UG;P0012G?Uq4EdHa=c;7@051@,0*53");
+
+        aisTracker.update(List.of(AISMessageFactory.create(t0, "TESTSRC1", null, positionReport)));
+        assertEquals(List.of(t0), wallclocks);
+
+        // A batch which is rejected, or does not move the wallclock, posts no WallclockChangedEvent
+        aisTracker.update(List.of(AISMessageFactory.create(t0.minusSeconds(10), "TESTSRC1", null, positionReport)));
+        aisTracker.update(List.of(AISMessageFactory.create(t0, "TESTSRC1", null, positionReport)));
+        assertEquals(1, aisTracker.getNumberOfRejectedMessages());
+        assertEquals(List.of(t0), wallclocks);
+
+        aisTracker.update(List.of(AISMessageFactory.create(t0.plusSeconds(10), "TESTSRC1", null, positionReport)));
+        assertEquals(List.of(t0, t0.plusSeconds(10)), wallclocks);
+        aisTracker.shutdown();
+    }
+
+    @Test
+    public void testConflatingSubscriberIsRegisteredForTheEventTypesOfItsSubscriber() {
+        RingBufferEventDispatcher dispatcher = new RingBufferEventDispatcher(64);
+        AISTracker aisTracker = AISTracker.builder().eventDispatcher(dispatcher).build();
+        aisTracker.registerConflatingSubscriber(new Object() {
+            @Subscribe
+            public void aisTrackDeleted(AisTrackDeletedEvent event) {
+            }
+        }, Duration.ofSeconds(1));
+
+        // Creations and updates are needed to conflate deletions; dynamic updates and wallclock changes are not
+        assertTrue(dispatcher.hasSubscriberFor(AisTrackCreatedEvent.class));
+        assertTrue(dispatcher.hasSubscriberFor(AisTrackUpdatedEvent.class));
+        assertTrue(dispatcher.hasSubscriberFor(AisTrackDeletedEvent.class));
+        assertFalse(dispatcher.hasSubscriberFor(AisTrackDynamicsUpdatedEvent.class));
+        assertFalse(dispatcher.hasSubscriberFor(WallclockChangedEvent.class));
+        aisTracker.shutdown();
+    }
+
+    @Test
+    public void testConflatingSubscriberReceivesOneEventPerVessel() throws Exception {
+        AISTracker aisTracker = AISTracker.builder().eventDispatcher(new RingBufferEventDispatcher(64)).build();
+        final List<Object> events = new ArrayList<>();
+        final AtomicInteger numDynamicUpdateEvents = new AtomicInteger();
+        aisTracker.registerConflatingSubscriber((TrackEventHandler) (event, endOfBatch) -> events.add(event), Duration.ofDays(1));
+        aisTracker.registerSubscriber(new Object() {
+            @Subscribe
+            public void aisTrackDynamicsUpdated(AisTrackDynamicsUpdatedEvent event) {
+                numDynamicUpdateEvents.incrementAndGet();
+            }
+        });
+        processAISInputStream(getClass().getClassLoader().getResource("ais-sample-1.nmea").openStream(), msg -> {
+            try {
+                aisTracker.update(msg);
+            } catch (IllegalArgumentException e) {
+            }
+        });
+        aisTracker.shutdown();
+
+        // All events are handed over by the final drain, so each track is created once, with its latest state
+        assertTrue(numDynamicUpdateEvents.get() > 0);
+        assertEquals(aisTracker.getNumberOfAisTracks() + 1, events.size());
+        for (int i = 0; i < events.size() - 1; i++) {
+            AisTrackCreatedEvent event = (AisTrackCreatedEvent) events.get(i);
+            assertSame(aisTracker.getAisTrack(event.getMmsi()), event.getAisTrack());
+        }
+        assertEquals(aisTracker.getWallclock(), ((WallclockChangedEvent) events.get(events.size() - 1)).getWallclock());
+    }
+
+    @Test
+    public void testEventsByTrackEventHandler() throws Exception {
+        for (AISTracker aisTracker : new AISTracker[] { new AISTracker(), AISTracker.builder().eventDispatcher(new RingBufferEventDispatcher(64)).build() }) {
+            final AtomicInteger numEvents = new AtomicInteger();
+            final AtomicInteger numBatches = new AtomicInteger();
+            aisTracker.registerSubscriber((TrackEventHandler) (event, endOfBatch) -> {
+                numEvents.incrementAndGet();
+                if (endOfBatch)
+                    numBatches.incrementAndGet();
+            });
+            processAISInputStream(getClass().getClassLoader().getResource("ais-sample-1.nmea").openStream(), msg -> {
+                try {
+                    aisTracker.update(msg);
+                } catch (IllegalArgumentException e) {
+                }
+            });
+            aisTracker.shutdown();
+
+            assertTrue(numEvents.get() > 1000);
+            assertTrue(numBatches.get() > 0 && numBatches.get() <= numEvents.get());
+        }
+        assertThrows(IllegalArgumentException.class, () -> AISTracker.builder().eventDispatcher(new RingBufferEventDispatcher(64)).eventExecutor(new CurrentThreadExecutor()).build());
+    }
+
+    private void assertEvents(AISTracker aisTracker) throws Exception {
         final AtomicInteger numWallclockEvents = new AtomicInteger();
         final AtomicInteger numCreateEvents = new AtomicInteger();
         final AtomicInteger numUpdateEvents = new AtomicInteger();
         final AtomicInteger numDynamicUpdateEvents = new AtomicInteger();
         final AtomicInteger numDeleteEvents = new AtomicInteger();
 
-        AISTracker aisTracker = new AISTracker();
         aisTracker.setStalePeriod(Duration.ofMinutes(10));
         aisTracker.setStaleCheckPeriod(Duration.ofMinutes(1));
         aisTracker.setTaskExecutor(MoreExecutors.newDirectExecutorService());
@@ -1,18 +1,42 @@
 package dk.tbsalling.ais.tracker;
 
+import com.google.common.eventbus.Subscribe;
+import dk.tbsalling.ais.tracker.events.AisTrackCreatedEvent;
+import dk.tbsalling.ais.tracker.events.WallclockChangedEvent;
 import dk.tbsalling.aismessages.ais.messages.AISMessage;
+import dk.tbsalling.aismessages.ais.messages.AISMessageFactory;
+import dk.tbsalling.aismessages.ais.messages.DynamicDataReport;
+import dk.tbsalling.aismessages.ais.messages.Metadata;
+import dk.tbsalling.aismessages.ais.messages.types.ShipType;
+import dk.tbsalling.aismessages.ais.messages.types.TransponderClass;
 import dk.tbsalling.aismessages.nmea.NMEAMessageHandler;
 import dk.tbsalling.aismessages.nmea.exceptions.InvalidMessage;
 import dk.tbsalling.aismessages.nmea.messages.NMEAMessage;
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
 import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
 import java.util.Set;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
 import java.util.function.Consumer;
+import java.util.function.Predicate;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -69,6 +93,16 @@ public class AISTrackerTest {
 
         assertEquals("MAERSK VIGO", track.getShipName());
         assertEquals("ZDFC2", track.getCallsign());
+
+        assertTrue(track.getDynamicDataHistory().isEmpty());
+    }
+
+    @Test
+    public void testDynamicDataHistoryIsKept() {
+        AISTrack track = tracker.getAisTrack(261000410);
+
+        assertEquals(2, track.getDynamicDataHistory().size());
+        assertTrue(track.getDynamicDataHistory().lastKey().isBefore(track.getTimeOfDynamicUpdate()));
     }
 
     @Test
@@ -81,6 +115,762 @@ public class AISTrackerTest {
         assertTrue(found[0]);
     }
 
+    @Test
+    public void testColumnarHistory() throws Exception {
+        AISTracker columnarTracker = new AISTracker(msg -> true, 1, HistoryMode.COLUMNAR);
+        Instant[] timestamp = { Instant.parse("2015-01-30T12:06:51.611Z") };
+        processAISInputStream(getClass().getClassLoader().getResource("ais-sample-1.nmea").openStream(), msg -> {
+            try {
+                columnarTracker.update(msg, timestamp[0]);
+                timestamp[0] = timestamp[0].plusSeconds(1);
+            } catch (IllegalArgumentException e) {
+            }
+        });
+        columnarTracker.shutdown();
+
+        assertEquals(HistoryMode.COLUMNAR, columnarTracker.getHistoryMode());
+        AISTrack columnarTrack = columnarTracker.getAisTrack(261000410);
+        AISTrack track = tracker.getAisTrack(261000410);
+        assertEquals(2, columnarTrack.getDynamicDataHistorySize());
+        assertThrows(UnsupportedOperationException.class, () -> columnarTrack.getDynamicDataHistory());
+
+        HistoryCursor columnarCursor = columnarTrack.getDynamicDataHistoryCursor();
+        HistoryCursor cursor = track.getDynamicDataHistoryCursor();
+        while (cursor.next()) {
+            assertTrue(columnarCursor.next());
+            assertEquals(cursor.getEpochMilli(), columnarCursor.getEpochMilli());
+            assertEquals(cursor.getLatitude(), columnarCursor.getLatitude());
+            assertEquals(cursor.getLongitude(), columnarCursor.getLongitude());
+            assertEquals(cursor.getSpeedOverGround(), columnarCursor.getSpeedOverGround());
+            assertEquals(cursor.getCourseOverGround(), columnarCursor.getCourseOverGround());
+            assertEquals(cursor.getTrueHeading(), columnarCursor.getTrueHeading());
+        }
+        assertFalse(columnarCursor.next());
+    }
+
+    @Test
+    public void testHistoryIsPrunedIncrementally() throws Exception {
+        assertHistoryIsPruned(PruningMode.INCREMENTAL);
+    }
+
+    @Test
+    public void testHistoryIsPrunedBySweep() throws Exception {
+        assertHistoryIsPruned(PruningMode.SWEEP);
+    }
+
+    private void assertHistoryIsPruned(PruningMode pruningMode) throws Exception {
+        AISTracker pruningTracker = new AISTracker();
+        pruningTracker.setTaskExecutor(new CurrentThreadExecutor());
+        pruningTracker.setPruningMode(pruningMode);
+        pruningTracker.setDynamicDataHistoryMaxAge(Duration.ofMinutes(10));
+        pruningTracker.setPruneCheckPeriod(Duration.ofMinutes(1));
+        pruningTracker.setStalePeriod(Duration.ofHours(2));
+
+        List<AISMessage> messages = new ArrayList<>();
+        processAISInputStream(new ByteArrayInputStream((
+            "!AIVDM,1,1,,A,18UG;P0012G?Uq4EdHa=c;7@051@,0*53\n" +
+            "!AIVDM,1,1,,B,15NOpt0P00qQJLvA<K4HmwwL2<4T,0*11\n"
+        ).getBytes()), messages::add);
+
+        // Vessel 367524080 reports for 5 minutes and then goes idle, while vessel 576048000 reports for 40 minutes
+        Instant time = wallclock;
+        for (int i = 0; i < 240; i++) {
+            pruningTracker.update(messages.get(0), time);
+            if (i < 30)
+                pruningTracker.update(messages.get(1), time);
+            time = time.plusSeconds(10);
+        }
+        pruningTracker.shutdown();
+
+        final Instant oldestInstantToKeep = pruningTracker.getWallclock().minus(Duration.ofMinutes(10));
+
+        AISTrack activeTrack = pruningTracker.getAisTrack(576048000);
+        Instant oldestActiveHistory = activeTrack.getDynamicDataHistory().firstKey();
+        assertFalse(oldestActiveHistory.isBefore(oldestInstantToKeep.minus(Duration.ofMinutes(1))));
+        assertTrue(oldestActiveHistory.isBefore(oldestInstantToKeep.plusSeconds(10)));
+
+        AISTrack idleTrack = pruningTracker.getAisTrack(367524080);
+        assertTrue(idleTrack.getDynamicDataHistory().isEmpty());
+        assertFalse(pruningTracker.getTimeOfLastPruning().isBefore(pruningTracker.getWallclock().minus(Duration.ofMinutes(1))));
+    }
+
+    @Test
+    public void testGetAisTracksIsLiveView() throws Exception {
+        AISTracker liveTracker = new AISTracker(msg -> true, 4);
+        Set<AISTrack> aisTracks = liveTracker.getAisTracks();
+        assertTrue(aisTracks.isEmpty());
+
+        List<AISMessage> messages = new ArrayList<>();
+        processAISInputStream(new ByteArrayInputStream((
+            "!AIVDM,1,1,,A,18UG;P0012G?Uq4EdHa=c;7@051@,0*53\n" +
+            "!AIVDM,1,1,,B,15NOpt0P00qQJLvA<K4HmwwL2<4T,0*11\n" +
+            "!AIVDM,1,1,,A,15Mv5v?P00IS0J`A86KTROvN0<5k,0*12\n"
+        ).getBytes()), messages::add);
+
+        liveTracker.update(messages.get(0), wallclock);
+        liveTracker.update(messages.get(1), wallclock.plusSeconds(1));
+        assertEquals(2, aisTracks.size());
+        assertTrue(aisTracks.contains(liveTracker.getAisTrack(576048000)));
+        assertTrue(aisTracks.contains(liveTracker.getAisTrack(367524080)));
+
+        // Updating while iterating must neither block nor fail
+        Iterator<AISTrack> iterator = aisTracks.iterator();
+        assertTrue(iterator.hasNext());
+        iterator.next();
+        liveTracker.update(messages.get(2), wallclock.plusSeconds(2));
+        while (iterator.hasNext())
+            assertNotNull(iterator.next());
+
+        assertEquals(3, aisTracks.size());
+        assertThrows(UnsupportedOperationException.class, () -> aisTracks.remove(liveTracker.getAisTrack(576048000)));
+        liveTracker.shutdown();
+    }
+
+    @Test
+    public void testShardedTrackerTracksSameVesselsAsUnshardedTracker() throws Exception {
+        AISTracker shardedTracker = new AISTracker(msg -> true, 8);
+        Instant[] timestamp = { Instant.parse("2015-01-30T12:06:51.611Z") };
+        processAISInputStream(getClass().getClassLoader().getResource("ais-sample-1.nmea").openStream(), msg -> {
+            try {
+                shardedTracker.update(msg, timestamp[0]);
+                timestamp[0] = timestamp[0].plusSeconds(1);
+            } catch (IllegalArgumentException e) {
+            }
+        });
+        shardedTracker.shutdown();
+
+        assertEquals(8, shardedTracker.getNumberOfShards());
+        assertEquals(922, shardedTracker.getNumberOfAisTracks());
+        assertEquals(922, shardedTracker.getAisTracks().size());
+        assertEquals(tracker.getWallclock(), shardedTracker.getWallclock());
+        tracker.getAisTracks().forEach(track -> {
+            AISTrack shardedTrack = shardedTracker.getAisTrack(track.getMmsi());
+            assertNotNull(shardedTrack);
+            assertEquals(track.getTimeOfLastUpdate(), shardedTrack.getTimeOfLastUpdate());
+            assertEquals(track.getLatitude(), shardedTrack.getLatitude());
+            assertEquals(track.getShipName(), shardedTrack.getShipName());
+        });
+    }
+
+    @Test
+    public void testShardedTrackerCanBeUpdatedConcurrently() throws Exception {
+        final int numberOfShards = 4;
+        AISTracker shardedTracker = new AISTracker(msg -> true, numberOfShards);
+
+        // Each thread feeds the messages of one shard in the order they were received
+        List<List<AISMessage>> messagesPerShard = new ArrayList<>();
+        List<List<Instant>> timestampsPerShard = new ArrayList<>();
+        for (int i = 0; i < numberOfShards; i++) {
+            messagesPerShard.add(new ArrayList<>());
+            timestampsPerShard.add(new ArrayList<>());
+        }
+        Instant[] timestamp = { Instant.parse("2015-01-30T12:06:51.611Z") };
+        processAISInputStream(getClass().getClassLoader().getResource("ais-sample-1.nmea").openStream(), msg -> {
+            int shard = TrackShard.indexOf(msg.getSourceMmsi().getMmsi(), numberOfShards);
+            messagesPerShard.get(shard).add(msg);
+            timestampsPerShard.get(shard).add(timestamp[0]);
+            timestamp[0] = timestamp[0].plusSeconds(1);
+        });
+
+        ExecutorService executor = Executors.newFixedThreadPool(numberOfShards);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int i = 0; i < numberOfShards; i++) {
+            final int shard = i;
+            futures.add(executor.submit(() -> {
+                for (int j = 0; j < messagesPerShard.get(shard).size(); j++) {
+                    try {
+                        shardedTracker.update(messagesPerShard.get(shard).get(j), timestampsPerShard.get(shard).get(j));
+                    } catch (IllegalArgumentException e) {
+                    }
+                }
+            }));
+        }
+        for (Future<?> future : futures)
+            future.get();
+        executor.shutdown();
+        shardedTracker.shutdown();
+
+        assertEquals(922, shardedTracker.getNumberOfAisTracks());
+    }
+
+    @Test
+    public void testGetAisTracksWithin() {
+        BoundingBox kattegat = new BoundingBox(56.0, 10.5, 57.5, 12.5);
+        Set<AISTrack> expected = new HashSet<>();
+        for (AISTrack track : tracker.getAisTracks())
+            if (track.getLatitude() != null && kattegat.contains(track.getLatitude(), track.getLongitude()))
+                expected.add(track);
+
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, tracker.getAisTracksWithin(kattegat));
+        assertTrue(tracker.getAisTracksWithin(new BoundingBox(-10, -10, 10, 10)).isEmpty());
+    }
+
+    @Test
+    public void testGetAisTracksWithinRadius() {
+        // The port of Antwerp
+        final double latitude = 51.24, longitude = 4.40, radius = 10_000;
+        Set<AISTrack> expected = new HashSet<>();
+        for (AISTrack track : tracker.getAisTracks())
+            if (track.getLatitude() != null && track.getLatitude() <= 90
+                && GreatCircle.distance(latitude, longitude, track.getLatitude(), track.getLongitude()) <= radius)
+                expected.add(track);
+
+        assertTrue(expected.size() > 1);
+        assertEquals(expected, tracker.getAisTracksWithinRadius(latitude, longitude, radius));
+    }
+
+    @Test
+    public void testGetNearestAisTracks() {
+        assertNearestAisTracks(51.24, 4.40, 10, track -> true);
+        assertNearestAisTracks(57.7, 11.9, 25, track -> true);
+        assertNearestAisTracks(-33.9, 151.2, 3, track -> true);
+        assertNearestAisTracks(0, 179.9, 5, track -> true);
+        assertNearestAisTracks(89.9, 0, 5, track -> true);
+    }
+
+    @Test
+    public void testGetNearestAisTracksWithPredicate() {
+        assertNearestAisTracks(51.24, 4.40, 10, track -> track.getTransponderClass() == TransponderClass.B);
+        assertNearestAisTracks(51.24, 4.40, 5, track -> track.getShipType() == ShipType.Tanker);
+        // More than there are matching tracks
+        assertNearestAisTracks(51.24, 4.40, 1000, track -> track.getTransponderClass() == TransponderClass.B);
+        assertTrue(tracker.getNearestAisTracks(51.24, 4.40, 10, track -> false).isEmpty());
+    }
+
+    @Test
+    public void testGetNearestAisTracksRejectsInvalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> tracker.getNearestAisTracks(51.24, 4.40, 0));
+        assertThrows(IllegalArgumentException.class, () -> tracker.getNearestAisTracks(91, 4.40, 1));
+        assertThrows(NullPointerException.class, () -> tracker.getNearestAisTracks(51.24, 4.40, 1, null));
+    }
+
+    private void assertNearestAisTracks(double latitude, double longitude, int k, Predicate<AISTrack> predicate) {
+        List<Double> expected = tracker.getAisTracks().stream()
+            .filter(track -> track.getLatitude() != null && track.getLatitude() <= 90 && track.getLongitude() <= 180)
+            .filter(predicate)
+            .map(track -> GreatCircle.distance(latitude, longitude, track.getLatitude(), track.getLongitude()))
+            .sorted()
+            .limit(k)
+            .toList();
+        List<Double> found = tracker.getNearestAisTracks(latitude, longitude, k, predicate).stream()
+            .peek(track -> assertTrue(predicate.test(track)))
+            .map(track -> GreatCircle.distance(latitude, longitude, track.getLatitude(), track.getLongitude()))
+            .toList();
+        assertFalse(expected.isEmpty());
+        assertEquals(expected, found);
+    }
+
+    @Test
+    public void testSpatialIndexFollowsMovingAndStaleTracks() throws Exception {
+        AISTracker movingTracker = new AISTracker();
+        List<AISMessage> messages = new ArrayList<>();
+        processAISInputStream(getClass().getClassLoader().getResource("ais-sample-1.nmea").openStream(), messages::add);
+        Instant t = Instant.parse("2015-01-30T12:06:51.611Z");
+        for (AISMessage message : messages) {
+            try {
+                movingTracker.update(message, t);
+            } catch (IllegalArgumentException e) {
+            }
+            t = t.plusSeconds(1);
+        }
+        BoundingBox everywhere = new BoundingBox(-90, -180, 90, 180);
+        long positioned = movingTracker.getAisTracks().stream().filter(track -> track.getLatitude() != null && track.getLatitude() <= 90 && track.getLongitude() <= 180).count();
+        assertEquals(positioned, movingTracker.getAisTracksWithin(everywhere).size());
+
+        // Let all tracks become stale
+        try {
+            movingTracker.update(messages.get(0), t.plus(Duration.ofHours(1)));
+        } catch (IllegalArgumentException e) {
+        }
+        movingTracker.shutdown();
+        assertTrue(movingTracker.getNumberOfAisTracks() <= 1);
+        assertEquals(movingTracker.getAisTracks().stream().filter(track -> track.getLatitude() != null && track.getLatitude() <= 90).count(),
+            movingTracker.getAisTracksWithin(everywhere).size());
+    }
+
+    @Test
+    public void testCheckpointAndRestore(@TempDir Path directory) throws Exception {
+        Path checkpoint = directory.resolve("tracker.checkpoint");
+        tracker.checkpoint(checkpoint);
+        assertTrue(Files.exists(checkpoint));
+        assertFalse(Files.exists(directory.resolve("tracker.checkpoint.tmp")));
+
+        AISTracker restoredTracker = new AISTracker();
+        restoredTracker.restore(checkpoint);
+        assertEquals(tracker.getNumberOfAisTracks(), restoredTracker.getNumberOfAisTracks());
+        assertEquals(tracker.getWallclock(), restoredTracker.getWallclock());
+        for (AISTrack track : tracker.getAisTracks())
+            assertSameTrack(track, restoredTracker.getAisTrack(track.getMmsi()));
+        assertEquals(tracker.getAisTrack(236037000).getDynamicDataHistory().keySet(), restoredTracker.getAisTrack(236037000).getDynamicDataHistory().keySet());
+
+        // The indexes of the restored tracker are up to date
+        BoundingBox kattegat = new BoundingBox(56.0, 10.5, 57.5, 12.5);
+        assertEquals(tracker.getAisTracksWithin(kattegat).size(), restoredTracker.getAisTracksWithin(kattegat).size());
+        assertThrows(IllegalStateException.class, () -> restoredTracker.restore(checkpoint));
+        restoredTracker.shutdown();
+    }
+
+    @Test
+    public void testCheckpointAndRestoreColumnarHistory(@TempDir Path directory) throws Exception {
+        AISTracker columnarTracker = AISTracker.builder().historyMode(HistoryMode.COLUMNAR).build();
+        Instant[] timestamp = { Instant.parse("2015-01-30T12:06:51.611Z") };
+        processAISInputStream(getClass().getClassLoader().getResource("ais-sample-1.nmea").openStream(), msg -> {
+            try {
+                columnarTracker.update(msg, timestamp[0]);
+                timestamp[0] = timestamp[0].plusSeconds(1);
+            } catch (IllegalArgumentException e) {
+            }
+        });
+        columnarTracker.shutdown();
+        Path checkpoint = directory.resolve("tracker.checkpoint");
+        columnarTracker.checkpoint(checkpoint);
+
+        AISTracker restoredTracker = AISTracker.builder().historyMode(HistoryMode.COLUMNAR).build();
+        restoredTracker.restore(checkpoint);
+        for (AISTrack track : columnarTracker.getAisTracks())
+            assertSameTrack(track, restoredTracker.getAisTrack(track.getMmsi()));
+        restoredTracker.shutdown();
+
+        AISTracker reportsTracker = new AISTracker();
+        assertThrows(IOException.class, () -> reportsTracker.restore(checkpoint));
+        assertEquals(0, reportsTracker.getNumberOfAisTracks());
+        reportsTracker.shutdown();
+    }
+
+    @Test
+    public void testPayloadHistory(@TempDir Path directory) throws Exception {
+        AISTracker payloadTracker = AISTracker.builder().historyMode(HistoryMode.PAYLOADS).build();
+        Instant[] timestamp = { Instant.parse("2015-01-30T12:06:51.611Z") };
+        processAISInputStream(getClass().getClassLoader().getResource("ais-sample-1.nmea").openStream(), msg -> {
+            try {
+                payloadTracker.update(msg, timestamp[0]);
+                timestamp[0] = timestamp[0].plusSeconds(1);
+            } catch (IllegalArgumentException e) {
+            }
+        });
+        payloadTracker.shutdown();
+
+        assertEquals(HistoryMode.PAYLOADS, payloadTracker.getHistoryMode());
+        AISTrack payloadTrack = payloadTracker.getAisTrack(261000410);
+        AISTrack track = tracker.getAisTrack(261000410);
+        assertEquals(2, payloadTrack.getDynamicDataHistorySize());
+        assertEquals(track.getDynamicDataHistory().size(), payloadTrack.getDynamicDataHistory().size());
+        Iterator<DynamicDataReport> reports = track.getDynamicDataHistory().values().iterator();
+        for (DynamicDataReport payloadReport : payloadTrack.getDynamicDataHistory().values())
+            assertEquals(((AISMessage) reports.next()).getMetadata().bitString(), ((AISMessage) payloadReport).getMetadata().bitString());
+
+        HistoryCursor payloadCursor = payloadTrack.getDynamicDataHistoryCursor();
+        HistoryCursor cursor = track.getDynamicDataHistoryCursor();
+        while (cursor.next()) {
+            assertTrue(payloadCursor.next());
+            assertEquals(cursor.getLatitude(), payloadCursor.getLatitude());
+            assertEquals(cursor.getLongitude(), payloadCursor.getLongitude());
+            assertEquals(cursor.getTrueHeading(), payloadCursor.getTrueHeading());
+        }
+        assertFalse(payloadCursor.next());
+
+        // Checkpoints keep payload history as reports
+        Path checkpoint = directory.resolve("tracker.checkpoint");
+        payloadTracker.checkpoint(checkpoint);
+        AISTracker restoredTracker = AISTracker.builder().historyMode(HistoryMode.PAYLOADS).build();
+        restoredTracker.restore(checkpoint);
+        for (AISTrack payloadTrackToRestore : payloadTracker.getAisTracks())
+            assertSameTrack(payloadTrackToRestore, restoredTracker.getAisTrack(payloadTrackToRestore.getMmsi()));
+        restoredTracker.shutdown();
+
+        assertThrows(IllegalArgumentException.class, () -> AISTracker.builder().historyMode(HistoryMode.PAYLOADS).trackMode(TrackMode.COMPACT).build());
+    }
+
+    @Test
+    public void testStaticReportWithSameContentIsDeduplicated() {
+        NMEAMessage[] shipAndVoyageData = {
+            new NMEAMessage("!AIVDM,2,1,6,B,55NOpt400001L@O?;G0HuE9@R15D59@E:222220O0p>4440Ht6hhjH4QDiDU,0*46"),
+            new NMEAMessage("!AIVDM,2,2,6,B,QH888888880,2*38") };
+        Instant t0 = Instant.parse("2015-01-30T12:00:00Z");
+        AISTracker staticTracker = new AISTracker();
+        AISMessage first = AISMessageFactory.create(t0, "TESTSRC1", null, shipAndVoyageData);
+        staticTracker.update(first);
+        staticTracker.update(AISMessageFactory.create(t0.plusSeconds(360), "TESTSRC1", null, shipAndVoyageData));
+        staticTracker.update(AISMessageFactory.create(t0.plusSeconds(720), "TESTSRC2", null, shipAndVoyageData));
+
+        AISTrack track = staticTracker.getAisTrack(367524080);
+        assertSame(first, track.getStaticDataReport());
+        assertEquals(t0.plusSeconds(720), track.getTimeOfStaticUpdate());
+        assertEquals(2, staticTracker.getNumberOfDuplicateStaticReports());
+
+        // A report with different content replaces the current one
+        AISMessage changed = AISMessageFactory.create(t0.plusSeconds(1080), "TESTSRC1", null,
+            new NMEAMessage("!AIVDM,2,1,0,B,539S:k40000000c3G04PPh63<00000000080000o1PVG2uGD:00000000000,0*34"),
+            new NMEAMessage("!AIVDM,2,2,0,B,00000000000,2*27"));
+        staticTracker.update(changed);
+        assertSame(changed, staticTracker.getAisTrack(211339980).getStaticDataReport());
+        assertEquals(2, staticTracker.getNumberOfDuplicateStaticReports());
+        staticTracker.shutdown();
+    }
+
+    @Test
+    public void testNamesOfTracksAreInterned() {
+        NMEAMessage[] shipAndVoyageData = {
+            new NMEAMessage("!AIVDM,2,1,6,B,55NOpt400001L@O?;G0HuE9@R15D59@E:222220O0p>4440Ht6hhjH4QDiDU,0*46"),
+            new NMEAMessage("!AIVDM,2,2,6,B,QH888888880,2*38") };
+        Instant t0 = Instant.parse("2015-01-30T12:00:00Z");
+        AISTracker compactTracker = AISTracker.builder().historyMode(HistoryMode.NONE).trackMode(TrackMode.COMPACT).build();
+        compactTracker.update(AISMessageFactory.create(t0, "TESTSRC1", null, shipAndVoyageData));
+        String shipName = compactTracker.getAisTrack(367524080).getShipName();
+        compactTracker.update(AISMessageFactory.create(t0.plusSeconds(360), "TESTSRC1", null, shipAndVoyageData));
+
+        AISTrack track = compactTracker.getAisTrack(367524080);
+        assertEquals(t0.plusSeconds(360), track.getTimeOfStaticUpdate());
+        assertSame(shipName, track.getShipName());
+        compactTracker.shutdown();
+
+        // Tracks which retain their reports share the names too
+        AISTracker reportsTracker = new AISTracker();
+        reportsTracker.update(AISMessageFactory.create(t0, "TESTSRC1", null, shipAndVoyageData));
+        assertSame(shipName, reportsTracker.getAisTrack(367524080).getShipName());
+        assertSame(track.getCallsign(), reportsTracker.getAisTrack(367524080).getCallsign());
+        reportsTracker.shutdown();
+    }
+
+    @Test
+    public void testCompactTracks() throws Exception {
+        AISTracker columnarTracker = AISTracker.builder().historyMode(HistoryMode.COLUMNAR).build();
+        AISTracker compactTracker = AISTracker.builder().historyMode(HistoryMode.COLUMNAR).trackMode(TrackMode.COMPACT).build();
+        Instant[] timestamp = { Instant.parse("2015-01-30T12:06:51.611Z") };
+        processAISInputStream(getClass().getClassLoader().getResource("ais-sample-1.nmea").openStream(), msg -> {
+            try {
+                columnarTracker.update(msg, timestamp[0]);
+                compactTracker.update(msg, timestamp[0]);
+                timestamp[0] = timestamp[0].plusSeconds(1);
+            } catch (IllegalArgumentException e) {
+            }
+        });
+        columnarTracker.shutdown();
+        compactTracker.shutdown();
+
+        assertEquals(TrackMode.COMPACT, compactTracker.getTrackMode());
+        assertEquals(TrackMode.REPORTS, columnarTracker.getTrackMode());
+        assertEquals(columnarTracker.getNumberOfAisTracks(), compactTracker.getNumberOfAisTracks());
+        for (AISTrack track : columnarTracker.getAisTracks()) {
+            AISTrack compactTrack = compactTracker.getAisTrack(track.getMmsi());
+            assertSameValues(track, compactTrack);
+            assertNull(compactTrack.getStaticDataReport());
+            assertNull(compactTrack.getDynamicDataReport());
+            assertNull(compactTrack.getAidToNavigationReport());
+        }
+
+        assertThrows(IllegalArgumentException.class, () -> AISTracker.builder().trackMode(TrackMode.COMPACT).build());
+    }
+
+    @Test
+    public void testCheckpointAndRestoreCompactTracks(@TempDir Path directory) throws Exception {
+        AISTracker compactTracker = AISTracker.builder().historyMode(HistoryMode.COLUMNAR).trackMode(TrackMode.COMPACT).build();
+        Instant[] timestamp = { Instant.parse("2015-01-30T12:06:51.611Z") };
+        processAISInputStream(getClass().getClassLoader().getResource("ais-sample-1.nmea").openStream(), msg -> {
+            try {
+                compactTracker.update(msg, timestamp[0]);
+                timestamp[0] = timestamp[0].plusSeconds(1);
+            } catch (IllegalArgumentException e) {
+            }
+        });
+        compactTracker.shutdown();
+        Path checkpoint = directory.resolve("tracker.checkpoint");
+        compactTracker.checkpoint(checkpoint);
+
+        AISTracker restoredTracker = AISTracker.builder().historyMode(HistoryMode.COLUMNAR).trackMode(TrackMode.COMPACT).build();
+        restoredTracker.restore(checkpoint);
+        assertEquals(compactTracker.getNumberOfAisTracks(), restoredTracker.getNumberOfAisTracks());
+        for (AISTrack track : compactTracker.getAisTracks()) {
+            assertSameTrack(track, restoredTracker.getAisTrack(track.getMmsi()));
+            assertSameValues(track, restoredTracker.getAisTrack(track.getMmsi()));
+        }
+        restoredTracker.shutdown();
+
+        // Compact tracks cannot regain their reports
+        AISTracker reportsTracker = AISTracker.builder().historyMode(HistoryMode.COLUMNAR).build();
+        assertThrows(IOException.class, () -> reportsTracker.restore(checkpoint));
+        assertEquals(0, reportsTracker.getNumberOfAisTracks());
+        reportsTracker.shutdown();
+
+        // Tracks with reports are made compact
+        Path reportsCheckpoint = directory.resolve("reports.checkpoint");
+        tracker.checkpoint(reportsCheckpoint);
+        AISTracker compactedTracker = AISTracker.builder().historyMode(HistoryMode.COLUMNAR).trackMode(TrackMode.COMPACT).build();
+        compactedTracker.restore(reportsCheckpoint);
+        assertEquals(tracker.getNumberOfAisTracks(), compactedTracker.getNumberOfAisTracks());
+        for (AISTrack track : tracker.getAisTracks()) {
+            AISTrack compactedTrack = compactedTracker.getAisTrack(track.getMmsi());
+            assertSameValues(track, compactedTrack);
+            assertNull(compactedTrack.getStaticDataReport());
+            assertNull(compactedTrack.getDynamicDataReport());
+            assertEquals(track.getDynamicDataHistorySize(), compactedTrack.getDynamicDataHistorySize());
+        }
+        compactedTracker.shutdown();
+    }
+
+    @Test
+    public void testRestoredTrackerCanBeUpdated(@TempDir Path directory) throws Exception {
+        Path checkpoint = directory.resolve("tracker.checkpoint");
+        tracker.checkpoint(checkpoint);
+        AISTracker restoredTracker = AISTracker.builder().taskExecutor(new CurrentThreadExecutor()).build();
+        restoredTracker.restore(checkpoint);
+
+        List<AISMessage> messages = new ArrayList<>();
+        processAISInputStream(getClass().getClassLoader().getResource("ais-sample-1.nmea").openStream(), messages::add);
+        restoredTracker.update(messages.get(0), wallclock.plusSeconds(1));
+        assertEquals(wallclock.plusSeconds(1), restoredTracker.getAisTrack(messages.get(0).getSourceMmsi().getMmsi()).getTimeOfLastUpdate());
+
+        // Tracks restored from the checkpoint become stale like any other
+        restoredTracker.update(messages.get(0), wallclock.plus(Duration.ofHours(1)));
+        assertEquals(1, restoredTracker.getNumberOfAisTracks());
+        restoredTracker.shutdown();
+    }
+
+    @Test
+    public void testRecoverFromCheckpointAndJournal(@TempDir Path directory) throws Exception {
+        List<AISMessage> messages = new ArrayList<>();
+        processAISInputStream(getClass().getClassLoader().getResource("ais-sample-1.nmea").openStream(), messages::add);
+        Path checkpoint = directory.resolve("tracker.checkpoint");
+
+        Journal journal = new Journal(directory.resolve("journal"));
+        AISTracker journaledTracker = AISTracker.builder().journal(journal).build();
+        Instant t = Instant.parse("2015-01-30T12:06:51.611Z");
+        for (int i = 0; i < messages.size(); i++) {
+            if (i == messages.size() / 2)
+                journaledTracker.checkpoint(checkpoint);
+            // The journal keeps the timestamp with which a message was applied as its time of reception
+            AISMessage message = AISMessageFactory.create(t, "TESTSRC1", null, messages.get(i).getMetadata().nmeaMessages());
+            try {
+                journaledTracker.update(message, t);
+            } catch (IllegalArgumentException e) {
+            }
+            t = t.plusSeconds(1);
+        }
+        journaledTracker.shutdown();
+        // Simulate a crash by not closing the journal before reopening it
+
+        Journal reopenedJournal = new Journal(directory.resolve("journal"));
+        AISTracker recoveredTracker = AISTracker.builder().journal(reopenedJournal).build();
+        long numberOfMessagesReplayed = recoveredTracker.recover(checkpoint);
+        assertTrue(numberOfMessagesReplayed > 0 && numberOfMessagesReplayed < messages.size() / 2 + 10);
+        assertEquals(0, reopenedJournal.getNumberOfRecords());
+
+        assertEquals(journaledTracker.getNumberOfAisTracks(), recoveredTracker.getNumberOfAisTracks());
+        assertEquals(journaledTracker.getWallclock(), recoveredTracker.getWallclock());
+        for (AISTrack track : journaledTracker.getAisTracks())
+            assertSameTrack(track, recoveredTracker.getAisTrack(track.getMmsi()));
+
+        recoveredTracker.shutdown();
+        journal.close();
+        reopenedJournal.close();
+    }
+
+    @Test
+    public void testRecoverFromCheckpointTakenDuringConcurrentUpdates(@TempDir Path directory) throws Exception {
+        final int numberOfShards = 2;
+        List<AISMessage> messages = new ArrayList<>();
+        processAISInputStream(getClass().getClassLoader().getResource("ais-sample-1.nmea").openStream(), messages::add);
+        Path checkpoint = directory.resolve("tracker.checkpoint");
+
+        // Each shard is updated by its own thread, and the wallclock of the second shard is a day ahead of the first
+        List<List<AISMessage>> messagesOfShards = new ArrayList<>();
+        for (int s = 0; s < numberOfShards; s++) {
+            Instant t = Instant.parse("2015-01-30T12:06:51.611Z").plus(Duration.ofDays(s));
+            List<AISMessage> messagesOfShard = new ArrayList<>();
+            for (AISMessage message : messages) {
+                if (TrackShard.indexOf(message.getSourceMmsi().getMmsi(), numberOfShards) == s) {
+                    messagesOfShard.add(AISMessageFactory.create(t, "TESTSRC1", null, message.getMetadata().nmeaMessages()));
+                    t = t.plusSeconds(1);
+                }
+            }
+            messagesOfShards.add(messagesOfShard);
+        }
+
+        Journal journal = new Journal(directory.resolve("journal"));
+        AISTracker journaledTracker = AISTracker.builder().numberOfShards(numberOfShards).journal(journal).build();
+        CountDownLatch halfwayThrough = new CountDownLatch(numberOfShards);
+        CountDownLatch checkpointStarted = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(numberOfShards);
+        List<Future<?>> futures = new ArrayList<>();
+        for (List<AISMessage> messagesOfShard : messagesOfShards) {
+            futures.add(executor.submit(() -> {
+                for (int i = 0; i < messagesOfShard.size(); i++) {
+                    if (i == messagesOfShard.size() / 2) {
+                        halfwayThrough.countDown();
+                        checkpointStarted.await();
+                    }
+                    AISMessage message = messagesOfShard.get(i);
+                    try {
+                        journaledTracker.update(message, message.getMetadata().received());
+                    } catch (IllegalArgumentException e) {
+                    }
+                }
+                return null;
+            }));
+        }
+        halfwayThrough.await();
+        checkpointStarted.countDown();
+        journaledTracker.checkpoint(checkpoint);
+        for (Future<?> future : futures)
+            future.get();
+        executor.shutdown();
+        journaledTracker.shutdown();
+
+        Journal reopenedJournal = new Journal(directory.resolve("journal"));
+        AISTracker recoveredTracker = AISTracker.builder().numberOfShards(numberOfShards).journal(reopenedJournal).build();
+        recoveredTracker.recover(checkpoint);
+
+        assertEquals(journaledTracker.getNumberOfAisTracks(), recoveredTracker.getNumberOfAisTracks());
+        assertEquals(journaledTracker.getWallclock(), recoveredTracker.getWallclock());
+        for (AISTrack track : journaledTracker.getAisTracks())
+            assertSameTrack(track, recoveredTracker.getAisTrack(track.getMmsi()));
+
+        recoveredTracker.shutdown();
+        journal.close();
+        reopenedJournal.close();
+    }
+
+    @Test
+    public void testMessageWhichCannotBeJournaledChangesNothing(@TempDir Path directory) throws Exception {
+        List<AISMessage> messages = new ArrayList<>();
+        processAISInputStream(getClass().getClassLoader().getResource("ais-sample-1.nmea").openStream(), messages::add);
+
+        Journal journal = new Journal(directory.resolve("journal"));
+        AISTracker journaledTracker = AISTracker.builder().journal(journal).eventExecutor(new CurrentThreadExecutor()).build();
+        List<Object> events = new ArrayList<>();
+        journaledTracker.registerSubscriber(new Object() {
+            @Subscribe
+            public void wallclockChanged(WallclockChangedEvent event) {
+                events.add(event);
+            }
+
+            @Subscribe
+            public void aisTrackCreated(AisTrackCreatedEvent event) {
+                events.add(event);
+            }
+        });
+        Instant t = Instant.parse("2015-01-30T12:06:51.611Z");
+        journaledTracker.update(messages.get(0), t);
+        assertEquals(2, events.size());
+
+        journal.close();
+        assertThrows(IllegalStateException.class, () -> journaledTracker.update(messages.get(1), t.plusSeconds(1)));
+        assertEquals(t, journaledTracker.getWallclock());
+        assertFalse(journaledTracker.isTracked(messages.get(1).getSourceMmsi().getMmsi()));
+        assertEquals(2, events.size());
+        journaledTracker.shutdown();
+    }
+
+    @Test
+    public void testBatchFailingToBeJournaledPostsEventsOfMessagesApplied(@TempDir Path directory) throws Exception {
+        List<AISMessage> messages = new ArrayList<>();
+        processAISInputStream(getClass().getClassLoader().getResource("ais-sample-1.nmea").openStream(), messages::add);
+
+        // The first segment fills up during the batch, and the next one cannot be created
+        Path journalDirectory = directory.resolve("journal");
+        Journal journal = new Journal(journalDirectory, 4096, Duration.ofSeconds(10));
+        try (var files = Files.list(journalDirectory)) {
+            for (Path file : files.toList())
+                Files.delete(file);
+        }
+        Files.delete(journalDirectory);
+
+        AISTracker journaledTracker = AISTracker.builder().journal(journal).eventExecutor(new CurrentThreadExecutor()).build();
+        List<Object> events = new ArrayList<>();
+        journaledTracker.registerSubscriber(new Object() {
+            @Subscribe
+            public void wallclockChanged(WallclockChangedEvent event) {
+                events.add(event);
+            }
+
+            @Subscribe
+            public void aisTrackCreated(AisTrackCreatedEvent event) {
+                events.add(event);
+            }
+        });
+        assertThrows(UncheckedIOException.class, () -> journaledTracker.update(messages));
+
+        assertTrue(journaledTracker.getNumberOfAisTracks() > 0);
+        assertTrue(journal.getNumberOfRecords() < messages.size());
+        assertEquals(1, events.stream().filter(event -> event instanceof WallclockChangedEvent).count());
+        assertEquals(journaledTracker.getNumberOfAisTracks(), events.stream().filter(event -> event instanceof AisTrackCreatedEvent).count());
+        journaledTracker.shutdown();
+        journal.close();
+    }
+
+    private static void assertSameValues(AISTrack expected, AISTrack actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getMmsi(), actual.getMmsi());
+        assertEquals(expected.getTransponderClass(), actual.getTransponderClass());
+        assertEquals(expected.getTimeOfStaticUpdate(), actual.getTimeOfStaticUpdate());
+        assertEquals(expected.getTimeOfDynamicUpdate(), actual.getTimeOfDynamicUpdate());
+        assertEquals(expected.getTimeOfAtonUpdate(), actual.getTimeOfAtonUpdate());
+        assertEquals(expected.getCallsign(), actual.getCallsign());
+        assertEquals(expected.getShipName(), actual.getShipName());
+        assertEquals(expected.getShipType(), actual.getShipType());
+        assertEquals(expected.getToBow(), actual.getToBow());
+        assertEquals(expected.getToStern(), actual.getToStern());
+        assertEquals(expected.getToStarboard(), actual.getToStarboard());
+        assertEquals(expected.getToPort(), actual.getToPort());
+        assertEquals(expected.getLatitude(), actual.getLatitude());
+        assertEquals(expected.getLongitude(), actual.getLongitude());
+        assertEquals(expected.getSpeedOverGround(), actual.getSpeedOverGround());
+        assertEquals(expected.getCourseOverGround(), actual.getCourseOverGround());
+        assertEquals(expected.getTrueHeading(), actual.getTrueHeading());
+        assertEquals(expected.getSecond(), actual.getSecond());
+
+        assertEquals(expected.getDynamicDataHistorySize(), actual.getDynamicDataHistorySize());
+        HistoryCursor expectedCursor = expected.getDynamicDataHistoryCursor(), actualCursor = actual.getDynamicDataHistoryCursor();
+        while (expectedCursor.next()) {
+            assertTrue(actualCursor.next());
+            assertEquals(expectedCursor.getEpochMilli(), actualCursor.getEpochMilli());
+            assertEquals(expectedCursor.getLatitude(), actualCursor.getLatitude());
+            assertEquals(expectedCursor.getLongitude(), actualCursor.getLongitude());
+            assertEquals(expectedCursor.getSpeedOverGround(), actualCursor.getSpeedOverGround());
+            assertEquals(expectedCursor.getCourseOverGround(), actualCursor.getCourseOverGround());
+            assertEquals(expectedCursor.getTrueHeading(), actualCursor.getTrueHeading());
+        }
+    }
+
+    private static void assertSameTrack(AISTrack expected, AISTrack actual) {
+        assertNotNull(actual);
+        assertEquals(expected.getMmsi(), actual.getMmsi());
+        assertEquals(expected.getTimeOfStaticUpdate(), actual.getTimeOfStaticUpdate());
+        assertEquals(expected.getTimeOfDynamicUpdate(), actual.getTimeOfDynamicUpdate());
+        assertEquals(expected.getTimeOfAtonUpdate(), actual.getTimeOfAtonUpdate());
+        assertEquals(expected.getLatitude(), actual.getLatitude());
+        assertEquals(expected.getLongitude(), actual.getLongitude());
+        assertEquals(expected.getShipName(), actual.getShipName());
+        assertEquals(expected.getShipType(), actual.getShipType());
+        for (Object[] reports : new Object[][] {
+                { expected.getStaticDataReport(), actual.getStaticDataReport() },
+                { expected.getDynamicDataReport(), actual.getDynamicDataReport() },
+                { expected.getAidToNavigationReport(), actual.getAidToNavigationReport() } }) {
+            if (reports[0] == null) {
+                assertNull(reports[1]);
+            } else {
+                Metadata expectedMetadata = ((AISMessage) reports[0]).getMetadata(), actualMetadata = ((AISMessage) reports[1]).getMetadata();
+                assertEquals(expectedMetadata.bitString(), actualMetadata.bitString());
+                assertEquals(expectedMetadata.received(), actualMetadata.received());
+                assertEquals(expectedMetadata.source(), actualMetadata.source());
+            }
+        }
+
+        assertEquals(expected.getDynamicDataHistorySize(), actual.getDynamicDataHistorySize());
+        HistoryCursor expectedCursor = expected.getDynamicDataHistoryCursor(), actualCursor = actual.getDynamicDataHistoryCursor();
+        while (expectedCursor.next()) {
+            assertTrue(actualCursor.next());
+            assertEquals(expectedCursor.getEpochMilli(), actualCursor.getEpochMilli());
+            assertEquals(expectedCursor.getLatitude(), actualCursor.getLatitude());
+            assertEquals(expectedCursor.getLongitude(), actualCursor.getLongitude());
+            assertEquals(expectedCursor.getSpeedOverGround(), actualCursor.getSpeedOverGround());
+            assertEquals(expectedCursor.getCourseOverGround(), actualCursor.getCourseOverGround());
+            assertEquals(expectedCursor.getTrueHeading(), actualCursor.getTrueHeading());
+        }
+        assertFalse(actualCursor.next());
+    }
+
     private static void processAISInputStream(InputStream inputStream, Consumer<AISMessage> doSomething) throws Exception {
         BufferedReader input = new BufferedReader(new InputStreamReader(inputStream));
 
@@ -101,4 +891,180 @@ public class AISTrackerTest {
         }
     }
 
-}
\ No newline at end of file
+    @Test
+    public void testBuilderWithoutHistory() throws Exception {
+        AISTracker noHistoryTracker = AISTracker.builder().historyMode(HistoryMode.NONE).build();
+        Instant[] timestamp = { Instant.parse("2015-01-30T12:06:51.611Z") };
+        processAISInputStream(getClass().getClassLoader().getResource("ais-sample-1.nmea").openStream(), msg -> {
+            try {
+                noHistoryTracker.update(msg, timestamp[0]);
+                timestamp[0] = timestamp[0].plusSeconds(1);
+            } catch (IllegalArgumentException e) {
+            }
+        });
+        noHistoryTracker.shutdown();
+
+        assertEquals(HistoryMode.NONE, noHistoryTracker.getHistoryMode());
+        assertEquals(922, noHistoryTracker.getNumberOfAisTracks());
+        AISTrack track = noHistoryTracker.getAisTrack(261000410);
+        assertEquals(tracker.getAisTrack(261000410).getTimeOfDynamicUpdate(), track.getTimeOfDynamicUpdate());
+        assertEquals(0, track.getDynamicDataHistorySize());
+        assertTrue(track.getDynamicDataHistory().isEmpty());
+        assertFalse(track.getDynamicDataHistoryCursor().next());
+    }
+
+    @Test
+    public void testBuilderLimitsHistoryPoints() throws Exception {
+        ExecutorService eventExecutor = Executors.newVirtualThreadPerTaskExecutor();
+        AISTracker limitedTracker = AISTracker.builder()
+            .historyMaxPoints(10)
+            .historyMaxAge(Duration.ofHours(1))
+            .stalePeriod(Duration.ofHours(2))
+            .taskExecutor(new CurrentThreadExecutor())
+            .eventExecutor(eventExecutor)
+            .build();
+
+        List<AISMessage> messages = new ArrayList<>();
+        processAISInputStream(new ByteArrayInputStream("!AIVDM,1,1,,A,18UG;P0012G?Uq4EdHa=c;7@051@,0*53\n".getBytes()), messages::add);
+        Instant time = wallclock;
+        for (int i = 0; i < 100; i++) {
+            limitedTracker.update(messages.get(0), time);
+            time = time.plusSeconds(10);
+        }
+        limitedTracker.shutdown();
+
+        AISTrack track = limitedTracker.getAisTrack(576048000);
+        assertEquals(10, track.getDynamicDataHistorySize());
+        assertEquals(time.minusSeconds(110), track.getDynamicDataHistory().firstKey());
+        assertTrue(eventExecutor.isShutdown());
+    }
+
+    @Test
+    public void testBuilderRejectsInvalidSettings() {
+        assertThrows(IllegalArgumentException.class, () -> AISTracker.builder().numberOfShards(0));
+        assertThrows(IllegalArgumentException.class, () -> AISTracker.builder().historyMaxPoints(0));
+        assertThrows(IllegalArgumentException.class, () -> AISTracker.builder().historyMaxAge(Duration.ZERO));
+        assertThrows(IllegalArgumentException.class, () -> AISTracker.builder().stalePeriod(Duration.ofMinutes(-1)));
+        assertThrows(NullPointerException.class, () -> AISTracker.builder().historyMode(null));
+        assertThrows(NullPointerException.class, () -> AISTracker.builder().taskExecutor(null));
+    }
+
+    @Test
+    public void testReorderWindowPutsMessagesInOrder() throws Exception {
+        List<AISMessage> messages = new ArrayList<>();
+        processAISInputStream(getClass().getClassLoader().getResource("ais-sample-1.nmea").openStream(), messages::add);
+        Instant t0 = Instant.parse("2015-01-30T12:06:51.611Z");
+
+        AISTracker inOrderTracker = new AISTracker();
+        for (int i = 0; i < messages.size(); i++) {
+            try {
+                inOrderTracker.update(messages.get(i), t0.plusSeconds(i));
+            } catch (IllegalArgumentException e) {
+            }
+        }
+        inOrderTracker.shutdown();
+
+        // Swap neighbouring messages, so that every other message arrives 1 second late
+        AISTracker reorderingTracker = AISTracker.builder().reorderWindow(Duration.ofSeconds(5)).build();
+        for (int i = 0; i < messages.size(); i += 2) {
+            if (i + 1 < messages.size())
+                reorderingTracker.update(messages.get(i + 1), t0.plusSeconds(i + 1));
+            reorderingTracker.update(messages.get(i), t0.plusSeconds(i));
+        }
+        assertTrue(reorderingTracker.getNumberOfBufferedMessages() > 0);
+        assertEquals(0, reorderingTracker.getNumberOfLateMessages());
+
+        // A message later than the reorder window is dropped without exception
+        reorderingTracker.update(messages.get(0), t0);
+        assertEquals(1, reorderingTracker.getNumberOfLateMessages());
+        reorderingTracker.shutdown();
+
+        assertEquals(0, reorderingTracker.getNumberOfBufferedMessages());
+        assertEquals(inOrderTracker.getNumberOfAisTracks(), reorderingTracker.getNumberOfAisTracks());
+        assertEquals(inOrderTracker.getWallclock(), reorderingTracker.getWallclock());
+        for (AISTrack track : inOrderTracker.getAisTracks()) {
+            AISTrack reorderedTrack = reorderingTracker.getAisTrack(track.getMmsi());
+            assertEquals(track.getTimeOfLastUpdate(), reorderedTrack.getTimeOfLastUpdate());
+            assertEquals(track.getDynamicDataHistorySize(), reorderedTrack.getDynamicDataHistorySize());
+        }
+    }
+
+    @Test
+    public void testReorderWindowAppliesMessagesWithSameTimestampAsTrack() {
+        Instant t0 = Instant.parse("2015-01-30T12:00:00Z");
+        AISTracker reorderingTracker = AISTracker.builder().reorderWindow(Duration.ofSeconds(5)).build();
+        reorderingTracker.update(AISMessageFactory.create(t0, "TESTSRC1", null,
+            new NMEAMessage("!AIVDM,2,1,6,B,55NOpt400001L@O?;G0HuE9@R15D59@E:222220O0p>4440Ht6hhjH4QDiDU,0*46"),
+            new NMEAMessage("!AIVDM,2,2,6,B,QH888888880,2*38")), t0);
+        reorderingTracker.update(AISMessageFactory.create(t0, "TESTSRC1", null,
+            new NMEAMessage("!AIVDM,1,1,,B,15NOpt0P00qQJLvA<K4HmwwL2<4T,0*11")), t0);
+        reorderingTracker.shutdown();
+
+        AISTrack track = reorderingTracker.getAisTrack(367524080);
+        assertEquals(t0, track.getTimeOfStaticUpdate());
+        assertEquals(t0, track.getTimeOfDynamicUpdate());
+        assertEquals(0, reorderingTracker.getNumberOfLateMessages());
+    }
+
+    @Test
+    public void testBatchUpdateGivesSameTracksAsSingleMessageUpdates() throws Exception {
+        List<AISMessage> messages = new ArrayList<>();
+        processAISInputStream(getClass().getClassLoader().getResource("ais-sample-1.nmea").openStream(), messages::add);
+
+        AISTracker singleTracker = new AISTracker(msg -> true, 3);
+        int rejected = 0;
+        for (AISMessage message : messages) {
+            try {
+                singleTracker.update(message);
+            } catch (IllegalArgumentException e) {
+                rejected++;
+            }
+        }
+        singleTracker.shutdown();
+
+        AISTracker collectionTracker = new AISTracker(msg -> true, 3);
+        collectionTracker.update(messages);
+        collectionTracker.shutdown();
+
+        AISTracker iteratorTracker = new AISTracker(msg -> true, 3);
+        iteratorTracker.update(messages.iterator(), 7);
+        iteratorTracker.shutdown();
+
+        for (AISTracker batchTracker : List.of(collectionTracker, iteratorTracker)) {
+            assertEquals(singleTracker.getNumberOfAisTracks(), batchTracker.getNumberOfAisTracks());
+            assertEquals(singleTracker.getWallclock(), batchTracker.getWallclock());
+            assertEquals(rejected, batchTracker.getNumberOfRejectedMessages());
+            for (AISTrack track : singleTracker.getAisTracks()) {
+                AISTrack batchTrack = batchTracker.getAisTrack(track.getMmsi());
+                assertEquals(track.getTimeOfLastUpdate(), batchTrack.getTimeOfLastUpdate());
+                assertEquals(track.getDynamicDataHistorySize(), batchTrack.getDynamicDataHistorySize());
+            }
+        }
+    }
+
+    @Test
+    public void testBatchUpdatePostsEventsPerBatch() throws Exception {
+        List<AISMessage> messages = new ArrayList<>();
+        processAISInputStream(getClass().getClassLoader().getResource("ais-sample-1.nmea").openStream(), messages::add);
+
+        AISTracker batchTracker = AISTracker.builder().eventExecutor(new CurrentThreadExecutor()).build();
+        List<Object> events = new ArrayList<>();
+        batchTracker.registerSubscriber(new Object() {
+            @Subscribe
+            public void wallclockChanged(WallclockChangedEvent event) {
+                events.add(event);
+            }
+
+            @Subscribe
+            public void aisTrackCreated(AisTrackCreatedEvent event) {
+                events.add(event);
+            }
+        });
+        batchTracker.update(messages.iterator(), 100);
+        batchTracker.shutdown();
+
+        assertEquals((messages.size() + 99) / 100, events.stream().filter(event -> event instanceof WallclockChangedEvent).count());
+        assertEquals(batchTracker.getNumberOfAisTracks(), events.stream().filter(event -> event instanceof AisTrackCreatedEvent).count());
+        assertThrows(IllegalArgumentException.class, () -> new AISTracker().update(messages.iterator(), 0));
+    }
+}
@@ -0,0 +1,90 @@
+package dk.tbsalling.ais.tracker;
+
+import com.google.common.eventbus.Subscribe;
+import dk.tbsalling.ais.tracker.events.AisTrackDynamicsUpdatedEvent;
+import dk.tbsalling.aismessages.ais.messages.AISMessage;
+import dk.tbsalling.aismessages.ais.messages.AISMessageFactory;
+import dk.tbsalling.aismessages.nmea.NMEAMessageHandler;
+import dk.tbsalling.aismessages.nmea.exceptions.InvalidMessage;
+import dk.tbsalling.aismessages.nmea.messages.NMEAMessage;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Compares the throughput of updating a tracker one message at a time with updating it in batches.
+ *
+ * The sample messages are repeated with increasing reception timestamps, and decoded before timing starts.
+ * Run with: java -cp ... dk.tbsalling.ais.tracker.BatchUpdateBenchmark [no. of repetitions]
+ */
+public class BatchUpdateBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        final int repetitions = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        final List<AISMessage> messages = loadMessages(repetitions);
+        System.out.println("Messages: " + messages.size());
+
+        for (int round = 0; round < 5; round++) {
+            System.out.println("Round " + round);
+            report("single", messages.size(), measure(tracker -> {
+                for (AISMessage message : messages) {
+                    try {
+                        tracker.update(message);
+                    } catch (IllegalArgumentException e) {
+                    }
+                }
+            }));
+            for (int batchSize : new int[] { 10, 100, 1000 })
+                report("batch " + batchSize, messages.size(), measure(tracker -> tracker.update(messages.iterator(), batchSize)));
+        }
+    }
+
+    private static long measure(Consumer<AISTracker> updater) {
+        AISTracker tracker = new AISTracker();
+        LongAdder events = new LongAdder();
+        tracker.registerSubscriber(new Object() {
+            @Subscribe
+            public void aisTrackDynamicsUpdated(AisTrackDynamicsUpdatedEvent event) {
+                events.increment();
+            }
+        });
+        long start = System.nanoTime();
+        updater.accept(tracker);
+        long elapsed = System.nanoTime() - start;
+        tracker.shutdown();
+        return elapsed;
+    }
+
+    private static void report(String name, int numberOfMessages, long nanos) {
+        System.out.printf("  %-12s %10.0f msgs/s%n", name, numberOfMessages / (nanos / 1e9));
+    }
+
+    static List<AISMessage> loadMessages(int repetitions) throws Exception {
+        List<AISMessage> samples = new ArrayList<>();
+        NMEAMessageHandler nmeaMessageHandler = new NMEAMessageHandler("BENCH", samples::add);
+        try (BufferedReader input = new BufferedReader(new InputStreamReader(BatchUpdateBenchmark.class.getClassLoader().getResource("ais-sample-1.nmea").openStream()))) {
+            String line;
+            while ((line = input.readLine()) != null) {
+                try {
+                    nmeaMessageHandler.accept(new NMEAMessage(line));
+                } catch (InvalidMessage e) {
+                }
+            }
+        }
+
+        List<AISMessage> messages = new ArrayList<>(samples.size() * repetitions);
+        Instant timestamp = Instant.parse("2015-01-30T12:00:00Z");
+        for (int r = 0; r < repetitions; r++) {
+            for (AISMessage sample : samples) {
+                messages.add(AISMessageFactory.create(timestamp, "BENCH", null, sample.getMetadata().nmeaMessages()));
+                timestamp = timestamp.plusMillis(100);
+            }
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,58 @@
+package dk.tbsalling.ais.tracker;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BoundingBoxTest {
+
+    @Test
+    public void testContains() {
+        BoundingBox box = new BoundingBox(55, 12, 56, 13);
+        assertTrue(box.contains(55.5, 12.5));
+        assertTrue(box.contains(55, 13));
+        assertFalse(box.contains(54.9, 12.5));
+        assertFalse(box.contains(55.5, 13.1));
+    }
+
+    @Test
+    public void testContainsAcrossAntimeridian() {
+        BoundingBox box = new BoundingBox(50, 170, 60, -170);
+        assertTrue(box.crossesAntimeridian());
+        assertTrue(box.contains(55, 175));
+        assertTrue(box.contains(55, -175));
+        assertFalse(box.contains(55, 0));
+    }
+
+    @Test
+    public void testRejectsInvalidBounds() {
+        assertThrows(IllegalArgumentException.class, () -> new BoundingBox(56, 12, 55, 13));
+        assertThrows(IllegalArgumentException.class, () -> new BoundingBox(-91, 12, 55, 13));
+        assertThrows(IllegalArgumentException.class, () -> new BoundingBox(55, 12, 56, 181));
+        assertThrows(IllegalArgumentException.class, () -> new BoundingBox(Double.NaN, 12, 56, 13));
+    }
+
+    @Test
+    public void testAround() {
+        BoundingBox box = BoundingBox.around(55, 12, 10_000);
+        assertEquals(55 - 0.0899, box.south(), 1e-4);
+        assertEquals(55 + 0.0899, box.north(), 1e-4);
+        assertEquals(12 - 0.1568, box.west(), 1e-3);
+        assertEquals(12 + 0.1568, box.east(), 1e-3);
+        // The tangent points are on the circle
+        assertEquals(10_000, GreatCircle.distance(55, 12, 55, box.east()), 50);
+    }
+
+    @Test
+    public void testAroundPoleAndAntimeridian() {
+        BoundingBox polar = BoundingBox.around(89.95, 0, 10_000);
+        assertEquals(-180, polar.west());
+        assertEquals(180, polar.east());
+        assertEquals(90, polar.north());
+
+        BoundingBox wrapped = BoundingBox.around(0, 179.95, 10_000);
+        assertTrue(wrapped.crossesAntimeridian());
+        assertTrue(wrapped.contains(0, -179.98));
+    }
+
+}
@@ -0,0 +1,81 @@
+package dk.tbsalling.ais.tracker;
+
+import dk.tbsalling.aismessages.ais.messages.AISMessage;
+import dk.tbsalling.aismessages.ais.messages.AISMessageFactory;
+import dk.tbsalling.aismessages.nmea.NMEAMessageHandler;
+import dk.tbsalling.aismessages.nmea.exceptions.InvalidMessage;
+import dk.tbsalling.aismessages.nmea.messages.NMEAMessage;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the time to checkpoint and restore a tracker, and the size of the checkpoint.
+ *
+ * The tracker is fed the sample messages repeated with increasing reception timestamps, so that the tracks
+ * build up history. Run with: java -cp ... dk.tbsalling.ais.tracker.CheckpointBenchmark [no. of repetitions]
+ */
+public class CheckpointBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        final int repetitions = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        final Path checkpoint = Files.createTempFile("tracker", ".checkpoint");
+        try {
+            for (HistoryMode historyMode : new HistoryMode[] { HistoryMode.REPORTS, HistoryMode.COLUMNAR }) {
+                AISTracker tracker = AISTracker.builder().historyMode(historyMode).stalePeriod(Duration.ofDays(1)).build();
+                tracker.update(loadMessages(repetitions).iterator(), 1000);
+                tracker.shutdown();
+                long historySize = tracker.getAisTracks().stream().mapToLong(AISTrack::getDynamicDataHistorySize).sum();
+                System.out.println(historyMode + ": " + tracker.getNumberOfAisTracks() + " tracks, " + historySize + " history entries");
+
+                for (int round = 0; round < 3; round++) {
+                    long start = System.nanoTime();
+                    tracker.checkpoint(checkpoint);
+                    long checkpointNanos = System.nanoTime() - start;
+
+                    AISTracker restoredTracker = AISTracker.builder().historyMode(historyMode).build();
+                    start = System.nanoTime();
+                    restoredTracker.restore(checkpoint);
+                    long restoreNanos = System.nanoTime() - start;
+                    restoredTracker.shutdown();
+
+                    double megabytes = Files.size(checkpoint) / 1e6;
+                    System.out.printf("  %.1f MB: checkpoint %5.0f ms (%5.0f MB/s), restore %5.0f ms (%5.0f MB/s)%n",
+                        megabytes, checkpointNanos / 1e6, megabytes / (checkpointNanos / 1e9), restoreNanos / 1e6, megabytes / (restoreNanos / 1e9));
+                }
+            }
+        } finally {
+            Files.deleteIfExists(checkpoint);
+        }
+    }
+
+    private static List<AISMessage> loadMessages(int repetitions) throws Exception {
+        List<AISMessage> samples = new ArrayList<>();
+        NMEAMessageHandler nmeaMessageHandler = new NMEAMessageHandler("BENCH", samples::add);
+        try (BufferedReader input = new BufferedReader(new InputStreamReader(CheckpointBenchmark.class.getClassLoader().getResource("ais-sample-1.nmea").openStream()))) {
+            String line;
+            while ((line = input.readLine()) != null) {
+                try {
+                    nmeaMessageHandler.accept(new NMEAMessage(line));
+                } catch (InvalidMessage e) {
+                }
+            }
+        }
+
+        List<AISMessage> messages = new ArrayList<>(samples.size() * repetitions);
+        Instant timestamp = Instant.parse("2015-01-30T12:00:00Z");
+        for (int r = 0; r < repetitions; r++) {
+            for (AISMessage sample : samples) {
+                messages.add(AISMessageFactory.create(timestamp, "BENCH", null, sample.getMetadata().nmeaMessages()));
+                timestamp = timestamp.plusMillis(100);
+            }
+        }
+        return messages;
+    }
+}
@@ -0,0 +1,136 @@
+package dk.tbsalling.ais.tracker;
+
+import dk.tbsalling.aismessages.ais.messages.DynamicDataReport;
+import dk.tbsalling.aismessages.ais.messages.ExtendedDynamicDataReport;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class ColumnarHistoryTest {
+
+    final Instant t0 = Instant.parse("2015-01-30T17:00:00.000Z");
+
+    private static DynamicDataReport report(float latitude, float longitude, float sog, float cog, int heading) {
+        ExtendedDynamicDataReport report = mock(ExtendedDynamicDataReport.class);
+        when(report.getLatitude()).thenReturn(latitude);
+        when(report.getLongitude()).thenReturn(longitude);
+        when(report.getSpeedOverGround()).thenReturn(sog);
+        when(report.getCourseOverGround()).thenReturn(cog);
+        when(report.getTrueHeading()).thenReturn(heading);
+        return report;
+    }
+
+    private ColumnarHistory historyOf(int size) {
+        ColumnarHistory history = ColumnarHistory.EMPTY;
+        for (int i = 0; i < size; i++)
+            history = history.append(t0.plusSeconds(10 * i), report(55f + i, 10f + i, i, 2 * i, 3 * i));
+        return history;
+    }
+
+    @Test
+    public void testAppendAndIterate() {
+        ColumnarHistory history = historyOf(50);
+        assertEquals(50, history.size());
+        assertEquals(t0, history.getOldestInstant());
+        assertEquals(t0.plusSeconds(490), history.getNewestInstant());
+
+        HistoryCursor cursor = history.cursor(Instant.MIN, Instant.MAX);
+        for (int i = 0; i < 50; i++) {
+            assertTrue(cursor.next());
+            assertEquals(t0.plusSeconds(10 * i).toEpochMilli(), cursor.getEpochMilli());
+            assertEquals(t0.plusSeconds(10 * i), cursor.getInstant());
+            assertEquals(55f + i, cursor.getLatitude());
+            assertEquals(10f + i, cursor.getLongitude());
+            assertEquals(i, cursor.getSpeedOverGround());
+            assertEquals(2 * i, cursor.getCourseOverGround());
+            assertEquals(3 * i, cursor.getTrueHeading());
+        }
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void testOlderVersionsAreUnchanged() {
+        ColumnarHistory v1 = historyOf(3);
+        ColumnarHistory v2 = v1.append(t0.plusSeconds(100), report(1f, 2f, 3f, 4f, 5));
+        ColumnarHistory v2b = v1.append(t0.plusSeconds(200), report(6f, 7f, 8f, 9f, 10));
+
+        assertEquals(3, v1.size());
+        assertEquals(t0.plusSeconds(100), v2.getNewestInstant());
+        assertEquals(t0.plusSeconds(200), v2b.getNewestInstant());
+
+        HistoryCursor cursor = v2.cursor(t0.plusSeconds(100), Instant.MAX);
+        assertTrue(cursor.next());
+        assertEquals(1f, cursor.getLatitude());
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void testTimeRangeQuery() {
+        ColumnarHistory history = historyOf(10);
+
+        HistoryCursor cursor = history.cursor(t0.plusSeconds(25), t0.plusSeconds(60));
+        assertTrue(cursor.next());
+        assertEquals(t0.plusSeconds(30), cursor.getInstant());
+        assertTrue(cursor.next());
+        assertTrue(cursor.next());
+        assertEquals(t0.plusSeconds(50), cursor.getInstant());
+        assertFalse(cursor.next());
+
+        assertFalse(history.cursor(t0.plusSeconds(1000), Instant.MAX).next());
+        assertFalse(history.cursor(Instant.MIN, t0).next());
+        assertFalse(history.cursor(t0.plusNanos(1), t0.plusSeconds(10)).next());
+    }
+
+    @Test
+    public void testTrimBefore() {
+        ColumnarHistory history = historyOf(10);
+        assertSame(history, history.trimBefore(t0));
+
+        ColumnarHistory trimmed = history.trimBefore(t0.plusSeconds(35));
+        assertEquals(6, trimmed.size());
+        assertEquals(t0.plusSeconds(40), trimmed.getOldestInstant());
+        assertTrue(history.trimBefore(t0.plusSeconds(91)).isEmpty());
+
+        trimmed = trimmed.append(t0.plusSeconds(100), report(1f, 2f, 3f, 4f, 5));
+        assertEquals(7, trimmed.size());
+        assertEquals(t0.plusSeconds(40), trimmed.getOldestInstant());
+    }
+
+    @Test
+    public void testHeadingNotAvailableForReportsWithoutHeading() {
+        DynamicDataReport report = mock(DynamicDataReport.class);
+        HistoryCursor cursor = ColumnarHistory.EMPTY.append(t0, report).cursor(Instant.MIN, Instant.MAX);
+        assertTrue(cursor.next());
+        assertEquals(HistoryCursor.HEADING_NOT_AVAILABLE, cursor.getTrueHeading());
+    }
+
+    @Test
+    public void testAppendMustNotBeBeforeNewest() {
+        ColumnarHistory history = historyOf(2);
+        assertThrows(IllegalArgumentException.class, () -> history.append(t0, report(1f, 2f, 3f, 4f, 5)));
+    }
+
+    @Test
+    public void testReportsAreNotRetained() {
+        assertThrows(UnsupportedOperationException.class, () -> historyOf(2).toSortedMap());
+    }
+
+
+    @Test
+    public void testMaxSizeDropsOldestEntries() {
+        ColumnarHistory history = ColumnarHistory.empty(3);
+        for (int i = 0; i < 10; i++)
+            history = history.append(t0.plusSeconds(10 * i), report(55f + i, 10f + i, i, 2 * i, 3 * i));
+
+        assertEquals(3, history.size());
+        assertEquals(t0.plusSeconds(70), history.getOldestInstant());
+        HistoryCursor cursor = history.cursor(Instant.MIN, Instant.MAX);
+        assertTrue(cursor.next());
+        assertEquals(62f, cursor.getLatitude());
+        assertThrows(IllegalArgumentException.class, () -> ColumnarHistory.empty(-1));
+    }
+}
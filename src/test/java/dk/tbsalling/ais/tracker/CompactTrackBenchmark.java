@@ -0,0 +1,72 @@
+package dk.tbsalling.ais.tracker;
+
+import dk.tbsalling.aismessages.ais.messages.AISMessage;
+import dk.tbsalling.aismessages.ais.messages.AISMessageFactory;
+import dk.tbsalling.aismessages.nmea.NMEAMessageHandler;
+import dk.tbsalling.aismessages.nmea.exceptions.InvalidMessage;
+import dk.tbsalling.aismessages.nmea.messages.NMEAMessage;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the heap retained per track by a tracker of the sample messages with TrackMode.REPORTS compared with
+ * TrackMode.COMPACT - without history and with columnar history - as the used heap after GC with and without the
+ * tracker. The messages are decoded anew for each tracker, so that only the tracker retains them.
+ *
+ * Run with: java -cp ... dk.tbsalling.ais.tracker.CompactTrackBenchmark
+ */
+public class CompactTrackBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        final List<String> lines = new ArrayList<>();
+        try (BufferedReader input = new BufferedReader(new InputStreamReader(CompactTrackBenchmark.class.getClassLoader().getResource("ais-sample-1.nmea").openStream()))) {
+            input.lines().forEach(lines::add);
+        }
+
+        for (int round = 0; round < 3; round++) {
+            System.out.println("Round " + round);
+            for (HistoryMode historyMode : new HistoryMode[] { HistoryMode.NONE, HistoryMode.COLUMNAR }) {
+                for (TrackMode trackMode : TrackMode.values()) {
+                    final long before = usedHeap();
+                    AISTracker tracker = AISTracker.builder().historyMode(historyMode).trackMode(trackMode).build();
+                    update(tracker, lines);
+                    tracker.shutdown();
+                    final long after = usedHeap();
+                    System.out.printf("  %-8s %-8s %6d tracks  %8d bytes/track%n", historyMode, trackMode,
+                        tracker.getNumberOfAisTracks(), (after - before) / tracker.getNumberOfAisTracks());
+                }
+            }
+        }
+    }
+
+    private static void update(AISTracker tracker, List<String> lines) {
+        final Instant[] timestamp = { Instant.parse("2015-01-30T12:00:00Z") };
+        NMEAMessageHandler nmeaMessageHandler = new NMEAMessageHandler("BENCH", message -> {
+            AISMessage timestamped = AISMessageFactory.create(timestamp[0], "BENCH", null, message.getMetadata().nmeaMessages());
+            timestamp[0] = timestamp[0].plusMillis(100);
+            try {
+                tracker.update(timestamped);
+            } catch (IllegalArgumentException e) {
+            }
+        });
+        for (String line : lines) {
+            try {
+                nmeaMessageHandler.accept(new NMEAMessage(line));
+            } catch (InvalidMessage e) {
+            }
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
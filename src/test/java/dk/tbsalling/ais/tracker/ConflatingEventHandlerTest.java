@@ -0,0 +1,164 @@
+package dk.tbsalling.ais.tracker;
+
+import dk.tbsalling.ais.tracker.events.AisTrackCreatedEvent;
+import dk.tbsalling.ais.tracker.events.AisTrackDeletedEvent;
+import dk.tbsalling.ais.tracker.events.AisTrackDynamicsUpdatedEvent;
+import dk.tbsalling.ais.tracker.events.AisTrackUpdatedEvent;
+import dk.tbsalling.ais.tracker.events.WallclockChangedEvent;
+import dk.tbsalling.aismessages.ais.messages.AISMessage;
+import dk.tbsalling.aismessages.ais.messages.DynamicDataReport;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static dk.tbsalling.ais.tracker.NMEATestUtils.parse;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ConflatingEventHandlerTest {
+
+    final Instant now = Instant.parse("2015-02-02T00:00:00Z");
+
+    final AISTrack track1 = new AISTrack((DynamicDataReport) parse("!AIVDM,1,1,,A,18UG;P0012G?Uq4EdHa=c;7@051@,0*53"), now);
+    final AISTrack track1Later = new AISTrack((DynamicDataReport) parse("!AIVDM,1,1,,A,18UG;P0012G?Uq4EdHa=c;7@051@,0*53"), now.plusSeconds(10));
+    final AISTrack track1Latest = new AISTrack((DynamicDataReport) parse("!AIVDM,1,1,,A,18UG;P0012G?Uq4EdHa=c;7@051@,0*53"), now.plusSeconds(20));
+    final AISTrack track2 = new AISTrack((DynamicDataReport) parse("!AIVDM,1,1,,B,15NOpt0P00qQJLvA<K4HmwwL2<4T,0*11"), now);
+
+    final List<Object> delivered = Collections.synchronizedList(new ArrayList<>());
+    final List<Boolean> endsOfBatch = Collections.synchronizedList(new ArrayList<>());
+
+    ConflatingEventHandler handler;
+
+    @BeforeEach
+    public void setUp() {
+        // Drains are made by the test
+        handler = new ConflatingEventHandler((TrackEventHandler) (event, endOfBatch) -> {
+            delivered.add(event);
+            endsOfBatch.add(endOfBatch);
+        }, Duration.ofDays(1));
+    }
+
+    @AfterEach
+    public void tearDown() {
+        handler.shutdown();
+    }
+
+    @Test
+    public void testEventsOfVesselAreConflatedIntoOneWithLatestTrack() {
+        handler.onEvent(new AisTrackCreatedEvent(track1), false);
+        handler.onEvent(new WallclockChangedEvent(now), false);
+        handler.onEvent(new AisTrackCreatedEvent(track2), false);
+        handler.onEvent(new AisTrackUpdatedEvent(track1Later), false);
+        handler.onEvent(new AisTrackDynamicsUpdatedEvent(track1Later), false);
+        handler.onEvent(new WallclockChangedEvent(now.plusSeconds(10)), true);
+        handler.drain();
+
+        assertEquals(3, delivered.size());
+        assertInstanceOf(AisTrackCreatedEvent.class, delivered.get(0));
+        assertSame(track1Later, ((AisTrackCreatedEvent) delivered.get(0)).getAisTrack());
+        assertSame(track2, ((AisTrackCreatedEvent) delivered.get(1)).getAisTrack());
+        assertEquals(now.plusSeconds(10), ((WallclockChangedEvent) delivered.get(2)).getWallclock());
+        assertEquals(List.of(false, false, true), endsOfBatch);
+        assertEquals(3, handler.getNumberOfConflatedEvents());
+
+        // Dynamic updates of a known track are handed over as an update
+        delivered.clear();
+        handler.onEvent(new AisTrackUpdatedEvent(track1Latest), false);
+        handler.onEvent(new AisTrackDynamicsUpdatedEvent(track1Latest), true);
+        handler.drain();
+        assertEquals(1, delivered.size());
+        assertInstanceOf(AisTrackUpdatedEvent.class, delivered.get(0));
+        assertSame(track1Latest, ((AisTrackUpdatedEvent) delivered.get(0)).getAisTrack());
+
+        // Nothing is handed over when nothing happened
+        delivered.clear();
+        handler.drain();
+        assertTrue(delivered.isEmpty());
+    }
+
+    @Test
+    public void testDeletionIsHandedOverOnlyForTracksKnownBySubscriber() {
+        handler.onEvent(new AisTrackCreatedEvent(track1), false);
+        handler.drain();
+        handler.onEvent(new AisTrackUpdatedEvent(track1Later), false);
+        handler.onEvent(new AisTrackDeletedEvent(track1Later), false);
+        handler.onEvent(new AisTrackCreatedEvent(track2), false);
+        handler.onEvent(new AisTrackDeletedEvent(track2), true);
+        delivered.clear();
+        handler.drain();
+
+        assertEquals(1, delivered.size());
+        assertInstanceOf(AisTrackDeletedEvent.class, delivered.get(0));
+        assertSame(track1Later, ((AisTrackDeletedEvent) delivered.get(0)).getAisTrack());
+
+        // A vessel which was deleted is new to the subscriber afterwards
+        delivered.clear();
+        handler.onEvent(new AisTrackCreatedEvent(track1Latest), false);
+        handler.onEvent(new AisTrackDeletedEvent(track1Latest), true);
+        handler.drain();
+        assertTrue(delivered.isEmpty());
+    }
+
+    @Test
+    public void testEventsDeliveredAfterDeletionWasHandedOverAreStale() {
+        handler.onEvent(new AisTrackCreatedEvent(track1), false);
+        handler.drain();
+        handler.onEvent(new AisTrackDeletedEvent(track1Later), true);
+        handler.drain();
+        delivered.clear();
+
+        // Late events for the deleted track do not bring it back
+        handler.onEvent(new AisTrackUpdatedEvent(track1Later), false);
+        handler.onEvent(new AisTrackDynamicsUpdatedEvent(track1), true);
+        handler.drain();
+        assertTrue(delivered.isEmpty());
+        assertEquals(2, handler.getNumberOfStaleEvents());
+
+        // A newer track of the vessel is created
+        handler.onEvent(new AisTrackCreatedEvent(track1Latest), true);
+        handler.drain();
+        assertEquals(1, delivered.size());
+        assertInstanceOf(AisTrackCreatedEvent.class, delivered.get(0));
+        assertSame(track1Latest, ((AisTrackCreatedEvent) delivered.get(0)).getAisTrack());
+    }
+
+    @Test
+    public void testEventsDeliveredOutOfOrderDoNotReplaceNewerTrack() {
+        handler.onEvent(new AisTrackUpdatedEvent(track1Later), false);
+        handler.onEvent(new AisTrackCreatedEvent(track1), true);
+        handler.drain();
+
+        assertEquals(1, delivered.size());
+        assertInstanceOf(AisTrackCreatedEvent.class, delivered.get(0));
+        assertSame(track1Later, ((AisTrackCreatedEvent) delivered.get(0)).getAisTrack());
+        assertEquals(1, handler.getNumberOfStaleEvents());
+
+        // A stale event for a known vessel is ignored, also when no event is pending
+        delivered.clear();
+        handler.onEvent(new AisTrackUpdatedEvent(track1), true);
+        handler.drain();
+        assertTrue(delivered.isEmpty());
+
+        // An update delivered after the deletion of the same track does not undo the deletion
+        handler.onEvent(new AisTrackDeletedEvent(track1Later), false);
+        handler.onEvent(new AisTrackUpdatedEvent(track1Later), true);
+        handler.drain();
+        assertEquals(1, delivered.size());
+        assertInstanceOf(AisTrackDeletedEvent.class, delivered.get(0));
+        assertEquals(3, handler.getNumberOfStaleEvents());
+    }
+
+    @Test
+    public void testRemainingEventsAreHandedOverAtShutdown() {
+        handler.onEvent(new AisTrackCreatedEvent(track1), true);
+        handler.shutdown();
+
+        assertEquals(1, delivered.size());
+        assertThrows(IllegalArgumentException.class, () -> new ConflatingEventHandler(new Object(), Duration.ZERO));
+    }
+}
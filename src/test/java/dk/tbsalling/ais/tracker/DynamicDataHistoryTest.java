@@ -0,0 +1,138 @@
+package dk.tbsalling.ais.tracker;
+
+import com.google.common.collect.ImmutableSortedMap;
+import dk.tbsalling.aismessages.ais.messages.DynamicDataReport;
+import dk.tbsalling.aismessages.ais.messages.ExtendedDynamicDataReport;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class DynamicDataHistoryTest {
+
+    final Instant t0 = Instant.parse("2015-01-30T17:00:00.000Z");
+
+    @Test
+    public void testEmpty() {
+        DynamicDataHistory history = DynamicDataHistory.EMPTY;
+        assertTrue(history.isEmpty());
+        assertEquals(0, history.size());
+        assertNull(history.getOldestInstant());
+        assertNull(history.getNewestInstant());
+        assertTrue(history.toSortedMap().isEmpty());
+    }
+
+    @Test
+    public void testAppendLeavesOlderVersionsUnchanged() {
+        DynamicDataHistory history = DynamicDataHistory.EMPTY;
+        DynamicDataHistory[] versions = new DynamicDataHistory[100];
+        DynamicDataReport[] reports = new DynamicDataReport[100];
+        for (int i = 0; i < 100; i++) {
+            reports[i] = mock(DynamicDataReport.class);
+            history = history.append(t0.plusSeconds(i), reports[i]);
+            versions[i] = history;
+        }
+
+        assertEquals(100, history.size());
+        assertEquals(t0, history.getOldestInstant());
+        assertEquals(t0.plusSeconds(99), history.getNewestInstant());
+
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i + 1, versions[i].size());
+            ImmutableSortedMap<Instant, DynamicDataReport> map = versions[i].toSortedMap();
+            assertEquals(i + 1, map.size());
+            assertSame(reports[i], map.get(t0.plusSeconds(i)));
+            assertSame(reports[0], map.get(t0));
+        }
+    }
+
+    @Test
+    public void testAppendToOlderVersionDoesNotAffectNewerVersion() {
+        DynamicDataReport r0 = mock(DynamicDataReport.class), r1 = mock(DynamicDataReport.class), r2 = mock(DynamicDataReport.class);
+        DynamicDataHistory v1 = DynamicDataHistory.EMPTY.append(t0, r0);
+        DynamicDataHistory v2 = v1.append(t0.plusSeconds(1), r1);
+        DynamicDataHistory v2b = v1.append(t0.plusSeconds(2), r2);
+
+        assertSame(r1, v2.toSortedMap().get(t0.plusSeconds(1)));
+        assertNull(v2.toSortedMap().get(t0.plusSeconds(2)));
+        assertSame(r2, v2b.toSortedMap().get(t0.plusSeconds(2)));
+        assertNull(v2b.toSortedMap().get(t0.plusSeconds(1)));
+    }
+
+    @Test
+    public void testAppendMustBeAfterNewest() {
+        DynamicDataHistory history = DynamicDataHistory.EMPTY.append(t0, mock(DynamicDataReport.class));
+        assertThrows(IllegalArgumentException.class, () -> history.append(t0, mock(DynamicDataReport.class)));
+        assertThrows(IllegalArgumentException.class, () -> history.append(t0.minusSeconds(1), mock(DynamicDataReport.class)));
+    }
+
+    @Test
+    public void testTrimBefore() {
+        DynamicDataHistory history = DynamicDataHistory.EMPTY;
+        for (int i = 0; i < 10; i++)
+            history = history.append(t0.plusSeconds(10 * i), mock(DynamicDataReport.class));
+
+        assertSame(history, history.trimBefore(t0));
+        assertEquals(10, history.trimBefore(t0.minusSeconds(1)).size());
+
+        DynamicDataHistory trimmed = history.trimBefore(t0.plusSeconds(35));
+        assertEquals(6, trimmed.size());
+        assertEquals(t0.plusSeconds(40), trimmed.getOldestInstant());
+        assertEquals(t0.plusSeconds(90), trimmed.getNewestInstant());
+        assertEquals(10, history.size());
+
+        assertTrue(history.trimBefore(t0.plusSeconds(91)).isEmpty());
+
+        // Trimmed histories can still be appended to
+        trimmed = trimmed.append(t0.plusSeconds(100), mock(DynamicDataReport.class));
+        assertEquals(7, trimmed.size());
+        assertEquals(t0.plusSeconds(40), trimmed.toSortedMap().firstKey());
+        assertEquals(t0.plusSeconds(100), trimmed.toSortedMap().lastKey());
+    }
+
+    @Test
+    public void testCursor() {
+        ExtendedDynamicDataReport r0 = mock(ExtendedDynamicDataReport.class);
+        when(r0.getLatitude()).thenReturn(55.5f);
+        when(r0.getTrueHeading()).thenReturn(90);
+        DynamicDataReport r1 = mock(DynamicDataReport.class);
+        when(r1.getSpeedOverGround()).thenReturn(12.5f);
+
+        DynamicDataHistory history = DynamicDataHistory.EMPTY.append(t0, r0).append(t0.plusSeconds(10), r1);
+        HistoryCursor cursor = history.cursor(Instant.MIN, Instant.MAX);
+        assertTrue(cursor.next());
+        assertEquals(t0, cursor.getInstant());
+        assertEquals(55.5f, cursor.getLatitude());
+        assertEquals(90, cursor.getTrueHeading());
+        assertTrue(cursor.next());
+        assertEquals(t0.plusSeconds(10).toEpochMilli(), cursor.getEpochMilli());
+        assertEquals(12.5f, cursor.getSpeedOverGround());
+        assertEquals(HistoryCursor.HEADING_NOT_AVAILABLE, cursor.getTrueHeading());
+        assertFalse(cursor.next());
+
+        cursor = history.cursor(t0.plusSeconds(1), t0.plusSeconds(10));
+        assertFalse(cursor.next());
+    }
+
+
+    @Test
+    public void testMaxSizeDropsOldestEntries() {
+        DynamicDataHistory history = DynamicDataHistory.empty(5);
+        DynamicDataHistory[] versions = new DynamicDataHistory[50];
+        for (int i = 0; i < 50; i++) {
+            history = history.append(t0.plusSeconds(i), mock(DynamicDataReport.class));
+            versions[i] = history;
+        }
+
+        assertEquals(5, history.size());
+        assertEquals(t0.plusSeconds(45), history.getOldestInstant());
+        assertEquals(t0.plusSeconds(49), history.getNewestInstant());
+        assertEquals(3, versions[2].size());
+        assertEquals(t0.plusSeconds(6), versions[10].getOldestInstant());
+        assertEquals(1, history.trimBefore(t0.plusSeconds(50)).append(t0.plusSeconds(60), mock(DynamicDataReport.class)).size());
+        assertThrows(IllegalArgumentException.class, () -> DynamicDataHistory.empty(0));
+    }
+}
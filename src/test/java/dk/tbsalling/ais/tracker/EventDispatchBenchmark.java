@@ -0,0 +1,91 @@
+package dk.tbsalling.ais.tracker;
+
+import com.google.common.eventbus.Subscribe;
+import dk.tbsalling.ais.tracker.events.AisTrackCreatedEvent;
+import dk.tbsalling.ais.tracker.events.AisTrackDynamicsUpdatedEvent;
+import dk.tbsalling.ais.tracker.events.AisTrackUpdatedEvent;
+import dk.tbsalling.ais.tracker.events.WallclockChangedEvent;
+import dk.tbsalling.aismessages.ais.messages.AISMessage;
+
+import java.time.Duration;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+/**
+ * Compares the throughput of a tracker delivering its events by the default Guava AsyncEventBus with delivering them
+ * by a RingBufferEventDispatcher and by a QueueingEventDispatcher; and with WallclockChangedEvents coalesced per second,
+ * or all events conflated per vessel every 100 ms. The time is measured until all events have been delivered to two subscribers, and
+ * the allocation is that of the thread updating the tracker.
+ *
+ * Run with: java -cp ... dk.tbsalling.ais.tracker.EventDispatchBenchmark [no. of repetitions]
+ */
+public class EventDispatchBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        final int repetitions = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        final List<AISMessage> messages = BatchUpdateBenchmark.loadMessages(repetitions);
+        System.out.println("Messages: " + messages.size());
+
+        for (int round = 0; round < 5; round++) {
+            System.out.println("Round " + round);
+            measure("event bus", messages, () -> AISTracker.builder().stalePeriod(Duration.ofDays(1)).build());
+            measure("ring buffer", messages, () -> AISTracker.builder().stalePeriod(Duration.ofDays(1)).eventDispatcher(new RingBufferEventDispatcher(1 << 14)).build());
+            measure("queues", messages, () -> AISTracker.builder().stalePeriod(Duration.ofDays(1)).eventDispatcher(new QueueingEventDispatcher(1 << 14, OverflowPolicy.BLOCK)).build());
+            measure("ring, 1s tick", messages, () -> AISTracker.builder().stalePeriod(Duration.ofDays(1)).wallclockEventInterval(Duration.ofSeconds(1)).eventDispatcher(new RingBufferEventDispatcher(1 << 14)).build());
+            measure("ring, conflated", messages, () -> AISTracker.builder().stalePeriod(Duration.ofDays(1)).eventDispatcher(new RingBufferEventDispatcher(1 << 14)).build(), Duration.ofMillis(100));
+        }
+    }
+
+    private static void measure(String name, List<AISMessage> messages, Supplier<AISTracker> trackerSupplier) {
+        measure(name, messages, trackerSupplier, null);
+    }
+
+    /** Measure with subscribers registered as conflating subscribers with the given drain interval; unless null */
+    private static void measure(String name, List<AISMessage> messages, Supplier<AISTracker> trackerSupplier, Duration drainInterval) {
+        final AISTracker tracker = trackerSupplier.get();
+        final LongAdder events = new LongAdder();
+        final Consumer<Object> register = subscriber -> {
+            if (drainInterval == null)
+                tracker.registerSubscriber(subscriber);
+            else
+                tracker.registerConflatingSubscriber(subscriber, drainInterval);
+        };
+        register.accept(new Object() {
+            @Subscribe
+            public void wallclockChanged(WallclockChangedEvent event) {
+                events.increment();
+            }
+
+            @Subscribe
+            public void aisTrackCreated(AisTrackCreatedEvent event) {
+                events.increment();
+            }
+
+            @Subscribe
+            public void aisTrackUpdated(AisTrackUpdatedEvent event) {
+                events.increment();
+            }
+        });
+        register.accept(new Object() {
+            @Subscribe
+            public void aisTrackDynamicsUpdated(AisTrackDynamicsUpdatedEvent event) {
+                events.increment();
+            }
+        });
+
+        final long allocatedBefore = TrackMapBenchmark.allocatedBytes();
+        final long start = System.nanoTime();
+        for (AISMessage message : messages) {
+            try {
+                tracker.update(message);
+            } catch (IllegalArgumentException e) {
+            }
+        }
+        final long allocated = TrackMapBenchmark.allocatedBytes() - allocatedBefore;
+        tracker.shutdown();
+        final double seconds = (System.nanoTime() - start) / 1e9;
+        System.out.printf("  %-16s %10.0f msgs/s  %10.0f events/s  %6d B/msg allocated by updater%n", name, messages.size() / seconds, events.sum() / seconds, allocated / messages.size());
+    }
+}
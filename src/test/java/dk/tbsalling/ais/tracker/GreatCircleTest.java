@@ -0,0 +1,39 @@
+package dk.tbsalling.ais.tracker;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class GreatCircleTest {
+
+    @Test
+    public void testDistance() {
+        // Copenhagen to Aarhus
+        assertEquals(157_000, GreatCircle.distance(55.6761, 12.5683, 56.1629, 10.2039), 1_000);
+        // One degree along the equator and along a meridian
+        assertEquals(111_195, GreatCircle.distance(0, 0, 0, 1), 1);
+        assertEquals(111_195, GreatCircle.distance(10, 20, 11, 20), 1);
+        // Across the antimeridian
+        assertEquals(111_195, GreatCircle.distance(0, 179.5, 0, -179.5), 1);
+        assertEquals(0, GreatCircle.distance(55, 12, 55, 12));
+    }
+
+    @Test
+    public void testLowerBound() {
+        Random random = new Random(42);
+        for (int i = 0; i < 100_000; i++) {
+            double latitude1 = random.nextDouble() * 180 - 90;
+            double longitude1 = random.nextDouble() * 360 - 180;
+            double latitude2 = Math.max(-90, Math.min(90, latitude1 + random.nextGaussian() * 5));
+            double longitude2 = longitude1 + random.nextGaussian() * 5;
+            longitude2 = longitude2 > 180 ? longitude2 - 360 : longitude2 < -180 ? longitude2 + 360 : longitude2;
+            double distance = GreatCircle.distance(latitude1, longitude1, latitude2, longitude2);
+            double bound = GreatCircle.lowerBound(latitude1, longitude1, latitude2, longitude2);
+            assertTrue(bound <= distance, () -> bound + " > " + distance);
+            assertTrue(bound >= 0.95 * distance || Math.abs(latitude2 - latitude1) > 5 || Math.abs(longitude2 - longitude1) > 5 || Math.abs(latitude1) > 80);
+        }
+    }
+
+}
@@ -0,0 +1,93 @@
+package dk.tbsalling.ais.tracker;
+
+import dk.tbsalling.aismessages.ais.messages.AISMessage;
+import dk.tbsalling.aismessages.ais.messages.AISMessageFactory;
+import dk.tbsalling.aismessages.nmea.NMEAMessageHandler;
+import dk.tbsalling.aismessages.nmea.exceptions.InvalidMessage;
+import dk.tbsalling.aismessages.nmea.messages.NMEAMessage;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the heap retained per history entry by a tracker of the sample messages repeated, for each history mode
+ * - as the used heap after GC compared with a tracker without history - and the time to iterate the history of all
+ * tracks as maps through AISTrack.getDynamicDataHistory(). The messages are decoded anew for each tracker, so that
+ * only the tracker retains them.
+ *
+ * Run with: java -cp ... dk.tbsalling.ais.tracker.HistoryMemoryBenchmark [no. of repetitions]
+ */
+public class HistoryMemoryBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        final int repetitions = args.length > 0 ? Integer.parseInt(args[0]) : 20;
+        final List<String> lines = new ArrayList<>();
+        try (BufferedReader input = new BufferedReader(new InputStreamReader(HistoryMemoryBenchmark.class.getClassLoader().getResource("ais-sample-1.nmea").openStream()))) {
+            input.lines().forEach(lines::add);
+        }
+
+        for (int round = 0; round < 3; round++) {
+            System.out.println("Round " + round);
+            long baseline = 0;
+            for (HistoryMode historyMode : HistoryMode.values()) {
+                final long before = usedHeap();
+                AISTracker tracker = AISTracker.builder().historyMode(historyMode).historyMaxAge(Duration.ofDays(1)).build();
+                update(tracker, lines, repetitions);
+                tracker.shutdown();
+                final long used = usedHeap() - before;
+                long entries = 0;
+                for (AISTrack track : tracker.getAisTracks())
+                    entries += track.getDynamicDataHistorySize();
+                if (historyMode == HistoryMode.NONE) {
+                    baseline = used;
+                    System.out.printf("  %-8s %8d KB%n", historyMode, used / 1024);
+                    continue;
+                }
+
+                String iteration = "";
+                if (historyMode != HistoryMode.COLUMNAR) {
+                    final long start = System.nanoTime();
+                    long n = 0;
+                    for (AISTrack track : tracker.getAisTracks())
+                        n += track.getDynamicDataHistory().size();
+                    iteration = String.format("  iterated %d entries in %d ms", n, (System.nanoTime() - start) / 1_000_000);
+                }
+                System.out.printf("  %-8s %8d KB  %8d entries  %6d bytes/entry%s%n", historyMode, used / 1024, entries,
+                    (used - baseline) / Math.max(1, entries), iteration);
+            }
+        }
+    }
+
+    private static void update(AISTracker tracker, List<String> lines, int repetitions) {
+        final Instant[] timestamp = { Instant.parse("2015-01-30T12:00:00Z") };
+        NMEAMessageHandler nmeaMessageHandler = new NMEAMessageHandler("BENCH", message -> {
+            AISMessage timestamped = AISMessageFactory.create(timestamp[0], "BENCH", null, message.getMetadata().nmeaMessages());
+            timestamp[0] = timestamp[0].plusMillis(100);
+            try {
+                tracker.update(timestamped);
+            } catch (IllegalArgumentException e) {
+            }
+        });
+        for (int r = 0; r < repetitions; r++) {
+            for (String line : lines) {
+                try {
+                    nmeaMessageHandler.accept(new NMEAMessage(line));
+                } catch (InvalidMessage e) {
+                }
+            }
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,89 @@
+package dk.tbsalling.ais.tracker;
+
+import dk.tbsalling.aismessages.ais.messages.AISMessage;
+import dk.tbsalling.aismessages.ais.messages.AISMessageFactory;
+import dk.tbsalling.aismessages.nmea.NMEAMessageHandler;
+import dk.tbsalling.aismessages.nmea.exceptions.InvalidMessage;
+import dk.tbsalling.aismessages.nmea.messages.NMEAMessage;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.Stream;
+
+/**
+ * Measures the throughput of a tracker with and without a journal, and of recovering the tracker from the journal.
+ *
+ * Run with: java -cp ... dk.tbsalling.ais.tracker.JournalBenchmark [no. of repetitions]
+ */
+public class JournalBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        final int repetitions = args.length > 0 ? Integer.parseInt(args[0]) : 100;
+        final List<AISMessage> messages = loadMessages(repetitions);
+        System.out.println("Messages: " + messages.size());
+
+        for (int round = 0; round < 3; round++) {
+            AISTracker tracker = new AISTracker();
+            long start = System.nanoTime();
+            tracker.update(messages.iterator(), 1000);
+            report("no journal", messages.size(), System.nanoTime() - start);
+            tracker.shutdown();
+
+            Path directory = Files.createTempDirectory("journal");
+            try {
+                try (Journal journal = new Journal(directory)) {
+                    AISTracker journaledTracker = AISTracker.builder().journal(journal).build();
+                    start = System.nanoTime();
+                    journaledTracker.update(messages.iterator(), 1000);
+                    report("journal", messages.size(), System.nanoTime() - start);
+                    journaledTracker.shutdown();
+                }
+                try (Journal journal = new Journal(directory)) {
+                    AISTracker recoveredTracker = AISTracker.builder().journal(journal).build();
+                    start = System.nanoTime();
+                    long replayed = recoveredTracker.recover(directory.resolve("no-checkpoint"));
+                    report("recover", replayed, System.nanoTime() - start);
+                    recoveredTracker.shutdown();
+                }
+            } finally {
+                try (Stream<Path> files = Files.walk(directory)) {
+                    files.sorted(Comparator.reverseOrder()).forEach(file -> file.toFile().delete());
+                }
+            }
+        }
+    }
+
+    private static void report(String name, long numberOfMessages, long nanos) {
+        System.out.printf("  %-12s %10.0f msgs/s%n", name, numberOfMessages / (nanos / 1e9));
+    }
+
+    private static List<AISMessage> loadMessages(int repetitions) throws Exception {
+        List<AISMessage> samples = new ArrayList<>();
+        NMEAMessageHandler nmeaMessageHandler = new NMEAMessageHandler("BENCH", samples::add);
+        try (BufferedReader input = new BufferedReader(new InputStreamReader(JournalBenchmark.class.getClassLoader().getResource("ais-sample-1.nmea").openStream()))) {
+            String line;
+            while ((line = input.readLine()) != null) {
+                try {
+                    nmeaMessageHandler.accept(new NMEAMessage(line));
+                } catch (InvalidMessage e) {
+                }
+            }
+        }
+
+        List<AISMessage> messages = new ArrayList<>(samples.size() * repetitions);
+        Instant timestamp = Instant.parse("2015-01-30T12:00:00Z");
+        for (int r = 0; r < repetitions; r++) {
+            for (AISMessage sample : samples) {
+                messages.add(AISMessageFactory.create(timestamp, "BENCH", null, sample.getMetadata().nmeaMessages()));
+                timestamp = timestamp.plusMillis(100);
+            }
+        }
+        return messages;
+    }
+}
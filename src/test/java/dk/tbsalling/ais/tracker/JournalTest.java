@@ -0,0 +1,126 @@
+package dk.tbsalling.ais.tracker;
+
+import dk.tbsalling.aismessages.ais.messages.AISMessage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.stream.Stream;
+
+import static dk.tbsalling.ais.tracker.NMEATestUtils.parse;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class JournalTest {
+
+    @TempDir
+    Path directory;
+
+    final Instant t0 = Instant.parse("2015-01-30T17:00:00.123456789Z");
+
+    final AISMessage message = parse("!AIVDM,1,1,,A,13mg=5h0000Nu7jW?9ug@1Hb0<0S,0*57");
+
+    final AISMessage twoFragmentMessage = parse(
+        "!AIVDM,2,1,9,B,53nFBv01SJ<thHp6220H4heHTf2222222222221?50:454o<`9QSlUDp,0*09",
+        "!AIVDM,2,2,9,B,888888888888880,2*2E");
+
+    private List<AISMessage> replay() throws IOException {
+        List<AISMessage> messages = new ArrayList<>();
+        try (Journal journal = new Journal(directory, 4096, Duration.ofMillis(10))) {
+            journal.replay(messages::add);
+        }
+        return messages;
+    }
+
+    private long numberOfSegments() throws IOException {
+        try (Stream<Path> files = Files.list(directory)) {
+            return files.filter(file -> file.toString().endsWith(".journal")).count();
+        }
+    }
+
+    @Test
+    public void testAppendAndReplay() throws IOException {
+        try (Journal journal = new Journal(directory, 4096, Duration.ofMillis(10))) {
+            journal.append(message, t0);
+            journal.append(twoFragmentMessage, t0.plusSeconds(1));
+            assertEquals(2, journal.getNumberOfRecords());
+        }
+
+        List<AISMessage> messages = replay();
+        assertEquals(2, messages.size());
+        assertEquals(t0, messages.get(0).getMetadata().received());
+        assertEquals("SRC", messages.get(0).getMetadata().source());
+        assertEquals(message.getMetadata().bitString(), messages.get(0).getMetadata().bitString());
+        assertEquals(t0.plusSeconds(1), messages.get(1).getMetadata().received());
+        assertEquals(twoFragmentMessage.getMetadata().bitString(), messages.get(1).getMetadata().bitString());
+    }
+
+    @Test
+    public void testSegmentsAreRotated() throws IOException {
+        try (Journal journal = new Journal(directory, 4096, Duration.ofMillis(10))) {
+            for (int i = 0; i < 200; i++)
+                journal.append(message, t0.plusSeconds(i));
+        }
+        assertTrue(numberOfSegments() > 1);
+
+        List<AISMessage> messages = replay();
+        assertEquals(200, messages.size());
+        for (int i = 0; i < 200; i++)
+            assertEquals(t0.plusSeconds(i), messages.get(i).getMetadata().received());
+    }
+
+    @Test
+    public void testCheckpointDeletesOlderSegments() throws IOException {
+        try (Journal journal = new Journal(directory, 4096, Duration.ofMillis(10))) {
+            for (int i = 0; i < 200; i++)
+                journal.append(message, t0.plusSeconds(i));
+            long position = journal.getPosition();
+            for (int i = 200; i < 210; i++)
+                journal.append(message, t0.plusSeconds(i));
+            journal.markCheckpoint(position);
+            assertEquals(1, numberOfSegments());
+        }
+
+        // Only the messages after the checkpoint are replayed
+        List<AISMessage> messages = replay();
+        assertEquals(10, messages.size());
+        assertEquals(t0.plusSeconds(200), messages.get(0).getMetadata().received());
+    }
+
+    @Test
+    public void testReplayStopsAtTornRecord() throws IOException {
+        try (Journal journal = new Journal(directory, 4096, Duration.ofMillis(10))) {
+            journal.append(message, t0);
+            journal.append(message, t0.plusSeconds(1));
+        }
+        // Corrupt the last byte of the second record
+        Path segment;
+        try (Stream<Path> files = Files.list(directory)) {
+            segment = files.filter(file -> file.toString().endsWith(".journal")).findFirst().orElseThrow();
+        }
+        try (FileChannel channel = FileChannel.open(segment, StandardOpenOption.READ, StandardOpenOption.WRITE)) {
+            ByteBuffer length = ByteBuffer.allocate(4);
+            channel.read(length, 0);
+            int secondRecord = 8 + length.flip().getInt();
+            length.clear();
+            channel.read(length, secondRecord);
+            channel.write(ByteBuffer.wrap(new byte[] { '#' }), secondRecord + 8 + length.flip().getInt() - 1);
+        }
+
+        assertEquals(1, replay().size());
+    }
+
+    @Test
+    public void testRejectsInvalidSettings() {
+        assertThrows(IllegalArgumentException.class, () -> new Journal(directory, 100, Duration.ofMillis(10)));
+        assertThrows(IllegalArgumentException.class, () -> new Journal(directory, 4096, Duration.ZERO));
+    }
+}
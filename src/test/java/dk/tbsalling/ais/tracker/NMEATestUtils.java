@@ -0,0 +1,35 @@
+package dk.tbsalling.ais.tracker;
+
+import dk.tbsalling.aismessages.ais.messages.AISMessage;
+import dk.tbsalling.aismessages.nmea.NMEAMessageHandler;
+import dk.tbsalling.aismessages.nmea.messages.NMEAMessage;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Helpers for building NMEA sentences and AIS messages in tests.
+ */
+public final class NMEATestUtils {
+
+    private NMEATestUtils() {
+    }
+
+    /** Decode the NMEA sentences of one AIS message, received from the source "SRC" */
+    public static AISMessage parse(String... nmea) {
+        List<AISMessage> messages = new ArrayList<>();
+        NMEAMessageHandler handler = new NMEAMessageHandler("SRC", messages::add);
+        for (String line : nmea)
+            handler.accept(new NMEAMessage(line));
+        return messages.get(0);
+    }
+
+    /** Prefix a sentence with a tag block holding the given time */
+    public static String tagged(long epochSecond, String sentence) {
+        String tags = "c:" + epochSecond;
+        int checksum = 0;
+        for (char c : tags.toCharArray())
+            checksum ^= c;
+        return "\\" + tags + "*" + String.format("%02X", checksum) + "\\" + sentence;
+    }
+}
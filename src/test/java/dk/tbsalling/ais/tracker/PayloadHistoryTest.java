@@ -0,0 +1,133 @@
+package dk.tbsalling.ais.tracker;
+
+import com.google.common.collect.ImmutableSortedMap;
+import dk.tbsalling.aismessages.ais.messages.AISMessage;
+import dk.tbsalling.aismessages.ais.messages.AISMessageFactory;
+import dk.tbsalling.aismessages.ais.messages.DynamicDataReport;
+import dk.tbsalling.aismessages.ais.messages.ExtendedDynamicDataReport;
+import dk.tbsalling.aismessages.nmea.messages.NMEAMessage;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PayloadHistoryTest {
+
+    final Instant t0 = Instant.parse("2015-01-30T17:00:00.123456789Z");
+
+    // Class A position reports, class B position reports and an extended class B position report
+    final DynamicDataReport[] reports = {
+        report("!AIVDM,1,1,,A,18UG;P0012G?Uq4EdHa=c;7@051@,0*53"),
+        report("!AIVDM,1,1,,B,15NOpt0P00qQJLvA<K4HmwwL2<4T,0*11"),
+        report("!AIVDM,1,1,,B,33AkSB5000PhAltPoTK;@1GL0000,0*1B"),
+        report("!AIVDM,1,1,,B,B43JRq00LhTWc5VejDI>wwWUoP06,0*29"),
+        report("!AIVDM,1,1,,B,B6:io8@0=21k=`3C:eDJSww4SP00,0*68"),
+        report("!AIVDM,1,1,,B,C69DqeP0Ar8;JH3R6<4O7wWPl@:62L>jcaQgh0000000?104222P,0*32")
+    };
+
+    private static DynamicDataReport report(String nmea) {
+        return (DynamicDataReport) AISMessageFactory.create(Instant.EPOCH, "SRC", null, new NMEAMessage(nmea));
+    }
+
+    @Test
+    public void testEmpty() {
+        PayloadHistory history = PayloadHistory.EMPTY;
+        assertTrue(history.isEmpty());
+        assertEquals(0, history.size());
+        assertNull(history.getOldestInstant());
+        assertNull(history.getNewestInstant());
+        assertTrue(history.toSortedMap().isEmpty());
+        assertFalse(history.cursor(Instant.MIN, Instant.MAX).next());
+    }
+
+    @Test
+    public void testReportsAreDecodedFromPayloads() {
+        PayloadHistory history = PayloadHistory.EMPTY;
+        for (int i = 0; i < 100; i++)
+            history = history.append(t0.plusSeconds(i), reports[i % reports.length]);
+
+        ImmutableSortedMap<Instant, DynamicDataReport> map = history.toSortedMap();
+        assertEquals(100, map.size());
+        assertEquals(t0, history.getOldestInstant());
+        assertEquals(t0.plusSeconds(99), history.getNewestInstant());
+        for (int i = 0; i < 100; i++) {
+            AISMessage expected = (AISMessage) reports[i % reports.length], actual = (AISMessage) map.get(t0.plusSeconds(i));
+            assertEquals(expected.getClass(), actual.getClass());
+            assertEquals(expected.getMetadata().bitString(), actual.getMetadata().bitString());
+            assertEquals(expected.getSourceMmsi(), actual.getSourceMmsi());
+            assertEquals(t0.plusSeconds(i), actual.getMetadata().received());
+        }
+    }
+
+    @Test
+    public void testCursor() {
+        PayloadHistory history = PayloadHistory.EMPTY;
+        for (int i = 0; i < reports.length; i++)
+            history = history.append(t0.plusSeconds(10 * i), reports[i]);
+
+        HistoryCursor cursor = history.cursor(Instant.MIN, Instant.MAX);
+        for (int i = 0; i < reports.length; i++) {
+            assertTrue(cursor.next());
+            assertEquals(t0.plusSeconds(10 * i), cursor.getInstant());
+            assertEquals(reports[i].getLatitude(), cursor.getLatitude());
+            assertEquals(reports[i].getLongitude(), cursor.getLongitude());
+            assertEquals(reports[i].getSpeedOverGround(), cursor.getSpeedOverGround());
+            assertEquals(reports[i].getCourseOverGround(), cursor.getCourseOverGround());
+            assertEquals(reports[i] instanceof ExtendedDynamicDataReport extendedReport ? extendedReport.getTrueHeading() : HistoryCursor.HEADING_NOT_AVAILABLE, cursor.getTrueHeading());
+        }
+        assertFalse(cursor.next());
+
+        cursor = history.cursor(t0.plusSeconds(1), t0.plusSeconds(20));
+        assertTrue(cursor.next());
+        assertEquals(t0.plusSeconds(10), cursor.getInstant());
+        assertFalse(cursor.next());
+    }
+
+    @Test
+    public void testAppendToOlderVersionDoesNotAffectNewerVersion() {
+        PayloadHistory v1 = PayloadHistory.EMPTY.append(t0, reports[0]);
+        PayloadHistory v2 = v1.append(t0.plusSeconds(1), reports[1]);
+        PayloadHistory v2b = v1.append(t0.plusSeconds(2), reports[5]);
+
+        assertEquals(((AISMessage) reports[1]).getMetadata().bitString(), ((AISMessage) v2.toSortedMap().get(t0.plusSeconds(1))).getMetadata().bitString());
+        assertNull(v2.toSortedMap().get(t0.plusSeconds(2)));
+        assertEquals(((AISMessage) reports[5]).getMetadata().bitString(), ((AISMessage) v2b.toSortedMap().get(t0.plusSeconds(2))).getMetadata().bitString());
+        assertNull(v2b.toSortedMap().get(t0.plusSeconds(1)));
+        assertEquals(1, v1.size());
+    }
+
+    @Test
+    public void testAppendMustBeAfterNewest() {
+        PayloadHistory history = PayloadHistory.EMPTY.append(t0, reports[0]);
+        assertThrows(IllegalArgumentException.class, () -> history.append(t0, reports[1]));
+        assertThrows(IllegalArgumentException.class, () -> history.append(t0.minusNanos(1), reports[1]));
+        assertThrows(UnsupportedOperationException.class, () -> history.append(t0.plusSeconds(1), 55.0f, 10.0f, 0.0f, 0.0f, 0));
+    }
+
+    @Test
+    public void testTrimBeforeAndMaxSize() {
+        PayloadHistory history = PayloadHistory.EMPTY;
+        for (int i = 0; i < 10; i++)
+            history = history.append(t0.plusSeconds(10 * i), reports[i % reports.length]);
+
+        assertSame(history, history.trimBefore(t0));
+        PayloadHistory trimmed = history.trimBefore(t0.plusSeconds(35));
+        assertEquals(6, trimmed.size());
+        assertEquals(t0.plusSeconds(40), trimmed.getOldestInstant());
+        assertTrue(history.trimBefore(t0.plusSeconds(91)).isEmpty());
+
+        // Trimmed histories can still be appended to
+        trimmed = trimmed.append(t0.plusSeconds(100), reports[0]);
+        assertEquals(7, trimmed.size());
+        assertEquals(t0.plusSeconds(100), trimmed.toSortedMap().lastKey());
+
+        PayloadHistory limited = PayloadHistory.empty(5);
+        for (int i = 0; i < 50; i++)
+            limited = limited.append(t0.plusSeconds(i), reports[i % reports.length]);
+        assertEquals(5, limited.size());
+        assertEquals(t0.plusSeconds(45), limited.getOldestInstant());
+        assertEquals(((AISMessage) reports[49 % reports.length]).getMetadata().bitString(), ((AISMessage) limited.toSortedMap().get(t0.plusSeconds(49))).getMetadata().bitString());
+        assertThrows(IllegalArgumentException.class, () -> PayloadHistory.empty(0));
+    }
+}
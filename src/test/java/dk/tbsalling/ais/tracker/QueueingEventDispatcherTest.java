@@ -0,0 +1,204 @@
+package dk.tbsalling.ais.tracker;
+
+import com.google.common.eventbus.Subscribe;
+import dk.tbsalling.ais.tracker.QueueingEventDispatcher.SubscriberStatistics;
+import dk.tbsalling.ais.tracker.events.AisTrackCreatedEvent;
+import dk.tbsalling.ais.tracker.events.AisTrackDeletedEvent;
+import dk.tbsalling.ais.tracker.events.AisTrackUpdatedEvent;
+import dk.tbsalling.aismessages.ais.messages.DynamicDataReport;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static dk.tbsalling.ais.tracker.NMEATestUtils.parse;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QueueingEventDispatcherTest {
+
+    @Test
+    public void testEventsAreDeliveredInOrderToEachSubscriber() {
+        QueueingEventDispatcher dispatcher = new QueueingEventDispatcher(4, OverflowPolicy.BLOCK);
+        List<Integer> integers = Collections.synchronizedList(new ArrayList<>());
+        List<Object> all = Collections.synchronizedList(new ArrayList<>());
+        dispatcher.register(new Object() {
+            @Subscribe
+            public void integer(Integer event) {
+                integers.add(event);
+            }
+        });
+        assertTrue(dispatcher.hasSubscriberFor(Integer.class));
+        assertFalse(dispatcher.hasSubscriberFor(String.class));
+        dispatcher.register((TrackEventHandler) (event, endOfBatch) -> all.add(event));
+        assertTrue(dispatcher.hasSubscriberFor(String.class));
+
+        for (int i = 0; i < 100; i++) {
+            dispatcher.post(i);
+            dispatcher.post("s" + i);
+        }
+        dispatcher.shutdown();
+
+        assertEquals(100, integers.size());
+        assertEquals(200, all.size());
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, integers.get(i));
+            assertEquals(i, all.get(2 * i));
+        }
+        for (SubscriberStatistics statistics : dispatcher.getSubscriberStatistics()) {
+            assertEquals(0, statistics.queueDepth());
+            assertEquals(0, statistics.numberOfDroppedEvents());
+            assertEquals(Duration.ZERO, statistics.lag());
+        }
+        assertEquals(100, dispatcher.getSubscriberStatistics().get(0).numberOfDeliveredEvents());
+        assertEquals(200, dispatcher.getSubscriberStatistics().get(1).numberOfDeliveredEvents());
+        assertThrows(IllegalStateException.class, () -> dispatcher.post(0));
+    }
+
+    @Test
+    public void testDropOldest() throws Exception {
+        List<Object> events = deliverWhileBlocked(OverflowPolicy.DROP_OLDEST, List.of(1, 2, 3, 4, 5, 6), 2, 4);
+        assertEquals(List.of(0, 5, 6), events);
+    }
+
+    @Test
+    public void testDropNewest() throws Exception {
+        List<Object> events = deliverWhileBlocked(OverflowPolicy.DROP_NEWEST, List.of(1, 2, 3, 4, 5, 6), 2, 4);
+        assertEquals(List.of(0, 1, 2), events);
+    }
+
+    @Test
+    public void testConflate() throws Exception {
+        // A replacing event keeps the place of the event it replaces
+        List<Object> events = deliverWhileBlocked(OverflowPolicy.CONFLATE, List.of(1, "a", 2, "b", 3), 2, 0);
+        assertEquals(List.of(0, 3, "b"), events);
+        // A full queue of other types drops the oldest
+        events = deliverWhileBlocked(OverflowPolicy.CONFLATE, List.of(1, "a", 2L), 2, 1);
+        assertEquals(List.of(0, "a", 2L), events);
+    }
+
+    @Test
+    public void testConflateDeliversCreationOfTrackBeforeItsUpdates() throws Exception {
+        Instant now = Instant.parse("2015-02-02T00:00:00Z");
+        AISTrack track1 = new AISTrack((DynamicDataReport) parse("!AIVDM,1,1,,A,18UG;P0012G?Uq4EdHa=c;7@051@,0*53"), now);
+        AISTrack track1Later = new AISTrack((DynamicDataReport) parse("!AIVDM,1,1,,A,18UG;P0012G?Uq4EdHa=c;7@051@,0*53"), now.plusSeconds(10));
+        AISTrack track2 = new AISTrack((DynamicDataReport) parse("!AIVDM,1,1,,B,15NOpt0P00qQJLvA<K4HmwwL2<4T,0*11"), now);
+
+        AisTrackCreatedEvent created1 = new AisTrackCreatedEvent(track1);
+        AisTrackUpdatedEvent updated1 = new AisTrackUpdatedEvent(track1Later);
+        AisTrackCreatedEvent created2 = new AisTrackCreatedEvent(track2);
+        AisTrackCreatedEvent created2Again = new AisTrackCreatedEvent(track2);
+        List<Object> events = deliverWhileBlocked(OverflowPolicy.CONFLATE, List.of(
+            created1, new AisTrackUpdatedEvent(track1), created2, new AisTrackDeletedEvent(track2), created2Again, updated1), 10, 3, 0);
+        // Track 2 was deleted before the subscriber was told of it, and created anew
+        assertEquals(List.of(0, created1, updated1, created2Again), events);
+
+        AisTrackDeletedEvent deleted1 = new AisTrackDeletedEvent(track1);
+        AisTrackCreatedEvent created1Again = new AisTrackCreatedEvent(track1Later);
+        events = deliverWhileBlocked(OverflowPolicy.CONFLATE, List.of(
+            new AisTrackUpdatedEvent(track1), deleted1, created1Again, updated1), 10, 3, 0);
+        // The subscriber has been told of track 1, so the deletion is delivered before the track is created anew
+        assertEquals(List.of(0, deleted1, created1Again, updated1), events);
+    }
+
+    @Test
+    public void testBlockHoldsUpPosting() throws Exception {
+        QueueingEventDispatcher dispatcher = new QueueingEventDispatcher(2, OverflowPolicy.BLOCK);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Object> events = Collections.synchronizedList(new ArrayList<>());
+        dispatcher.register((TrackEventHandler) (event, endOfBatch) -> {
+            release.await();
+            events.add(event);
+        });
+
+        Thread producer = Thread.ofPlatform().start(() -> {
+            for (int i = 0; i < 10; i++)
+                dispatcher.post(i);
+        });
+        producer.join(200);
+        assertTrue(producer.isAlive());
+        SubscriberStatistics statistics = dispatcher.getSubscriberStatistics().get(0);
+        assertEquals(2, statistics.queueDepth());
+        assertTrue(statistics.lag().compareTo(Duration.ofMillis(100)) > 0);
+        release.countDown();
+        producer.join();
+        dispatcher.shutdown();
+
+        assertEquals(List.of(0, 1, 2, 3, 4, 5, 6, 7, 8, 9), events);
+        assertEquals(0, dispatcher.getSubscriberStatistics().get(0).numberOfDroppedEvents());
+    }
+
+    @Test
+    public void testEventsOfOtherTypesAreNotQueued() throws Exception {
+        QueueingEventDispatcher dispatcher = new QueueingEventDispatcher(2, OverflowPolicy.DROP_NEWEST);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Integer> integers = Collections.synchronizedList(new ArrayList<>());
+        dispatcher.register(new Object() {
+            @Subscribe
+            public void integer(Integer event) throws InterruptedException {
+                started.countDown();
+                release.await();
+                integers.add(event);
+            }
+        });
+
+        dispatcher.post(0);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        for (int i = 0; i < 100; i++)
+            dispatcher.post("s" + i);
+        dispatcher.post(1);
+        dispatcher.post(2);
+        SubscriberStatistics statistics = dispatcher.getSubscriberStatistics().get(0);
+        assertEquals(2, statistics.queueDepth());
+        assertEquals(0, statistics.numberOfDroppedEvents());
+        release.countDown();
+        dispatcher.shutdown();
+
+        assertEquals(List.of(0, 1, 2), integers);
+        assertEquals(3, dispatcher.getSubscriberStatistics().get(0).numberOfDeliveredEvents());
+    }
+
+    @Test
+    public void testInvalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new QueueingEventDispatcher(0, OverflowPolicy.BLOCK));
+        assertThrows(NullPointerException.class, () -> new QueueingEventDispatcher(1, null));
+        assertThrows(IllegalArgumentException.class, () -> new QueueingEventDispatcher(1, OverflowPolicy.BLOCK).register(new Object(), 0, OverflowPolicy.BLOCK));
+        assertThrows(UnsupportedOperationException.class, () -> new RingBufferEventDispatcher(1).register(new Object(), 1, OverflowPolicy.BLOCK));
+    }
+
+    /**
+     * Post event 0 to a subscriber, and while the subscriber handles it, post the other events to its queue of the given
+     * capacity; then let the subscriber continue, and return all events it received.
+     */
+    private static List<Object> deliverWhileBlocked(OverflowPolicy overflowPolicy, List<Object> otherEvents, int queueCapacity, int expectedDrops) throws Exception {
+        return deliverWhileBlocked(overflowPolicy, otherEvents, queueCapacity, Math.min(queueCapacity, otherEvents.size()), expectedDrops);
+    }
+
+    private static List<Object> deliverWhileBlocked(OverflowPolicy overflowPolicy, List<Object> otherEvents, int queueCapacity, int expectedDepth, int expectedDrops) throws Exception {
+        QueueingEventDispatcher dispatcher = new QueueingEventDispatcher(queueCapacity, overflowPolicy);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Object> events = Collections.synchronizedList(new ArrayList<>());
+        dispatcher.register((TrackEventHandler) (event, endOfBatch) -> {
+            started.countDown();
+            release.await();
+            events.add(event);
+        });
+
+        dispatcher.post(0);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        otherEvents.forEach(dispatcher::post);
+        SubscriberStatistics statistics = dispatcher.getSubscriberStatistics().get(0);
+        assertEquals(overflowPolicy, statistics.overflowPolicy());
+        assertEquals(expectedDepth, statistics.queueDepth());
+        assertEquals(expectedDrops, statistics.numberOfDroppedEvents());
+        release.countDown();
+        dispatcher.shutdown();
+        return events;
+    }
+}
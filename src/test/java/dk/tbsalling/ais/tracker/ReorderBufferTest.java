@@ -0,0 +1,94 @@
+package dk.tbsalling.ais.tracker;
+
+import dk.tbsalling.aismessages.ais.messages.AISMessage;
+import dk.tbsalling.aismessages.nmea.NMEAMessageHandler;
+import dk.tbsalling.aismessages.nmea.messages.NMEAMessage;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiPredicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ReorderBufferTest {
+
+    final Instant t0 = Instant.parse("2015-01-30T17:00:00.000Z");
+
+    final List<Instant> released = new ArrayList<>();
+    final List<AISMessage> releasedMessages = new ArrayList<>();
+
+    final ReorderBuffer buffer = new ReorderBuffer(Duration.ofMillis(500));
+
+    final BiPredicate<AISMessage, Instant> sink = (message, timestamp) -> {
+        releasedMessages.add(message);
+        released.add(timestamp);
+        return true;
+    };
+
+    @Test
+    public void testReleasesInTimestampOrderWhenPassedByWatermark() {
+        buffer.offer(message(), t0.plusMillis(300), sink);
+        buffer.offer(message(), t0.plusMillis(100), sink);
+        buffer.offer(message(), t0.plusMillis(200), sink);
+        assertTrue(released.isEmpty());
+        assertEquals(3, buffer.size());
+
+        buffer.offer(message(), t0.plusMillis(700), sink);
+        assertEquals(List.of(t0.plusMillis(100), t0.plusMillis(200)), released);
+
+        buffer.offer(message(), t0.plusMillis(650), sink);
+        buffer.flush(sink);
+        assertEquals(List.of(t0.plusMillis(100), t0.plusMillis(200), t0.plusMillis(300), t0.plusMillis(650), t0.plusMillis(700)), released);
+        assertEquals(0, buffer.size());
+        assertEquals(0, buffer.getNumberOfLateMessages());
+    }
+
+    @Test
+    public void testEqualTimestampsAreReleasedInOfferOrder() {
+        AISMessage m1 = message(), m2 = message(), m3 = message();
+        buffer.offer(m1, t0, sink);
+        buffer.offer(m2, t0, sink);
+        buffer.offer(m3, t0, sink);
+        buffer.flush(sink);
+        assertEquals(List.of(m1, m2, m3), releasedMessages);
+    }
+
+    @Test
+    public void testLateMessagesAreDroppedAndCounted() {
+        buffer.offer(message(), t0, sink);
+        buffer.offer(message(), t0.plusSeconds(1), sink);
+        assertEquals(List.of(t0), released);
+
+        buffer.offer(message(), t0.minusMillis(1), sink);
+        assertEquals(1, buffer.getNumberOfLateMessages());
+        assertEquals(1, buffer.size());
+
+        buffer.offer(message(), t0, sink);
+        assertEquals(1, buffer.getNumberOfLateMessages());
+        assertEquals(List.of(t0, t0), released);
+    }
+
+    @Test
+    public void testMessagesDeclinedBySinkAreCounted() {
+        ReorderBuffer decliningBuffer = new ReorderBuffer(Duration.ZERO);
+        BiPredicate<AISMessage, Instant> decliningSink = (message, timestamp) -> false;
+        decliningBuffer.offer(message(), t0, decliningSink);
+        decliningBuffer.offer(message(), t0.plusSeconds(1), decliningSink);
+        assertEquals(2, decliningBuffer.getNumberOfLateMessages());
+        assertEquals(0, decliningBuffer.size());
+    }
+
+    @Test
+    public void testNegativeWindowIsRejected() {
+        assertThrows(IllegalArgumentException.class, () -> new ReorderBuffer(Duration.ofMillis(-1)));
+    }
+
+    private static AISMessage message() {
+        List<AISMessage> aisMessages = new ArrayList<>();
+        new NMEAMessageHandler("TESTSRC", aisMessages::add).accept(new NMEAMessage("!AIVDM,1,1,,A,18UG;P0012G?Uq4EdHa=c;7@051@,0*53"));
+        return aisMessages.get(0);
+    }
+}
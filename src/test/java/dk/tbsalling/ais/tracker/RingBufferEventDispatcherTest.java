@@ -0,0 +1,175 @@
+package dk.tbsalling.ais.tracker;
+
+import com.google.common.eventbus.Subscribe;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class RingBufferEventDispatcherTest {
+
+    @Test
+    public void testEventsAreDeliveredInOrderToSubscribeMethodsByType() {
+        RingBufferEventDispatcher dispatcher = new RingBufferEventDispatcher(8);
+        List<Integer> integers = Collections.synchronizedList(new ArrayList<>());
+        List<Number> numbers = Collections.synchronizedList(new ArrayList<>());
+        List<String> strings = Collections.synchronizedList(new ArrayList<>());
+        dispatcher.register(new Object() {
+            @Subscribe
+            public void integer(Integer event) {
+                integers.add(event);
+            }
+
+            @Subscribe
+            public void number(Number event) {
+                numbers.add(event);
+            }
+
+            @Subscribe
+            public void string(String event) {
+                strings.add(event);
+            }
+        });
+
+        for (int i = 0; i < 100; i++) {
+            dispatcher.post(i);
+            dispatcher.post("s" + i);
+        }
+        dispatcher.shutdown();
+
+        assertTrue(dispatcher.hasSubscriberFor(Integer.class));
+        assertTrue(dispatcher.hasSubscriberFor(Long.class));
+        assertFalse(dispatcher.hasSubscriberFor(Object.class));
+        assertFalse(dispatcher.hasSubscriberFor(Boolean.class));
+        assertEquals(100, integers.size());
+        assertEquals(integers, numbers);
+        for (int i = 0; i < 100; i++) {
+            assertEquals(i, integers.get(i));
+            assertEquals("s" + i, strings.get(i));
+        }
+    }
+
+    @Test
+    public void testSubscribeMethodsOfSuperclassAreCalledOnce() {
+        RingBufferEventDispatcher dispatcher = new RingBufferEventDispatcher(4);
+        AtomicInteger numberOfCalls = new AtomicInteger();
+        class BaseSubscriber {
+            @Subscribe
+            public void string(String event) {
+                numberOfCalls.addAndGet(100);
+            }
+        }
+        dispatcher.register(new BaseSubscriber() {
+            @Subscribe
+            @Override
+            public void string(String event) {
+                numberOfCalls.incrementAndGet();
+            }
+        });
+
+        dispatcher.post("event");
+        dispatcher.shutdown();
+
+        assertEquals(1, numberOfCalls.get());
+    }
+
+    @Test
+    public void testSlowHandlerHoldsUpPostingAndReceivesBatches() throws Exception {
+        RingBufferEventDispatcher dispatcher = new RingBufferEventDispatcher(4);
+        CountDownLatch started = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        List<Object> events = new ArrayList<>();
+        AtomicInteger numberOfBatches = new AtomicInteger();
+        dispatcher.register((TrackEventHandler) (event, endOfBatch) -> {
+            started.countDown();
+            release.await();
+            events.add(event);
+            if (endOfBatch)
+                numberOfBatches.incrementAndGet();
+        });
+
+        dispatcher.post(0);
+        assertTrue(started.await(10, TimeUnit.SECONDS));
+        // The handler holds event 0, so 4 more fill the buffer, and the next one must wait
+        Thread producer = Thread.ofPlatform().start(() -> {
+            for (int i = 1; i < 20; i++)
+                dispatcher.post(i);
+        });
+        producer.join(200);
+        assertTrue(producer.isAlive());
+        release.countDown();
+        producer.join();
+        dispatcher.shutdown();
+
+        assertEquals(20, events.size());
+        for (int i = 0; i < 20; i++)
+            assertEquals(i, events.get(i));
+        assertTrue(numberOfBatches.get() < 20);
+        assertTrue(dispatcher.getNumberOfProducerWaits() > 0);
+    }
+
+    @Test
+    public void testFailingSubscriberDoesNotStopDelivery() {
+        RingBufferEventDispatcher dispatcher = new RingBufferEventDispatcher(16);
+        List<String> delivered = Collections.synchronizedList(new ArrayList<>());
+        dispatcher.register(new Object() {
+            @Subscribe
+            public void fail(String event) {
+                throw new IllegalStateException("expected by test");
+            }
+
+            @Subscribe
+            public void string(String event) {
+                delivered.add(event);
+            }
+        });
+        Thread.UncaughtExceptionHandler handler = (thread, e) -> {};
+        Thread.setDefaultUncaughtExceptionHandler(handler);
+        try {
+            dispatcher.post("a");
+            dispatcher.post("b");
+            dispatcher.shutdown();
+        } finally {
+            Thread.setDefaultUncaughtExceptionHandler(null);
+        }
+
+        assertEquals(List.of("a", "b"), delivered);
+    }
+
+    @Test
+    public void testSubscriberReceivesEventsPostedAfterRegistration() {
+        RingBufferEventDispatcher dispatcher = new RingBufferEventDispatcher(2);
+        List<Object> first = Collections.synchronizedList(new ArrayList<>());
+        List<Object> second = Collections.synchronizedList(new ArrayList<>());
+        dispatcher.post("lost");
+        dispatcher.register((TrackEventHandler) (event, endOfBatch) -> first.add(event));
+        dispatcher.post("a");
+        dispatcher.register((TrackEventHandler) (event, endOfBatch) -> second.add(event));
+        dispatcher.post("b");
+        dispatcher.shutdown();
+
+        assertEquals(List.of("a", "b"), first);
+        assertEquals(List.of("b"), second);
+        assertTrue(dispatcher.hasSubscriberFor(Integer.class));
+        assertThrows(IllegalStateException.class, () -> dispatcher.post("c"));
+        assertThrows(IllegalStateException.class, () -> dispatcher.register(new Object()));
+    }
+
+    @Test
+    public void testInvalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new RingBufferEventDispatcher(0));
+        assertThrows(IllegalArgumentException.class, () -> new RingBufferEventDispatcher(12));
+        assertThrows(IllegalArgumentException.class, () -> new RingBufferEventDispatcher(8).register(new Object() {
+            @Subscribe
+            public void twoParameters(String a, String b) {
+            }
+        }));
+        assertThrows(NullPointerException.class, () -> new RingBufferEventDispatcher(8).post(null));
+    }
+}
@@ -0,0 +1,116 @@
+package dk.tbsalling.ais.tracker;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.Set;
+import java.util.TreeSet;
+
+import static dk.tbsalling.ais.tracker.SpatialIndex.NO_CELL;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class SpatialIndexTest {
+
+    final SpatialIndex index = new SpatialIndex(1.0);
+
+    private void add(long mmsi, float latitude, float longitude) {
+        index.move(mmsi, NO_CELL, index.cellOf(latitude, longitude));
+    }
+
+    private Set<Long> candidates(double south, double west, double north, double east) {
+        Set<Long> candidates = new TreeSet<>();
+        index.forEachCandidate(new BoundingBox(south, west, north, east), candidates::add);
+        return candidates;
+    }
+
+    @Test
+    public void testInvalidPositionsAreNotIndexed() {
+        assertEquals(NO_CELL, index.cellOf(91f, 181f));
+        assertEquals(NO_CELL, index.cellOf(55f, 181f));
+        assertEquals(NO_CELL, index.cellOf(null, 12f));
+        assertNotEquals(NO_CELL, index.cellOf(90f, 180f));
+        assertNotEquals(NO_CELL, index.cellOf(-90f, -180f));
+    }
+
+    @Test
+    public void testFindCandidatesInSmallBox() {
+        add(1, 55.5f, 12.5f);
+        add(2, 55.5f, 13.5f);
+        add(3, 57.5f, 12.5f);
+
+        assertEquals(Set.of(1L), candidates(55.2, 12.2, 55.8, 12.8));
+        assertEquals(Set.of(1L, 2L), candidates(55.2, 12.2, 55.8, 13.8));
+        assertEquals(Set.of(), candidates(56.2, 12.2, 56.8, 12.8));
+    }
+
+    @Test
+    public void testFindCandidatesInLargeBox() {
+        add(1, 55.5f, 12.5f);
+        add(2, -33.5f, 151.5f);
+
+        assertEquals(Set.of(1L, 2L), candidates(-90, -180, 90, 180));
+        assertEquals(Set.of(1L), candidates(0, -180, 90, 180));
+    }
+
+    @Test
+    public void testFindCandidatesAcrossAntimeridian() {
+        add(1, 50.5f, 179.5f);
+        add(2, 50.5f, -179.5f);
+        add(3, 50.5f, 0.5f);
+
+        assertEquals(Set.of(1L, 2L), candidates(50, 179, 51, -179));
+        assertEquals(Set.of(1L, 2L), candidates(-90, 1, 90, -1));
+    }
+
+    @Test
+    public void testMoveAndRemove() {
+        add(1, 55.5f, 12.5f);
+        add(2, 55.6f, 12.6f);
+        assertEquals(1, index.getNumberOfCells());
+
+        index.move(1, index.cellOf(55.5f, 12.5f), index.cellOf(56.5f, 12.5f));
+        assertEquals(Set.of(2L), candidates(55.2, 12.2, 55.8, 12.8));
+        assertEquals(Set.of(1L), candidates(56.2, 12.2, 56.8, 12.8));
+        assertEquals(2, index.getNumberOfCells());
+
+        index.move(1, index.cellOf(56.5f, 12.5f), NO_CELL);
+        index.move(2, index.cellOf(55.6f, 12.6f), NO_CELL);
+        assertEquals(Set.of(), candidates(-90, -180, 90, 180));
+        assertEquals(0, index.getNumberOfCells());
+    }
+
+    @Test
+    public void testFindCandidatesInRings() {
+        add(1, 55.5f, 12.5f);
+        add(2, 56.5f, 13.5f);
+        add(3, 53.5f, 12.5f);
+        add(4, 55.5f, -179.5f);
+        final int row = index.rowOf(55.5), column = index.columnOf(12.5);
+
+        Set<Long> ring0 = new TreeSet<>(), ring1 = new TreeSet<>(), ring2 = new TreeSet<>();
+        assertEquals(1, index.forEachCandidateInRing(row, column, 0, ring0::add));
+        assertEquals(8, index.forEachCandidateInRing(row, column, 1, ring1::add));
+        assertEquals(16, index.forEachCandidateInRing(row, column, 2, ring2::add));
+        assertEquals(Set.of(1L), ring0);
+        assertEquals(Set.of(2L), ring1);
+        assertEquals(Set.of(3L), ring2);
+
+        // Rings wrap around the antimeridian
+        Set<Long> wrapped = new TreeSet<>();
+        index.forEachCandidateInRing(index.rowOf(55.5), index.columnOf(179.5), 1, wrapped::add);
+        assertEquals(Set.of(4L), wrapped);
+    }
+
+    @Test
+    public void testDistanceBeyondRingIsLowerBound() {
+        final int row = index.rowOf(70.3);
+        assertEquals(0, index.distanceBeyondRing(row, -1));
+        for (int ring = 0; ring < 5; ring++) {
+            final double bound = index.distanceBeyondRing(row, ring);
+            // Just outside the ring, at the same latitude resp. longitude
+            assertTrue(bound <= GreatCircle.distance(70.3, 12.9, 70.3, 12.9 + ring + 1.0));
+            assertTrue(bound <= GreatCircle.distance(70.3, 12.9, 70.3 - ring - 1.0, 12.9));
+            assertTrue(bound > 0 || ring == 0);
+        }
+    }
+
+}
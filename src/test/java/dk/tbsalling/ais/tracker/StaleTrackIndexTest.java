@@ -0,0 +1,77 @@
+package dk.tbsalling.ais.tracker;
+
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StaleTrackIndexTest {
+
+    final Instant t0 = Instant.parse("2015-01-30T17:00:00.000Z");
+
+    final StaleTrackIndex index = new StaleTrackIndex(1000);
+    final Map<Long, Instant> timesOfLastUpdate = new HashMap<>();
+
+    private void add(long mmsi, Instant timeOfLastUpdate) {
+        index.add(mmsi, timeOfLastUpdate);
+        timesOfLastUpdate.put(mmsi, timeOfLastUpdate);
+    }
+
+    private void move(long mmsi, Instant timeOfLastUpdate) {
+        index.move(mmsi, timesOfLastUpdate.get(mmsi), timeOfLastUpdate);
+        timesOfLastUpdate.put(mmsi, timeOfLastUpdate);
+    }
+
+    private Set<Long> removeStale(Instant staleBefore) {
+        Set<Long> stale = new TreeSet<>();
+        index.removeStale(staleBefore, timesOfLastUpdate::get, stale::add);
+        stale.forEach(timesOfLastUpdate::remove);
+        return stale;
+    }
+
+    @Test
+    public void testRemoveStale() {
+        add(1, t0);
+        add(2, t0.plusMillis(500));
+        add(3, t0.plusMillis(1500));
+        add(4, t0.plusSeconds(60));
+        assertEquals(4, index.size());
+
+        assertEquals(Set.of(), removeStale(t0));
+        assertEquals(Set.of(1L), removeStale(t0.plusMillis(400)));
+        assertEquals(Set.of(2L, 3L), removeStale(t0.plusMillis(1501)));
+        assertEquals(1, index.size());
+        assertEquals(Set.of(), removeStale(t0.plusSeconds(60)));
+        assertEquals(Set.of(4L), removeStale(t0.plusSeconds(61)));
+        assertEquals(0, index.size());
+    }
+
+    @Test
+    public void testMovedTracksAreNotStale() {
+        add(1, t0);
+        add(2, t0);
+        move(1, t0.plusSeconds(30));
+        move(2, t0.plusMillis(10));
+
+        assertEquals(2, index.size());
+        assertEquals(Set.of(2L), removeStale(t0.plusSeconds(10)));
+        assertEquals(Set.of(1L), removeStale(t0.plusSeconds(31)));
+    }
+
+    @Test
+    public void testRemove() {
+        add(1, t0);
+        add(2, t0);
+        index.remove(1, t0);
+        index.remove(3, t0);
+        assertEquals(1, index.size());
+        timesOfLastUpdate.remove(1L);
+        assertEquals(Set.of(2L), removeStale(t0.plusSeconds(1)));
+    }
+
+}
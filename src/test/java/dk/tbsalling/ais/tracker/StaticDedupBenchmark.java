@@ -0,0 +1,94 @@
+package dk.tbsalling.ais.tracker;
+
+import dk.tbsalling.aismessages.ais.messages.AISMessage;
+import dk.tbsalling.aismessages.ais.messages.AISMessageFactory;
+import dk.tbsalling.aismessages.nmea.NMEAMessageHandler;
+import dk.tbsalling.aismessages.nmea.exceptions.InvalidMessage;
+import dk.tbsalling.aismessages.nmea.messages.NMEAMessage;
+
+import java.io.BufferedReader;
+import java.io.InputStreamReader;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Measures the static data deduplication of a tracker of the sample messages repeated - as when vessels resend
+ * their static data every few minutes: The no. of static reports found to be duplicates, the heap retained per
+ * track, and for compact tracks the no. of distinct name instances compared with the no. of distinct names.
+ *
+ * Run with: java -cp ... dk.tbsalling.ais.tracker.StaticDedupBenchmark [no. of repetitions]
+ */
+public class StaticDedupBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        final int repetitions = args.length > 0 ? Integer.parseInt(args[0]) : 10;
+        final List<String> lines = new ArrayList<>();
+        try (BufferedReader input = new BufferedReader(new InputStreamReader(StaticDedupBenchmark.class.getClassLoader().getResource("ais-sample-1.nmea").openStream()))) {
+            input.lines().forEach(lines::add);
+        }
+
+        for (int round = 0; round < 3; round++) {
+            System.out.println("Round " + round);
+            for (TrackMode trackMode : TrackMode.values()) {
+                final long before = usedHeap();
+                AISTracker tracker = AISTracker.builder().historyMode(HistoryMode.NONE).trackMode(trackMode).build();
+                update(tracker, lines, repetitions);
+                tracker.shutdown();
+                final long used = usedHeap() - before;
+                System.out.printf("  %-8s %6d tracks  %6d bytes/track  %6d duplicate static reports%n", trackMode,
+                    tracker.getNumberOfAisTracks(), used / tracker.getNumberOfAisTracks(), tracker.getNumberOfDuplicateStaticReports());
+
+                final Map<String, Integer> names = new HashMap<>();
+                final Map<String, Boolean> instances = new IdentityHashMap<>();
+                long bytes = 0;
+                for (AISTrack track : tracker.getAisTracks()) {
+                    for (String name : new String[] { track.getShipName(), track.getCallsign() }) {
+                        if (name == null)
+                            continue;
+                        names.merge(name, 1, Integer::sum);
+                        if (instances.put(name, Boolean.TRUE) == null)
+                            bytes += 40 + name.length();
+                    }
+                }
+                long distinctBytes = 0;
+                for (String name : names.keySet())
+                    distinctBytes += 40 + name.length();
+                System.out.printf("  %-8s %6d names  %6d distinct names  %6d instances  %7d bytes of names (%d if unique)%n", "",
+                    names.values().stream().mapToInt(Integer::intValue).sum(), names.size(), instances.size(), bytes, distinctBytes);
+            }
+        }
+    }
+
+    private static void update(AISTracker tracker, List<String> lines, int repetitions) {
+        final Instant[] timestamp = { Instant.parse("2015-01-30T12:00:00Z") };
+        NMEAMessageHandler nmeaMessageHandler = new NMEAMessageHandler("BENCH", message -> {
+            AISMessage timestamped = AISMessageFactory.create(timestamp[0], "BENCH", null, message.getMetadata().nmeaMessages());
+            timestamp[0] = timestamp[0].plusMillis(100);
+            try {
+                tracker.update(timestamped);
+            } catch (IllegalArgumentException e) {
+            }
+        });
+        for (int r = 0; r < repetitions; r++) {
+            for (String line : lines) {
+                try {
+                    nmeaMessageHandler.accept(new NMEAMessage(line));
+                } catch (InvalidMessage e) {
+                }
+            }
+        }
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        final Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,35 @@
+package dk.tbsalling.ais.tracker;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class StringPoolTest {
+
+    @Test
+    public void testEqualStringsAreInternedAsOneInstance() {
+        StringPool pool = new StringPool(64);
+        String name = new String("SEA PROWLER");
+        assertSame(name, pool.intern(name));
+        assertSame(name, pool.intern(new String("SEA PROWLER")));
+        assertNull(pool.intern(null));
+    }
+
+    @Test
+    public void testPoolIsBounded() {
+        StringPool pool = new StringPool(1);
+        String a = new String("A"), b = new String("B");
+        assertSame(a, pool.intern(a));
+        // b collides with a and replaces it
+        assertSame(b, pool.intern(b));
+        String a2 = new String("A");
+        assertSame(a2, pool.intern(a2));
+        assertSame(a2, pool.intern(new String("A")));
+    }
+
+    @Test
+    public void testInvalidCapacity() {
+        assertThrows(IllegalArgumentException.class, () -> new StringPool(0));
+        assertThrows(IllegalArgumentException.class, () -> new StringPool((1 << 30) + 1));
+    }
+}
@@ -0,0 +1,80 @@
+package dk.tbsalling.ais.tracker;
+
+import dk.tbsalling.aismessages.ais.messages.AISMessage;
+import dk.tbsalling.aismessages.ais.messages.DynamicDataReport;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static dk.tbsalling.ais.tracker.NMEATestUtils.parse;
+import static dk.tbsalling.ais.tracker.NMEATestUtils.tagged;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TrackCheckpointTest {
+
+    @TempDir
+    Path directory;
+
+    final Instant t0 = Instant.parse("2015-01-30T17:00:00.123456789Z");
+
+    @Test
+    public void testWriteAndRead() throws IOException {
+        AISMessage dynamic = parse(tagged(1426161128, "!BSVDM,1,1,,A,13mg=5h0000Nu7jW?9ug@1Hb0<0S,0*51"));
+        AISMessage older = parse("!AIVDM,1,1,,A,13mg=5h0000Nu7jW?9ug@1Hb0<0S,0*57");
+        AISTrack track = new AISTrack(null, (DynamicDataReport) dynamic, null, null, t0, null, DynamicDataHistory.EMPTY.append(t0.minusSeconds(10), (DynamicDataReport) older));
+
+        Path path = directory.resolve("checkpoint");
+        try (TrackCheckpoint.Writer writer = new TrackCheckpoint.Writer(path)) {
+            writer.write(track);
+            writer.write(track);
+            writer.finish(new Instant[] { t0.plusSeconds(1), t0 });
+        }
+
+        List<AISTrack> tracks = new ArrayList<>();
+        assertArrayEquals(new Instant[] { t0.plusSeconds(1), t0 }, TrackCheckpoint.read(path, DynamicDataHistory.EMPTY, true, tracks::add));
+        assertEquals(2, tracks.size());
+        AISTrack restored = tracks.get(0);
+        assertEquals(t0, restored.getTimeOfDynamicUpdate());
+        assertEquals(dynamic.getMetadata().bitString(), ((AISMessage) restored.getDynamicDataReport()).getMetadata().bitString());
+        assertEquals(1426161128L, ((AISMessage) restored.getDynamicDataReport()).getMetadata().nmeaTagBlock().getTimestamp());
+        assertEquals("SRC", ((AISMessage) restored.getDynamicDataReport()).getMetadata().source());
+        assertEquals(dynamic.getMetadata().received(), ((AISMessage) restored.getDynamicDataReport()).getMetadata().received());
+        assertEquals(1, restored.getDynamicDataHistorySize());
+        assertEquals(t0.minusSeconds(10), restored.getDynamicDataHistory().firstKey());
+    }
+
+    @Test
+    public void testAbortedWriteKeepsPreviousCheckpoint() throws IOException {
+        Path path = directory.resolve("checkpoint");
+        try (TrackCheckpoint.Writer writer = new TrackCheckpoint.Writer(path)) {
+            writer.finish(new Instant[] { t0 });
+        }
+        try (TrackCheckpoint.Writer writer = new TrackCheckpoint.Writer(path)) {
+            // Not finished
+        }
+        assertFalse(Files.exists(directory.resolve("checkpoint.tmp")));
+        assertArrayEquals(new Instant[] { t0 }, TrackCheckpoint.read(path, DynamicDataHistory.EMPTY, true, track -> fail()));
+    }
+
+    @Test
+    public void testRejectsInvalidFiles() throws IOException {
+        Path notACheckpoint = directory.resolve("not-a-checkpoint");
+        Files.writeString(notACheckpoint, "!AIVDM,1,1,,A,13mg=5h0000Nu7jW?9ug@1Hb0<0S,0*57");
+        assertThrows(IOException.class, () -> TrackCheckpoint.read(notACheckpoint, DynamicDataHistory.EMPTY, true, track -> {}));
+
+        Path truncated = directory.resolve("truncated");
+        try (DataOutputStream output = new DataOutputStream(Files.newOutputStream(truncated))) {
+            output.writeInt(0x41495354);
+            output.writeInt(1);
+            output.writeByte(1);
+        }
+        assertThrows(IOException.class, () -> TrackCheckpoint.read(truncated, DynamicDataHistory.EMPTY, true, track -> {}));
+    }
+}
@@ -0,0 +1,86 @@
+package dk.tbsalling.ais.tracker;
+
+import dk.tbsalling.aismessages.ais.messages.AISMessage;
+import dk.tbsalling.aismessages.ais.messages.AISMessageFactory;
+import dk.tbsalling.aismessages.ais.messages.DynamicDataReport;
+import dk.tbsalling.aismessages.nmea.messages.NMEAMessage;
+
+import java.lang.reflect.Method;
+import java.time.Instant;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Measures the time and the heap allocated per update of the tracks of a shard - a lookup, a check and a put by
+ * MMSI no., as on the update path of the tracker - with a TrackMap compared with a ConcurrentHashMap with boxed
+ * keys. Then measures the heap allocated per message by a tracker updated in batches.
+ *
+ * Run with: java -cp ... dk.tbsalling.ais.tracker.TrackMapBenchmark [no. of repetitions]
+ */
+public class TrackMapBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        final int repetitions = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        final AISTrack track = new AISTrack((DynamicDataReport) AISMessageFactory.create(Instant.EPOCH, "SRC", null,
+            new NMEAMessage("!AIVDM,1,1,,A,18UG;P0012G?Uq4EdHa=c;7@051@,0*53")), Instant.EPOCH);
+
+        // MMSI no's of 5000 vessels, updated in random order
+        final long[] mmsis = new long[5_000_000];
+        final Random random = new Random(42);
+        for (int i = 0; i < mmsis.length; i++)
+            mmsis[i] = 219_000_000L + random.nextInt(5_000);
+
+        final List<AISMessage> messages = BatchUpdateBenchmark.loadMessages(repetitions);
+
+        for (int round = 0; round < 5; round++) {
+            System.out.println("Round " + round);
+
+            TrackMap trackMap = new TrackMap();
+            long bytes = allocatedBytes();
+            long start = System.nanoTime();
+            for (long mmsi : mmsis) {
+                AISTrack oldTrack = trackMap.containsKey(mmsi) ? trackMap.get(mmsi) : null;
+                trackMap.put(mmsi, oldTrack == null ? track : oldTrack);
+            }
+            report("TrackMap", mmsis.length, System.nanoTime() - start, allocatedBytes() - bytes);
+
+            Map<Long, AISTrack> hashMap = new ConcurrentHashMap<>();
+            bytes = allocatedBytes();
+            start = System.nanoTime();
+            for (long mmsi : mmsis) {
+                AISTrack oldTrack = hashMap.containsKey(mmsi) ? hashMap.get(mmsi) : null;
+                hashMap.put(mmsi, oldTrack == null ? track : oldTrack);
+            }
+            report("ConcurrentHashMap", mmsis.length, System.nanoTime() - start, allocatedBytes() - bytes);
+
+            AISTracker tracker = new AISTracker();
+            bytes = allocatedBytes();
+            start = System.nanoTime();
+            tracker.update(messages.iterator(), 1000);
+            report("AISTracker", messages.size(), System.nanoTime() - start, allocatedBytes() - bytes);
+            tracker.shutdown();
+        }
+    }
+
+    private static void report(String name, int numberOfUpdates, long nanos, long bytes) {
+        System.out.printf("  %-18s %8.1f ns/update  %8.1f bytes/update%n", name, (double) nanos / numberOfUpdates, (double) bytes / numberOfUpdates);
+    }
+
+    /** Return the no. of bytes allocated by the current thread so far; by reflection, as this module does not read java.management. */
+    static long allocatedBytes() {
+        try {
+            if (THREAD_MX_BEAN == null) {
+                THREAD_MX_BEAN = Class.forName("java.lang.management.ManagementFactory").getMethod("getThreadMXBean").invoke(null);
+                GET_CURRENT_THREAD_ALLOCATED_BYTES = Class.forName("com.sun.management.ThreadMXBean").getMethod("getCurrentThreadAllocatedBytes");
+            }
+            return (long) GET_CURRENT_THREAD_ALLOCATED_BYTES.invoke(THREAD_MX_BEAN);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Allocated bytes cannot be measured on this JVM", e);
+        }
+    }
+
+    private static Object THREAD_MX_BEAN;
+    private static Method GET_CURRENT_THREAD_ALLOCATED_BYTES;
+}
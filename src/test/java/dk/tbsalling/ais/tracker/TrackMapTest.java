@@ -0,0 +1,144 @@
+package dk.tbsalling.ais.tracker;
+
+import dk.tbsalling.aismessages.ais.messages.AISMessageFactory;
+import dk.tbsalling.aismessages.ais.messages.DynamicDataReport;
+import dk.tbsalling.aismessages.nmea.messages.NMEAMessage;
+import org.junit.jupiter.api.Test;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TrackMapTest {
+
+    final AISTrack track = new AISTrack((DynamicDataReport) AISMessageFactory.create(Instant.EPOCH, "SRC", null,
+        new NMEAMessage("!AIVDM,1,1,,A,18UG;P0012G?Uq4EdHa=c;7@051@,0*53")), Instant.EPOCH);
+
+    @Test
+    public void testPutGetRemove() {
+        TrackMap map = new TrackMap();
+        AISTrack track1 = distinctTrack(), track2 = distinctTrack();
+
+        assertNull(map.put(219000001L, track1));
+        assertSame(track1, map.get(219000001L));
+        assertTrue(map.containsKey(219000001L));
+        assertFalse(map.containsKey(219000002L));
+        assertSame(track1, map.put(219000001L, track2));
+        assertSame(track2, map.get(219000001L));
+        assertEquals(1, map.size());
+
+        assertSame(track2, map.remove(219000001L));
+        assertNull(map.remove(219000001L));
+        assertNull(map.get(219000001L));
+        assertTrue(map.isEmpty());
+
+        // The tombstone is reused by its own key
+        assertNull(map.put(219000001L, track1));
+        assertSame(track1, map.get(219000001L));
+        assertEquals(1, map.size());
+
+        map.clear();
+        assertTrue(map.isEmpty());
+        assertNull(map.get(219000001L));
+    }
+
+    @Test
+    public void testGrowsAndPurgesTombstones() {
+        TrackMap map = new TrackMap();
+        List<AISTrack> tracks = new ArrayList<>();
+        for (int i = 0; i < 10_000; i++) {
+            tracks.add(distinctTrack());
+            map.put(200_000_000L + i, tracks.get(i));
+        }
+        assertEquals(10_000, map.size());
+        for (int i = 0; i < 10_000; i++)
+            assertSame(tracks.get(i), map.get(200_000_000L + i));
+
+        // Churn through new keys; the tombstones of removed keys must not fill the table
+        for (int i = 10_000; i < 100_000; i++) {
+            map.remove(200_000_000L + i - 10_000);
+            map.put(200_000_000L + i, track);
+        }
+        assertEquals(10_000, map.size());
+        assertNull(map.get(200_000_000L));
+        assertSame(track, map.get(200_099_999L));
+    }
+
+    @Test
+    public void testIteration() {
+        TrackMap map = new TrackMap();
+        Set<AISTrack> expected = new HashSet<>();
+        for (int i = 0; i < 100; i++) {
+            AISTrack t = distinctTrack();
+            map.put(i + 1, t);
+            expected.add(t);
+        }
+        expected.remove(map.remove(50));
+
+        Set<AISTrack> iterated = new HashSet<>();
+        map.iterator().forEachRemaining(iterated::add);
+        Set<AISTrack> visited = new HashSet<>();
+        map.forEach(visited::add);
+
+        assertEquals(99, map.size());
+        assertEquals(expected, iterated);
+        assertEquals(iterated, visited);
+        assertEquals(iterated, Set.of(map.toArray()));
+    }
+
+    @Test
+    public void testReadersSeeTracksDuringConcurrentChanges() throws Exception {
+        TrackMap map = new TrackMap();
+        final int n = 1000;
+        AISTrack[] stableTracks = new AISTrack[n];
+        for (int i = 0; i < n; i++) {
+            stableTracks[i] = distinctTrack();
+            map.put(i + 1, stableTracks[i]);
+        }
+
+        AtomicBoolean done = new AtomicBoolean();
+        AtomicReference<String> failure = new AtomicReference<>();
+        Thread reader = new Thread(() -> {
+            while (!done.get()) {
+                for (int i = 0; i < n; i++) {
+                    if (map.get(i + 1) != stableTracks[i])
+                        failure.compareAndSet(null, "Missed stable key " + (i + 1));
+                    AISTrack churned = map.get(1_000_000L + i);
+                    if (churned != null && churned != track)
+                        failure.compareAndSet(null, "Wrong track of churned key " + (1_000_000L + i));
+                }
+            }
+        });
+        reader.start();
+
+        // Insert and remove other keys, which grows and rehashes the table many times
+        for (int round = 0; round < 50; round++) {
+            for (int i = 0; i < 20 * n; i++)
+                map.put(1_000_000L + round * 100_000L + i, track);
+            for (int i = 0; i < 20 * n; i++)
+                map.remove(1_000_000L + round * 100_000L + i);
+        }
+        done.set(true);
+        reader.join();
+
+        assertNull(failure.get());
+        assertEquals(n, map.size());
+    }
+
+    @Test
+    public void testInvalidArguments() {
+        TrackMap map = new TrackMap();
+        assertThrows(IllegalArgumentException.class, () -> map.put(Long.MIN_VALUE, track));
+        assertThrows(NullPointerException.class, () -> map.put(1, null));
+    }
+
+    private AISTrack distinctTrack() {
+        return new AISTrack(track, DynamicDataHistory.EMPTY);
+    }
+}
@@ -0,0 +1,102 @@
+package dk.tbsalling.ais.tracker.ingest;
+
+import dk.tbsalling.ais.tracker.AISTracker;
+import dk.tbsalling.aismessages.AISInputStreamReader;
+
+import java.io.BufferedReader;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Measures the throughput, in messages per second, of replaying NMEA files into a tracker with a MappedAISFileReader
+ * with various no's of decoders - compared with reading the files serially as a stream.
+ *
+ * Run with: java -cp ... dk.tbsalling.ais.tracker.ingest.FileReplayBenchmark [file ...]
+ *
+ * If no files are given, a file of the sample messages repeated with tag block times is replayed.
+ */
+public class FileReplayBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        final List<Path> files = new ArrayList<>();
+        for (String arg : args)
+            files.add(Path.of(arg));
+        if (files.isEmpty())
+            files.add(sampleFile(500));
+        long bytes = 0;
+        for (Path file : files)
+            bytes += Files.size(file);
+        System.out.printf("Replaying %d file(s), %d MB%n", files.size(), bytes / 1_000_000);
+
+        for (int round = 0; round < 3; round++) {
+            System.out.println("Round " + round);
+
+            AISTracker serialTracker = new AISTracker();
+            long start = System.nanoTime();
+            for (Path file : files)
+                try (InputStream inputStream = Files.newInputStream(file)) {
+                    new AISInputStreamReader(inputStream, message -> {
+                        try {
+                            serialTracker.update(message);
+                        } catch (IllegalArgumentException e) {
+                        }
+                    }).run();
+                }
+            report("stream", serialTracker.getNumberOfAisTracks(), -1, bytes, System.nanoTime() - start);
+            serialTracker.shutdown();
+
+            for (int decoders : new int[] { 1, 2, 4 }) {
+                AISTracker replayTracker = new AISTracker();
+                MappedAISFileReader reader = new MappedAISFileReader(files, decoders, replayTracker::update);
+                start = System.nanoTime();
+                reader.run();
+                long nanos = System.nanoTime() - start;
+                replayTracker.shutdown();
+                report("mapped x" + decoders, replayTracker.getNumberOfAisTracks(), reader.getNumberOfMessages(), bytes, nanos);
+                System.out.printf("  %-12s invalid %d  out of order %d  consumer stalls %d (%d ms)%n", "",
+                    reader.getNumberOfInvalidMessages(), reader.getNumberOfOutOfOrderMessages(),
+                    reader.getNumberOfConsumerStalls(), reader.getConsumerStallTime().toMillis());
+            }
+        }
+    }
+
+    private static void report(String name, int numberOfTracks, long numberOfMessages, long bytes, long nanos) {
+        final double seconds = nanos / 1e9;
+        if (numberOfMessages < 0)
+            System.out.printf("  %-12s %8d ms  %8.1f MB/s  %d tracks%n", name, nanos / 1_000_000, bytes / 1e6 / seconds, numberOfTracks);
+        else
+            System.out.printf("  %-12s %8d ms  %8.1f MB/s  %10.0f msgs/s  %d tracks%n", name, nanos / 1_000_000, bytes / 1e6 / seconds, numberOfMessages / seconds, numberOfTracks);
+    }
+
+    /** Write the sample messages repeated to a temporary file, with a tag block time increasing by a second per 10 lines. */
+    static Path sampleFile(int repetitions) throws Exception {
+        final List<String> sample = new ArrayList<>();
+        try (InputStream inputStream = FileReplayBenchmark.class.getClassLoader().getResourceAsStream("ais-sample-1.nmea")) {
+            new BufferedReader(new InputStreamReader(inputStream)).lines().forEach(sample::add);
+        }
+        final Path file = Files.createTempFile("replay", ".nmea");
+        file.toFile().deleteOnExit();
+        long epochSecond = Instant.parse("2015-01-30T12:00:00Z").getEpochSecond();
+        int lines = 0;
+        try (Writer writer = Files.newBufferedWriter(file)) {
+            for (int r = 0; r < repetitions; r++) {
+                for (String line : sample) {
+                    if (lines++ % 10 == 0)
+                        epochSecond++;
+                    final String tags = "c:" + epochSecond;
+                    int checksum = 0;
+                    for (char c : tags.toCharArray())
+                        checksum ^= c;
+                    writer.write("\\" + tags + "*" + String.format("%02X", checksum) + "\\" + line + "\n");
+                }
+            }
+        }
+        return file;
+    }
+}
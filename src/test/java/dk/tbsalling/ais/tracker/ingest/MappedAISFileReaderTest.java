@@ -0,0 +1,190 @@
+package dk.tbsalling.ais.tracker.ingest;
+
+import dk.tbsalling.ais.tracker.AISTracker;
+import dk.tbsalling.aismessages.AISInputStreamReader;
+import dk.tbsalling.aismessages.ais.messages.AISMessage;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static dk.tbsalling.ais.tracker.NMEATestUtils.tagged;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappedAISFileReaderTest {
+
+    @TempDir
+    Path directory;
+
+    final long t0 = Instant.parse("2015-01-30T12:00:00Z").getEpochSecond();
+
+    @Test
+    public void testMessagesAreConsumedInFileOrderForAnyChunkSize() throws Exception {
+        List<AISMessage> expected = new ArrayList<>();
+        new AISInputStreamReader(sample(), expected::add).run();
+        Path file = directory.resolve("sample.nmea");
+        try (InputStream sample = sample()) {
+            Files.copy(sample, file);
+        }
+
+        // Small chunks split lines as well as multi-sentence messages
+        for (int chunkSize : new int[] { 1, 37, 100, 512, 4096, 1 << 20 }) {
+            List<AISMessage> actual = new ArrayList<>();
+            MappedAISFileReader reader = new MappedAISFileReader(List.of(file), 3, chunkSize, actual::addAll);
+            reader.run();
+
+            assertEquals(expected.size(), actual.size(), "chunkSize " + chunkSize);
+            for (int i = 0; i < expected.size(); i++)
+                assertEquals(expected.get(i).getMetadata().bitString(), actual.get(i).getMetadata().bitString(), "chunkSize " + chunkSize);
+            assertEquals(expected.size(), reader.getNumberOfMessages());
+            assertEquals(Files.size(file), reader.getNumberOfBytes());
+            assertEquals((Files.size(file) + chunkSize - 1) / chunkSize, reader.getNumberOfChunks());
+            assertTrue(reader.getNumberOfConsumerStalls() <= reader.getNumberOfChunks() + 1, "chunkSize " + chunkSize);
+            assertEquals(0, reader.getNumberOfOutOfOrderMessages());
+        }
+    }
+
+    @Test
+    public void testMessagesAreTimestampedByTagBlock() throws Exception {
+        Path file = write("tagged.nmea",
+            tagged(t0 + 1, "!AIVDM,1,1,,A,18UG;P0012G?Uq4EdHa=c;7@051@,0*53"),
+            tagged(t0 + 2, "!AIVDM,2,1,6,B,55NOpt400001L@O?;G0HuE9@R15D59@E:222220O0p>4440Ht6hhjH4QDiDU,0*46"),
+            tagged(t0 + 2, "!AIVDM,2,2,6,B,QH888888880,2*38"),
+            tagged(t0 + 1, "!AIVDM,1,1,,B,15NOpt0P00qQJLvA<K4HmwwL2<4T,0*11"));
+
+        List<AISMessage> actual = new ArrayList<>();
+        MappedAISFileReader reader = new MappedAISFileReader(List.of(file), 1, actual::addAll);
+        reader.run();
+
+        assertEquals(3, actual.size());
+        assertEquals(Instant.ofEpochSecond(t0 + 1), actual.get(0).getMetadata().received());
+        assertEquals(Instant.ofEpochSecond(t0 + 2), actual.get(1).getMetadata().received());
+        assertEquals(Instant.ofEpochSecond(t0 + 1), actual.get(2).getMetadata().received());
+        assertEquals("tagged.nmea", actual.get(0).getMetadata().source());
+        assertEquals(1, reader.getNumberOfOutOfOrderMessages());
+    }
+
+    @Test
+    public void testUntaggedMessagesAreGivenTheTimeTheyAreConsumed() throws Exception {
+        Path file1 = write("1.nmea",
+            "!AIVDM,1,1,,A,18UG;P0012G?Uq4EdHa=c;7@051@,0*53",
+            "!AIVDM,1,1,,B,15NOpt0P00qQJLvA<K4HmwwL2<4T,0*11");
+        Path file2 = write("2.nmea",
+            "!AIVDM,1,1,,B,15NOpt0P00qQJLvA<K4HmwwL2<4T,0*11");
+
+        List<AISMessage> actual = new ArrayList<>();
+        Instant start = Instant.now();
+        new MappedAISFileReader(List.of(file1, file2), 2, 10, actual::addAll).run();
+
+        assertEquals(3, actual.size());
+        assertEquals(List.of("1.nmea", "1.nmea", "2.nmea"), actual.stream().map(m -> m.getMetadata().source()).toList());
+        assertFalse(actual.get(0).getMetadata().received().isBefore(start));
+        assertFalse(actual.get(0).getMetadata().received().isAfter(actual.get(1).getMetadata().received()));
+        assertFalse(actual.get(1).getMetadata().received().isAfter(actual.get(2).getMetadata().received()));
+        assertFalse(actual.get(2).getMetadata().received().isAfter(Instant.now()));
+    }
+
+    @Test
+    public void testUntaggedMessagesAreGivenTheTimeOfTheLastTagBlockBeforeThem() throws Exception {
+        Path file1 = write("1.nmea",
+            tagged(t0 + 1, "!AIVDM,1,1,,A,18UG;P0012G?Uq4EdHa=c;7@051@,0*53"),
+            "!AIVDM,1,1,,B,15NOpt0P00qQJLvA<K4HmwwL2<4T,0*11");
+        Path file2 = write("2.nmea",
+            "!AIVDM,1,1,,B,15NOpt0P00qQJLvA<K4HmwwL2<4T,0*11",
+            tagged(t0 + 5, "!AIVDM,1,1,,A,18UG;P0012G?Uq4EdHa=c;7@051@,0*53"),
+            "!AIVDM,1,1,,B,15NOpt0P00qQJLvA<K4HmwwL2<4T,0*11");
+
+        // Chunks of one line and of all lines
+        for (int chunkSize : new int[] { 10, 1000 }) {
+            List<AISMessage> actual = new ArrayList<>();
+            MappedAISFileReader reader = new MappedAISFileReader(List.of(file1, file2), 2, chunkSize, actual::addAll);
+            reader.run();
+
+            assertEquals(List.of(t0 + 1, t0 + 1, t0 + 1, t0 + 5, t0 + 5),
+                actual.stream().map(m -> m.getMetadata().received().getEpochSecond()).toList(), "chunkSize " + chunkSize);
+            assertEquals(0, reader.getNumberOfOutOfOrderMessages());
+        }
+    }
+
+    @Test
+    public void testInvalidAndIncompleteMessagesAreSkipped() throws Exception {
+        Path file = directory.resolve("invalid.nmea");
+        Files.writeString(file,
+            "!AIVDM,1,1,,A,18UG;P0012G?Uq4EdHa=c;7@051@,0*53\r\n" +
+            "this is not nmea\r\n" +
+            "!AIVDM,2,2,6,B,QH888888880,2*38\r\n" +
+            "\r\n" +
+            "!AIVDM,2,1,6,B,55NOpt400001L@O?;G0HuE9@R15D59@E:222220O0p>4440Ht6hhjH4QDiDU,0*46\r\n" +
+            "!AIVDM,2,2,6,B,QH888888880,2*38\r\n" +
+            "!AIVDM,1,1,,B,15NOpt0P00qQJLvA<K4HmwwL2<4T,0*11");
+
+        for (int chunkSize : new int[] { 1, 50, 1000 }) {
+            List<AISMessage> actual = new ArrayList<>();
+            MappedAISFileReader reader = new MappedAISFileReader(List.of(file), 2, chunkSize, actual::addAll);
+            reader.run();
+
+            assertEquals(3, actual.size());
+            assertEquals(576048000, actual.get(0).getSourceMmsi().getMmsi());
+            assertEquals(367524080, actual.get(1).getSourceMmsi().getMmsi());
+            assertEquals(367524080, actual.get(2).getSourceMmsi().getMmsi());
+            assertEquals(1, reader.getNumberOfInvalidMessages());
+        }
+    }
+
+    @Test
+    public void testTrackerIsUpdatedAsBySerialReading() throws Exception {
+        Path file = directory.resolve("sample.nmea");
+        try (InputStream sample = sample()) {
+            Files.copy(sample, file);
+        }
+
+        AISTracker serialTracker = new AISTracker();
+        new AISInputStreamReader(sample(), message -> {
+            try {
+                serialTracker.update(message);
+            } catch (IllegalArgumentException e) {
+            }
+        }).run();
+        serialTracker.shutdown();
+
+        AISTracker replayTracker = new AISTracker();
+        new MappedAISFileReader(List.of(file), 2, 2048, replayTracker::update).run();
+        replayTracker.shutdown();
+
+        assertEquals(serialTracker.getNumberOfAisTracks(), replayTracker.getNumberOfAisTracks());
+        serialTracker.getAisTracks().forEach(track -> assertTrue(replayTracker.isTracked(track.getMmsi())));
+    }
+
+    @Test
+    public void testMessagesOfFilesBeforeMissingFileAreConsumed() throws Exception {
+        Path file = write("1.nmea", "!AIVDM,1,1,,A,18UG;P0012G?Uq4EdHa=c;7@051@,0*53");
+
+        List<AISMessage> actual = new ArrayList<>();
+        MappedAISFileReader reader = new MappedAISFileReader(List.of(file, directory.resolve("missing.nmea")), 1, actual::addAll);
+        assertThrows(IOException.class, reader::run);
+        assertEquals(1, actual.size());
+    }
+
+    @Test
+    public void testInvalidArguments() {
+        Path file = directory.resolve("any.nmea");
+        assertThrows(IllegalArgumentException.class, () -> new MappedAISFileReader(List.of(), 1, batch -> {}));
+        assertThrows(IllegalArgumentException.class, () -> new MappedAISFileReader(List.of(file), 0, batch -> {}));
+        assertThrows(IllegalArgumentException.class, () -> new MappedAISFileReader(List.of(file), 1, 0, batch -> {}));
+        assertThrows(NullPointerException.class, () -> new MappedAISFileReader(List.of(file), 1, null));
+    }
+
+    private Path write(String name, String... lines) throws IOException {
+        return Files.writeString(directory.resolve(name), String.join("\n", lines) + "\n");
+    }
+
+    private InputStream sample() {
+        return getClass().getClassLoader().getResourceAsStream("ais-sample-1.nmea");
+    }
+}
@@ -0,0 +1,132 @@
+package dk.tbsalling.ais.tracker.ingest;
+
+import dk.tbsalling.ais.tracker.AISTracker;
+import dk.tbsalling.aismessages.ais.messages.AISMessage;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.io.UncheckedIOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static dk.tbsalling.ais.tracker.NMEATestUtils.tagged;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MergingAISInputStreamReaderTest {
+
+    final long t0 = Instant.parse("2015-01-30T12:00:00Z").getEpochSecond();
+
+    @Test
+    public void testSourcesAreMergedByEventTime() throws Exception {
+        Map<String, InputStream> sources = new LinkedHashMap<>();
+        sources.put("A", stream(
+            tagged(t0 + 1, "!AIVDM,1,1,,A,18UG;P0012G?Uq4EdHa=c;7@051@,0*53"),
+            tagged(t0 + 3, "!AIVDM,1,1,,A,18UG;P0012G?Uq4EdHa=c;7@051@,0*53"),
+            tagged(t0 + 6, "!AIVDM,1,1,,A,18UG;P0012G?Uq4EdHa=c;7@051@,0*53")
+        ));
+        sources.put("B", stream(
+            tagged(t0 + 2, "!AIVDM,1,1,,B,15NOpt0P00qQJLvA<K4HmwwL2<4T,0*11"),
+            tagged(t0 + 4, "!AIVDM,2,1,6,B,55NOpt400001L@O?;G0HuE9@R15D59@E:222220O0p>4440Ht6hhjH4QDiDU,0*46"),
+            tagged(t0 + 4, "!AIVDM,2,2,6,B,QH888888880,2*38"),
+            tagged(t0 + 5, "!AIVDM,1,1,,B,15NOpt0P00qQJLvA<K4HmwwL2<4T,0*11")
+        ));
+
+        List<AISMessage> merged = new ArrayList<>();
+        MergingAISInputStreamReader reader = new MergingAISInputStreamReader(sources, Duration.ofSeconds(10), merged::addAll);
+        reader.run();
+
+        assertEquals(6, merged.size());
+        for (int i = 0; i < 6; i++)
+            assertEquals(Instant.ofEpochSecond(t0 + i + 1), merged.get(i).getMetadata().received());
+        assertEquals(List.of("A", "B", "A", "B", "B", "A"), merged.stream().map(m -> m.getMetadata().source()).toList());
+
+        List<MergingAISInputStreamReader.SourceStatistics> statistics = reader.getSourceStatistics();
+        assertEquals(3, statistics.get(0).numberOfMessages());
+        assertEquals(3, statistics.get(1).numberOfMessages());
+        assertEquals(Duration.ZERO, statistics.get(0).lag());
+        assertEquals(Duration.ofSeconds(1), statistics.get(1).lag());
+        assertTrue(statistics.get(0).ended() && statistics.get(1).ended());
+        assertEquals(0, statistics.get(0).numberOfLateMessages() + statistics.get(1).numberOfLateMessages());
+        assertEquals(6, reader.getNumberOfMessages());
+    }
+
+    @Test
+    public void testIdleSourceDoesNotHoldUpMerge() throws Exception {
+        PipedOutputStream idleOutput = new PipedOutputStream();
+        Map<String, InputStream> sources = new LinkedHashMap<>();
+        sources.put("active", stream(
+            tagged(t0 + 1, "!AIVDM,1,1,,A,18UG;P0012G?Uq4EdHa=c;7@051@,0*53"),
+            tagged(t0 + 2, "!AIVDM,1,1,,B,15NOpt0P00qQJLvA<K4HmwwL2<4T,0*11")
+        ));
+        sources.put("idle", new PipedInputStream(idleOutput));
+
+        List<AISMessage> merged = new ArrayList<>();
+        new MergingAISInputStreamReader(sources, Duration.ofMillis(50), batch -> {
+            merged.addAll(batch);
+            if (merged.size() == 2) {
+                try {
+                    idleOutput.close();
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }
+        }).run();
+
+        assertEquals(2, merged.size());
+    }
+
+    @Test
+    public void testStopEndsReadsBlockedOnSilentSource() throws Exception {
+        PipedOutputStream silentOutput = new PipedOutputStream();
+        Map<String, InputStream> sources = new LinkedHashMap<>();
+        sources.put("active", stream(tagged(t0 + 1, "!AIVDM,1,1,,A,18UG;P0012G?Uq4EdHa=c;7@051@,0*53")));
+        sources.put("silent", new PipedInputStream(silentOutput));
+
+        List<AISMessage> merged = new ArrayList<>();
+        MergingAISInputStreamReader[] reader = new MergingAISInputStreamReader[1];
+        reader[0] = new MergingAISInputStreamReader(sources, Duration.ofMillis(50), batch -> {
+            merged.addAll(batch);
+            reader[0].requestStop();
+        });
+        assertTimeoutPreemptively(Duration.ofSeconds(10), reader[0]::run);
+
+        assertEquals(1, merged.size());
+        assertTrue(reader[0].isStopRequested());
+    }
+
+    @Test
+    public void testTrackerIsFedFromAllSources() throws Exception {
+        Map<String, InputStream> sources = new LinkedHashMap<>();
+        sources.put("sample1", getClass().getClassLoader().getResourceAsStream("ais-sample-1.nmea"));
+        sources.put("sample2", getClass().getClassLoader().getResourceAsStream("ais-sample-2.nmea"));
+
+        AISTracker tracker = new AISTracker();
+        MergingAISInputStreamReader reader = new MergingAISInputStreamReader(sources, Duration.ofSeconds(1), tracker::update);
+        reader.run();
+        tracker.shutdown();
+
+        long numberOfMessages = reader.getSourceStatistics().stream().mapToLong(MergingAISInputStreamReader.SourceStatistics::numberOfMessages).sum();
+        assertEquals(numberOfMessages, reader.getNumberOfMessages() + reader.getSourceStatistics().stream().mapToLong(MergingAISInputStreamReader.SourceStatistics::numberOfLateMessages).sum());
+        assertTrue(reader.getSourceStatistics().get(0).numberOfMessages() > 900);
+        assertTrue(reader.getSourceStatistics().get(1).numberOfMessages() > 0);
+        assertTrue(tracker.getNumberOfAisTracks() > 900);
+    }
+
+    @Test
+    public void testInvalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new MergingAISInputStreamReader(Map.of(), Duration.ZERO, batch -> {}));
+        assertThrows(IllegalArgumentException.class, () -> new MergingAISInputStreamReader(Map.of("A", stream()), Duration.ofSeconds(-1), batch -> {}));
+    }
+
+    private static InputStream stream(String... lines) {
+        return new ByteArrayInputStream((String.join("\n", lines) + "\n").getBytes());
+    }
+}
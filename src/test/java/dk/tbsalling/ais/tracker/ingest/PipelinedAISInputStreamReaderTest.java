@@ -0,0 +1,134 @@
+package dk.tbsalling.ais.tracker.ingest;
+
+import dk.tbsalling.ais.tracker.AISTracker;
+import dk.tbsalling.aismessages.AISInputStreamReader;
+import dk.tbsalling.aismessages.ais.messages.AISMessage;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class PipelinedAISInputStreamReaderTest {
+
+    @Test
+    public void testMessagesAreConsumedInInputOrder() throws Exception {
+        List<AISMessage> expected = new ArrayList<>();
+        new AISInputStreamReader(sample(), expected::add).run();
+
+        List<AISMessage> actual = new ArrayList<>();
+        PipelinedAISInputStreamReader reader = new PipelinedAISInputStreamReader(sample(), 3, 4, actual::addAll);
+        reader.run();
+
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).getSourceMmsi(), actual.get(i).getSourceMmsi());
+            assertEquals(expected.get(i).getMetadata().bitString(), actual.get(i).getMetadata().bitString());
+        }
+        assertEquals(expected.size(), reader.getNumberOfMessages());
+        assertEquals(0, reader.getQueueDepth());
+        assertTrue(reader.getMaxQueueDepth() >= 1 && reader.getMaxQueueDepth() <= 4);
+        assertTrue(reader.getNumberOfConsumerStalls() >= 1);
+    }
+
+    @Test
+    public void testTrackerIsUpdatedAsBySerialReading() throws Exception {
+        AISTracker serialTracker = new AISTracker();
+        new AISInputStreamReader(sample(), message -> {
+            try {
+                serialTracker.update(message);
+            } catch (IllegalArgumentException e) {
+            }
+        }).run();
+        serialTracker.shutdown();
+
+        AISTracker pipelinedTracker = new AISTracker();
+        new PipelinedAISInputStreamReader(sample(), 2, 64, pipelinedTracker::update).run();
+        pipelinedTracker.shutdown();
+
+        assertEquals(serialTracker.getNumberOfAisTracks(), pipelinedTracker.getNumberOfAisTracks());
+        assertTrue(pipelinedTracker.getNumberOfRejectedMessages() > 0);
+        serialTracker.getAisTracks().forEach(track -> assertTrue(pipelinedTracker.isTracked(track.getMmsi())));
+    }
+
+    @Test
+    public void testInvalidAndIncompleteMessagesAreSkipped() throws Exception {
+        String nmea =
+            "!AIVDM,1,1,,A,18UG;P0012G?Uq4EdHa=c;7@051@,0*53\n" +
+            "this is not nmea\n" +
+            "!AIVDM,2,2,6,B,QH888888880,2*38\n" +
+            "!AIVDM,2,1,6,B,55NOpt400001L@O?;G0HuE9@R15D59@E:222220O0p>4440Ht6hhjH4QDiDU,0*46\n" +
+            "!AIVDM,2,2,6,B,QH888888880,2*38\n" +
+            "!AIVDM,1,1,,B,15NOpt0P00qQJLvA<K4HmwwL2<4T,0*11\n";
+
+        List<AISMessage> actual = new ArrayList<>();
+        PipelinedAISInputStreamReader reader = new PipelinedAISInputStreamReader(new ByteArrayInputStream(nmea.getBytes()), 1, 1, actual::addAll);
+        reader.run();
+
+        assertEquals(3, actual.size());
+        assertEquals(576048000, actual.get(0).getSourceMmsi().getMmsi());
+        assertEquals(367524080, actual.get(1).getSourceMmsi().getMmsi());
+        assertEquals(367524080, actual.get(2).getSourceMmsi().getMmsi());
+        assertEquals(1, reader.getNumberOfInvalidMessages());
+    }
+
+    @Test
+    public void testConsumerStallIsCountedOncePerMessage() throws Exception {
+        PipedOutputStream output = new PipedOutputStream();
+        PipedInputStream input = new PipedInputStream(output);
+        Thread writer = Thread.ofPlatform().start(() -> {
+            try (output) {
+                for (int i = 0; i < 5; i++) {
+                    Thread.sleep(20);
+                    output.write("!AIVDM,1,1,,A,18UG;P0012G?Uq4EdHa=c;7@051@,0*53\n".getBytes());
+                    output.flush();
+                }
+            } catch (IOException | InterruptedException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        List<AISMessage> actual = new ArrayList<>();
+        PipelinedAISInputStreamReader reader = new PipelinedAISInputStreamReader(input, 1, 4, actual::addAll);
+        reader.run();
+        writer.join();
+
+        // The consumer waits for each message, and possibly for the end of the input
+        assertEquals(5, actual.size());
+        assertTrue(reader.getNumberOfConsumerStalls() >= 5 && reader.getNumberOfConsumerStalls() <= 6, "stalls " + reader.getNumberOfConsumerStalls());
+    }
+
+    @Test
+    public void testStopEndsReadBlockedOnSilentInput() throws Exception {
+        PipedOutputStream silentOutput = new PipedOutputStream();
+        PipelinedAISInputStreamReader reader = new PipelinedAISInputStreamReader(new PipedInputStream(silentOutput), 1, 4, batch -> {});
+        Thread stopper = Thread.ofPlatform().start(() -> {
+            try {
+                Thread.sleep(100);
+            } catch (InterruptedException e) {
+            }
+            reader.requestStop();
+        });
+        assertTimeoutPreemptively(Duration.ofSeconds(10), reader::run);
+        stopper.join();
+        assertTrue(reader.isStopRequested());
+    }
+
+    @Test
+    public void testInvalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new PipelinedAISInputStreamReader(sample(), 0, 10, batch -> {}));
+        assertThrows(IllegalArgumentException.class, () -> new PipelinedAISInputStreamReader(sample(), 1, 0, batch -> {}));
+        assertThrows(NullPointerException.class, () -> new PipelinedAISInputStreamReader(sample(), 1, 10, null));
+    }
+
+    private InputStream sample() {
+        return getClass().getClassLoader().getResourceAsStream("ais-sample-1.nmea");
+    }
+}
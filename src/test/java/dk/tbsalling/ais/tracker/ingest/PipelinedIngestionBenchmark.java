@@ -0,0 +1,62 @@
+package dk.tbsalling.ais.tracker.ingest;
+
+import dk.tbsalling.ais.tracker.AISTracker;
+import dk.tbsalling.aismessages.AISInputStreamReader;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.InputStream;
+
+/**
+ * Compares the throughput of feeding a tracker from an NMEA stream serially with feeding it through a
+ * PipelinedAISInputStreamReader with various no's of decoders.
+ *
+ * Run with: java -cp ... dk.tbsalling.ais.tracker.ingest.PipelinedIngestionBenchmark [no. of repetitions]
+ */
+public class PipelinedIngestionBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        final int repetitions = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        final byte[] nmea = loadNmea(repetitions);
+
+        for (int round = 0; round < 5; round++) {
+            System.out.println("Round " + round);
+
+            AISTracker serialTracker = new AISTracker();
+            long start = System.nanoTime();
+            new AISInputStreamReader(new ByteArrayInputStream(nmea), message -> {
+                try {
+                    serialTracker.update(message);
+                } catch (IllegalArgumentException e) {
+                }
+            }).run();
+            long serialNanos = System.nanoTime() - start;
+            serialTracker.shutdown();
+            System.out.printf("  %-12s %8d ms%n", "serial", serialNanos / 1_000_000);
+
+            for (int decoders : new int[] { 1, 2, 4 }) {
+                AISTracker pipelinedTracker = new AISTracker();
+                PipelinedAISInputStreamReader reader = new PipelinedAISInputStreamReader(new ByteArrayInputStream(nmea), decoders, 4096, pipelinedTracker::update);
+                start = System.nanoTime();
+                reader.run();
+                long pipelinedNanos = System.nanoTime() - start;
+                pipelinedTracker.shutdown();
+                System.out.printf("  %-12s %8d ms  speedup %.2f  max depth %d  reader stalls %d (%d ms)  consumer stalls %d (%d ms)%n",
+                    decoders + " decoders", pipelinedNanos / 1_000_000, (double) serialNanos / pipelinedNanos, reader.getMaxQueueDepth(),
+                    reader.getNumberOfReaderStalls(), reader.getReaderStallTime().toMillis(),
+                    reader.getNumberOfConsumerStalls(), reader.getConsumerStallTime().toMillis());
+            }
+        }
+    }
+
+    private static byte[] loadNmea(int repetitions) throws Exception {
+        final byte[] sample;
+        try (InputStream inputStream = PipelinedIngestionBenchmark.class.getClassLoader().getResourceAsStream("ais-sample-1.nmea")) {
+            sample = inputStream.readAllBytes();
+        }
+        ByteArrayOutputStream nmea = new ByteArrayOutputStream(sample.length * repetitions);
+        for (int r = 0; r < repetitions; r++)
+            nmea.write(sample);
+        return nmea.toByteArray();
+    }
+}
@@ -0,0 +1,48 @@
+package dk.tbsalling.ais.tracker.ingest;
+
+import dk.tbsalling.ais.tracker.AISTracker;
+
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replays NMEA files into a tracker at increasing speed factors, and reports how far behind schedule the replay
+ * falls - to find the max speed factor the tracker keeps up with.
+ *
+ * Run with: java -cp ... dk.tbsalling.ais.tracker.ingest.TimeScaledReplayBenchmark [file ...]
+ *
+ * If no files are given, a file of the sample messages repeated with tag block times - 10 messages per second -
+ * is replayed.
+ */
+public class TimeScaledReplayBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        final List<Path> files = new ArrayList<>();
+        for (String arg : args)
+            files.add(Path.of(arg));
+        if (files.isEmpty())
+            files.add(FileReplayBenchmark.sampleFile(20));
+
+        final Duration tick = Duration.ofMillis(10);
+        // A replay which cannot keep up falls further behind; short spikes, e.g. while compiling, do not accumulate
+        final Duration maxFinalLag = tick.multipliedBy(10);
+        replay(files, 50_000, tick, maxFinalLag); // Warm up
+        for (double speed : new double[] { 1_000, 2_000, 5_000, 10_000, 50_000 })
+            replay(files, speed, tick, maxFinalLag);
+    }
+
+    private static void replay(List<Path> files, double speed, Duration tick, Duration maxFinalLag) throws Exception {
+        AISTracker tracker = new AISTracker();
+        TimeScaledReplay replay = new TimeScaledReplay(speed, tick, tracker::update);
+        long start = System.nanoTime();
+        new MappedAISFileReader(files, 1, 64 * 1024, replay).run();
+        double seconds = (System.nanoTime() - start) / 1e9;
+        tracker.shutdown();
+        System.out.printf("  %8.0fx  %6.2f s  %8.0f msgs/s  %6d ticks  lag %6d ms  max lag %6d ms  %s%n",
+            speed, seconds, replay.getNumberOfMessages() / seconds, replay.getNumberOfTicks(),
+            replay.getLag().toMillis(), replay.getMaxLag().toMillis(),
+            replay.getLag().compareTo(maxFinalLag) < 0 ? "keeps up" : "behind schedule");
+    }
+}
@@ -0,0 +1,87 @@
+package dk.tbsalling.ais.tracker.ingest;
+
+import dk.tbsalling.aismessages.ais.messages.AISMessage;
+import dk.tbsalling.aismessages.ais.messages.AISMessageFactory;
+import dk.tbsalling.aismessages.nmea.messages.NMEAMessage;
+import org.junit.jupiter.api.Test;
+
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TimeScaledReplayTest {
+
+    final Instant t0 = Instant.parse("2015-01-30T12:00:00Z");
+
+    @Test
+    public void testMessagesAreHandedOverTickByTickAtScaledTime() {
+        List<List<AISMessage>> batches = new ArrayList<>();
+        List<Long> times = new ArrayList<>();
+        TimeScaledReplay replay = new TimeScaledReplay(20, Duration.ofMillis(10), batch -> {
+            batches.add(batch);
+            times.add(System.nanoTime());
+        });
+
+        long start = System.nanoTime();
+        replay.accept(List.of(message(t0), message(t0.plusMillis(20)), message(t0.plusSeconds(1))));
+        replay.accept(List.of(message(t0.plusSeconds(2))));
+
+        assertEquals(List.of(2, 1, 1), batches.stream().map(List::size).toList());
+        // 2 s of recording at 20x takes 100 ms, and the last tick ends 10 ms later
+        assertTrue(times.get(1) - start >= Duration.ofMillis(50).toNanos());
+        assertTrue(times.get(2) - start >= Duration.ofMillis(110).toNanos());
+        assertEquals(4, replay.getNumberOfMessages());
+        assertEquals(3, replay.getNumberOfTicks());
+        assertEquals(t0.plusMillis(2200), replay.getReplayTime());
+        assertEquals(20, replay.getSpeed());
+    }
+
+    @Test
+    public void testLagIsMeasuredWhenConsumerCannotKeepUp() {
+        TimeScaledReplay replay = new TimeScaledReplay(1000, Duration.ofMillis(1), batch -> sleep(20));
+
+        List<AISMessage> messages = new ArrayList<>();
+        for (int i = 0; i < 10; i++)
+            messages.add(message(t0.plusSeconds(i)));
+        replay.accept(messages);
+
+        assertEquals(10, replay.getNumberOfTicks());
+        assertTrue(replay.getMaxLag().compareTo(Duration.ofMillis(100)) >= 0, replay.getMaxLag().toString());
+        assertTrue(replay.getLag().compareTo(Duration.ofMillis(100)) >= 0, replay.getLag().toString());
+    }
+
+    @Test
+    public void testLateMessagesJoinThePendingTick() {
+        List<List<AISMessage>> batches = new ArrayList<>();
+        TimeScaledReplay replay = new TimeScaledReplay(100, Duration.ofMillis(10), batches::add);
+
+        replay.accept(List.of(message(t0), message(t0.plusSeconds(2)), message(t0.plusSeconds(1)), message(t0.minusSeconds(1))));
+
+        assertEquals(List.of(1, 3), batches.stream().map(List::size).toList());
+        assertTrue(replay.getMaxLag().compareTo(Duration.ofMillis(10)) < 0, replay.getMaxLag().toString());
+    }
+
+    @Test
+    public void testInvalidArguments() {
+        assertThrows(IllegalArgumentException.class, () -> new TimeScaledReplay(0, Duration.ofMillis(10), batch -> {}));
+        assertThrows(IllegalArgumentException.class, () -> new TimeScaledReplay(Double.NaN, Duration.ofMillis(10), batch -> {}));
+        assertThrows(IllegalArgumentException.class, () -> new TimeScaledReplay(Double.POSITIVE_INFINITY, Duration.ofMillis(10), batch -> {}));
+        assertThrows(IllegalArgumentException.class, () -> new TimeScaledReplay(1, Duration.ZERO, batch -> {}));
+        assertThrows(NullPointerException.class, () -> new TimeScaledReplay(1, Duration.ofMillis(10), null));
+    }
+
+    private static AISMessage message(Instant received) {
+        return AISMessageFactory.create(received, "SRC", null, new NMEAMessage("!AIVDM,1,1,,A,18UG;P0012G?Uq4EdHa=c;7@051@,0*53"));
+    }
+
+    private static void sleep(long millis) {
+        try {
+            Thread.sleep(millis);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}